@@ -0,0 +1,38 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * An IntIterator that can also copy many integers at once into an array.
+ * Runs and literal words are decoded in tight loops, without a method call
+ * per integer: this is the fastest way to materialize the content of a
+ * bitmap. These iterators can also skip ahead (see SkippableIntIterator).
+ *
+ * <pre>
+ * int[] batch = new int[256];
+ * BatchIntIterator i = bitmap.batchIntIterator();
+ * int n;
+ * while ((n = i.nextBatch(batch, 0, batch.length)) &gt; 0) {
+ *     // process batch[0], ..., batch[n - 1]
+ * }
+ * </pre>
+ *
+ * @since 0.9.2
+ */
+public interface BatchIntIterator extends SkippableIntIterator {
+
+    /**
+     * Copies up to max of the next integers into dest[offset],
+     * dest[offset + 1], ... Calls to nextBatch and next can be mixed.
+     *
+     * @param dest   where the integers are written
+     * @param offset index of the first integer written in dest
+     * @param max    maximal number of integers to write
+     * @return the number of integers written, smaller than max only if
+     * the iterator is exhausted
+     */
+    int nextBatch(int[] dest, int offset, int max);
+}
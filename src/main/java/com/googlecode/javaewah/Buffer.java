@@ -10,8 +10,14 @@ interface Buffer {
 	
 	long[] getWords();
 	
+	void writeLiteralWords(int start, int number, BitmapStorage container);
+	
+	void writeNegatedLiteralWords(int start, int number, BitmapStorage container);
+	
 	void clear();
 	
+	void reserve(int sizeInWords);
+	
 	void trim();
 	
 	void setWord(int position, long word);
@@ -40,6 +46,8 @@ interface Buffer {
 	
 	void collapse(int position, int length);
 	
+	void release();
+	
 	Buffer clone();
 
 }
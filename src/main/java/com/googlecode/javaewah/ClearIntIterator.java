@@ -13,7 +13,7 @@ import static com.googlecode.javaewah.EWAHCompressedBitmap.WORD_IN_BITS;
  *
  * @author Gregory Ssi-Yan-Kai
  */
-final class ClearIntIterator implements IntIterator {
+final class ClearIntIterator implements BatchIntIterator {
 
     private final EWAHIterator ewahIter;
     private final long sizeInBits;
@@ -62,6 +62,66 @@ final class ClearIntIterator implements IntIterator {
         return (int) answer;
     }
 
+    @Override
+    public int nextBatch(final int[] dest, final int offset, final int max) {
+        int count = 0;
+        while (count < max && this.hasNext) {
+            if (runningHasNext()) {
+                final long end = Math.min(this.runningLength, this.position + max - count);
+                while (this.position < end)
+                    dest[offset + count++] = (int) this.position++;
+            } else {
+                do {
+                    dest[offset + count++] = (int) this.literalPosition + Long.numberOfTrailingZeros(this.word);
+                    this.word &= this.word - 1;
+                } while (this.word != 0 && count < max);
+            }
+            this.hasNext = this.moveToNext();
+        }
+        return count;
+    }
+
+    @Override
+    public void advanceIfNeeded(final int minval) {
+        while (this.hasNext) {
+            if (runningHasNext()) {
+                if (minval < this.runningLength) {
+                    if (this.position < minval)
+                        this.position = minval;
+                    return;
+                }
+                this.position = this.runningLength;
+            } else {
+                if (minval <= this.literalPosition)
+                    return;
+                if (minval < this.literalPosition + WORD_IN_BITS) {
+                    this.word &= ~0l << (minval - this.literalPosition);
+                    if (this.word != 0)
+                        return;
+                }
+                this.word = 0;
+            }
+            skipLiteralWords(minval);
+            while (this.wordPosition == this.wordLength && this.ewahIter.hasNext()) {
+                final RunningLengthWord rlw = this.ewahIter.next();
+                final long end = this.position + WORD_IN_BITS
+                        * (rlw.getRunningLength() + rlw.getNumberOfLiteralWords());
+                setRunningLengthWord(rlw);
+                if (end > minval) {
+                    if (this.runningLength <= minval) {
+                        this.position = this.runningLength;
+                        skipLiteralWords(minval);
+                    }
+                    break;
+                }
+                // the whole marker precedes minval
+                this.position = end;
+                this.wordPosition = this.wordLength;
+            }
+            this.hasNext = this.moveToNext();
+        }
+    }
+
     private void setRunningLengthWord(RunningLengthWord rlw) {
         this.runningLength = Math.min(this.sizeInBits,
                                       WORD_IN_BITS * rlw.getRunningLength() + this.position);
@@ -73,6 +133,19 @@ final class ClearIntIterator implements IntIterator {
         this.wordLength = this.wordPosition + rlw.getNumberOfLiteralWords();
     }
 
+    /**
+     * Skips the literal words of the current running length word that
+     * precede minval.
+     */
+    private void skipLiteralWords(final int minval) {
+        if (minval > this.position) {
+            final int skip = (int) Math.min((minval - this.position) / WORD_IN_BITS,
+                    this.wordLength - this.wordPosition);
+            this.wordPosition += skip;
+            this.position += (long) skip * WORD_IN_BITS;
+        }
+    }
+
     private boolean runningHasNext() {
         return this.position < this.runningLength;
     }
@@ -5,10 +5,14 @@ package com.googlecode.javaewah;
  * Licensed under the Apache License, Version 2.0.
  */
 
+import com.googlecode.javaewah.datastructure.RadixSort;
 import com.googlecode.javaewah.symmetric.RunningBitmapMerge;
 import com.googlecode.javaewah.symmetric.ThresholdFuncBitmap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -130,10 +134,92 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      *                   created)
      */
     public EWAHCompressedBitmap(int bufferSize) {
-        this.buffer = new LongArray(bufferSize);
+        this(new LongArray(bufferSize));
+    }
+
+    /**
+     * Reads a bitmap written by serialize(ByteBuffer) or
+     * serialize(DataOutput), starting at the current position of the
+     * buffer. The words are copied: the content of the buffer can be
+     * modified afterward. The position of the buffer is advanced past the
+     * bitmap and its byte order is left unchanged.
+     *
+     * @param buffer the serialized bitmap
+     * @see ImmutableEWAHCompressedBitmap
+     * @since 0.9.2
+     */
+    public EWAHCompressedBitmap(final ByteBuffer buffer) {
+        final ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.sizeInBits = in.getLong();
+        final int sizeInWords = in.getInt();
+        final int rlwPosition = in.getInt();
+        final long[] words = new long[sizeInWords];
+        in.asLongBuffer().get(words);
+        this.buffer = new LongArray(sizeInWords + 1);
+        this.buffer.setWord(0, words[0]);
+        this.buffer.push_back(words, 1, sizeInWords - 1);
+        this.rlw = new RunningLengthWord(this.buffer, rlwPosition);
+        buffer.position(in.position() + sizeInWords * (WORD_IN_BITS / 8));
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param buffer where the words are stored
+     */
+    private EWAHCompressedBitmap(final Buffer buffer) {
+        this.buffer = buffer;
         this.rlw = new RunningLengthWord(this.buffer, 0);
     }
 
+    /**
+     * For internal use.
+     *
+     * @param buffer      where the words are stored
+     * @param rlwPosition position of the last running length word
+     * @param sizeInBits  number of bits in the (uncompressed) bitmap
+     */
+    EWAHCompressedBitmap(final Buffer buffer, final int rlwPosition, final long sizeInBits) {
+        this.buffer = buffer;
+        this.rlw = new RunningLengthWord(this.buffer, rlwPosition);
+        this.sizeInBits = sizeInBits;
+    }
+
+    /**
+     * Creates an empty bitmap (no bit set to true) whose words are stored
+     * outside of the Java heap, in direct memory. All operations are
+     * supported, but the memory should be freed explicitly by calling
+     * release() once the bitmap is no longer needed.
+     * 
+     * The bitmaps returned by the logical operations (and, or, ...) are
+     * stored on the Java heap: use andToContainer, orToContainer, ... with
+     * an off-heap container to keep the result off-heap.
+     *
+     * @param bufferSize number of 64-bit words reserved when the object is
+     *                   created
+     * @return an empty off-heap bitmap
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap offHeap(final int bufferSize) {
+        return new EWAHCompressedBitmap(new LongBufferWrapper(bufferSize));
+    }
+
+    /**
+     * Frees the memory of a bitmap created with offHeap(int), including the
+     * buffer used by the in-place operations. The bitmap must not be used
+     * afterward. This method has no effect on bitmaps
+     * stored on the Java heap: their memory is reclaimed by the garbage
+     * collector.
+     * 
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @since 0.9.2
+     */
+    public void release() {
+        this.buffer.release();
+        releaseScratch();
+    }
+
     /**
      * @param newData the word
      * @deprecated use addWord() instead.
@@ -189,6 +275,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      *                       be 64)
      */
     public void addWord(final long newData, final int bitsThatMatter) {
+        ++this.version;
         this.sizeInBits += bitsThatMatter;
         if (newData == 0) {
             insertEmptyWord(false);
@@ -228,6 +315,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      * @param newData the word
      */
     public void addLiteralWord(final long newData) {
+        ++this.version;
         this.sizeInBits += WORD_IN_BITS;
         insertLiteralWord(newData);
     }
@@ -244,6 +332,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
             this.rlw.position = this.buffer.sizeInWords() - 1;
             this.rlw.setNumberOfLiteralWords(1);
             this.buffer.push_back(newData);
+            return;
         }
         this.rlw.setNumberOfLiteralWords(numberSoFar + 1);
         this.buffer.push_back(newData);
@@ -261,6 +350,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
     @Override
     public void addStreamOfLiteralWords(final long[] data, final int start,
                                         final int number) {
+        ++this.version;
         int leftOverNumber = number;
         while (leftOverNumber > 0) {
             final int numberOfLiteralWords = this.rlw.getNumberOfLiteralWords();
@@ -268,8 +358,8 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
                     - numberOfLiteralWords ? leftOverNumber
                     : RunningLengthWord.LARGEST_LITERAL_COUNT - numberOfLiteralWords;
             this.rlw.setNumberOfLiteralWords(numberOfLiteralWords+ whatWeCanAdd);
+            this.buffer.push_back(data, start + number - leftOverNumber, whatWeCanAdd);
             leftOverNumber -= whatWeCanAdd;
-            this.buffer.push_back(data, start, whatWeCanAdd);
             this.sizeInBits += whatWeCanAdd * WORD_IN_BITS;
             if (leftOverNumber > 0) {
                 this.buffer.push_back(0);
@@ -289,6 +379,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      */
     @Override
     public void addStreamOfEmptyWords(final boolean v, long number) {
+        ++this.version;
         if (number == 0)
             return;
         this.sizeInBits += number * WORD_IN_BITS;
@@ -307,6 +398,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
     @Override
     public void addStreamOfNegatedLiteralWords(final long[] data,
                                                final int start, final int number) {
+        ++this.version;
         int leftOverNumber = number;
         while (leftOverNumber > 0) {
             final int numberOfLiteralWords = this.rlw.getNumberOfLiteralWords();
@@ -315,8 +407,8 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
                     : RunningLengthWord.LARGEST_LITERAL_COUNT
                     - numberOfLiteralWords;
             this.rlw.setNumberOfLiteralWords(numberOfLiteralWords + whatWeCanAdd);
+            this.buffer.negative_push_back(data, start + number - leftOverNumber, whatWeCanAdd);
             leftOverNumber -= whatWeCanAdd;
-            this.buffer.negative_push_back(data, start, whatWeCanAdd);
             this.sizeInBits += whatWeCanAdd * WORD_IN_BITS;
             if (leftOverNumber > 0) {
                 this.buffer.push_back(0);
@@ -325,6 +417,34 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
         }
     }
 
+    /**
+     * For internal use. Appends the words of another bitmap, as if they were
+     * added one by one: the first running length word of the other bitmap
+     * is merged with the last one of the current bitmap, and the following
+     * words are copied in bulk. The size in bits of the current bitmap
+     * should be a multiple of WORD_IN_BITS.
+     *
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @param other the bitmap to append (it will not be modified)
+     */
+    void append(final EWAHCompressedBitmap other) {
+        final long[] words = other.buffer.getWords();
+        final RunningLengthWord first = new RunningLengthWord(other.buffer, 0);
+        final long runningLength = first.getRunningLength();
+        final int literals = first.getNumberOfLiteralWords();
+        addStreamOfEmptyWords(first.getRunningBit(), runningLength);
+        addStreamOfLiteralWords(words, 1, literals);
+        final int start = literals + 1;
+        final int number = other.buffer.sizeInWords() - start;
+        if (number > 0) {
+            final int offset = this.buffer.sizeInWords() - start;
+            this.buffer.push_back(words, start, number);
+            this.rlw.position = other.rlw.position + offset;
+        }
+        this.sizeInBits += other.sizeInBits - (runningLength + literals) * WORD_IN_BITS;
+    }
+
     /**
      * Returns a new compressed bitmap containing the bitwise AND values of
      * the current bitmap with some other bitmap.
@@ -521,6 +641,77 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
         return counter.getCount();
     }
 
+    /**
+     * Returns a new compressed bitmap containing the bitwise AND NOT values
+     * of the current bitmap with the union of some other bitmaps: the bits
+     * of the current bitmap that are in none of the other bitmaps. This
+     * method is expected to be faster than computing the union first
+     * (e.g., with FastAggregation.or) and then calling andNot since the
+     * union is never materialized: the other bitmaps are skipped wherever
+     * the current bitmap is a run of zeros, and after its end.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param bitmaps the bitmaps to exclude (they will not be modified)
+     * @return the EWAH compressed bitmap
+     * @since 0.9.2
+     */
+    public EWAHCompressedBitmap andNotOr(final EWAHCompressedBitmap... bitmaps) {
+        final EWAHCompressedBitmap container = new EWAHCompressedBitmap(this.buffer.sizeInWords());
+        andNotOrToContainer(container, bitmaps);
+        return container;
+    }
+
+    /**
+     * Computes the bitwise AND NOT values of the current bitmap with the
+     * union of some other bitmaps (see andNotOr).
+     *
+     * The current bitmap is not modified.
+     *
+     * The content of the container is overwritten.
+     *
+     * @param container where to store the result
+     * @param bitmaps   the bitmaps to exclude (they will not be modified)
+     * @since 0.9.2
+     */
+    public void andNotOrToContainer(final BitmapStorage container,
+                                    final EWAHCompressedBitmap... bitmaps) {
+        container.clear();
+        final IteratingRLW[] exclusions = new IteratingRLW[bitmaps.length];
+        long sizeInBits = sizeInBits();
+        for (int k = 0; k < bitmaps.length; ++k) {
+            exclusions[k] = bitmaps[k].getIteratingRLW();
+            sizeInBits = Math.max(sizeInBits, bitmaps[k].sizeInBits());
+        }
+        final long sizeInWords = (sizeInBits() + WORD_IN_BITS - 1) / WORD_IN_BITS;
+        final int bufSize = (int) Math.max(1, Math.min(IteratorAggregation.DEFAULT_MAX_BUF_SIZE, sizeInWords));
+        final long written = IteratorAggregation.andNotOrToContainer(container, bufSize,
+                getIteratingRLW(), exclusions);
+        if (ADJUST_CONTAINER_SIZE_WHEN_AGGREGATING) {
+            final long missing = (sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS - written;
+            if (missing > 0)
+                container.addStreamOfEmptyWords(false, missing);
+            container.setSizeInBitsWithinLastWord(sizeInBits);
+        }
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND NOT of the
+     * values of the current bitmap with the union of some other bitmaps
+     * (see andNotOr), without materializing any bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param bitmaps the bitmaps to exclude (they will not be modified)
+     * @return the cardinality
+     * @since 0.9.2
+     */
+    public long andNotOrCardinality(final EWAHCompressedBitmap... bitmaps) {
+        final BitCounter counter = new BitCounter();
+        andNotOrToContainer(counter, bitmaps);
+        return counter.getCount();
+    }
+
     /**
      * reports the number of bits set to true. Running time is proportional
      * to compressed size (as reported by sizeInBytes).
@@ -547,9 +738,11 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      */
     @Override
     public void clear() {
+        ++this.version;
         this.sizeInBits = 0;
         this.buffer.clear();
         this.rlw.position = 0;
+        invalidateSkipIndex();
     }
 
     /*
@@ -563,6 +756,9 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
             clone.buffer = this.buffer.clone();
             clone.sizeInBits = this.sizeInBits;
             clone.rlw = new RunningLengthWord(clone.buffer, this.rlw.position);
+            clone.scratch = null;
+            if (this.skipIndex != null)
+                clone.skipIndex = new SkipIndex(this.skipIndex.getInterval());
         } catch (CloneNotSupportedException e) {
             e.printStackTrace(); // cannot happen
         }
@@ -571,6 +767,33 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
 
     /**
      * Serialize.
+     * 
+     * The format is, in little-endian byte order: the size in bits
+     * (64-bit integer), the number of words (32-bit integer), the position
+     * of the last running length word (32-bit integer), followed by the
+     * words (64-bit integers). It takes exactly serializedSizeInBytes()
+     * bytes and it can be read from other languages. The same format is
+     * used by serialize(ByteBuffer), and by writeExternal after a marker.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param out the DataOutput stream
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void serialize(DataOutput out) throws IOException {
+        final int sizeInWords = this.buffer.sizeInWords();
+        out.writeLong(Long.reverseBytes(this.sizeInBits));
+        out.writeInt(Integer.reverseBytes(sizeInWords));
+        out.writeInt(Integer.reverseBytes(this.rlw.position));
+        for (int k = 0; k < sizeInWords; ++k) {
+            out.writeLong(Long.reverseBytes(this.buffer.getWord(k)));
+        }
+    }
+
+    /**
+     * Serialize, in the format of serialize(DataOutput) preceded by
+     * SERIALIZATION_MARKER. It is the format used by writeExternal, and it
+     * is read back by deserialize(ObjectInput).
      *
      * The current bitmap is not modified.
      *
@@ -578,22 +801,87 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      * @throws IOException Signals that an I/O exception has occurred.
      */
     public void serialize(ObjectOutput out) throws IOException {
-        out.writeLong(this.sizeInBits);
-        out.writeObject(this.buffer);
-        out.writeInt(this.rlw.position);
+        out.writeLong(SERIALIZATION_MARKER);
+        serialize((DataOutput) out);
     }
     
     /**
-     * Deserialize.
+     * Serialize to a ByteBuffer, starting at its current position, in a
+     * format that can be read back without copying by the
+     * ImmutableEWAHCompressedBitmap class. The position of the buffer is
+     * advanced past the serialized bitmap. The format is the same as the
+     * one of serialize(DataOutput).
+     * 
+     * The current bitmap is not modified.
      *
-     * @param in the ObjectInput stream
+     * @param buffer where we write
+     * @since 0.9.2
+     */
+    public void serialize(ByteBuffer buffer) {
+        final ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(this.sizeInBits);
+        buffer.putInt(this.buffer.sizeInWords());
+        buffer.putInt(this.rlw.position);
+        for (int k = 0; k < this.buffer.sizeInWords(); ++k) {
+            buffer.putLong(this.buffer.getWord(k));
+        }
+        buffer.order(order);
+    }
+
+    /**
+     * Deserialize a bitmap written by serialize(DataOutput). The words are
+     * stored in the current buffer, so that a bitmap created with
+     * offHeap(int) remains off-heap.
+     *
+     * @param in the DataInput stream
      * @throws IOException Signals that an I/O exception has occurred.
-     * @throws ClassNotFoundException
+     */
+    public void deserialize(DataInput in) throws IOException {
+        ++this.version;
+        this.sizeInBits = Long.reverseBytes(in.readLong());
+        final int sizeInWords = Integer.reverseBytes(in.readInt());
+        final int rlwPosition = Integer.reverseBytes(in.readInt());
+        this.buffer.clear();
+        this.buffer.reserve(sizeInWords);
+        this.buffer.setWord(0, Long.reverseBytes(in.readLong()));
+        for (int k = 1; k < sizeInWords; ++k) {
+            this.buffer.push_back(Long.reverseBytes(in.readLong()));
+        }
+        this.rlw = new RunningLengthWord(this.buffer, rlwPosition);
+        invalidateSkipIndex();
+    }
+
+    /**
+     * Deserialize a bitmap written by serialize(ObjectOutput) or
+     * writeExternal. Bitmaps written by these methods in versions before
+     * 0.9.2 (where the words were written as a serialized object) can also
+     * be read. The words are stored in the current buffer.
+     *
+     * @param in the ObjectInput stream
+     * @throws IOException            Signals that an I/O exception has occurred.
+     * @throws ClassNotFoundException if the stream is not a serialized bitmap
      */
     public void deserialize(ObjectInput in) throws IOException, ClassNotFoundException {
-        this.sizeInBits = in.readLong();
-        this.buffer = (Buffer) in.readObject();
+        final long header = in.readLong();
+        if (header == SERIALIZATION_MARKER) {
+            deserialize((DataInput) in);
+            return;
+        }
+        // earlier format: the size in bits, the buffer as an object and the
+        // position of the last running length word
+        ++this.version;
+        this.sizeInBits = header;
+        final Buffer words = (Buffer) in.readObject();
+        final int sizeInWords = words.sizeInWords();
+        this.buffer.clear();
+        this.buffer.reserve(sizeInWords);
+        this.buffer.setWord(0, words.getWord(0));
+        for (int k = 1; k < sizeInWords; ++k) {
+            this.buffer.push_back(words.getWord(k));
+        }
         this.rlw = new RunningLengthWord(this.buffer, in.readInt());
+        invalidateSkipIndex();
     }
 
     /**
@@ -670,6 +958,43 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
         return new EWAHIterator(this.buffer);
     }
 
+    /**
+     * For internal use. Creates an iterator positioned at the given
+     * (uncompressed) word. The running length words that precede the word
+     * are visited, starting from the closest sample of the skip index if it
+     * is enabled. The running length words added since the last call to
+     * updateSkipIndex are not sampled. Since the bitmap is only read, this
+     * method can be called from several threads at once.
+     *
+     * @param word the word
+     * @return the iterator
+     */
+    IteratingBufferedRunningLengthWord iteratorAt(final long word) {
+        int position = 0;
+        long offset = 0;
+        final SkipIndex index = this.skipIndex;
+        if (index != null) {
+            final int s = index.find(word);
+            position = index.getPosition(s);
+            offset = index.getOffset(s);
+        }
+        final IteratingBufferedRunningLengthWord i = new IteratingBufferedRunningLengthWord(
+                new EWAHIterator(this.buffer, position));
+        i.discardFirstWords((word - offset));
+        return i;
+    }
+
+    /**
+     * For internal use. Samples the running length words added to the
+     * bitmap since the skip index, if it is enabled, was last updated.
+     * Like lookups, it can be called while other threads read the bitmap.
+     */
+    void updateSkipIndex() {
+        final SkipIndex index = this.skipIndex;
+        if (index != null)
+            index.update(this.buffer);
+    }
+
     /**
      * Gets a ReverseEWAHIterator over the data. This is a customized iterator
      * which iterates over run length words in reverse order. For experts only.
@@ -852,6 +1177,46 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
         return new ClearIntIterator(this.getEWAHIterator(), this.sizeInBits);
     }
 
+    /**
+     * Same as intIterator, except that the returned iterator can also copy
+     * many set bits at once into an array (see BatchIntIterator).
+     *
+     * The current bitmap is not modified.
+     *
+     * @return the batch iterator
+     * @since 0.9.2
+     */
+    public BatchIntIterator batchIntIterator() {
+        return new IntIteratorImpl(this.getEWAHIterator());
+    }
+
+    /**
+     * Same as reverseIntIterator, except that the returned iterator can
+     * also copy many set bits at once into an array (see
+     * BatchIntIterator).
+     *
+     * The current bitmap is not modified.
+     *
+     * @return the batch iterator
+     * @since 0.9.2
+     */
+    public BatchIntIterator reverseBatchIntIterator() {
+        return new ReverseIntIterator(this.getReverseEWAHIterator(), this.sizeInBits);
+    }
+
+    /**
+     * Same as clearIntIterator, except that the returned iterator can also
+     * copy many clear bits at once into an array (see BatchIntIterator).
+     *
+     * The current bitmap is not modified.
+     *
+     * @return the batch iterator
+     * @since 0.9.2
+     */
+    public BatchIntIterator clearBatchIntIterator() {
+        return new ClearIntIterator(this.getEWAHIterator(), this.sizeInBits);
+    }
+
     /**
      * Iterator over the chunk of bits.
      *
@@ -906,6 +1271,8 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      */
     @Override
     public void not() {
+        ++this.version;
+        invalidateSkipIndex();
         final EWAHIterator i = this.getEWAHIterator();
         if (!i.hasNext())
             return;
@@ -1074,24 +1441,26 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
     }
 
     /**
-     * Report the number of bytes required to serialize this bitmap
+     * Report the exact number of bytes required to serialize this bitmap
+     * with serialize(DataOutput) or serialize(ByteBuffer).
      * 
      * The current bitmap is not modified.
      *
      * @return the size in bytes
      */
     public int serializedSizeInBytes() {
-        return this.sizeInBytes() + 3 * 4;
+        return this.sizeInBytes() + 8 + 2 * 4;
     }
 
     /**
      * Query the value of a single bit. Relying on this method when speed is
      * needed is discouraged. The complexity is linear with the size of the
-     * bitmap.
+     * bitmap, unless the skip index is enabled (see enableSkipIndex).
      * 
      * (This implementation is based on zhenjl's Go version of JavaEWAH.)
      * 
-     * The current bitmap is not modified.
+     * The current bitmap is not modified (though the skip index might be
+     * updated).
      *
      * @param i the bit we are interested in
      * @return whether the bit is set to true
@@ -1099,23 +1468,190 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
     public boolean get(final long i) {
         if ((i < 0) || (i >= this.sizeInBits))
             return false;
-        long wordChecked = 0;
-        final IteratingRLW j = getIteratingRLW();
         final long wordi = i / WORD_IN_BITS;
-        while (wordChecked <= wordi) {
-            wordChecked += j.getRunningLength();
+        int pos = 0;
+        long wordChecked = 0;
+        final SkipIndex index = this.skipIndex;
+        if (index != null) {
+            final int k = index.locate(this.buffer, wordi);
+            pos = index.getPosition(k);
+            wordChecked = index.getOffset(k);
+        }
+        while (pos < this.buffer.sizeInWords()) {
+            wordChecked += RunningLengthWord.getRunningLength(this.buffer, pos);
             if (wordi < wordChecked) {
-                return j.getRunningBit();
+                return RunningLengthWord.getRunningBit(this.buffer, pos);
             }
-            if (wordi < wordChecked + j.getNumberOfLiteralWords()) {
-                final long w = j.getLiteralWordAt((int) (wordi - wordChecked));
+            final int lw = RunningLengthWord.getNumberOfLiteralWords(this.buffer, pos);
+            if (wordi < wordChecked + lw) {
+                final long w = this.buffer.getWord(pos + 1 + (int) (wordi - wordChecked));
                 return (w & (1l << i)) != 0;
             }
-            wordChecked += j.getNumberOfLiteralWords();
-            j.next();
+            wordChecked += lw;
+            pos += lw + 1;
         }
         return false;
     }
+
+    /**
+     * Returns the number of bits set to true at positions strictly smaller
+     * than i. In particular, rank(select(k)) is k.
+     * 
+     * The first call enables the skip index (see enableSkipIndex), unless
+     * it is already enabled: building it takes time proportional to the
+     * compressed size, and later calls take time proportional to the
+     * logarithm of the compressed size plus the interval.
+     * 
+     * The current bitmap is not modified (though the skip index might be
+     * created or updated).
+     *
+     * @param i the position
+     * @return the number of set bits before position i
+     * @since 0.9.2
+     */
+    public long rank(final long i) {
+        if (i <= 0)
+            return 0;
+        final long wordi = i / WORD_IN_BITS;
+        final int biti = (int) (i % WORD_IN_BITS);
+        final SkipIndex index = skipIndexForRanking();
+        final int k = index.locate(this.buffer, wordi);
+        int pos = index.getPosition(k);
+        long words = index.getOffset(k);
+        long count = index.getCardinality(k);
+        while (pos < this.buffer.sizeInWords()) {
+            final long rl = RunningLengthWord.getRunningLength(this.buffer, pos);
+            final boolean rb = RunningLengthWord.getRunningBit(this.buffer, pos);
+            if (wordi < words + rl) {
+                return rb ? count + (wordi - words) * WORD_IN_BITS + biti : count;
+            }
+            if (rb)
+                count += rl * WORD_IN_BITS;
+            words += rl;
+            final int lw = RunningLengthWord.getNumberOfLiteralWords(this.buffer, pos);
+            for (int j = 1; j <= lw; ++j, ++words) {
+                final long w = this.buffer.getWord(pos + j);
+                if (wordi == words) {
+                    return count + Long.bitCount(w & ((1l << biti) - 1));
+                }
+                count += Long.bitCount(w);
+            }
+            pos += lw + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the position of the set bit of rank k: select(0) is the first
+     * set bit, select(1) the second one and so on. If the bitmap has no
+     * more than k set bits, -1 is returned.
+     * 
+     * The first call enables the skip index (see enableSkipIndex), unless
+     * it is already enabled: building it takes time proportional to the
+     * compressed size, and later calls take time proportional to the
+     * logarithm of the compressed size plus the interval.
+     * 
+     * The current bitmap is not modified (though the skip index might be
+     * created or updated).
+     *
+     * @param k the rank (starting at zero)
+     * @return the position of the set bit, or -1
+     * @since 0.9.2
+     */
+    public long select(final long k) {
+        if (k < 0)
+            return -1;
+        final SkipIndex index = skipIndexForRanking();
+        final int s = index.locateRank(this.buffer, k);
+        int pos = index.getPosition(s);
+        long words = index.getOffset(s);
+        long count = index.getCardinality(s);
+        while (pos < this.buffer.sizeInWords()) {
+            final long rl = RunningLengthWord.getRunningLength(this.buffer, pos);
+            if (RunningLengthWord.getRunningBit(this.buffer, pos)) {
+                if (k < count + rl * WORD_IN_BITS) {
+                    return words * WORD_IN_BITS + (k - count);
+                }
+                count += rl * WORD_IN_BITS;
+            }
+            words += rl;
+            final int lw = RunningLengthWord.getNumberOfLiteralWords(this.buffer, pos);
+            for (int j = 1; j <= lw; ++j, ++words) {
+                long w = this.buffer.getWord(pos + j);
+                final int bits = Long.bitCount(w);
+                if (k < count + bits) {
+                    for (long r = k - count; r > 0; --r)
+                        w &= w - 1;
+                    return words * WORD_IN_BITS + Long.numberOfTrailingZeros(w);
+                }
+                count += bits;
+            }
+            pos += lw + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Enables a sampled index over the running length words of this bitmap
+     * so that get, set, clear, rank and select take time proportional to
+     * the logarithm of the compressed size plus the interval, instead of
+     * time proportional to the compressed size. The index is built lazily,
+     * on the first lookup, and it is updated as the bitmap is modified. It
+     * uses about 20 bytes every "interval" running length words: larger
+     * intervals use less memory but make lookups slower. If the index is
+     * not enabled, rank and select enable it with an interval of 32.
+     * 
+     * The index is not serialized and it is not carried over to the
+     * results of logical operations. A clone gets its own index, with the
+     * same interval.
+     * 
+     * Since this modifies the bitmap, this method is not thread-safe.
+     * Lookups might update the index, but these updates are synchronized:
+     * as before, a bitmap that is no longer modified can be read from
+     * several threads at once.
+     *
+     * @param interval number of running length words between two samples
+     *                 (e.g., 32)
+     * @since 0.9.2
+     */
+    public void enableSkipIndex(final int interval) {
+        this.skipIndex = new SkipIndex(interval);
+    }
+
+    /**
+     * Removes the index created by enableSkipIndex, freeing its memory.
+     *
+     * @since 0.9.2
+     */
+    public void disableSkipIndex() {
+        this.skipIndex = null;
+    }
+
+    /**
+     * For internal use: returns the skip index, enabling it with the
+     * default interval if needed. Threads racing to enable it might each
+     * build an index, but every one of them is valid for the bitmap, which
+     * is not modified while it is read.
+     *
+     * @return the skip index
+     */
+    private SkipIndex skipIndexForRanking() {
+        SkipIndex index = this.skipIndex;
+        if (index == null) {
+            index = new SkipIndex(DEFAULT_SKIP_INDEX_INTERVAL);
+            this.skipIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * For internal use: must be called when running length words are
+     * inserted or removed anywhere but at the end of the bitmap.
+     */
+    private void invalidateSkipIndex() {
+        if (this.skipIndex != null)
+            this.skipIndex.reset();
+    }
     
     /**
      * getFirstSetBit is a light-weight method that returns the
@@ -1133,17 +1669,249 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
            }
            nword  += rl;
            long lw = RunningLengthWord.getNumberOfLiteralWords(this.buffer, pos);
-           if(lw > 0) {
-               long word = this.buffer.getWord(pos + 1);
+           for(int k = 1; k <= lw; ++k) {
+               long word = this.buffer.getWord(pos + k);
                if(word != 0l) {
                    long T = word & -word;
-                   return nword * WORD_IN_BITS + Long.bitCount(T - 1);
+                   return (nword + k - 1) * WORD_IN_BITS + Long.bitCount(T - 1);
                }
            }
+           nword += lw;
+           pos += lw;
        }
         return -1;
     }
 
+    /**
+     * Returns the location of the last set bit (=1) or -1 if there is
+     * none. When the bitmap ends with a non-empty literal word or with a
+     * run of ones (the common case), this takes constant time.
+     * 
+     * The current bitmap is not modified.
+     *
+     * @return location of the last set bit or -1
+     * @since 0.9.2
+     */
+    public long getLastSetBit() {
+        final int lw = this.rlw.getNumberOfLiteralWords();
+        final long rl = this.rlw.getRunningLength();
+        final long words = (this.sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS - lw;
+        for (int j = lw; j > 0; --j) {
+            final long w = this.buffer.getWord(this.rlw.position + j);
+            if (w != 0) {
+                return (words + j) * WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(w);
+            }
+        }
+        if (rl > 0 && this.rlw.getRunningBit()) {
+            return Math.min(words * WORD_IN_BITS, this.sizeInBits) - 1;
+        }
+        return previousSetBit((words - rl) * WORD_IN_BITS - 1);
+    }
+
+    /**
+     * Returns the location of the first set bit (=1) that occurs on or
+     * after the specified position, or -1 if there is none (as in
+     * java.util.BitSet). Runs of clean words are skipped without being
+     * expanded.
+     * 
+     * The running time is proportional to the compressed size, unless the
+     * skip index is enabled (see enableSkipIndex).
+     * 
+     * The current bitmap is not modified (though the skip index might be
+     * updated).
+     *
+     * @param from the position to start checking from (inclusive)
+     * @return location of the next set bit or -1
+     * @throws IndexOutOfBoundsException if the specified position is negative
+     * @since 0.9.2
+     */
+    public long nextSetBit(final long from) {
+        final long answer = nextBit(from, true);
+        return answer < this.sizeInBits ? answer : -1;
+    }
+
+    /**
+     * Returns the location of the first bit set to false that occurs on or
+     * after the specified position (as in java.util.BitSet). Bits beyond
+     * sizeInBits() are considered to be false. Runs of clean words are
+     * skipped without being expanded.
+     * 
+     * The running time is proportional to the compressed size, unless the
+     * skip index is enabled (see enableSkipIndex).
+     * 
+     * The current bitmap is not modified (though the skip index might be
+     * updated).
+     *
+     * @param from the position to start checking from (inclusive)
+     * @return location of the next clear bit
+     * @throws IndexOutOfBoundsException if the specified position is negative
+     * @since 0.9.2
+     */
+    public long nextClearBit(final long from) {
+        final long answer = nextBit(from, false);
+        return (answer >= 0 && answer < this.sizeInBits) ? answer : Math.max(from, this.sizeInBits);
+    }
+
+    /**
+     * Returns the location of the last set bit (=1) that occurs on or before
+     * the specified position, or -1 if there is none (as in
+     * java.util.BitSet). Runs of clean words are skipped without being
+     * expanded.
+     * 
+     * The running time is proportional to the compressed size, unless the
+     * skip index is enabled (see enableSkipIndex).
+     * 
+     * The current bitmap is not modified (though the skip index might be
+     * updated).
+     *
+     * @param from the position to start checking from (inclusive)
+     * @return location of the previous set bit or -1
+     * @throws IndexOutOfBoundsException if the specified position is less
+     *                                   than -1
+     * @since 0.9.2
+     */
+    public long previousSetBit(final long from) {
+        if (from < -1)
+            throw new IndexOutOfBoundsException("from < -1: " + from);
+        return previousBit(Math.min(from, this.sizeInBits - 1), true);
+    }
+
+    /**
+     * Returns the location of the last bit set to false that occurs on or
+     * before the specified position, or -1 if there is none (as in
+     * java.util.BitSet). Bits beyond sizeInBits() are considered to be
+     * false. Runs of clean words are skipped without being expanded.
+     * 
+     * The running time is proportional to the compressed size, unless the
+     * skip index is enabled (see enableSkipIndex).
+     * 
+     * The current bitmap is not modified (though the skip index might be
+     * updated).
+     *
+     * @param from the position to start checking from (inclusive)
+     * @return location of the previous clear bit or -1
+     * @throws IndexOutOfBoundsException if the specified position is less
+     *                                   than -1
+     * @since 0.9.2
+     */
+    public long previousClearBit(final long from) {
+        if (from < -1)
+            throw new IndexOutOfBoundsException("from < -1: " + from);
+        if (from >= this.sizeInBits)
+            return from;
+        return previousBit(from, false);
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param from  the position to start checking from (inclusive)
+     * @param value whether we look for a set bit or for a clear bit
+     * @return location of the next bit having the value, or -1 if there is
+     * none among the words of the bitmap
+     */
+    private long nextBit(final long from, final boolean value) {
+        if (from < 0)
+            throw new IndexOutOfBoundsException("from < 0: " + from);
+        if (from >= this.sizeInBits)
+            return -1;
+        final long wordi = from / WORD_IN_BITS;
+        int pos = 0;
+        long words = 0;
+        final SkipIndex index = this.skipIndex;
+        if (index != null) {
+            final int k = index.locate(this.buffer, wordi);
+            pos = index.getPosition(k);
+            words = index.getOffset(k);
+        }
+        while (pos < this.buffer.sizeInWords()) {
+            final long rl = RunningLengthWord.getRunningLength(this.buffer, pos);
+            if (rl > 0 && words + rl > wordi && RunningLengthWord.getRunningBit(this.buffer, pos) == value) {
+                return Math.max(from, words * WORD_IN_BITS);
+            }
+            words += rl;
+            final int lw = RunningLengthWord.getNumberOfLiteralWords(this.buffer, pos);
+            for (int j = words < wordi ? (int) Math.min(wordi - words, lw) : 0; j < lw; ++j) {
+                long w = this.buffer.getWord(pos + 1 + j);
+                if (!value)
+                    w = ~w;
+                if (words + j == wordi)
+                    w &= ~0l << from;
+                if (w != 0)
+                    return (words + j) * WORD_IN_BITS + Long.numberOfTrailingZeros(w);
+            }
+            words += lw;
+            pos += lw + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param from  the position to start checking from (inclusive), smaller
+     *              than sizeInBits
+     * @param value whether we look for a set bit or for a clear bit
+     * @return location of the previous bit having the value, or -1
+     */
+    private long previousBit(final long from, final boolean value) {
+        if (from < 0)
+            return -1;
+        final SkipIndex index = this.skipIndex;
+        if (index == null)
+            return previousBit(from, value, 0, 0, this.buffer.sizeInWords());
+        final long wordi = from / WORD_IN_BITS;
+        int stop = this.buffer.sizeInWords();
+        for (int k = index.locate(this.buffer, wordi); k >= 0; --k) {
+            final int pos = index.getPosition(k);
+            final long answer = previousBit(from, value, pos, index.getOffset(k), stop);
+            if (answer >= 0)
+                return answer;
+            stop = pos;
+        }
+        return -1;
+    }
+
+    /**
+     * For internal use: scans the running length words from position pos
+     * to position stop (exclusive).
+     *
+     * @param from  the position to start checking from (inclusive)
+     * @param value whether we look for a set bit or for a clear bit
+     * @param pos   position of the first running length word to scan
+     * @param words number of (uncompressed) words preceding pos
+     * @param stop  where to stop the scan
+     * @return location of the previous bit having the value, or -1
+     */
+    private long previousBit(final long from, final boolean value, int pos, long words, final int stop) {
+        final long wordi = from / WORD_IN_BITS;
+        long answer = -1;
+        while (pos < stop && words <= wordi) {
+            final long rl = RunningLengthWord.getRunningLength(this.buffer, pos);
+            if (rl > 0 && RunningLengthWord.getRunningBit(this.buffer, pos) == value) {
+                answer = Math.min(from, (words + rl) * WORD_IN_BITS - 1);
+            }
+            words += rl;
+            if (words > wordi)
+                break;
+            final int lw = RunningLengthWord.getNumberOfLiteralWords(this.buffer, pos);
+            for (int j = (int) Math.min(lw - 1, wordi - words); j >= 0; --j) {
+                long w = this.buffer.getWord(pos + 1 + j);
+                if (!value)
+                    w = ~w;
+                if (words + j == wordi)
+                    w &= ~0l >>> (WORD_IN_BITS - 1 - from % WORD_IN_BITS);
+                if (w != 0) {
+                    answer = (words + j + 1) * WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(w);
+                    break;
+                }
+            }
+            words += lw;
+            pos += lw + 1;
+        }
+        return answer;
+    }
+
     /**
      * Set the bit at position i to false.
      * 
@@ -1182,7 +1950,192 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
     public boolean set(final long i) {
         return set(i, true);
     }
-    
+
+    /**
+     * Set the bits from position start (inclusive) to position end
+     * (exclusive) to true.
+     * 
+     * Appending a range at or after the end of the bitmap (start is at
+     * least sizeInBits()) only adds a few words. Otherwise, the bitmap is
+     * rewritten once, like with orInPlace: the running time is proportional
+     * to the compressed size, not to the length of the range.
+     * 
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @param start the first position (inclusive)
+     * @param end   the last position (exclusive)
+     * @throws IndexOutOfBoundsException if start is negative or larger than
+     *                                   end
+     * @since 0.9.2
+     */
+    public void addRange(final long start, final long end) {
+        ++this.version;
+        checkRange(start, end);
+        if (start == end)
+            return;
+        if (start >= this.sizeInBits) {
+            setSizeInBits(start, false);
+            setSizeInBits(end, true);
+            return;
+        }
+        orInPlace(range(start, end));
+    }
+
+    /**
+     * Set the bits from position start (inclusive) to position end
+     * (exclusive) to false. The size in bits of the bitmap is not
+     * modified.
+     * 
+     * The bitmap is rewritten once, like with andNotInPlace: the running
+     * time is proportional to the compressed size, not to the length of the
+     * range.
+     * 
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @param start the first position (inclusive)
+     * @param end   the last position (exclusive)
+     * @throws IndexOutOfBoundsException if start is negative or larger than
+     *                                   end
+     * @since 0.9.2
+     */
+    public void removeRange(final long start, final long end) {
+        ++this.version;
+        checkRange(start, end);
+        final long last = Math.min(end, this.sizeInBits);
+        if (start >= last)
+            return;
+        andNotInPlace(range(start, last));
+    }
+
+    /**
+     * Negate the bits from position start (inclusive) to position end
+     * (exclusive).
+     * 
+     * The bitmap is rewritten once, like with xorInPlace: the running time
+     * is proportional to the compressed size, not to the length of the
+     * range.
+     * 
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @param start the first position (inclusive)
+     * @param end   the last position (exclusive)
+     * @throws IndexOutOfBoundsException if start is negative or larger than
+     *                                   end
+     * @since 0.9.2
+     */
+    public void flipRange(final long start, final long end) {
+        ++this.version;
+        checkRange(start, end);
+        if (start == end)
+            return;
+        if (start >= this.sizeInBits) {
+            addRange(start, end);
+            return;
+        }
+        xorInPlace(range(start, end));
+    }
+
+    /**
+     * Returns a new compressed bitmap where the bits from position start
+     * (inclusive) to position end (exclusive) are set to true.
+     * 
+     * The running time is proportional to the compressed size, not to the
+     * length of the range.
+     * 
+     * The provided bitmap is not modified.
+     *
+     * @param bitmap the bitmap
+     * @param start  the first position (inclusive)
+     * @param end    the last position (exclusive)
+     * @return the new bitmap
+     * @throws IndexOutOfBoundsException if start is negative or larger than
+     *                                   end
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap addRange(final EWAHCompressedBitmap bitmap, final long start, final long end) {
+        checkRange(start, end);
+        if (start == end)
+            return bitmap.clone();
+        return bitmap.or(range(start, end));
+    }
+
+    /**
+     * Returns a new compressed bitmap where the bits from position start
+     * (inclusive) to position end (exclusive) are set to false.
+     * 
+     * The running time is proportional to the compressed size, not to the
+     * length of the range.
+     * 
+     * The provided bitmap is not modified.
+     *
+     * @param bitmap the bitmap
+     * @param start  the first position (inclusive)
+     * @param end    the last position (exclusive)
+     * @return the new bitmap
+     * @throws IndexOutOfBoundsException if start is negative or larger than
+     *                                   end
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap removeRange(final EWAHCompressedBitmap bitmap, final long start, final long end) {
+        checkRange(start, end);
+        final long last = Math.min(end, bitmap.sizeInBits);
+        if (start >= last)
+            return bitmap.clone();
+        return bitmap.andNot(range(start, last));
+    }
+
+    /**
+     * Returns a new compressed bitmap where the bits from position start
+     * (inclusive) to position end (exclusive) are negated.
+     * 
+     * The running time is proportional to the compressed size, not to the
+     * length of the range.
+     * 
+     * The provided bitmap is not modified.
+     *
+     * @param bitmap the bitmap
+     * @param start  the first position (inclusive)
+     * @param end    the last position (exclusive)
+     * @return the new bitmap
+     * @throws IndexOutOfBoundsException if start is negative or larger than
+     *                                   end
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap flipRange(final EWAHCompressedBitmap bitmap, final long start, final long end) {
+        checkRange(start, end);
+        if (start == end)
+            return bitmap.clone();
+        return bitmap.xor(range(start, end));
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param start the first position (inclusive)
+     * @param end   the last position (exclusive)
+     */
+    private static void checkRange(final long start, final long end) {
+        if (start < 0)
+            throw new IndexOutOfBoundsException("start < 0: " + start);
+        if (start > end)
+            throw new IndexOutOfBoundsException("start: " + start + " > end: " + end);
+    }
+
+    /**
+     * For internal use: a bitmap made of at most a few fill and literal
+     * words where only the bits from start to end (exclusive) are set.
+     *
+     * @param start the first position (inclusive)
+     * @param end   the last position (exclusive)
+     * @return the bitmap
+     */
+    private static EWAHCompressedBitmap range(final long start, final long end) {
+        final EWAHCompressedBitmap range = new EWAHCompressedBitmap(4);
+        range.setSizeInBits(start, false);
+        range.setSizeInBits(end, true);
+        return range;
+    }
+
     /**
      * For internal use.
      *
@@ -1190,6 +2143,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      * @param value the value 
      */
     private boolean set(long i, boolean value) {
+        ++this.version;
         if (i < this.sizeInBits) {
             locateAndSet(i, value);
         } else {
@@ -1242,7 +2196,14 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      */
     private void locateAndSet(long i, boolean value) {
         long nbits = 0;
-        for(int pos = 0; pos < this.buffer.sizeInWords(); ) {
+        int start = 0;
+        final SkipIndex index = this.skipIndex;
+        if (index != null) {
+            final int k = index.locate(this.buffer, i / WORD_IN_BITS);
+            start = index.getPosition(k);
+            nbits = index.getOffset(k) * WORD_IN_BITS;
+        }
+        for(int pos = start; pos < this.buffer.sizeInWords(); ) {
             long rl = RunningLengthWord.getRunningLength(this.buffer, pos);
             boolean rb = RunningLengthWord.getRunningBit(this.buffer, pos);
             long lw = RunningLengthWord.getNumberOfLiteralWords(this.buffer, pos);
@@ -1264,6 +2225,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
 
     private void setInRunningLength(boolean value, long i, long nbits, int pos, long rl, boolean rb, long lw) {
         if(value != rb) {
+            invalidateSkipIndex();
             int wordPosition = (int) ((i - nbits) / WORD_IN_BITS + 1);
             int addedWords = (wordPosition==rl) ? 1 : 2;
             this.buffer.expand(pos+1, addedWords);
@@ -1287,6 +2249,9 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
     private void setInLiteralWords(boolean value, long i, long nbits, int pos, long rl, boolean rb, long lw) {
         int wordPosition = (int) ((i - nbits) / WORD_IN_BITS + 1);
         long mask = 1l << i % WORD_IN_BITS;
+        if (this.skipIndex != null && ((this.buffer.getWord(pos + wordPosition) & mask) != 0) != value) {
+            this.skipIndex.adjust(pos, value ? 1 : -1);
+        }
         if(value) {
             this.buffer.orWord(pos + wordPosition, mask);
         } else {
@@ -1294,6 +2259,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
         }
         long emptyWord = value ? ~0l : 0l;
         if(this.buffer.getWord(pos + wordPosition) == emptyWord) {
+            invalidateSkipIndex();
             boolean canMergeInCurrentRLW = mergeLiteralWordInCurrentRunningLength(value, rb, rl, wordPosition);
             boolean canMergeInNextRLW = mergeLiteralWordInNextRunningLength(lw, pos, wordPosition);
             if(canMergeInCurrentRLW && canMergeInNextRLW) {
@@ -1352,6 +2318,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
 
     @Override
     public void setSizeInBitsWithinLastWord(final long size) {
+        ++this.version;
         if ((size + WORD_IN_BITS - 1) / WORD_IN_BITS != (this.sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS)
             throw new RuntimeException(
                     "You can only reduce the size of the bitmap within the scope of the last word. To extend the bitmap, please call setSizeInBits(int,boolean).");
@@ -1374,6 +2341,7 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
                     }
                     this.rlw.position = newrlwpos;
                     this.buffer.removeLastWord();
+                    invalidateSkipIndex();
                 } else {
                     this.rlw.setRunningLength(this.rlw
                             .getRunningLength() - 1);
@@ -1399,22 +2367,22 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      * @return true if the update was possible
      */
     public boolean setSizeInBits(final long size, final boolean defaultValue) {
+        ++this.version;
         if (size <= this.sizeInBits) {
             return false;
         }
         if ((this.sizeInBits % WORD_IN_BITS) != 0) {
             if (!defaultValue) {
-                if (this.rlw.getNumberOfLiteralWords() > 0) {
-                    final long bitsToAdd = size - this.sizeInBits;
-                    final int usedBitsInLast = (int) (this.sizeInBits % WORD_IN_BITS);
-                    final int freeBitsInLast = WORD_IN_BITS - usedBitsInLast;
-                    if (this.buffer.getLastWord() == 0l) {
-                        this.rlw.setNumberOfLiteralWords(this.rlw.getNumberOfLiteralWords() - 1);
-                        this.buffer.removeLastWord();
-                        this.sizeInBits -= usedBitsInLast;
-                    } else if (usedBitsInLast > 0) {
-                        this.sizeInBits += Math.min(bitsToAdd, freeBitsInLast);
-                    }
+                final long bitsToAdd = size - this.sizeInBits;
+                final int usedBitsInLast = (int) (this.sizeInBits % WORD_IN_BITS);
+                final int freeBitsInLast = WORD_IN_BITS - usedBitsInLast;
+                if ((this.rlw.getNumberOfLiteralWords() > 0) && (this.buffer.getLastWord() == 0l)) {
+                    this.rlw.setNumberOfLiteralWords(this.rlw.getNumberOfLiteralWords() - 1);
+                    this.buffer.removeLastWord();
+                    this.sizeInBits -= usedBitsInLast;
+                } else {
+                    // the free bits of the last word (literal or clean) are already zero
+                    this.sizeInBits += Math.min(bitsToAdd, freeBitsInLast);
                 }
             } else {
                 if (this.rlw.getNumberOfLiteralWords() == 0) {
@@ -1610,6 +2578,8 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      * @param other bitmap to swap with
      */
     public void swap(final EWAHCompressedBitmap other) {
+        ++this.version;
+        ++other.version;
         Buffer tmp = this.buffer;
         this.buffer = other.buffer;
         other.buffer = tmp;
@@ -1625,14 +2595,111 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
         long tmp4 = this.sizeInBits;
         this.sizeInBits = other.sizeInBits;
         other.sizeInBits = tmp4;
+
+        SkipIndex tmp5 = this.skipIndex;
+        this.skipIndex = other.skipIndex;
+        other.skipIndex = tmp5;
+    }
+
+    /**
+     * Replaces the content of the current bitmap by the bitwise AND
+     * values of the current bitmap with some other bitmap, like
+     * x = x.and(a) but reusing the buffers (see orInPlace).
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @since 0.9.2
+     */
+    public void andInPlace(final EWAHCompressedBitmap a) {
+        andToContainer(a, scratch(a));
+        swapWithScratch();
+    }
+
+    /**
+     * Replaces the content of the current bitmap by the bitwise OR
+     * values of the current bitmap with some other bitmap. It is equivalent
+     * to x = x.or(a) except that the result is written in a buffer kept
+     * by the current bitmap for this purpose, which is then swapped with the
+     * current buffer: once the buffers are large enough, repeated calls
+     * (e.g., to accumulate many bitmaps) allocate no new buffer. The
+     * additional buffer is released by trim().
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @since 0.9.2
+     */
+    public void orInPlace(final EWAHCompressedBitmap a) {
+        orToContainer(a, scratch(a));
+        swapWithScratch();
+    }
+
+    /**
+     * Replaces the content of the current bitmap by the bitwise XOR
+     * values of the current bitmap with some other bitmap, like
+     * x = x.xor(a) but reusing the buffers (see orInPlace).
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @since 0.9.2
+     */
+    public void xorInPlace(final EWAHCompressedBitmap a) {
+        xorToContainer(a, scratch(a));
+        swapWithScratch();
+    }
+
+    /**
+     * Replaces the content of the current bitmap by the bitwise AND NOT
+     * values of the current bitmap with some other bitmap, like
+     * x = x.andNot(a) but reusing the buffers (see orInPlace).
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @since 0.9.2
+     */
+    public void andNotInPlace(final EWAHCompressedBitmap a) {
+        andNotToContainer(a, scratch(a));
+        swapWithScratch();
+    }
+
+    /**
+     * @param a the other operand
+     * @return the bitmap in which in-place operations are computed
+     */
+    private EWAHCompressedBitmap scratch(final EWAHCompressedBitmap a) {
+        if (this.scratch == null) {
+            final int bufferSize = this.buffer.sizeInWords() + a.buffer.sizeInWords();
+            // an off-heap bitmap remains off-heap
+            this.scratch = this.buffer instanceof LongBufferWrapper ? offHeap(bufferSize)
+                    : new EWAHCompressedBitmap(bufferSize);
+        }
+        return this.scratch;
+    }
+
+    /**
+     * Exchanges the content of the current bitmap with the content of the
+     * scratch bitmap, keeping the skip index (if any).
+     */
+    private void swapWithScratch() {
+        swap(this.scratch);
+        this.skipIndex = this.scratch.skipIndex;
+        this.scratch.skipIndex = null;
+        invalidateSkipIndex();
     }
 
     /**
      * Reduce the internal buffer to its minimal allowable size. 
-     * This can free memory.
+     * This can free memory. The buffer used by the in-place operations
+     * (see orInPlace) is released.
      */
     public void trim() {
         this.buffer.trim();
+        releaseScratch();
+    }
+
+    /**
+     * Frees the buffer used by the in-place operations.
+     */
+    private void releaseScratch() {
+        if (this.scratch != null) {
+            this.scratch.release();
+            this.scratch = null;
+        }
     }
 
     /**
@@ -1722,6 +2789,129 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
         return counter.getCount();
     }
 
+    /**
+     * Computes the bitwise AND, OR and XOR of the current bitmap with some
+     * other bitmap in a single pass over both bitmaps. It is expected to be
+     * faster than calling andToContainer, orToContainer and xorToContainer
+     * in turn.
+     *
+     * Each container is optional (it can be null) and its content is
+     * overwritten. To compute only the cardinalities, BitCounter objects can
+     * be used as containers.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a            the other bitmap (it will not be modified)
+     * @param andContainer where to store the result of the AND (or null)
+     * @param orContainer  where to store the result of the OR (or null)
+     * @param xorContainer where to store the result of the XOR (or null)
+     * @since 0.9.2
+     */
+    public void andOrXorToContainers(final EWAHCompressedBitmap a,
+                                     final BitmapStorage andContainer, final BitmapStorage orContainer,
+                                     final BitmapStorage xorContainer) {
+        if (andContainer != null)
+            andContainer.clear();
+        if (orContainer != null)
+            orContainer.clear();
+        if (xorContainer != null)
+            xorContainer.clear();
+        final IteratingBufferedRunningLengthWord rlwi = new IteratingBufferedRunningLengthWord(a.getEWAHIterator());
+        final IteratingBufferedRunningLengthWord rlwj = new IteratingBufferedRunningLengthWord(getEWAHIterator());
+        while ((rlwi.size() > 0) && (rlwj.size() > 0)) {
+            while ((rlwi.getRunningLength() > 0) || (rlwj.getRunningLength() > 0)) {
+                final boolean i_is_prey = rlwi.getRunningLength() < rlwj.getRunningLength();
+                final IteratingBufferedRunningLengthWord prey = i_is_prey ? rlwi : rlwj;
+                final IteratingBufferedRunningLengthWord predator = i_is_prey ? rlwj : rlwi;
+                final long length = predator.getRunningLength();
+                if (predator.getRunningBit()) {
+                    // AND: the prey, OR: ones, XOR: the negated prey
+                    if (orContainer != null)
+                        orContainer.addStreamOfEmptyWords(true, length);
+                    final long index = dischargeToContainers(prey, length, andContainer, xorContainer, true);
+                    if (andContainer != null)
+                        andContainer.addStreamOfEmptyWords(false, length - index);
+                    if (xorContainer != null)
+                        xorContainer.addStreamOfEmptyWords(true, length - index);
+                } else {
+                    // AND: zeros, OR and XOR: the prey
+                    if (andContainer != null)
+                        andContainer.addStreamOfEmptyWords(false, length);
+                    final long index = dischargeToContainers(prey, length, orContainer, xorContainer, false);
+                    if (orContainer != null)
+                        orContainer.addStreamOfEmptyWords(false, length - index);
+                    if (xorContainer != null)
+                        xorContainer.addStreamOfEmptyWords(false, length - index);
+                }
+                predator.discardRunningWords();
+            }
+            final int nbre_literal = Math.min(rlwi.getNumberOfLiteralWords(), rlwj.getNumberOfLiteralWords());
+            if (nbre_literal > 0) {
+                for (int k = 0; k < nbre_literal; ++k) {
+                    final long wi = rlwi.getLiteralWordAt(k);
+                    final long wj = rlwj.getLiteralWordAt(k);
+                    if (andContainer != null)
+                        andContainer.addLiteralWord(wi & wj);
+                    if (orContainer != null)
+                        orContainer.addLiteralWord(wi | wj);
+                    if (xorContainer != null)
+                        xorContainer.addLiteralWord(wi ^ wj);
+                }
+                rlwi.discardFirstWords(nbre_literal);
+                rlwj.discardFirstWords(nbre_literal);
+            }
+        }
+        final IteratingBufferedRunningLengthWord remaining = rlwi.size() > 0 ? rlwi : rlwj;
+        final long remainingWords = dischargeToContainers(remaining, Long.MAX_VALUE, orContainer, xorContainer, false);
+        final long sizeInBits = Math.max(sizeInBits(), a.sizeInBits());
+        if (orContainer != null)
+            orContainer.setSizeInBitsWithinLastWord(sizeInBits);
+        if (xorContainer != null)
+            xorContainer.setSizeInBitsWithinLastWord(sizeInBits);
+        if (andContainer != null && ADJUST_CONTAINER_SIZE_WHEN_AGGREGATING) {
+            andContainer.addStreamOfEmptyWords(false, remainingWords);
+            andContainer.setSizeInBitsWithinLastWord(sizeInBits);
+        }
+    }
+
+    /**
+     * Writes out up to max words of an iterator to two optional containers,
+     * the words written to the second one being negated if requested.
+     *
+     * @param i         the iterator
+     * @param max       maximal number of words
+     * @param container first container (or null)
+     * @param other     second container (or null)
+     * @param negated   whether the words written to the second container
+     *                  are negated
+     * @return how many words were written
+     */
+    private static long dischargeToContainers(final IteratingBufferedRunningLengthWord i, final long max,
+                                              final BitmapStorage container, final BitmapStorage other,
+                                              final boolean negated) {
+        long index = 0;
+        while (index < max && i.size() > 0) {
+            final long runLength = Math.min(i.getRunningLength(), max - index);
+            if (runLength > 0) {
+                if (container != null)
+                    container.addStreamOfEmptyWords(i.getRunningBit(), runLength);
+                if (other != null)
+                    other.addStreamOfEmptyWords(i.getRunningBit() ^ negated, runLength);
+            }
+            final int literals = (int) Math.min(i.getNumberOfLiteralWords(), max - index - runLength);
+            for (int k = 0; k < literals; ++k) {
+                final long w = i.getLiteralWordAt(k);
+                if (container != null)
+                    container.addLiteralWord(w);
+                if (other != null)
+                    other.addLiteralWord(negated ? ~w : w);
+            }
+            index += runLength + literals;
+            i.discardFirstWords(runLength + literals);
+        }
+        return index;
+    }
+
     /**
      * Returns a new compressed bitmap containing the composition of
      * the current bitmap with some other bitmap.
@@ -1892,12 +3082,211 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      * @since 0.4.5
      */
     public static EWAHCompressedBitmap bitmapOf(int... setBits) {
+        boolean sorted = true;
+        for (int k = 0; sorted && k < setBits.length; ++k)
+            sorted = setBits[k] >= (k == 0 ? 0 : setBits[k - 1]);
+        if (sorted)
+            return bitmapOfSorted(setBits, 0, setBits.length);
         EWAHCompressedBitmap a = new EWAHCompressedBitmap();
         for (int k : setBits)
             a.set(k);
         return a;
     }
 
+    /**
+     * Return a bitmap with the bit set to true at the given positions. The
+     * positions must be non-negative and sorted in increasing order
+     * (duplicates are allowed). Set bits falling in the same word are packed
+     * together and appended as literal words, so that the running time is
+     * linear in the number of positions.
+     *
+     * @param setBits sorted list of set bit positions
+     * @return the bitmap
+     * @throws IllegalArgumentException if the positions are negative or not
+     *                                  sorted
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap bitmapOfSorted(final int[] setBits) {
+        return bitmapOfSorted(setBits, 0, setBits.length);
+    }
+
+    /**
+     * Return a bitmap with the bit set to true at the positions found in
+     * setBits[from], ..., setBits[to - 1]. The positions must be
+     * non-negative and sorted in increasing order (duplicates are allowed).
+     *
+     * @param setBits sorted list of set bit positions
+     * @param from    index of the first position (inclusive)
+     * @param to      index of the last position (exclusive)
+     * @return the bitmap
+     * @throws IllegalArgumentException if the positions are negative or not
+     *                                  sorted
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap bitmapOfSorted(final int[] setBits, final int from, final int to) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        if (from >= to)
+            return bitmap;
+        if (setBits[from] < 0)
+            throw new IllegalArgumentException("positions should be non-negative");
+        final long[] literals = new long[Math.min(to - from, BULK_BUFFER_SIZE)];
+        int count = 0;
+        long words = 0;
+        int previous = setBits[from];
+        int k = from;
+        while (k < to) {
+            final int wordIndex = setBits[k] / WORD_IN_BITS;
+            long word = 0;
+            do {
+                if (setBits[k] < previous)
+                    throw new IllegalArgumentException("positions should be sorted");
+                previous = setBits[k];
+                word |= 1l << previous;
+                ++k;
+            } while (k < to && setBits[k] / WORD_IN_BITS == wordIndex);
+            if (wordIndex > words) {
+                count = flushLiteralWords(bitmap, literals, count);
+                bitmap.addStreamOfEmptyWords(false, wordIndex - words);
+                words = wordIndex;
+            }
+            if (word == ~0l) {
+                count = flushLiteralWords(bitmap, literals, count);
+                bitmap.addStreamOfEmptyWords(true, 1);
+            } else {
+                if (count == literals.length)
+                    count = flushLiteralWords(bitmap, literals, count);
+                literals[count++] = word;
+            }
+            ++words;
+        }
+        flushLiteralWords(bitmap, literals, count);
+        bitmap.setSizeInBitsWithinLastWord(previous + 1l);
+        return bitmap;
+    }
+
+    /**
+     * Return a bitmap with the bit set to true at the given positions. The
+     * positions must be non-negative and sorted in increasing order
+     * (duplicates are allowed). Set bits falling in the same word are packed
+     * together and appended as literal words, so that the running time is
+     * linear in the number of positions.
+     *
+     * @param setBits sorted list of set bit positions
+     * @return the bitmap
+     * @throws IllegalArgumentException if the positions are negative or not
+     *                                  sorted
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap bitmapOfSorted(final long[] setBits) {
+        return bitmapOfSorted(setBits, 0, setBits.length);
+    }
+
+    /**
+     * Return a bitmap with the bit set to true at the positions found in
+     * setBits[from], ..., setBits[to - 1]. The positions must be
+     * non-negative and sorted in increasing order (duplicates are allowed).
+     *
+     * @param setBits sorted list of set bit positions
+     * @param from    index of the first position (inclusive)
+     * @param to      index of the last position (exclusive)
+     * @return the bitmap
+     * @throws IllegalArgumentException if the positions are negative or not
+     *                                  sorted
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap bitmapOfSorted(final long[] setBits, final int from, final int to) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        if (from >= to)
+            return bitmap;
+        if (setBits[from] < 0)
+            throw new IllegalArgumentException("positions should be non-negative");
+        final long[] literals = new long[Math.min(to - from, BULK_BUFFER_SIZE)];
+        int count = 0;
+        long words = 0;
+        long previous = setBits[from];
+        int k = from;
+        while (k < to) {
+            final long wordIndex = setBits[k] / WORD_IN_BITS;
+            long word = 0;
+            do {
+                if (setBits[k] < previous)
+                    throw new IllegalArgumentException("positions should be sorted");
+                previous = setBits[k];
+                word |= 1l << previous;
+                ++k;
+            } while (k < to && setBits[k] / WORD_IN_BITS == wordIndex);
+            if (wordIndex > words) {
+                count = flushLiteralWords(bitmap, literals, count);
+                bitmap.addStreamOfEmptyWords(false, wordIndex - words);
+                words = wordIndex;
+            }
+            if (word == ~0l) {
+                count = flushLiteralWords(bitmap, literals, count);
+                bitmap.addStreamOfEmptyWords(true, 1);
+            } else {
+                if (count == literals.length)
+                    count = flushLiteralWords(bitmap, literals, count);
+                literals[count++] = word;
+            }
+            ++words;
+        }
+        flushLiteralWords(bitmap, literals, count);
+        bitmap.setSizeInBitsWithinLastWord(previous + 1);
+        return bitmap;
+    }
+
+    /**
+     * Return a bitmap with the bit set to true at the given positions, given
+     * in any order. The positions are copied and sorted (radix sort) before
+     * calling bitmapOfSorted: this is much faster than setting the bits one
+     * by one when the positions are not sorted. The argument is not
+     * modified.
+     *
+     * @param setBits list of set bit positions
+     * @return the bitmap
+     * @throws IllegalArgumentException if a position is negative
+     * @see RadixSort
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap bitmapOfUnsorted(final int... setBits) {
+        final int[] sorted = setBits.clone();
+        RadixSort.sort(sorted, 0, sorted.length);
+        return bitmapOfSorted(sorted, 0, sorted.length);
+    }
+
+    /**
+     * Return a bitmap with the bit set to true at the given positions, given
+     * in any order. The positions are copied and sorted (radix sort) before
+     * calling bitmapOfSorted. The argument is not modified.
+     *
+     * @param setBits list of set bit positions
+     * @return the bitmap
+     * @throws IllegalArgumentException if a position is negative
+     * @see RadixSort
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap bitmapOfUnsorted(final long... setBits) {
+        final long[] sorted = setBits.clone();
+        RadixSort.sort(sorted, 0, sorted.length);
+        return bitmapOfSorted(sorted, 0, sorted.length);
+    }
+
+    /**
+     * For internal use: appends the literal words accumulated by
+     * bitmapOfSorted.
+     *
+     * @param bitmap   the bitmap being built
+     * @param literals the literal words
+     * @param count    how many literal words are in use
+     * @return the new number of literal words in use (0)
+     */
+    private static int flushLiteralWords(final EWAHCompressedBitmap bitmap, final long[] literals,
+                                         final int count) {
+        if (count > 0)
+            bitmap.addStreamOfLiteralWords(literals, 0, count);
+        return 0;
+    }
+
     /**
      * Uses an adaptive technique to compute the logical OR. Mostly for
      * internal use.
@@ -2041,6 +3430,29 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
      */
     private long sizeInBits = 0;
 
+    /**
+     * Optional index used for random access (null if disabled).
+     */
+    private volatile SkipIndex skipIndex = null;
+
+    /**
+     * Interval of the skip index created by rank and select when it is not
+     * enabled.
+     */
+    private static final int DEFAULT_SKIP_INDEX_INTERVAL = 32;
+
+    /**
+     * Buffer reused by the in-place operations such as orInPlace (null
+     * until needed).
+     */
+    private EWAHCompressedBitmap scratch = null;
+
+    /**
+     * Incremented whenever the bitmap might have been modified, so that
+     * cached results depending on it can be invalidated (see BitmapCache).
+     */
+    int version = 0;
+
     /**
      * whether we adjust after some aggregation by adding in zeroes *
      */
@@ -2053,4 +3465,16 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable,
 
     static final long serialVersionUID = 1L;
 
+    /**
+     * Written first by serialize(ObjectOutput). Earlier versions wrote the
+     * size in bits first, which cannot be negative.
+     */
+    private static final long SERIALIZATION_MARKER = -1L;
+
+    /**
+     * Number of literal words buffered by bitmapOfSorted before they are
+     * appended to the bitmap.
+     */
+    private static final int BULK_BUFFER_SIZE = 256;
+
 }
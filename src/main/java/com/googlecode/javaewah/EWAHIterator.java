@@ -25,6 +25,19 @@ public final class EWAHIterator implements Cloneable {
         this.pointer = 0;
     }
 
+    /**
+     * Instantiates a new EWAH iterator starting at a given running length
+     * word.
+     *
+     * @param buffer   the buffer
+     * @param position position of the running length word in the buffer
+     */
+    EWAHIterator(final Buffer buffer, final int position) {
+        this.rlw = new RunningLengthWord(buffer, position);
+        this.size = buffer.sizeInWords();
+        this.pointer = position;
+    }
+
     /**
      * Allow expert developers to instantiate an EWAHIterator.
      *
@@ -0,0 +1,300 @@
+package com.googlecode.javaewah;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Intersects one filter bitmap with many bitmaps (e.g., the bitmaps of the
+ * values of a dimension), as in a group-by query counting the rows of each
+ * value within the filter. The results are the same as calling
+ * filter.andCardinality (or filter.andToContainer) with each bitmap, but the
+ * filter is only decoded once.
+ *
+ * The filter is decoded one window of WINDOW_WORDS (uncompressed) words at a
+ * time, together with the number of set bits before each of its words, and
+ * all bitmaps are then streamed against the window: a run of ones is counted
+ * in constant time and a literal word with a single AND. Runs of zeros in
+ * the filter are skipped in all bitmaps at once.
+ *
+ * With an ExecutorService, the bitmaps are divided among one task per
+ * available processor, each task decoding the filter. The bitmaps must not
+ * be modified while a computation is in progress.
+ *
+ * @since 0.9.2
+ */
+public final class GroupedAggregation {
+
+    /** Private constructor to prevent instantiation */
+    private GroupedAggregation() {}
+
+    /**
+     * Computes the cardinality of the intersection of the filter with each
+     * bitmap.
+     *
+     * @param filter  the filter (it will not be modified)
+     * @param bitmaps the bitmaps (they will not be modified)
+     * @return the array C where C[i] is filter.andCardinality(bitmaps[i])
+     */
+    public static long[] andCardinalities(final EWAHCompressedBitmap filter,
+                                          final EWAHCompressedBitmap... bitmaps) {
+        final long[] counts = new long[bitmaps.length];
+        compute(filter, bitmaps, 0, bitmaps.length, counts, null);
+        return counts;
+    }
+
+    /**
+     * Computes the cardinality of the intersection of the filter with each
+     * bitmap in parallel.
+     *
+     * @param executor runs the tasks
+     * @param filter   the filter (it will not be modified)
+     * @param bitmaps  the bitmaps (they will not be modified)
+     * @return the array C where C[i] is filter.andCardinality(bitmaps[i])
+     */
+    public static long[] andCardinalities(final ExecutorService executor,
+                                          final EWAHCompressedBitmap filter,
+                                          final EWAHCompressedBitmap... bitmaps) {
+        final long[] counts = new long[bitmaps.length];
+        run(executor, filter, bitmaps, counts, null);
+        return counts;
+    }
+
+    /**
+     * Writes the intersection of the filter with each bitmap to a container.
+     * The containers are cleared first. With BitCounter containers, the
+     * cardinalities are accumulated as the filter is processed.
+     *
+     * @param filter     the filter (it will not be modified)
+     * @param containers where the results are written, one per bitmap
+     * @param bitmaps    the bitmaps (they will not be modified)
+     */
+    public static void andToContainers(final EWAHCompressedBitmap filter,
+                                       final BitmapStorage[] containers,
+                                       final EWAHCompressedBitmap... bitmaps) {
+        checkContainers(containers, bitmaps);
+        compute(filter, bitmaps, 0, bitmaps.length, null, containers);
+    }
+
+    /**
+     * Writes the intersection of the filter with each bitmap to a container
+     * in parallel. The containers are cleared first and each one is only
+     * accessed by one task.
+     *
+     * @param executor   runs the tasks
+     * @param filter     the filter (it will not be modified)
+     * @param containers where the results are written, one per bitmap
+     * @param bitmaps    the bitmaps (they will not be modified)
+     */
+    public static void andToContainers(final ExecutorService executor,
+                                       final EWAHCompressedBitmap filter,
+                                       final BitmapStorage[] containers,
+                                       final EWAHCompressedBitmap... bitmaps) {
+        checkContainers(containers, bitmaps);
+        run(executor, filter, bitmaps, null, containers);
+    }
+
+    private static void checkContainers(final BitmapStorage[] containers,
+                                        final EWAHCompressedBitmap[] bitmaps) {
+        if (containers.length != bitmaps.length)
+            throw new IllegalArgumentException("Expected " + bitmaps.length
+                    + " containers, got " + containers.length);
+    }
+
+    /**
+     * For internal use. Divides the bitmaps among tasks.
+     */
+    private static void run(final ExecutorService executor, final EWAHCompressedBitmap filter,
+                            final EWAHCompressedBitmap[] bitmaps, final long[] counts,
+                            final BitmapStorage[] containers) {
+        final int n = bitmaps.length;
+        final int tasks = Math.min(n, Runtime.getRuntime().availableProcessors());
+        if (tasks < 2) {
+            compute(filter, bitmaps, 0, n, counts, containers);
+            return;
+        }
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks);
+        for (int t = 0; t < tasks; ++t) {
+            final int from = (int) ((long) n * t / tasks);
+            final int to = (int) ((long) n * (t + 1) / tasks);
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    compute(filter, bitmaps, from, to, counts, containers);
+                    return null;
+                }
+            }));
+        }
+        FastAggregation.getAll(futures);
+    }
+
+    /**
+     * For internal use. Intersects the filter with bitmaps[from, to),
+     * writing the cardinalities to counts or the results to containers.
+     *
+     * @param filter     the filter
+     * @param bitmaps    the bitmaps
+     * @param from       the index of the first bitmap
+     * @param to         the index after the last bitmap
+     * @param counts     where the cardinalities are written (or null)
+     * @param containers where the results are written (or null)
+     */
+    private static void compute(final EWAHCompressedBitmap filter,
+                                final EWAHCompressedBitmap[] bitmaps, final int from, final int to,
+                                final long[] counts, final BitmapStorage[] containers) {
+        final IteratingRLW[] iterators = new IteratingRLW[to - from];
+        final long[] positions = new long[to - from];
+        for (int k = from; k < to; ++k) {
+            iterators[k - from] = bitmaps[k].getIteratingRLW();
+            if (containers != null)
+                containers[k].clear();
+        }
+        final long[] words = new long[WINDOW_WORDS];
+        // prefix[k] is the number of set bits in words[0, k)
+        final int[] prefix = new int[WINDOW_WORDS + 1];
+        final IteratingRLW f = filter.getIteratingRLW();
+        long window = 0;
+        while (f.size() > 0) {
+            if (!f.getRunningBit() && f.getRunningLength() > 0) {
+                window += f.getRunningLength();
+                f.discardRunningWords();
+                continue;
+            }
+            final int size = decode(f, words, prefix);
+            for (int k = 0; k < iterators.length; ++k) {
+                final IteratingRLW i = iterators[k];
+                if (positions[k] < window) {
+                    i.discardFirstWords(window - positions[k]);
+                    if (containers != null)
+                        containers[from + k].addStreamOfEmptyWords(false, window - positions[k]);
+                }
+                positions[k] = window + size;
+                if (containers == null)
+                    counts[from + k] += count(i, size, words, prefix);
+                else
+                    write(i, size, words, containers[from + k]);
+            }
+            window += size;
+        }
+        if (containers != null)
+            for (int k = 0; k < iterators.length; ++k) {
+                final BitmapStorage container = containers[from + k];
+                final IteratingRLW i = iterators[k];
+                if (positions[k] < window) {
+                    i.discardFirstWords(window - positions[k]);
+                    container.addStreamOfEmptyWords(false, window - positions[k]);
+                }
+                if (EWAHCompressedBitmap.ADJUST_CONTAINER_SIZE_WHEN_AGGREGATING) {
+                    while (i.size() > 0) {
+                        container.addStreamOfEmptyWords(false, i.size());
+                        i.discardFirstWords(i.size());
+                    }
+                    container.setSizeInBitsWithinLastWord(
+                            Math.max(filter.sizeInBits(), bitmaps[from + k].sizeInBits()));
+                }
+            }
+    }
+
+    /**
+     * For internal use. Copies the next WINDOW_WORDS words of the iterator
+     * (fewer if it ends sooner), computing the number of set bits before
+     * each word.
+     *
+     * @param i      the iterator
+     * @param words  where the words are copied
+     * @param prefix where the number of set bits before each word is written
+     * @return the number of words copied
+     */
+    private static int decode(final IteratingRLW i, final long[] words, final int[] prefix) {
+        int pos = 0;
+        while (pos < WINDOW_WORDS && i.size() > 0) {
+            final int runLength = (int) Math.min(i.getRunningLength(), WINDOW_WORDS - pos);
+            final long run = i.getRunningBit() ? ~0l : 0l;
+            final int runCount = i.getRunningBit() ? EWAHCompressedBitmap.WORD_IN_BITS : 0;
+            for (int k = pos; k < pos + runLength; ++k) {
+                words[k] = run;
+                prefix[k + 1] = prefix[k] + runCount;
+            }
+            pos += runLength;
+            final int literals = Math.min(i.getNumberOfLiteralWords(), WINDOW_WORDS - pos);
+            for (int k = pos; k < pos + literals; ++k) {
+                words[k] = i.getLiteralWordAt(k - pos);
+                prefix[k + 1] = prefix[k] + Long.bitCount(words[k]);
+            }
+            pos += literals;
+            i.discardFirstWords(runLength + literals);
+        }
+        return pos;
+    }
+
+    /**
+     * For internal use. Counts the set bits of the next words of the
+     * iterator that are also set in the window.
+     *
+     * @param i      the iterator
+     * @param size   the number of words in the window
+     * @param words  the window
+     * @param prefix the number of set bits before each word of the window
+     * @return the number of set bits in common
+     */
+    private static long count(final IteratingRLW i, final int size,
+                              final long[] words, final int[] prefix) {
+        long answer = 0;
+        int pos = 0;
+        while (pos < size && i.size() > 0) {
+            final int runLength = (int) Math.min(i.getRunningLength(), size - pos);
+            if (i.getRunningBit())
+                answer += prefix[pos + runLength] - prefix[pos];
+            pos += runLength;
+            final int literals = Math.min(i.getNumberOfLiteralWords(), size - pos);
+            for (int k = 0; k < literals; ++k)
+                answer += Long.bitCount(words[pos + k] & i.getLiteralWordAt(k));
+            pos += literals;
+            i.discardFirstWords(runLength + literals);
+        }
+        return answer;
+    }
+
+    /**
+     * For internal use. Writes the intersection of the next words of the
+     * iterator with the window to a container.
+     *
+     * @param i         the iterator
+     * @param size      the number of words in the window
+     * @param words     the window
+     * @param container where the result is written
+     */
+    private static void write(final IteratingRLW i, final int size,
+                              final long[] words, final BitmapStorage container) {
+        int pos = 0;
+        while (pos < size && i.size() > 0) {
+            final int runLength = (int) Math.min(i.getRunningLength(), size - pos);
+            if (i.getRunningBit()) {
+                for (int k = pos; k < pos + runLength; ++k)
+                    container.addWord(words[k]);
+            } else {
+                container.addStreamOfEmptyWords(false, runLength);
+            }
+            pos += runLength;
+            final int literals = Math.min(i.getNumberOfLiteralWords(), size - pos);
+            for (int k = 0; k < literals; ++k)
+                container.addWord(words[pos + k] & i.getLiteralWordAt(k));
+            pos += literals;
+            i.discardFirstWords(runLength + literals);
+        }
+        if (pos < size)
+            container.addStreamOfEmptyWords(false, size - pos);
+    }
+
+    /**
+     * Number of (uncompressed) words in a window.
+     */
+    private static final int WINDOW_WORDS = 1024;
+}
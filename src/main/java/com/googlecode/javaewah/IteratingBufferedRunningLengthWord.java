@@ -233,7 +233,7 @@ public final class IteratingBufferedRunningLengthWord implements IteratingRLW,
      * @param container where we write
      */
     public void writeLiteralWords(int numWords, BitmapStorage container) {
-        container.addStreamOfLiteralWords(this.buffer.getWords(), this.literalWordStartPosition, numWords);
+        this.buffer.writeLiteralWords(this.literalWordStartPosition, numWords, container);
     }
 
     /**
@@ -244,7 +244,7 @@ public final class IteratingBufferedRunningLengthWord implements IteratingRLW,
      * @param container where we write
      */
     public void writeNegatedLiteralWords(int numWords, BitmapStorage container) {
-        container.addStreamOfNegatedLiteralWords(this.buffer.getWords(), this.literalWordStartPosition, numWords);
+        this.buffer.writeNegatedLiteralWords(this.literalWordStartPosition, numWords, container);
     }
 
     /**
@@ -261,10 +261,9 @@ public final class IteratingBufferedRunningLengthWord implements IteratingRLW,
         for (; ; ) {
             final long runningLength = runningLengthWord.getRunningLength();
             container.addStreamOfEmptyWords(runningLengthWord.getRunningBit(), runningLength);
-            container.addStreamOfLiteralWords(iterator.buffer().getWords(),
+            iterator.buffer().writeLiteralWords(
                     iterator.literalWords() + runningLengthWord.literalWordOffset,
-                    runningLengthWord.getNumberOfLiteralWords()
-            );
+                    runningLengthWord.getNumberOfLiteralWords(), container);
             if (!iterator.hasNext())
                 break;
             runningLengthWord = new BufferedRunningLengthWord(iterator.next());
@@ -331,12 +331,92 @@ public final class IteratorAggregation {
         }
     }
 
+    /**
+     * Computes a AND NOT (b1 OR b2 OR ...) in one pass, without
+     * materializing the union of the b iterators. Where the first iterator
+     * is a run of zeros, the corresponding words of the other iterators are
+     * skipped; elsewhere, they are aggregated in a buffer of bufSize words
+     * at most. The computation stops as soon as the first iterator is
+     * exhausted.
+     *
+     * @param container where we write
+     * @param bufSize   size of the internal buffer in 64-bit words
+     * @param a         the iterator to filter
+     * @param b         the iterators to exclude
+     * @return the number of words written
+     */
+    public static long andNotOrToContainer(final BitmapStorage container,
+                                           final int bufSize, final IteratingRLW a, final IteratingRLW... b) {
+        final LinkedList<IteratingRLW> ll = new LinkedList<IteratingRLW>();
+        for (IteratingRLW i : b)
+            if (i.size() > 0)
+                ll.add(i);
+        final long[] hardBitmap = new long[bufSize];
+        long counter = 0;
+        while (a.size() > 0) {
+            if (ll.isEmpty())
+                return counter + discharge(container, a, Long.MAX_VALUE);
+            final long runLength = a.getRunningLength();
+            if (runLength > 0 && !a.getRunningBit()) {
+                container.addStreamOfEmptyWords(false, runLength);
+                counter += runLength;
+                a.discardFirstWords(runLength);
+                final Iterator<IteratingRLW> i = ll.iterator();
+                while (i.hasNext()) {
+                    final IteratingRLW rlw = i.next();
+                    rlw.discardFirstWords(runLength);
+                    if (rlw.size() == 0)
+                        i.remove();
+                }
+                continue;
+            }
+            // a run of ones (possibly empty) followed by literal words
+            final int length = (int) Math.min(bufSize, runLength + a.getNumberOfLiteralWords());
+            int effective = 0;
+            final Iterator<IteratingRLW> i = ll.iterator();
+            while (i.hasNext()) {
+                final IteratingRLW rlw = i.next();
+                effective = Math.max(effective, inplaceor(hardBitmap, length, rlw));
+                if (rlw.size() == 0)
+                    i.remove();
+            }
+            final int ones = (int) Math.min(runLength, length);
+            int k = 0;
+            for (; k < Math.min(ones, effective); ++k)
+                container.addWord(~hardBitmap[k]);
+            if (k < ones) {
+                container.addStreamOfEmptyWords(true, ones - k);
+                k = ones;
+            }
+            for (; k < length; ++k)
+                container.addWord(a.getLiteralWordAt(k - ones) & ~hardBitmap[k]);
+            Arrays.fill(hardBitmap, 0, effective, 0);
+            counter += length;
+            a.discardFirstWords(length);
+        }
+        return counter;
+    }
+
     protected static int inplaceor(long[] bitmap, IteratingRLW i) {
+        return inplaceor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Computes the OR of the first max words of the iterator with the
+     * first max words of the array, in place, and discards these words
+     * from the iterator.
+     *
+     * @param bitmap the array
+     * @param max    the number of words
+     * @param i      the iterator
+     * @return the number of words of the array that were touched
+     */
+    static int inplaceor(long[] bitmap, final int max, IteratingRLW i) {
 
         int pos = 0;
         long s;
         while ((s = i.size()) > 0) {
-            if (pos + s < bitmap.length) {
+            if (pos + s < max) {
                 final int L = (int) i.getRunningLength();
                 if (i.getRunningBit())
                     java.util.Arrays.fill(bitmap, pos, pos + L, ~0l);
@@ -349,20 +429,20 @@ public final class IteratorAggregation {
                     return pos;
                 }
             } else {
-                int howmany = bitmap.length - pos;
+                int howmany = max - pos;
                 int l = (int) i.getRunningLength();
 
-                if (pos + l > bitmap.length) {
+                if (pos + l > max) {
                     if (i.getRunningBit()) {
-                        java.util.Arrays.fill(bitmap, pos, bitmap.length, ~0l);
+                        java.util.Arrays.fill(bitmap, pos, max, ~0l);
                     }
                     i.discardFirstWords(howmany);
-                    return bitmap.length;
+                    return max;
                 }
                 if (i.getRunningBit())
                     java.util.Arrays.fill(bitmap, pos, pos + l, ~0l);
                 pos += l;
-                for (int k = 0; pos < bitmap.length; ++k)
+                for (int k = 0; pos < max; ++k)
                     bitmap[pos++] |= i.getLiteralWordAt(k);
                 i.discardFirstWords(howmany);
                 return pos;
@@ -371,6 +451,50 @@ public final class IteratorAggregation {
         return pos;
     }
 
+    /**
+     * Reads the first max words of the iterator (or fewer if it ends
+     * sooner), computing in place their AND, OR and XOR with the first
+     * words of the arrays, and discards these words from the iterator.
+     * Each array is optional (it can be null).
+     *
+     * @param and the array for the AND (or null)
+     * @param or  the array for the OR (or null)
+     * @param xor the array for the XOR (or null)
+     * @param max the number of words
+     * @param i   the iterator
+     * @return the number of words read
+     */
+    static int inplaceandorxor(final long[] and, final long[] or, final long[] xor,
+                               final int max, final IteratingRLW i) {
+        int pos = 0;
+        while (pos < max && i.size() > 0) {
+            final int runLength = (int) Math.min(i.getRunningLength(), max - pos);
+            if (i.getRunningBit()) {
+                if (or != null)
+                    Arrays.fill(or, pos, pos + runLength, ~0l);
+                if (xor != null)
+                    for (int k = pos; k < pos + runLength; ++k)
+                        xor[k] = ~xor[k];
+            } else if (and != null) {
+                Arrays.fill(and, pos, pos + runLength, 0);
+            }
+            pos += runLength;
+            final int literals = Math.min(i.getNumberOfLiteralWords(), max - pos);
+            if (and != null)
+                for (int k = 0; k < literals; ++k)
+                    and[pos + k] &= i.getLiteralWordAt(k);
+            if (or != null)
+                for (int k = 0; k < literals; ++k)
+                    or[pos + k] |= i.getLiteralWordAt(k);
+            if (xor != null)
+                for (int k = 0; k < literals; ++k)
+                    xor[pos + k] ^= i.getLiteralWordAt(k);
+            pos += literals;
+            i.discardFirstWords(runLength + literals);
+        }
+        return pos;
+    }
+
     protected static int inplacexor(long[] bitmap, IteratingRLW i) {
         int pos = 0;
         long s;
@@ -41,13 +41,13 @@ public class NonEmptyVirtualStorage implements BitmapStorage {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the words is not empty
      */
     @Override
     public void addStreamOfLiteralWords(long[] data, int start, int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int i = start; i < start + number; i++)
+            if (data[i] != 0)
+                throw nonEmptyException;
     }
 
     /**
@@ -64,14 +64,14 @@ public class NonEmptyVirtualStorage implements BitmapStorage {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the words is not empty
      */
     @Override
     public void addStreamOfNegatedLiteralWords(long[] data, int start,
                                                int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int i = start; i < start + number; i++)
+            if (~data[i] != 0)
+                throw nonEmptyException;
     }
 
     @Override
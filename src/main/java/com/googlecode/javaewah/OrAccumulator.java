@@ -0,0 +1,113 @@
+package com.googlecode.javaewah;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Accumulates the union of a stream of bitmaps. Calling or on a large
+ * bitmap for each small incoming bitmap rewrites the large bitmap every
+ * time; instead, the accumulator keeps the bitmaps in tiers by size, in the
+ * manner of a log-structured merge tree: tier t holds bitmaps of less than
+ * BASE_BYTES * FANOUT^t bytes and, when it holds FANOUT bitmaps, they are
+ * merged with FastAggregation.or and the result is added to the tier
+ * matching its size. Each word is thus merged a number of times that is
+ * logarithmic in the size of the union.
+ *
+ * The union is computed when a snapshot is requested, and it then replaces
+ * the tiers so that the next snapshot only has to merge the bitmaps added
+ * since.
+ *
+ * The bitmaps added must not be modified afterwards. It is not thread safe.
+ *
+ * @since 0.9.2
+ */
+public final class OrAccumulator {
+
+    /**
+     * Adds a bitmap to the union.
+     *
+     * @param bitmap the bitmap (it must not be modified afterwards)
+     */
+    public void add(final EWAHCompressedBitmap bitmap) {
+        EWAHCompressedBitmap b = bitmap;
+        while (true) {
+            final int t = tier(b.sizeInBytes());
+            while (this.tiers.size() <= t)
+                this.tiers.add(new ArrayList<EWAHCompressedBitmap>(FANOUT));
+            final List<EWAHCompressedBitmap> tier = this.tiers.get(t);
+            tier.add(b);
+            if (tier.size() < FANOUT)
+                return;
+            b = FastAggregation.or(tier.toArray(new EWAHCompressedBitmap[FANOUT]));
+            tier.clear();
+        }
+    }
+
+    /**
+     * Computes the union of the bitmaps added so far.
+     *
+     * @return a new bitmap
+     */
+    public EWAHCompressedBitmap snapshot() {
+        final List<EWAHCompressedBitmap> all = new ArrayList<EWAHCompressedBitmap>();
+        for (List<EWAHCompressedBitmap> tier : this.tiers)
+            all.addAll(tier);
+        if (all.isEmpty())
+            return new EWAHCompressedBitmap();
+        final EWAHCompressedBitmap union = all.size() == 1 ? all.get(0)
+                : FastAggregation.or(all.toArray(new EWAHCompressedBitmap[all.size()]));
+        if (all.size() > 1) {
+            this.tiers.clear();
+            add(union);
+        }
+        return union.clone();
+    }
+
+    /**
+     * Removes all bitmaps.
+     */
+    public void clear() {
+        this.tiers.clear();
+    }
+
+    /**
+     * @return the number of bitmaps waiting to be merged
+     */
+    public int size() {
+        int answer = 0;
+        for (List<EWAHCompressedBitmap> tier : this.tiers)
+            answer += tier.size();
+        return answer;
+    }
+
+    /**
+     * For internal use. Finds the tier of a bitmap.
+     *
+     * @param sizeInBytes the size of the bitmap
+     * @return the tier
+     */
+    private static int tier(final int sizeInBytes) {
+        int t = 0;
+        for (long limit = BASE_BYTES; sizeInBytes >= limit; limit *= FANOUT)
+            ++t;
+        return t;
+    }
+
+    private final List<List<EWAHCompressedBitmap>> tiers = new ArrayList<List<EWAHCompressedBitmap>>();
+
+    /**
+     * Size in bytes below which bitmaps go to the first tier.
+     */
+    private static final int BASE_BYTES = 1024;
+
+    /**
+     * Number of bitmaps merged at once, and ratio between the sizes of
+     * consecutive tiers.
+     */
+    private static final int FANOUT = 4;
+}
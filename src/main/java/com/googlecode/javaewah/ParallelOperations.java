@@ -0,0 +1,383 @@
+package com.googlecode.javaewah;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Logical operations between two large bitmaps, computed in parallel over
+ * ranges of (uncompressed) words. Both bitmaps are cut at the same word
+ * boundaries, each pair of slices is processed by a separate task, and the
+ * partial results are concatenated into a single bitmap. The results are
+ * the same as those of the corresponding methods in the
+ * EWAHCompressedBitmap class.
+ *
+ * The tasks read the words of both bitmaps in place: each task locates its
+ * first word by visiting the running length words that precede it, starting
+ * from the closest sample of the skip index if it is enabled (see
+ * EWAHCompressedBitmap.enableSkipIndex). The partial results are then
+ * joined by copying their words in bulk, only the running length words at
+ * the boundaries being merged. The bitmaps must not be modified while an
+ * operation is in progress.
+ *
+ * Since the word ranges have the same (uncompressed) length, slices made
+ * of long runs are processed faster than others: we create
+ * TASKS_PER_PROCESSOR slices per available processor so that the load
+ * remains balanced. Bitmaps that are too small to be cut into slices of
+ * MIN_SLICE_WORDS words are processed by the calling thread.
+ *
+ * @since 0.9.2
+ */
+public final class ParallelOperations {
+
+    /** Private constructor to prevent instantiation */
+    private ParallelOperations() {}
+
+    /**
+     * Computes the bitwise and of two bitmaps in parallel.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.and(b)
+     */
+    public static EWAHCompressedBitmap and(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                           final EWAHCompressedBitmap b) {
+        return compute(executor, a, b, AND);
+    }
+
+    /**
+     * Computes the bitwise or of two bitmaps in parallel.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.or(b)
+     */
+    public static EWAHCompressedBitmap or(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                          final EWAHCompressedBitmap b) {
+        return compute(executor, a, b, OR);
+    }
+
+    /**
+     * Computes the bitwise xor of two bitmaps in parallel.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.xor(b)
+     */
+    public static EWAHCompressedBitmap xor(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                           final EWAHCompressedBitmap b) {
+        return compute(executor, a, b, XOR);
+    }
+
+    /**
+     * Computes the bitwise andNot of two bitmaps in parallel.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.andNot(b)
+     */
+    public static EWAHCompressedBitmap andNot(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                              final EWAHCompressedBitmap b) {
+        return compute(executor, a, b, AND_NOT);
+    }
+
+    /**
+     * Computes the cardinality of the bitwise and of two bitmaps in
+     * parallel, without materializing the result.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.andCardinality(b)
+     */
+    public static long andCardinality(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                      final EWAHCompressedBitmap b) {
+        return count(executor, a, b, AND);
+    }
+
+    /**
+     * Computes the cardinality of the bitwise or of two bitmaps in
+     * parallel, without materializing the result.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.orCardinality(b)
+     */
+    public static long orCardinality(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                     final EWAHCompressedBitmap b) {
+        return count(executor, a, b, OR);
+    }
+
+    /**
+     * Computes the cardinality of the bitwise xor of two bitmaps in
+     * parallel, without materializing the result.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.xorCardinality(b)
+     */
+    public static long xorCardinality(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                      final EWAHCompressedBitmap b) {
+        return count(executor, a, b, XOR);
+    }
+
+    /**
+     * Computes the cardinality of the bitwise andNot of two bitmaps in
+     * parallel, without materializing the result.
+     *
+     * @param executor runs the tasks
+     * @param a        the first bitmap
+     * @param b        the second bitmap
+     * @return the result of a.andNotCardinality(b)
+     */
+    public static long andNotCardinality(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                         final EWAHCompressedBitmap b) {
+        return count(executor, a, b, AND_NOT);
+    }
+
+    private static EWAHCompressedBitmap compute(final ExecutorService executor, final EWAHCompressedBitmap a,
+                                                final EWAHCompressedBitmap b, final int operation) {
+        final long[] boundaries = boundaries(a, b, operation);
+        if (boundaries == null)
+            return apply(a, b, operation);
+        a.updateSkipIndex();
+        b.updateSkipIndex();
+        // the words of the inputs, spread evenly over the slices
+        final int bufferSize = (a.buffer.sizeInWords() + b.buffer.sizeInWords()) / (boundaries.length - 1) + 1;
+        final List<Future<EWAHCompressedBitmap>> tasks = new ArrayList<Future<EWAHCompressedBitmap>>(
+                boundaries.length - 1);
+        for (int k = 0; k + 1 < boundaries.length; ++k) {
+            final long first = boundaries[k];
+            final long words = boundaries[k + 1] - boundaries[k];
+            tasks.add(executor.submit(new Callable<EWAHCompressedBitmap>() {
+                @Override
+                public EWAHCompressedBitmap call() {
+                    final EWAHCompressedBitmap partial = new EWAHCompressedBitmap(bufferSize);
+                    apply(a.iteratorAt(first), b.iteratorAt(first), words, operation, partial);
+                    partial.trim();
+                    return partial;
+                }
+            }));
+        }
+        final List<EWAHCompressedBitmap> partial = FastAggregation.getAll(tasks);
+        int sizeInWords = 0;
+        for (EWAHCompressedBitmap p : partial)
+            sizeInWords += p.buffer.sizeInWords();
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap(sizeInWords);
+        for (EWAHCompressedBitmap p : partial)
+            answer.append(p);
+        if (EWAHCompressedBitmap.ADJUST_CONTAINER_SIZE_WHEN_AGGREGATING) {
+            final long sizeInBits = Math.max(a.sizeInBits(), b.sizeInBits());
+            answer.addStreamOfEmptyWords(false, words(sizeInBits) - boundaries[boundaries.length - 1]);
+            answer.setSizeInBitsWithinLastWord(sizeInBits);
+        }
+        return answer;
+    }
+
+    private static long count(final ExecutorService executor, final EWAHCompressedBitmap a,
+                              final EWAHCompressedBitmap b, final int operation) {
+        final long[] boundaries = boundaries(a, b, operation);
+        if (boundaries == null)
+            return cardinality(a, b, operation);
+        a.updateSkipIndex();
+        b.updateSkipIndex();
+        final List<Future<Long>> tasks = new ArrayList<Future<Long>>(boundaries.length - 1);
+        for (int k = 0; k + 1 < boundaries.length; ++k) {
+            final long first = boundaries[k];
+            final long words = boundaries[k + 1] - boundaries[k];
+            tasks.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    final BitCounter counter = new BitCounter();
+                    apply(a.iteratorAt(first), b.iteratorAt(first), words, operation, counter);
+                    return counter.getCount();
+                }
+            }));
+        }
+        long answer = 0;
+        for (Long c : FastAggregation.getAll(tasks))
+            answer += c;
+        return answer;
+    }
+
+    /**
+     * For internal use. Cuts the range of words where the result can have
+     * set bits into slices of the same length.
+     *
+     * @return the boundaries of the slices, or null if the bitmaps should
+     * not be cut
+     */
+    private static long[] boundaries(final EWAHCompressedBitmap a, final EWAHCompressedBitmap b,
+                                     final int operation) {
+        final long wa = words(a.sizeInBits());
+        final long wb = words(b.sizeInBits());
+        final long words = operation == AND ? Math.min(wa, wb) : operation == AND_NOT ? wa : Math.max(wa, wb);
+        final long slices = Math.min((long) TASKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors(),
+                words / MIN_SLICE_WORDS);
+        if (slices < 2)
+            return null;
+        final long[] boundaries = new long[(int) slices + 1];
+        for (int k = 0; k <= slices; ++k)
+            boundaries[k] = k * (words / slices) + Math.min(k, words % slices);
+        return boundaries;
+    }
+
+    /**
+     * For internal use. Computes an operation over the next words of two
+     * bitmaps, the words past the end of a bitmap being zero.
+     *
+     * @param x         iterator over the first bitmap
+     * @param y         iterator over the second bitmap
+     * @param words     the number of words
+     * @param operation the operation
+     * @param container where we write exactly the given number of words
+     */
+    private static void apply(final IteratingBufferedRunningLengthWord x, final IteratingBufferedRunningLengthWord y,
+                              final long words, final int operation, final BitmapStorage container) {
+        long remaining = words;
+        while ((remaining > 0) && (x.size() > 0) && (y.size() > 0)) {
+            while ((remaining > 0) && ((x.getRunningLength() > 0) || (y.getRunningLength() > 0))) {
+                final boolean x_is_prey = x.getRunningLength() < y.getRunningLength();
+                final IteratingBufferedRunningLengthWord prey = x_is_prey ? x : y;
+                final IteratingBufferedRunningLengthWord predator = x_is_prey ? y : x;
+                final long run = Math.min(predator.getRunningLength(), remaining);
+                final int result = overRun(operation, predator.getRunningBit(), x_is_prey);
+                if (result == COPY) {
+                    final long index = prey.discharge(container, run);
+                    container.addStreamOfEmptyWords(false, run - index);
+                } else if (result == NEGATED_COPY) {
+                    final long index = prey.dischargeNegated(container, run);
+                    container.addStreamOfEmptyWords(true, run - index);
+                } else {
+                    container.addStreamOfEmptyWords(result == ONES, run);
+                    prey.discardFirstWords(run);
+                }
+                predator.discardFirstWords(run);
+                remaining -= run;
+            }
+            final int literals = (int) Math.min(
+                    Math.min(x.getNumberOfLiteralWords(), y.getNumberOfLiteralWords()), remaining);
+            for (int k = 0; k < literals; ++k)
+                container.addLiteralWord(apply(x.getLiteralWordAt(k), y.getLiteralWordAt(k), operation));
+            x.discardFirstWords(literals);
+            y.discardFirstWords(literals);
+            remaining -= literals;
+        }
+        // at most one of the bitmaps has words left
+        if ((x.size() > 0) && (operation != AND))
+            remaining -= x.discharge(container, remaining);
+        else if ((y.size() > 0) && ((operation == OR) || (operation == XOR)))
+            remaining -= y.discharge(container, remaining);
+        container.addStreamOfEmptyWords(false, remaining);
+    }
+
+    /**
+     * For internal use. Where one of the bitmaps (the predator) has a run,
+     * the result is either a run or a copy of the words of the other bitmap
+     * (the prey), possibly negated.
+     *
+     * @param operation the operation
+     * @param bit       the running bit of the predator
+     * @param x_is_prey whether the prey is the first bitmap
+     * @return ZEROS, ONES, COPY or NEGATED_COPY
+     */
+    private static int overRun(final int operation, final boolean bit, final boolean x_is_prey) {
+        switch (operation) {
+            case AND:
+                return bit ? COPY : ZEROS;
+            case OR:
+                return bit ? ONES : COPY;
+            case XOR:
+                return bit ? NEGATED_COPY : COPY;
+            default:
+                if (x_is_prey)
+                    return bit ? ZEROS : COPY;
+                return bit ? NEGATED_COPY : ZEROS;
+        }
+    }
+
+    private static long apply(final long x, final long y, final int operation) {
+        switch (operation) {
+            case AND:
+                return x & y;
+            case OR:
+                return x | y;
+            case XOR:
+                return x ^ y;
+            default:
+                return x & ~y;
+        }
+    }
+
+    private static EWAHCompressedBitmap apply(final EWAHCompressedBitmap a, final EWAHCompressedBitmap b,
+                                              final int operation) {
+        switch (operation) {
+            case AND:
+                return a.and(b);
+            case OR:
+                return a.or(b);
+            case XOR:
+                return a.xor(b);
+            default:
+                return a.andNot(b);
+        }
+    }
+
+    private static long cardinality(final EWAHCompressedBitmap a, final EWAHCompressedBitmap b,
+                                    final int operation) {
+        switch (operation) {
+            case AND:
+                return a.andCardinality(b);
+            case OR:
+                return a.orCardinality(b);
+            case XOR:
+                return a.xorCardinality(b);
+            default:
+                return a.andNotCardinality(b);
+        }
+    }
+
+    private static long words(final long sizeInBits) {
+        return (sizeInBits + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS;
+    }
+
+    private static final int AND = 0;
+
+    private static final int OR = 1;
+
+    private static final int XOR = 2;
+
+    private static final int AND_NOT = 3;
+
+    private static final int ZEROS = 0;
+
+    private static final int ONES = 1;
+
+    private static final int COPY = 2;
+
+    private static final int NEGATED_COPY = 3;
+
+    /**
+     * Smallest number of (uncompressed) words in a slice.
+     */
+    private static final int MIN_SLICE_WORDS = 1024;
+
+    /**
+     * Number of slices created per available processor.
+     */
+    private static final int TASKS_PER_PROCESSOR = 4;
+
+}
@@ -0,0 +1,285 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Sampled index over the running length words of a bitmap: every
+ * "interval" running length words, we record the position of the marker
+ * in the buffer together with the number of (uncompressed) words and the
+ * number of set bits that precede it. A lookup, by word or by rank, is then
+ * a binary search followed by a scan of at most "interval" markers.
+ *
+ * The index is built lazily. Words appended at the end of the bitmap do
+ * not invalidate it: they are indexed on the next lookup. Flipping a bit
+ * within a literal word requires a call to adjust(). Any other change to
+ * the layout of the running length words requires a call to reset().
+ *
+ * Lookups may come from several threads reading the same bitmap at once.
+ * The lazy updates are therefore serialized, and the samples they produce
+ * are published through a volatile field: a lookup sees either the samples
+ * before an update or the samples after it, never a partial update. An
+ * update only appends samples, so that the index of a sample found by a
+ * lookup stays valid. adjust() and reset() are only called when the bitmap
+ * is modified, which cannot happen while it is being read.
+ *
+ * @since 0.9.2
+ */
+final class SkipIndex {
+
+    /**
+     * @param interval number of running length words between two samples
+     */
+    SkipIndex(final int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("interval should be positive");
+        this.interval = interval;
+        reset();
+    }
+
+    /**
+     * @return number of running length words between two samples
+     */
+    int getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Forget everything: the index will be rebuilt from the start of the
+     * buffer on the next lookup.
+     */
+    synchronized void reset() {
+        this.lastPosition = 0;
+        this.lastOffset = 0;
+        this.lastCardinality = 0;
+        this.markers = 0;
+        final Samples s = this.samples;
+        if (s == null || s.positions.length > INITIAL_CAPACITY) {
+            this.samples = new Samples(new int[INITIAL_CAPACITY], new long[INITIAL_CAPACITY],
+                    new long[INITIAL_CAPACITY], 1);
+        } else {
+            // the first sample (the first running length word) never changes
+            this.samples = new Samples(s.positions, s.offsets, s.cardinalities, 1);
+        }
+    }
+
+    /**
+     * Finds a sample preceding a given word. The position of the running
+     * length word is then given by getPosition(k) and the number of
+     * (uncompressed) words that precede it by getOffset(k).
+     *
+     * @param buffer the words of the bitmap
+     * @param word   the (uncompressed) word we are looking for
+     * @return the index k of the sample
+     */
+    int locate(final Buffer buffer, final long word) {
+        update(buffer);
+        return find(word);
+    }
+
+    /**
+     * Same as locate, but the running length words added since the last
+     * call to update are not sampled.
+     *
+     * @param word the (uncompressed) word we are looking for
+     * @return the index k of the sample
+     */
+    int find(final long word) {
+        final Samples s = this.samples;
+        int low = 0;
+        int high = s.size - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (s.offsets[middle] <= word)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Finds a sample preceding the set bit of a given rank: the number of
+     * set bits preceding the sample is given by getCardinality(k).
+     *
+     * @param buffer the words of the bitmap
+     * @param rank   the number of set bits preceding the bit we are looking
+     *               for
+     * @return the index k of the sample
+     */
+    int locateRank(final Buffer buffer, final long rank) {
+        update(buffer);
+        final Samples s = this.samples;
+        int low = 0;
+        int high = s.size - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (s.cardinalities[middle] <= rank)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Records that a bit was set (delta = 1) or cleared (delta = -1) in a
+     * literal word following the running length word at the given
+     * position, without changing the running length words.
+     *
+     * @param position position of the running length word in the buffer
+     * @param delta    change in cardinality
+     */
+    synchronized void adjust(final int position, final int delta) {
+        if (position >= this.lastPosition) {
+            return; // not sampled yet
+        }
+        final Samples s = this.samples;
+        int k = s.size;
+        while ((k > 0) && (s.positions[k - 1] > position)) {
+            s.cardinalities[--k] += delta;
+        }
+        this.lastCardinality += delta;
+    }
+
+    /**
+     * @param k index of the sample
+     * @return position of the running length word in the buffer
+     */
+    int getPosition(final int k) {
+        return this.samples.positions[k];
+    }
+
+    /**
+     * @param k index of the sample
+     * @return number of (uncompressed) words preceding the running length
+     * word
+     */
+    long getOffset(final int k) {
+        return this.samples.offsets[k];
+    }
+
+    /**
+     * @param k index of the sample
+     * @return number of set bits preceding the running length word
+     */
+    long getCardinality(final int k) {
+        return this.samples.cardinalities[k];
+    }
+
+    /**
+     * Samples the running length words added since the last call.
+     *
+     * @param buffer the words of the bitmap
+     */
+    synchronized void update(final Buffer buffer) {
+        final int sizeInWords = buffer.sizeInWords();
+        int pos = this.lastPosition;
+        long offset = this.lastOffset;
+        long cardinality = this.lastCardinality;
+        int[] positions = this.samples.positions;
+        long[] offsets = this.samples.offsets;
+        long[] cardinalities = this.samples.cardinalities;
+        int size = this.samples.size;
+        while (true) {
+            final int lw = RunningLengthWord.getNumberOfLiteralWords(buffer, pos);
+            final int next = pos + lw + 1;
+            if (next >= sizeInWords)
+                break;
+            final long rl = RunningLengthWord.getRunningLength(buffer, pos);
+            if (RunningLengthWord.getRunningBit(buffer, pos))
+                cardinality += rl * EWAHCompressedBitmap.WORD_IN_BITS;
+            for (int j = pos + 1; j < next; ++j)
+                cardinality += Long.bitCount(buffer.getWord(j));
+            offset += rl + lw;
+            pos = next;
+            if (++this.markers % this.interval == 0) {
+                // the published samples never go past their size: the
+                // slots after it can be written in place
+                if (size == positions.length) {
+                    positions = Arrays.copyOf(positions, 2 * size);
+                    offsets = Arrays.copyOf(offsets, 2 * size);
+                    cardinalities = Arrays.copyOf(cardinalities, 2 * size);
+                }
+                positions[size] = pos;
+                offsets[size] = offset;
+                cardinalities[size] = cardinality;
+                ++size;
+            }
+        }
+        this.lastPosition = pos;
+        this.lastOffset = offset;
+        this.lastCardinality = cardinality;
+        if (size != this.samples.size)
+            this.samples = new Samples(positions, offsets, cardinalities, size);
+    }
+
+    /**
+     * The samples as seen by lookups. The first sample is the first running
+     * length word.
+     */
+    private static final class Samples {
+
+        Samples(final int[] positions, final long[] offsets, final long[] cardinalities,
+                final int size) {
+            this.positions = positions;
+            this.offsets = offsets;
+            this.cardinalities = cardinalities;
+            this.size = size;
+        }
+
+        /**
+         * Positions of the sampled running length words, starting with 0.
+         */
+        final int[] positions;
+
+        /**
+         * Number of (uncompressed) words preceding each sample.
+         */
+        final long[] offsets;
+
+        /**
+         * Number of set bits preceding each sample.
+         */
+        final long[] cardinalities;
+
+        /**
+         * Number of samples.
+         */
+        final int size;
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int interval;
+
+    /**
+     * The samples, replaced as a whole whenever they change.
+     */
+    private volatile Samples samples;
+
+    /**
+     * Position of the last running length word visited, its length might
+     * still change.
+     */
+    private int lastPosition;
+
+    /**
+     * Number of (uncompressed) words preceding lastPosition.
+     */
+    private long lastOffset;
+
+    /**
+     * Number of set bits preceding lastPosition.
+     */
+    private long lastCardinality;
+
+    /**
+     * Number of running length words visited (not counting the first one).
+     */
+    private int markers;
+}
@@ -0,0 +1,39 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * An IntIterator that can jump ahead. Whole running length words and
+ * literal words are skipped without being decoded, so that intersecting a
+ * bitmap with a short sorted list (leapfrog join) costs time proportional
+ * to the length of the list rather than to the cardinality of the bitmap:
+ *
+ * <pre>
+ * SkippableIntIterator i = bitmap.batchIntIterator();
+ * for (int x : sortedList) {
+ *     i.advanceIfNeeded(x);
+ *     if (!i.hasNext())
+ *         break;
+ *     // the next integer is the smallest one that is at least x
+ * }
+ * </pre>
+ *
+ * @since 0.9.2
+ */
+public interface SkippableIntIterator extends IntIterator {
+
+    /**
+     * Skips the integers that come before target in the order of the
+     * iteration: for an increasing iterator, the next integer returned is
+     * then the smallest one greater or equal to target; for a decreasing
+     * (reverse) iterator, the largest one smaller or equal to target. The
+     * iterator never moves backward: if the next integer already satisfies
+     * the condition, nothing happens.
+     *
+     * @param target the integer we are looking for
+     */
+    void advanceIfNeeded(int target);
+}
@@ -0,0 +1,250 @@
+package com.googlecode.javaewah;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Finds, within a collection of bitmaps, the k bitmaps having the most set
+ * bits in common with a query bitmap (the largest andCardinality).
+ *
+ * When the collection is indexed, the number of set bits of each bitmap is
+ * recorded for each range of RANGE_WORDS (uncompressed) words. Given a
+ * query, an upper bound on the overlap of each bitmap is derived from these
+ * summaries (the sum over the ranges of the smaller of the two counts).
+ * The bitmaps are then considered by decreasing upper bound, and exact
+ * intersections are computed until the upper bound of the next bitmap
+ * cannot beat the k-th best overlap found so far.
+ *
+ * Only the ranges having set bits are recorded: the summaries are computed
+ * from the compressed words, so that their cost does not depend on the
+ * position of the last set bit.
+ *
+ * The bitmaps of the collection must not be modified after they have been
+ * indexed. Searches do not modify the index and may run concurrently.
+ *
+ * @since 0.9.2
+ */
+public final class TopKOverlap {
+
+    /**
+     * Indexes a collection of bitmaps.
+     *
+     * @param collection the bitmaps (they will not be modified)
+     */
+    public TopKOverlap(final EWAHCompressedBitmap... collection) {
+        this.collection = Arrays.copyOf(collection, collection.length);
+        this.cardinalities = new long[collection.length];
+        this.ranges = new long[collection.length][];
+        this.counts = new int[collection.length][];
+        for (int k = 0; k < collection.length; ++k) {
+            final Summary summary = summarize(collection[k]);
+            this.ranges[k] = summary.ranges;
+            this.counts[k] = summary.counts;
+            this.cardinalities[k] = summary.cardinality;
+        }
+    }
+
+    /**
+     * @return the number of bitmaps in the collection
+     */
+    public int size() {
+        return this.collection.length;
+    }
+
+    /**
+     * Finds the k bitmaps of the collection having the largest
+     * intersections with the query. Bitmaps with the same overlap are
+     * ordered by index.
+     *
+     * @param query the query (it will not be modified)
+     * @param k     the number of bitmaps wanted
+     * @return the indexes of the bitmaps in the collection, from the largest
+     * overlap to the smallest (there are fewer than k if the collection is
+     * smaller)
+     */
+    public int[] search(final EWAHCompressedBitmap query, final int k) {
+        return search(query, k, null);
+    }
+
+    /**
+     * Finds the k bitmaps of the collection having the largest
+     * intersections with the query. Bitmaps with the same overlap are
+     * ordered by index.
+     *
+     * @param query    the query (it will not be modified)
+     * @param k        the number of bitmaps wanted
+     * @param overlaps where the overlaps (query.andCardinality of the
+     *                 bitmaps found) are written, in the same order as the
+     *                 indexes (can be null)
+     * @return the indexes of the bitmaps in the collection, from the largest
+     * overlap to the smallest (there are fewer than k if the collection is
+     * smaller)
+     */
+    public int[] search(final EWAHCompressedBitmap query, final int k, final long[] overlaps) {
+        final int n = this.collection.length;
+        final int wanted = Math.max(0, Math.min(k, n));
+        final Summary q = summarize(query);
+        final long[] bounds = new long[n];
+        final Integer[] candidates = new Integer[n];
+        for (int c = 0; c < n; ++c) {
+            long bound = 0;
+            final long[] r = this.ranges[c];
+            final int[] cc = this.counts[c];
+            // both lists of ranges are sorted: merge them
+            for (int p = 0, s = 0; p < r.length && s < q.ranges.length; ) {
+                if (r[p] < q.ranges[s]) {
+                    ++p;
+                } else if (r[p] > q.ranges[s]) {
+                    ++s;
+                } else {
+                    bound += Math.min(cc[p], q.counts[s]);
+                    ++p;
+                    ++s;
+                }
+            }
+            bounds[c] = Math.min(bound, Math.min(q.cardinality, this.cardinalities[c]));
+            candidates[c] = c;
+        }
+        Arrays.sort(candidates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (bounds[a] != bounds[b])
+                    return bounds[a] > bounds[b] ? -1 : 1;
+                return a - b;
+            }
+        });
+        // the worst of the best bitmaps found so far is at the head
+        final long[] scores = new long[n];
+        final PriorityQueue<Integer> best = new PriorityQueue<Integer>(wanted + 1, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (scores[a] != scores[b])
+                    return scores[a] < scores[b] ? -1 : 1;
+                return b - a;
+            }
+        });
+        for (int p = 0; p < n && wanted > 0; ++p) {
+            final int c = candidates[p];
+            if (best.size() == wanted) {
+                final int worst = best.peek();
+                if (bounds[c] < scores[worst] || (bounds[c] == scores[worst] && c > worst))
+                    break;
+            }
+            scores[c] = bounds[c] == 0 ? 0 : query.andCardinality(this.collection[c]);
+            best.add(c);
+            if (best.size() > wanted)
+                best.poll();
+        }
+        final int[] answer = new int[best.size()];
+        for (int p = answer.length - 1; p >= 0; --p) {
+            answer[p] = best.poll();
+            if (overlaps != null)
+                overlaps[p] = scores[answer[p]];
+        }
+        return answer;
+    }
+
+    /**
+     * For internal use. Counts the set bits of a bitmap in each range of
+     * RANGE_WORDS words, skipping the ranges without set bits.
+     *
+     * @param bitmap the bitmap
+     * @return the counts of the ranges having set bits
+     */
+    private static Summary summarize(final EWAHCompressedBitmap bitmap) {
+        final Summary answer = new Summary();
+        final IteratingRLW i = bitmap.getIteratingRLW();
+        long pos = 0;
+        while (i.size() > 0) {
+            final long runLength = i.getRunningLength();
+            if (i.getRunningBit()) {
+                for (long w = pos; w < pos + runLength; ) {
+                    final long end = Math.min(pos + runLength, (w / RANGE_WORDS + 1) * RANGE_WORDS);
+                    answer.add(w / RANGE_WORDS, (int) (end - w) * EWAHCompressedBitmap.WORD_IN_BITS);
+                    w = end;
+                }
+            }
+            pos += runLength;
+            final int literals = i.getNumberOfLiteralWords();
+            for (int k = 0; k < literals; ++k) {
+                final int count = Long.bitCount(i.getLiteralWordAt(k));
+                if (count > 0)
+                    answer.add((pos + k) / RANGE_WORDS, count);
+            }
+            pos += literals;
+            if (!i.next())
+                break;
+        }
+        answer.trim();
+        return answer;
+    }
+
+    /**
+     * For internal use. The ranges of a bitmap having set bits, in
+     * increasing order, with the number of set bits in each.
+     */
+    private static final class Summary {
+
+        /**
+         * Counts more set bits in a range, which cannot come before the
+         * last range counted.
+         *
+         * @param range the range
+         * @param count the number of set bits
+         */
+        void add(final long range, final int count) {
+            this.cardinality += count;
+            if (this.size > 0 && this.ranges[this.size - 1] == range) {
+                this.counts[this.size - 1] += count;
+                return;
+            }
+            if (this.size == this.ranges.length) {
+                this.ranges = Arrays.copyOf(this.ranges, 2 * this.size);
+                this.counts = Arrays.copyOf(this.counts, 2 * this.size);
+            }
+            this.ranges[this.size] = range;
+            this.counts[this.size++] = count;
+        }
+
+        /**
+         * Drops the unused capacity.
+         */
+        void trim() {
+            this.ranges = Arrays.copyOf(this.ranges, this.size);
+            this.counts = Arrays.copyOf(this.counts, this.size);
+        }
+
+        long[] ranges = new long[16];
+
+        int[] counts = new int[16];
+
+        int size;
+
+        long cardinality;
+    }
+
+    private final EWAHCompressedBitmap[] collection;
+
+    private final long[] cardinalities;
+
+    /**
+     * For each bitmap, the ranges having set bits, in increasing order.
+     */
+    private final long[][] ranges;
+
+    /**
+     * For each bitmap, the number of set bits in each of its ranges.
+     */
+    private final int[][] counts;
+
+    /**
+     * Number of (uncompressed) words in a range.
+     */
+    private static final int RANGE_WORDS = 64;
+}
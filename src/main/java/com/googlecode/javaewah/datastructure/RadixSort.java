@@ -0,0 +1,88 @@
+package com.googlecode.javaewah.datastructure;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Least-significant-digit radix sort over 8-bit digits. Sorting n values
+ * takes a few linear passes and a temporary array of n values, whatever
+ * their distribution. Passes where all values share the same digit are
+ * skipped, so that small values are sorted faster.
+ *
+ * @since 0.9.2
+ */
+public final class RadixSort {
+
+    /** Private constructor to prevent instantiation */
+    private RadixSort() {}
+
+    /**
+     * Sorts a range of values in increasing (signed) order.
+     *
+     * @param values the values
+     * @param from   index of the first value to sort (inclusive)
+     * @param to     index of the last value to sort (exclusive)
+     */
+    public static void sort(final int[] values, final int from, final int to) {
+        final int n = to - from;
+        if (n < 2)
+            return;
+        final int[] buffer = new int[n];
+        final int[] counts = new int[RADIX];
+        for (int shift = 0; shift < 32; shift += DIGIT_BITS) {
+            final int flip = shift == 32 - DIGIT_BITS ? RADIX / 2 : 0;
+            java.util.Arrays.fill(counts, 0);
+            for (int k = from; k < to; ++k)
+                ++counts[((values[k] >>> shift) & MASK) ^ flip];
+            if (counts[((values[from] >>> shift) & MASK) ^ flip] == n)
+                continue;
+            for (int d = 0, sum = 0; d < RADIX; ++d) {
+                final int c = counts[d];
+                counts[d] = sum;
+                sum += c;
+            }
+            for (int k = from; k < to; ++k)
+                buffer[counts[((values[k] >>> shift) & MASK) ^ flip]++] = values[k];
+            System.arraycopy(buffer, 0, values, from, n);
+        }
+    }
+
+    /**
+     * Sorts a range of values in increasing (signed) order.
+     *
+     * @param values the values
+     * @param from   index of the first value to sort (inclusive)
+     * @param to     index of the last value to sort (exclusive)
+     */
+    public static void sort(final long[] values, final int from, final int to) {
+        final int n = to - from;
+        if (n < 2)
+            return;
+        final long[] buffer = new long[n];
+        final int[] counts = new int[RADIX];
+        for (int shift = 0; shift < 64; shift += DIGIT_BITS) {
+            final int flip = shift == 64 - DIGIT_BITS ? RADIX / 2 : 0;
+            java.util.Arrays.fill(counts, 0);
+            for (int k = from; k < to; ++k)
+                ++counts[((int) (values[k] >>> shift) & MASK) ^ flip];
+            if (counts[((int) (values[from] >>> shift) & MASK) ^ flip] == n)
+                continue;
+            for (int d = 0, sum = 0; d < RADIX; ++d) {
+                final int c = counts[d];
+                counts[d] = sum;
+                sum += c;
+            }
+            for (int k = from; k < to; ++k)
+                buffer[counts[((int) (values[k] >>> shift) & MASK) ^ flip]++] = values[k];
+            System.arraycopy(buffer, 0, values, from, n);
+        }
+    }
+
+    private static final int DIGIT_BITS = 8;
+
+    private static final int RADIX = 1 << DIGIT_BITS;
+
+    private static final int MASK = RADIX - 1;
+}
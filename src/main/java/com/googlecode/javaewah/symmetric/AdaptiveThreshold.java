@@ -0,0 +1,88 @@
+package com.googlecode.javaewah.symmetric;
+
+import com.googlecode.javaewah.BitmapStorage;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Computes threshold functions (see ThresholdFuncBitmap) with the algorithm
+ * that is expected to be the fastest, given the number of inputs, the
+ * threshold and the sizes of the inputs (see the choose method).
+ *
+ * Functions other than threshold functions are delegated to
+ * RunningBitmapMerge.
+ *
+ * @since 0.9.2
+ */
+public class AdaptiveThreshold implements BitmapSymmetricAlgorithm {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction f, BitmapStorage out,
+                          EWAHCompressedBitmap... set) {
+        final BitmapSymmetricAlgorithm algorithm = f instanceof ThresholdFuncBitmap
+                ? choose(((ThresholdFuncBitmap) f).getThreshold(), set)
+                : new RunningBitmapMerge();
+        algorithm.symmetric(f, out, set);
+    }
+
+    /**
+     * Chooses an algorithm to compute a threshold function.
+     *
+     * RunningBitmapMerge is chosen when there are very few inputs, and
+     * DivideSkip when the threshold T is high (at least a quarter of the
+     * number of inputs). MergeOpt is chosen when T is low and the T - 1
+     * largest inputs account for most of the data, so that setting them
+     * aside pays off. Otherwise, ScanCount is chosen. These rules follow
+     * the results of ThresholdBenchmark (in the tests).
+     *
+     * @param t   the threshold
+     * @param set the inputs
+     * @return the algorithm
+     */
+    public static BitmapSymmetricAlgorithm choose(final int t, final EWAHCompressedBitmap... set) {
+        if (set.length <= FEW_INPUTS)
+            return new RunningBitmapMerge();
+        if (t <= 1 || t > set.length)
+            return new ScanCount();
+        if (t >= set.length / HIGH_THRESHOLD_RATIO)
+            return new DivideSkip();
+        if (t > LOW_THRESHOLD)
+            return new ScanCount();
+        // the total size, and the size of the t - 1 largest inputs
+        final int[] sizes = new int[set.length];
+        long total = 0;
+        for (int k = 0; k < set.length; ++k) {
+            sizes[k] = set[k].sizeInBytes();
+            total += sizes[k];
+        }
+        Arrays.sort(sizes);
+        long large = 0;
+        for (int k = sizes.length - t + 1; k < sizes.length; ++k)
+            large += sizes[k];
+        if (large * 4 >= total * 3)
+            return new MergeOpt();
+        return new ScanCount();
+    }
+
+    /**
+     * Up to this number of inputs, RunningBitmapMerge is preferred.
+     */
+    static final int FEW_INPUTS = 4;
+
+    /**
+     * DivideSkip is preferred for thresholds of at least N divided by this
+     * ratio, N being the number of inputs.
+     */
+    static final int HIGH_THRESHOLD_RATIO = 4;
+
+    /**
+     * MergeOpt is only considered for thresholds up to this value.
+     */
+    static final int LOW_THRESHOLD = 8;
+}
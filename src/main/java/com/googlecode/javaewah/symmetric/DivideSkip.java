@@ -0,0 +1,117 @@
+package com.googlecode.javaewah.symmetric;
+
+import com.googlecode.javaewah.BitmapStorage;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * This is an implementation of the DivideSkip (DSk) algorithm for threshold
+ * functions (see ThresholdFuncBitmap), adapted to compressed bitmaps. With
+ * a threshold T, the L largest inputs are set aside. A bit can only be true
+ * if it is true in at least T - L of the other inputs: these candidates are
+ * computed first (with ScanCount), then the L largest inputs are
+ * intersected with the candidates, which makes them small, and the
+ * threshold is computed over the reduced inputs.
+ *
+ * The number L of inputs set aside is T / (mu log M + 1), where M is the
+ * cardinality of the largest input, as suggested by the authors. It is at
+ * most T - 1, in which case the algorithm is MergeOpt.
+ *
+ * It is well suited to a few very large inputs among many small ones.
+ * Functions other than threshold functions are delegated to
+ * RunningBitmapMerge.
+ *
+ * Reference: Chen Li, Jiaheng Lu, Yiming Lu, Efficient merging and filtering
+ * algorithms for approximate string searches, ICDE 2008.
+ *
+ * @since 0.9.2
+ */
+public class DivideSkip implements BitmapSymmetricAlgorithm {
+
+    /**
+     * Uses the value of mu suggested by the authors (0.0085).
+     */
+    public DivideSkip() {
+        this(DEFAULT_MU);
+    }
+
+    /**
+     * @param mu the parameter setting how many large inputs are set aside:
+     *           the smaller, the more
+     */
+    public DivideSkip(final double mu) {
+        if (!(mu >= 0))
+            throw new IllegalArgumentException("mu should be non-negative: " + mu);
+        this.mu = mu;
+    }
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction f, BitmapStorage out,
+                          EWAHCompressedBitmap... set) {
+        if (!(f instanceof ThresholdFuncBitmap)) {
+            new RunningBitmapMerge().symmetric(f, out, set);
+            return;
+        }
+        final int t = ((ThresholdFuncBitmap) f).getThreshold();
+        long largest = 0;
+        EWAHCompressedBitmap longest = null;
+        for (EWAHCompressedBitmap b : set)
+            if (b.sizeInBytes() > largest) {
+                largest = b.sizeInBytes();
+                longest = b;
+            }
+        final long cardinality = longest == null ? 0 : longest.cardinality();
+        final double log = cardinality <= 1 ? 0 : Math.log(cardinality) / Math.log(2);
+        threshold(t, (int) (t / (this.mu * log + 1)), out, set);
+    }
+
+    /**
+     * For internal use. Writes out the words where at least t inputs have a
+     * true bit.
+     *
+     * @param t     the threshold
+     * @param large the number of largest inputs to set aside (at most t - 1)
+     * @param out   where we write
+     * @param set   the inputs
+     */
+    static void threshold(final int t, final int large, final BitmapStorage out,
+                          final EWAHCompressedBitmap... set) {
+        final int l = Math.min(large, t - 1);
+        if (l <= 0 || t > set.length) {
+            ScanCount.threshold(t, out, set);
+            return;
+        }
+        final EWAHCompressedBitmap[] sorted = Arrays.copyOf(set, set.length);
+        Arrays.sort(sorted, new Comparator<EWAHCompressedBitmap>() {
+            @Override
+            public int compare(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+                return b.sizeInBytes() - a.sizeInBytes();
+            }
+        });
+        final EWAHCompressedBitmap[] small = Arrays.copyOfRange(sorted, l, sorted.length);
+        final EWAHCompressedBitmap candidates;
+        if (l == t - 1) {
+            candidates = EWAHCompressedBitmap.or(small);
+        } else {
+            candidates = new EWAHCompressedBitmap();
+            ScanCount.threshold(t - l, candidates, small);
+        }
+        for (int k = 0; k < l; ++k)
+            sorted[k] = sorted[k].and(candidates);
+        ScanCount.threshold(t, out, sorted);
+    }
+
+    /**
+     * The value of mu suggested by the authors.
+     */
+    public static final double DEFAULT_MU = 0.0085;
+
+    private final double mu;
+}
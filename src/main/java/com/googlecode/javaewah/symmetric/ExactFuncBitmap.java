@@ -0,0 +1,26 @@
+package com.googlecode.javaewah.symmetric;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A symmetric Boolean function returning true if exactly k values are true.
+ * For example, with k = 1 and two inputs, it is the exclusive or.
+ *
+ * It is not thread safe: you should use one object per thread.
+ *
+ * @since 0.9.2
+ */
+public final class ExactFuncBitmap extends BetweenFuncBitmap {
+
+    /**
+     * Construction a function with a given count
+     *
+     * @param k the number of true values
+     */
+    public ExactFuncBitmap(final int k) {
+        super(k, k);
+    }
+}
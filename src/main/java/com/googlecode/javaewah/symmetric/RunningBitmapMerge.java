@@ -3,6 +3,7 @@ package com.googlecode.javaewah.symmetric;
 import com.googlecode.javaewah.BitmapStorage;
 import com.googlecode.javaewah.EWAHCompressedBitmap;
 import com.googlecode.javaewah.IteratingBufferedRunningLengthWord;
+import com.googlecode.javaewah.IteratingRLW;
 import com.googlecode.javaewah.datastructure.PriorityQ;
 
 import java.util.Comparator;
@@ -47,6 +48,14 @@ public class RunningBitmapMerge implements BitmapSymmetricAlgorithm {
         }
         h.buildHeap(); // just in case we use an insane number of inputs
 
+        // the bits past the largest input must remain false, even when the
+        // function is true for zero true inputs: the last word is masked
+        long sizeInBits = 0;
+        for (EWAHCompressedBitmap b : set)
+            sizeInBits = Math.max(sizeInBits, b.sizeInBits());
+        final int lastWord = (int) ((sizeInBits + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS) - 1;
+        final int usedBitsInLast = (int) (sizeInBits % EWAHCompressedBitmap.WORD_IN_BITS);
+
         int lasta = 0;
         if (h.isEmpty())
             return;
@@ -54,7 +63,14 @@ public class RunningBitmapMerge implements BitmapSymmetricAlgorithm {
         while (true) { // goes until no more active inputs
             final int a = h.peek().endOfRun();
             // I suppose we have a run of length a - lasta here.
-            f.dispatch(out, lasta, a);
+            if (usedBitsInLast != 0 && lasta <= lastWord && a > lastWord) {
+                f.dispatch(out, lasta, lastWord);
+                out.addWord(wordAt(f, lastWord) & ((~0l) >>> (EWAHCompressedBitmap.WORD_IN_BITS - usedBitsInLast)));
+                if (a > lastWord + 1)
+                    f.dispatch(out, lastWord + 1, a);
+            } else {
+                f.dispatch(out, lasta, a);
+            }
             lasta = a;
 
             while (h.peek().endOfRun() == a) {
@@ -71,6 +87,21 @@ public class RunningBitmapMerge implements BitmapSymmetricAlgorithm {
                 }
             }
         }
+        out.setSizeInBitsWithinLastWord(sizeInBits);
+    }
+
+    /**
+     * For internal use. Computes the word of the output at a given position.
+     *
+     * @param f        the function, in the state of the current run
+     * @param position the position of the word
+     * @return the word
+     */
+    private static long wordAt(final UpdateableBitmapFunction f, final int position) {
+        final EWAHCompressedBitmap word = new EWAHCompressedBitmap(4);
+        f.dispatch(word, position, position + 1);
+        final IteratingRLW i = word.getIteratingRLW();
+        return i.getRunningLength() > 0 ? (i.getRunningBit() ? ~0l : 0) : i.getLiteralWordAt(0);
     }
 
 }
@@ -39,6 +39,13 @@ public final class ThresholdFuncBitmap extends UpdateableBitmapFunction {
         this.bufferUsed = 0;
     }
 
+    /**
+     * @return the threshold
+     */
+    int getThreshold() {
+        return this.min;
+    }
+
     @Override
     public void dispatch(BitmapStorage out, int runBegin, int runEnd) {
         final int runLength = runEnd - runBegin;
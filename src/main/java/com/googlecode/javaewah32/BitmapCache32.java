@@ -0,0 +1,532 @@
+package com.googlecode.javaewah32;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A bounded cache for the results of logical operations that are computed
+ * repeatedly over the same bitmaps, as in a dashboard where the same
+ * filters are combined again and again.
+ *
+ * Entries are keyed on the identity of the operand bitmaps and on the
+ * operations applied to them. Each bitmap carries a version number which is
+ * incremented whenever it is modified (set, clear, not, etc.): an entry
+ * computed from an older version of one of its operands is discarded when
+ * it is looked up, so that the cache never returns stale results.
+ *
+ * The cache holds result bitmaps and cardinalities. Its size is the sum of
+ * the sizes in bytes (see EWAHCompressedBitmap32.sizeInBytes()) of the cached
+ * bitmaps, plus 8 bytes per entry. When it exceeds the maximal size, entries
+ * are evicted, either the least recently used ones (LRU) or the least
+ * frequently used ones (LFU).
+ *
+ * The cache keeps references to the operand bitmaps: they cannot be garbage
+ * collected until their entries are evicted or the cache is cleared.
+ *
+ * The methods of this class are thread-safe, but the bitmaps must not be
+ * modified while an operation is being computed.
+ *
+ * @since 0.9.2
+ */
+public final class BitmapCache32 {
+
+    /**
+     * Evict the least recently used entries first.
+     */
+    public static final int LRU = 0;
+
+    /**
+     * Evict the least frequently used entries first (among them, the least
+     * recently used one).
+     */
+    public static final int LFU = 1;
+
+    /**
+     * Creates a cache evicting the least recently used entries first.
+     *
+     * @param maxSizeInBytes the maximal size of the cache
+     */
+    public BitmapCache32(final long maxSizeInBytes) {
+        this(maxSizeInBytes, LRU);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSizeInBytes the maximal size of the cache
+     * @param policy         the eviction policy (LRU or LFU)
+     */
+    public BitmapCache32(final long maxSizeInBytes, final int policy) {
+        if (maxSizeInBytes < 0)
+            throw new IllegalArgumentException("Negative maximal size: " + maxSizeInBytes);
+        if (policy != LRU && policy != LFU)
+            throw new IllegalArgumentException("Unknown eviction policy: " + policy);
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the bitwise and of the two bitmaps, as computed by a.and(b).
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return a new bitmap (it can be modified freely)
+     */
+    public EWAHCompressedBitmap32 and(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return bitmap(BitmapExpression32.and(a, b), a, b, AND);
+    }
+
+    /**
+     * Returns the bitwise or of the two bitmaps, as computed by a.or(b).
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return a new bitmap (it can be modified freely)
+     */
+    public EWAHCompressedBitmap32 or(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return bitmap(BitmapExpression32.or(a, b), a, b, OR);
+    }
+
+    /**
+     * Returns the bitwise xor of the two bitmaps, as computed by a.xor(b).
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return a new bitmap (it can be modified freely)
+     */
+    public EWAHCompressedBitmap32 xor(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return bitmap(BitmapExpression32.xor(a, b), a, b, XOR);
+    }
+
+    /**
+     * Returns a AND NOT b, as computed by a.andNot(b).
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return a new bitmap (it can be modified freely)
+     */
+    public EWAHCompressedBitmap32 andNot(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return bitmap(BitmapExpression32.andNot(BitmapExpression32.of(a), BitmapExpression32.of(b)), a, b, AND_NOT);
+    }
+
+    /**
+     * Evaluates the expression (see BitmapExpression32.evaluate()).
+     *
+     * @param expression the expression
+     * @return a new bitmap (it can be modified freely)
+     */
+    public EWAHCompressedBitmap32 evaluate(final BitmapExpression32 expression) {
+        return bitmap(expression, null, null, EXPRESSION);
+    }
+
+    /**
+     * Returns the cardinality of the bitwise and of the two bitmaps.
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return the cardinality
+     */
+    public long andCardinality(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return cardinality(BitmapExpression32.and(a, b), a, b, AND);
+    }
+
+    /**
+     * Returns the cardinality of the bitwise or of the two bitmaps.
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return the cardinality
+     */
+    public long orCardinality(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return cardinality(BitmapExpression32.or(a, b), a, b, OR);
+    }
+
+    /**
+     * Returns the cardinality of the bitwise xor of the two bitmaps.
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return the cardinality
+     */
+    public long xorCardinality(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return cardinality(BitmapExpression32.xor(a, b), a, b, XOR);
+    }
+
+    /**
+     * Returns the cardinality of a AND NOT b.
+     *
+     * @param a the first bitmap
+     * @param b the second bitmap
+     * @return the cardinality
+     */
+    public long andNotCardinality(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap32 b) {
+        return cardinality(BitmapExpression32.andNot(BitmapExpression32.of(a), BitmapExpression32.of(b)), a, b, AND_NOT);
+    }
+
+    /**
+     * Returns the cardinality of the value of the expression (see
+     * BitmapExpression32.cardinality()).
+     *
+     * @param expression the expression
+     * @return the cardinality
+     */
+    public long cardinality(final BitmapExpression32 expression) {
+        return cardinality(expression, null, null, EXPRESSION);
+    }
+
+    /**
+     * Removes the entries computed from bitmaps that have been modified
+     * since. Such entries are removed anyway when they are looked up or
+     * evicted; this frees their memory sooner.
+     *
+     * @return the number of removed entries
+     */
+    public synchronized int purge() {
+        int removed = 0;
+        final Iterator<Map.Entry<Key, Entry>> i = this.entries.entrySet().iterator();
+        while (i.hasNext()) {
+            final Map.Entry<Key, Entry> e = i.next();
+            if (!Arrays.equals(e.getValue().versions, e.getKey().versions())) {
+                this.sizeInBytes -= e.getValue().sizeInBytes;
+                i.remove();
+                ++this.invalidationCount;
+                ++removed;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all entries. The counters are not reset.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.sizeInBytes = 0;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the current size of the cache in bytes
+     */
+    public synchronized long sizeInBytes() {
+        return this.sizeInBytes;
+    }
+
+    /**
+     * @return the maximal size of the cache in bytes
+     */
+    public long getMaxSizeInBytes() {
+        return this.maxSizeInBytes;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return the number of lookups that required a computation
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * @return the number of entries evicted to respect the maximal size
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * @return the number of entries discarded because an operand was
+     * modified
+     */
+    public synchronized long getInvalidationCount() {
+        return this.invalidationCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapCache32{entries=" + this.entries.size() + ", sizeInBytes=" + this.sizeInBytes
+                + ", hits=" + this.hitCount + ", misses=" + this.missCount + ", evictions="
+                + this.evictionCount + ", invalidations=" + this.invalidationCount + "}";
+    }
+
+    private EWAHCompressedBitmap32 bitmap(final BitmapExpression32 expression, final EWAHCompressedBitmap32 a,
+                                        final EWAHCompressedBitmap32 b, final int operation) {
+        final Key key = new Key(expression);
+        final int[] versions = key.versions();
+        synchronized (this) {
+            final Entry e = lookup(key, versions);
+            if (e != null && e.bitmap != null) {
+                hit(e);
+                return e.bitmap.clone();
+            }
+            ++this.missCount;
+        }
+        final EWAHCompressedBitmap32 answer = compute(expression, a, b, operation);
+        synchronized (this) {
+            final Entry e = store(key, versions);
+            if (e.bitmap == null) {
+                e.bitmap = answer.clone();
+                resize(key, e);
+            }
+        }
+        return answer;
+    }
+
+    private long cardinality(final BitmapExpression32 expression, final EWAHCompressedBitmap32 a,
+                             final EWAHCompressedBitmap32 b, final int operation) {
+        final Key key = new Key(expression);
+        final int[] versions = key.versions();
+        synchronized (this) {
+            final Entry e = lookup(key, versions);
+            if (e != null && (e.cardinality >= 0 || e.bitmap != null)) {
+                hit(e);
+                if (e.cardinality < 0)
+                    e.cardinality = e.bitmap.cardinality();
+                return e.cardinality;
+            }
+            ++this.missCount;
+        }
+        final long answer;
+        switch (operation) {
+            case AND:
+                answer = a.andCardinality(b);
+                break;
+            case OR:
+                answer = a.orCardinality(b);
+                break;
+            case XOR:
+                answer = a.xorCardinality(b);
+                break;
+            case AND_NOT:
+                answer = a.andNotCardinality(b);
+                break;
+            default:
+                answer = expression.cardinality();
+        }
+        synchronized (this) {
+            store(key, versions).cardinality = answer;
+        }
+        return answer;
+    }
+
+    private static EWAHCompressedBitmap32 compute(final BitmapExpression32 expression, final EWAHCompressedBitmap32 a,
+                                                final EWAHCompressedBitmap32 b, final int operation) {
+        switch (operation) {
+            case AND:
+                return a.and(b);
+            case OR:
+                return a.or(b);
+            case XOR:
+                return a.xor(b);
+            case AND_NOT:
+                return a.andNot(b);
+            default:
+                return expression.evaluate();
+        }
+    }
+
+    /**
+     * For internal use (the lock must be held). Finds the entry, removing
+     * it if it is stale.
+     */
+    private Entry lookup(final Key key, final int[] versions) {
+        final Entry e = this.entries.get(key);
+        if (e == null)
+            return null;
+        if (!Arrays.equals(e.versions, versions)) {
+            this.entries.remove(key);
+            this.sizeInBytes -= e.sizeInBytes;
+            ++this.invalidationCount;
+            return null;
+        }
+        return e;
+    }
+
+    private void hit(final Entry e) {
+        ++this.hitCount;
+        ++e.frequency;
+    }
+
+    /**
+     * For internal use (the lock must be held). Finds or creates the entry
+     * for the given versions of the operands.
+     */
+    private Entry store(final Key key, final int[] versions) {
+        Entry e = lookup(key, versions);
+        if (e == null) {
+            e = new Entry(versions);
+            this.entries.put(key, e);
+            resize(key, e);
+        }
+        return e;
+    }
+
+    /**
+     * For internal use (the lock must be held). Accounts for the size of
+     * the entry, then evicts entries as needed.
+     */
+    private void resize(final Key key, final Entry e) {
+        final long size = ENTRY_SIZE_IN_BYTES + (e.bitmap == null ? 0 : e.bitmap.sizeInBytes());
+        this.sizeInBytes += size - e.sizeInBytes;
+        e.sizeInBytes = size;
+        if (size > this.maxSizeInBytes) {
+            // too large to be cached
+            this.entries.remove(key);
+            this.sizeInBytes -= size;
+            e.sizeInBytes = 0;
+            return;
+        }
+        while (this.sizeInBytes > this.maxSizeInBytes) {
+            Map.Entry<Key, Entry> victim = null;
+            for (Map.Entry<Key, Entry> candidate : this.entries.entrySet()) {
+                if (candidate.getValue() == e)
+                    continue;
+                if (victim == null) {
+                    victim = candidate;
+                    if (this.policy == LRU)
+                        break;
+                } else if (candidate.getValue().frequency < victim.getValue().frequency) {
+                    victim = candidate;
+                }
+            }
+            this.entries.remove(victim.getKey());
+            this.sizeInBytes -= victim.getValue().sizeInBytes;
+            ++this.evictionCount;
+        }
+    }
+
+    /**
+     * The bitmaps and operations of an expression, in prefix order.
+     */
+    private static final class Key {
+
+        Key(final BitmapExpression32 expression) {
+            final List<Object> description = new ArrayList<Object>();
+            expression.describe(description);
+            this.items = description.toArray();
+            int h = 1;
+            for (Object o : this.items)
+                h = 31 * h + (o instanceof EWAHCompressedBitmap32 ? System.identityHashCode(o) : o.hashCode());
+            this.hash = h;
+        }
+
+        /**
+         * @return the current versions of the bitmaps
+         */
+        int[] versions() {
+            int count = 0;
+            for (Object o : this.items)
+                if (o instanceof EWAHCompressedBitmap32)
+                    ++count;
+            final int[] answer = new int[count];
+            int k = 0;
+            for (Object o : this.items)
+                if (o instanceof EWAHCompressedBitmap32)
+                    answer[k++] = ((EWAHCompressedBitmap32) o).version;
+            return answer;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            if (this.hash != other.hash || this.items.length != other.items.length)
+                return false;
+            for (int k = 0; k < this.items.length; ++k) {
+                final Object x = this.items[k];
+                final Object y = other.items[k];
+                if (x != y && (x instanceof EWAHCompressedBitmap32 || !x.equals(y)))
+                    return false;
+            }
+            return true;
+        }
+
+        private final Object[] items;
+
+        private final int hash;
+    }
+
+    private static final class Entry {
+
+        Entry(final int[] versions) {
+            this.versions = versions;
+        }
+
+        /**
+         * The versions of the bitmaps when the entry was computed.
+         */
+        final int[] versions;
+
+        /**
+         * The result, or null if only the cardinality is known.
+         */
+        EWAHCompressedBitmap32 bitmap;
+
+        /**
+         * The cardinality of the result, or -1 if unknown.
+         */
+        long cardinality = -1;
+
+        long frequency = 1;
+
+        long sizeInBytes;
+    }
+
+    /**
+     * Estimated size of an entry, not counting the result bitmap.
+     */
+    private static final long ENTRY_SIZE_IN_BYTES = 8;
+
+    private static final int EXPRESSION = 0;
+
+    private static final int AND = 1;
+
+    private static final int OR = 2;
+
+    private static final int XOR = 3;
+
+    private static final int AND_NOT = 4;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    private final long maxSizeInBytes;
+
+    private final int policy;
+
+    private long sizeInBytes;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    private long invalidationCount;
+}
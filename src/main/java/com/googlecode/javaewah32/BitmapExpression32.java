@@ -0,0 +1,353 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.IntIterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A tree of logical operations over compressed bitmaps, evaluated lazily.
+ * For example, (A OR B OR C) AND NOT (D OR E) AND F can be written as
+ *
+ * <code>
+ * BitmapExpression32.and(BitmapExpression32.or(a, b, c),
+ *     BitmapExpression32.not(BitmapExpression32.or(d, e)), BitmapExpression32.of(f))
+ * </code>
+ *
+ * Instead of materializing a bitmap for each operation, the whole tree is
+ * turned into a single streaming iterator (see IteratorAggregation32): the
+ * result is only materialized at the root, or not at all if we only need
+ * its cardinality or its set bits.
+ *
+ * Each time the expression is evaluated, the operands of an and (resp.
+ * or, xor) are ordered by their estimated size in bytes, an and having an
+ * empty operand is empty, and empty operands of an or (resp. xor) are
+ * skipped. The complement (not) is taken with respect to the first
+ * sizeInBits() bits, where sizeInBits() is the largest size in bits among
+ * the bitmaps of the expression. The results are the same as those of the
+ * corresponding methods in the EWAHCompressedBitmap32 class.
+ *
+ * The bitmaps must not be modified while the expression is evaluated.
+ *
+ * @since 0.9.2
+ */
+public final class BitmapExpression32 {
+
+    private BitmapExpression32(final int operation, final EWAHCompressedBitmap32 bitmap,
+                             final BitmapExpression32[] operands) {
+        this.operation = operation;
+        this.bitmap = bitmap;
+        this.operands = operands;
+    }
+
+    /**
+     * @param bitmap a bitmap (it is not copied)
+     * @return an expression whose value is the bitmap
+     */
+    public static BitmapExpression32 of(final EWAHCompressedBitmap32 bitmap) {
+        if (bitmap == null)
+            throw new NullPointerException("bitmap");
+        return new BitmapExpression32(BITMAP, bitmap, null);
+    }
+
+    /**
+     * @param bitmaps some bitmaps (they are not copied)
+     * @return one expression per bitmap
+     */
+    public static BitmapExpression32[] of(final EWAHCompressedBitmap32... bitmaps) {
+        final BitmapExpression32[] answer = new BitmapExpression32[bitmaps.length];
+        for (int k = 0; k < bitmaps.length; ++k)
+            answer[k] = of(bitmaps[k]);
+        return answer;
+    }
+
+    /**
+     * @param operands the operands
+     * @return an expression computing the bitwise and of the operands
+     */
+    public static BitmapExpression32 and(final BitmapExpression32... operands) {
+        return combine(AND, operands);
+    }
+
+    /**
+     * @param bitmaps the operands
+     * @return an expression computing the bitwise and of the bitmaps
+     */
+    public static BitmapExpression32 and(final EWAHCompressedBitmap32... bitmaps) {
+        return and(of(bitmaps));
+    }
+
+    /**
+     * @param operands the operands
+     * @return an expression computing the bitwise or of the operands
+     */
+    public static BitmapExpression32 or(final BitmapExpression32... operands) {
+        return combine(OR, operands);
+    }
+
+    /**
+     * @param bitmaps the operands
+     * @return an expression computing the bitwise or of the bitmaps
+     */
+    public static BitmapExpression32 or(final EWAHCompressedBitmap32... bitmaps) {
+        return or(of(bitmaps));
+    }
+
+    /**
+     * @param operands the operands
+     * @return an expression computing the bitwise xor of the operands
+     */
+    public static BitmapExpression32 xor(final BitmapExpression32... operands) {
+        return combine(XOR, operands);
+    }
+
+    /**
+     * @param bitmaps the operands
+     * @return an expression computing the bitwise xor of the bitmaps
+     */
+    public static BitmapExpression32 xor(final EWAHCompressedBitmap32... bitmaps) {
+        return xor(of(bitmaps));
+    }
+
+    /**
+     * @param operand the operand
+     * @return an expression computing the bitwise negation of the operand
+     */
+    public static BitmapExpression32 not(final BitmapExpression32 operand) {
+        if (operand.operation == NOT)
+            return operand.operands[0];
+        return new BitmapExpression32(NOT, null, new BitmapExpression32[]{operand});
+    }
+
+    /**
+     * @param a the first operand
+     * @param b the second operand
+     * @return an expression computing a AND NOT b
+     */
+    public static BitmapExpression32 andNot(final BitmapExpression32 a, final BitmapExpression32 b) {
+        return and(a, not(b));
+    }
+
+    /**
+     * @return the largest size in bits among the bitmaps of the expression
+     */
+    public long sizeInBits() {
+        if (this.operation == BITMAP)
+            return this.bitmap.sizeInBits();
+        long answer = 0;
+        for (BitmapExpression32 e : this.operands)
+            answer = Math.max(answer, e.sizeInBits());
+        return answer;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @return a new bitmap, whose size in bits is sizeInBits()
+     */
+    public EWAHCompressedBitmap32 evaluate() {
+        final long sizeInBits = sizeInBits();
+        final EWAHCompressedBitmap32 answer = IteratorUtil32.materialize(iterator(sizeInBits));
+        answer.addStreamOfEmptyWords(false, (sizeInBits + EWAHCompressedBitmap32.WORD_IN_BITS - 1)
+                / EWAHCompressedBitmap32.WORD_IN_BITS - answer.sizeInBits() / EWAHCompressedBitmap32.WORD_IN_BITS);
+        answer.setSizeInBitsWithinLastWord(sizeInBits);
+        return answer;
+    }
+
+    /**
+     * Computes the number of set bits in the value of the expression,
+     * without materializing it.
+     *
+     * @return the cardinality
+     */
+    public long cardinality() {
+        final IteratingRLW32 i = iteratingRLW();
+        long answer = 0;
+        while (true) {
+            if (i.getRunningBit())
+                answer += i.getRunningLength() * EWAHCompressedBitmap32.WORD_IN_BITS;
+            for (int k = 0; k < i.getNumberOfLiteralWords(); ++k)
+                answer += Integer.bitCount(i.getLiteralWordAt(k));
+            if (!i.next())
+                break;
+        }
+        return answer;
+    }
+
+    /**
+     * Iterator over the set bits of the value of the expression, in
+     * increasing order, without materializing it.
+     *
+     * @return the int iterator
+     */
+    public IntIterator intIterator() {
+        return IteratorUtil32.toSetBitsIntIterator(iteratingRLW());
+    }
+
+    /**
+     * Streaming iterator over the words of the value of the expression. It
+     * might end before sizeInBits(): the remaining bits are not set.
+     *
+     * @return the iterator
+     */
+    public IteratingRLW32 iteratingRLW() {
+        return iterator(sizeInBits());
+    }
+
+    /**
+     * For internal use. Appends a description of the expression in prefix
+     * order: a leaf is described by its bitmap, an operation by its code
+     * and number of operands, followed by the operands.
+     *
+     * @param items where we append the description
+     */
+    void describe(final List<Object> items) {
+        if (this.operation == BITMAP) {
+            items.add(this.bitmap);
+            return;
+        }
+        items.add(this.operation);
+        items.add(this.operands.length);
+        for (BitmapExpression32 e : this.operands)
+            e.describe(items);
+    }
+
+    private static BitmapExpression32 combine(final int operation, final BitmapExpression32[] operands) {
+        if (operands.length == 0)
+            throw new IllegalArgumentException("Need at least one operand");
+        if (operands.length == 1)
+            return operands[0];
+        final List<BitmapExpression32> flattened = new ArrayList<BitmapExpression32>(operands.length);
+        for (BitmapExpression32 e : operands) {
+            if (e.operation == operation)
+                Collections.addAll(flattened, e.operands);
+            else
+                flattened.add(e);
+        }
+        return new BitmapExpression32(operation, null,
+                flattened.toArray(new BitmapExpression32[flattened.size()]));
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param universe the number of bits negations apply to
+     * @return whether the value of the expression is known to be empty
+     * without reading the bitmaps
+     */
+    private boolean isEmpty(final long universe) {
+        switch (this.operation) {
+            case BITMAP:
+                return this.bitmap.isEmpty();
+            case NOT:
+                return universe == 0;
+            case AND:
+                for (BitmapExpression32 e : this.operands)
+                    if (e.isEmpty(universe))
+                        return true;
+                return false;
+            default:
+                for (BitmapExpression32 e : this.operands)
+                    if (!e.isEmpty(universe))
+                        return false;
+                return true;
+        }
+    }
+
+    /**
+     * For internal use.
+     *
+     * @return an estimate of the size in bytes of the value of the
+     * expression
+     */
+    private long cost() {
+        switch (this.operation) {
+            case BITMAP:
+                return this.bitmap.sizeInBytes();
+            case NOT:
+                return this.operands[0].cost();
+            case AND:
+                long min = Long.MAX_VALUE;
+                for (BitmapExpression32 e : this.operands)
+                    min = Math.min(min, e.cost());
+                return min;
+            default:
+                long sum = 0;
+                for (BitmapExpression32 e : this.operands)
+                    sum += e.cost();
+                return sum;
+        }
+    }
+
+    /**
+     * For internal use. Builds the iterator over the value of the
+     * expression.
+     *
+     * @param universe the number of bits negations apply to
+     */
+    private IteratingRLW32 iterator(final long universe) {
+        if (isEmpty(universe))
+            return new EWAHCompressedBitmap32().getIteratingRLW();
+        switch (this.operation) {
+            case BITMAP:
+                return this.bitmap.getIteratingRLW();
+            case NOT:
+                // IteratorAggregation32.not stops where the operand stops,
+                // so we xor with the first "universe" bits instead
+                final EWAHCompressedBitmap32 ones = new EWAHCompressedBitmap32();
+                ones.setSizeInBits(universe, true);
+                return IteratorAggregation32.bufferedxor(ones.getIteratingRLW(),
+                        this.operands[0].iterator(universe));
+            default:
+                final List<BitmapExpression32> sorted = new ArrayList<BitmapExpression32>(this.operands.length);
+                for (BitmapExpression32 e : this.operands)
+                    if (!e.isEmpty(universe))
+                        sorted.add(e);
+                Collections.sort(sorted, new Comparator<BitmapExpression32>() {
+                    @Override
+                    public int compare(BitmapExpression32 a, BitmapExpression32 b) {
+                        final long ca = a.cost();
+                        final long cb = b.cost();
+                        return ca < cb ? -1 : ca == cb ? 0 : 1;
+                    }
+                });
+                final IteratingRLW32[] iterators = new IteratingRLW32[sorted.size()];
+                for (int k = 0; k < iterators.length; ++k)
+                    iterators[k] = sorted.get(k).iterator(universe);
+                if (this.operation == AND)
+                    return IteratorAggregation32.bufferedand(iterators);
+                if (this.operation == OR)
+                    return IteratorAggregation32.bufferedor(iterators);
+                return IteratorAggregation32.bufferedxor(iterators);
+        }
+    }
+
+    private static final int BITMAP = 0;
+
+    private static final int AND = 1;
+
+    private static final int OR = 2;
+
+    private static final int XOR = 3;
+
+    private static final int NOT = 4;
+
+    private final int operation;
+
+    /**
+     * The value of a leaf, null otherwise.
+     */
+    private final EWAHCompressedBitmap32 bitmap;
+
+    /**
+     * The operands of an operation, null for a leaf.
+     */
+    private final BitmapExpression32[] operands;
+}
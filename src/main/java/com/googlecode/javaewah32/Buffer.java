@@ -10,8 +10,14 @@ interface Buffer {
 	
 	int[] getWords();
 	
+	void writeLiteralWords(int start, int number, BitmapStorage32 container);
+	
+	void writeNegatedLiteralWords(int start, int number, BitmapStorage32 container);
+	
 	void clear();
 	
+	void reserve(int sizeInWords);
+	
 	void trim();
 	
 	void setWord(int position, int word);
@@ -40,6 +46,8 @@ interface Buffer {
 	
 	void collapse(int position, int length);
 	
+	void release();
+	
 	Buffer clone();
 
 }
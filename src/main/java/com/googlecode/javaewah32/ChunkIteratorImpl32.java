@@ -95,11 +95,13 @@ final class ChunkIteratorImpl32 implements ChunkIterator {
     }
 
     private boolean literalHasNext() {
-        while (this.word == 0 && this.wordPosition < this.wordLength) {
+        // the mask goes through every bit of a literal word, including its
+        // trailing zeros, before the next literal word is loaded
+        while (this.wordMask == 0 && this.wordPosition < this.wordLength) {
             this.word = this.buffer.getWord(this.wordPosition++);
             this.wordMask = 1;
         }
-        return this.word != 0 || (!hasNextRLW() && this.position < this.sizeInBits);
+        return (this.wordMask != 0 || !hasNextRLW()) && this.position < this.sizeInBits;
     }
 
     private boolean hasNextRLW() {
@@ -111,25 +113,28 @@ final class ChunkIteratorImpl32 implements ChunkIterator {
     }
 
     private void updateNext() {
-        if(runningHasNext()) {
-            if(this.nextBit == null || this.nextBit == this.runningBit) {
+        // a loop rather than recursion: a chunk may span many words
+        while (true) {
+            if (runningHasNext()) {
+                if (this.nextBit != null && this.nextBit != this.runningBit)
+                    return;
                 this.nextBit = this.runningBit;
                 long offset = runningOffset();
                 this.nextLength += offset;
                 movePosition(offset);
-                updateNext();
-            }
-        } else if (literalHasNext()) {
-            boolean b = currentWordBit();
-            if(this.nextBit == null || this.nextBit == b) {
+            } else if (literalHasNext()) {
+                boolean b = currentWordBit();
+                if (this.nextBit != null && this.nextBit != b)
+                    return;
                 this.nextBit = b;
                 this.nextLength++;
                 movePosition(1);
                 shiftWordMask();
-                updateNext();
+            } else if (hasNextRLW()) {
+                setRLW(nextRLW());
+            } else {
+                return;
             }
-        } else {
-            moveToNextRLW();
         }
     }
 
@@ -26,6 +26,19 @@ public final class EWAHIterator32 implements Cloneable {
         this.pointer = 0;
     }
 
+    /**
+     * Instantiates a new EWAH iterator starting at a given running length
+     * word.
+     *
+     * @param buffer   the buffer
+     * @param position position of the running length word in the buffer
+     */
+    EWAHIterator32(final Buffer buffer, final int position) {
+        this.rlw = new RunningLengthWord32(buffer, position);
+        this.size = buffer.sizeInWords();
+        this.pointer = position;
+    }
+
     /**
      * Allow expert developers to instantiate an EWAHIterator.
      *
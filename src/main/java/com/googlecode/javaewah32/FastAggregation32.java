@@ -1,9 +1,18 @@
 package com.googlecode.javaewah32;
 
+import com.googlecode.javaewah.LogicalElement;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /*
  * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
@@ -207,6 +216,77 @@ public final class FastAggregation32 {
         container.setSizeInBitsWithinLastWord(range);
     }
 
+    /**
+     * Compute the and, or and xor aggregates in a single pass over the
+     * bitmaps, using temporary uncompressed bitmaps. It is expected to be
+     * faster than computing the aggregates one after the other.
+     *
+     * Each container is optional (it can be null) and its content is
+     * overwritten. To compute only the cardinalities, BitCounter objects
+     * can be used as containers.
+     *
+     * @param andContainer where the and aggregate is written (or null)
+     * @param orContainer  where the or aggregate is written (or null)
+     * @param xorContainer where the xor aggregate is written (or null)
+     * @param bufSize      buffer size used during the computation in 32-bit
+     *                     words
+     * @param bitmaps      the source bitmaps
+     * @since 0.9.2
+     */
+    public static void bufferedandorxorWithContainers(
+            final BitmapStorage32 andContainer, final BitmapStorage32 orContainer,
+            final BitmapStorage32 xorContainer, final int bufSize,
+            final EWAHCompressedBitmap32... bitmaps) {
+        final BitmapStorage32[] containers = {andContainer, orContainer, xorContainer};
+        for (BitmapStorage32 container : containers)
+            if (container != null)
+                container.clear();
+        long range = 0;
+        final java.util.LinkedList<IteratingRLW32> ll = new java.util.LinkedList<IteratingRLW32>();
+        for (EWAHCompressedBitmap32 bitmap : bitmaps) {
+            range = Math.max(range, bitmap.sizeInBits());
+            ll.add(bitmap.getIteratingRLW());
+        }
+        final int[] and = andContainer == null ? null : new int[bufSize];
+        final int[] or = orContainer == null ? null : new int[bufSize];
+        final int[] xor = xorContainer == null ? null : new int[bufSize];
+        // once an input is exhausted, the and aggregate is made of zeros
+        boolean andIsEmpty = false;
+        while (!ll.isEmpty()) {
+            final int[] andBuffer = andIsEmpty ? null : and;
+            if (and != null)
+                Arrays.fill(and, andIsEmpty ? 0 : ~0);
+            int effective = 0;
+            final java.util.Iterator<IteratingRLW32> i = ll.iterator();
+            while (i.hasNext()) {
+                final IteratingRLW32 rlw = i.next();
+                final int eff = IteratorAggregation32.inplaceandorxor(andBuffer, or, xor, bufSize, rlw);
+                if (eff < bufSize && andBuffer != null)
+                    Arrays.fill(andBuffer, eff, bufSize, 0);
+                effective = Math.max(effective, eff);
+                if (rlw.size() == 0) {
+                    i.remove();
+                    andIsEmpty = true;
+                }
+            }
+            for (int k = 0; k < effective; ++k) {
+                if (and != null)
+                    andContainer.addWord(and[k]);
+                if (or != null)
+                    orContainer.addWord(or[k]);
+                if (xor != null)
+                    xorContainer.addWord(xor[k]);
+            }
+            if (or != null)
+                Arrays.fill(or, 0, effective, 0);
+            if (xor != null)
+                Arrays.fill(xor, 0, effective, 0);
+        }
+        for (BitmapStorage32 container : containers)
+            if (container != null)
+                container.setSizeInBitsWithinLastWord(range);
+    }
+
     /**
      * Uses a priority queue to compute the or aggregate.
      * 
@@ -273,6 +353,285 @@ public final class FastAggregation32 {
         pq.poll().xorToContainer(pq.poll(), container);
     }
 
+    /**
+     * Computes the or aggregate in parallel. The bitmaps are split into
+     * groups of similar total size, a few per available processor; each group
+     * is aggregated by a task submitted to the executor (using a priority
+     * queue: the two smallest bitmaps are always aggregated first), and the
+     * partial results are then merged pairwise (balanced tree). The result
+     * has the same set bits as the result of EWAHCompressedBitmap32.or.
+     *
+     * The calling thread waits for the tasks: the executor should not be
+     * one whose threads are all busy calling this method.
+     *
+     * @param <T>      a class extending LogicalElement (like a compressed
+     *                 bitmap)
+     * @param executor runs the tasks
+     * @param bitmaps  bitmaps to be aggregated
+     * @return the or aggregate
+     * @since 0.9.2
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static <T extends LogicalElement> T or(final ExecutorService executor, final T... bitmaps) {
+        return parallelReduce(executor, bitmaps, false);
+    }
+
+    /**
+     * Computes the xor aggregate in parallel, as described for
+     * or(ExecutorService, T...). The result has the same set bits as the
+     * result of EWAHCompressedBitmap32.xor.
+     *
+     * @param <T>      a class extending LogicalElement (like a compressed
+     *                 bitmap)
+     * @param executor runs the tasks
+     * @param bitmaps  bitmaps to be aggregated
+     * @return the xor aggregate
+     * @since 0.9.2
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static <T extends LogicalElement> T xor(final ExecutorService executor, final T... bitmaps) {
+        return parallelReduce(executor, bitmaps, true);
+    }
+
+    /**
+     * Compute the or aggregate in parallel using temporary uncompressed
+     * bitmaps. The bitmaps are split into groups of similar total size,
+     * a few per available processor; each group is aggregated by a task
+     * submitted to the executor (calling bufferedor), and the partial results
+     * are merged by the calling thread. The result is the same as the result
+     * of bufferedor.
+     *
+     * The calling thread waits for the tasks: the executor should not be
+     * one whose threads are all busy calling this method.
+     *
+     * @param executor runs the tasks
+     * @param bufSize  buffer size used during the computation in 64-bit
+     *                 words
+     * @param bitmaps  the source bitmaps
+     * @return the or aggregate.
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap32 bufferedor(final ExecutorService executor, final int bufSize,
+                                                    final EWAHCompressedBitmap32... bitmaps) {
+        EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        bufferedorWithContainer(answer, executor, bufSize, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the or aggregate in parallel using temporary uncompressed
+     * bitmaps (see bufferedor(ExecutorService, int, EWAHCompressedBitmap32...)).
+     *
+     * @param container where the aggregate is written
+     * @param executor  runs the tasks
+     * @param bufSize   buffer size used during the computation in 64-bit
+     *                  words
+     * @param bitmaps   the source bitmaps
+     * @since 0.9.2
+     */
+    public static void bufferedorWithContainer(final BitmapStorage32 container, final ExecutorService executor,
+                                               final int bufSize, final EWAHCompressedBitmap32... bitmaps) {
+        bufferedorWithContainer(container, bufSize, parallelBuffered(executor, bufSize, bitmaps, false));
+    }
+
+    /**
+     * Compute the xor aggregate in parallel using temporary uncompressed
+     * bitmaps (see bufferedor(ExecutorService, int, EWAHCompressedBitmap32...)).
+     *
+     * @param executor runs the tasks
+     * @param bufSize  buffer size used during the computation in 64-bit
+     *                 words
+     * @param bitmaps  the source bitmaps
+     * @return the xor aggregate.
+     * @since 0.9.2
+     */
+    public static EWAHCompressedBitmap32 bufferedxor(final ExecutorService executor, final int bufSize,
+                                                     final EWAHCompressedBitmap32... bitmaps) {
+        EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        bufferedxorWithContainer(answer, executor, bufSize, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the xor aggregate in parallel using temporary uncompressed
+     * bitmaps (see bufferedor(ExecutorService, int, EWAHCompressedBitmap32...)).
+     *
+     * @param container where the aggregate is written
+     * @param executor  runs the tasks
+     * @param bufSize   buffer size used during the computation in 64-bit
+     *                  words
+     * @param bitmaps   the source bitmaps
+     * @since 0.9.2
+     */
+    public static void bufferedxorWithContainer(final BitmapStorage32 container, final ExecutorService executor,
+                                                final int bufSize, final EWAHCompressedBitmap32... bitmaps) {
+        bufferedxorWithContainer(container, bufSize, parallelBuffered(executor, bufSize, bitmaps, true));
+    }
+
+    /**
+     * For internal use. Aggregates the bitmaps with a priority queue: the
+     * two smallest bitmaps are always aggregated first.
+     *
+     * @param bitmaps bitmaps to be aggregated
+     * @param xor     whether we compute a xor (otherwise, an or)
+     * @return the aggregate
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <T extends LogicalElement> T reduce(final Collection<T> bitmaps, final boolean xor) {
+        PriorityQueue<T> pq = new PriorityQueue<T>(bitmaps.size(),
+                new Comparator<T>() {
+                    @Override
+                    public int compare(T a, T b) {
+                        return a.sizeInBytes()
+                                - b.sizeInBytes();
+                    }
+                }
+        );
+        pq.addAll(bitmaps);
+        while (pq.size() > 1) {
+            T x1 = pq.poll();
+            T x2 = pq.poll();
+            pq.add((T) (xor ? x1.xor(x2) : x1.or(x2)));
+        }
+        return pq.poll();
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <T extends LogicalElement> T parallelReduce(final ExecutorService executor, final T[] bitmaps,
+                                                               final boolean xor) {
+        final List<List<T>> groups = partition(bitmaps);
+        if (groups.size() < 2)
+            return reduce(Arrays.asList(bitmaps), xor);
+        List<Future<T>> tasks = new ArrayList<Future<T>>(groups.size());
+        for (final List<T> group : groups)
+            tasks.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return reduce(group, xor);
+                }
+            }));
+        List<T> partial = getAll(tasks);
+        while (partial.size() > 1) {
+            Collections.sort(partial, new Comparator<T>() {
+                @Override
+                public int compare(T a, T b) {
+                    return a.sizeInBytes() - b.sizeInBytes();
+                }
+            });
+            tasks = new ArrayList<Future<T>>(partial.size() / 2);
+            for (int k = 0; k + 1 < partial.size(); k += 2) {
+                final T x1 = partial.get(k);
+                final T x2 = partial.get(k + 1);
+                tasks.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() {
+                        return (T) (xor ? x1.xor(x2) : x1.or(x2));
+                    }
+                }));
+            }
+            final List<T> merged = getAll(tasks);
+            if (partial.size() % 2 == 1)
+                merged.add(partial.get(partial.size() - 1));
+            partial = merged;
+        }
+        return partial.get(0);
+    }
+
+    /**
+     * For internal use. Aggregates groups of bitmaps in parallel with
+     * bufferedor or bufferedxor.
+     *
+     * @return the partial aggregates
+     */
+    private static EWAHCompressedBitmap32[] parallelBuffered(final ExecutorService executor, final int bufSize,
+                                                             final EWAHCompressedBitmap32[] bitmaps,
+                                                             final boolean xor) {
+        final List<List<EWAHCompressedBitmap32>> groups = partition(bitmaps);
+        if (groups.size() < 2)
+            return bitmaps;
+        final List<Future<EWAHCompressedBitmap32>> tasks = new ArrayList<Future<EWAHCompressedBitmap32>>(
+                groups.size());
+        for (final List<EWAHCompressedBitmap32> group : groups)
+            tasks.add(executor.submit(new Callable<EWAHCompressedBitmap32>() {
+                @Override
+                public EWAHCompressedBitmap32 call() {
+                    final EWAHCompressedBitmap32[] g = group.toArray(new EWAHCompressedBitmap32[group.size()]);
+                    return xor ? bufferedxor(bufSize, g) : bufferedor(bufSize, g);
+                }
+            }));
+        final List<EWAHCompressedBitmap32> partial = getAll(tasks);
+        return partial.toArray(new EWAHCompressedBitmap32[partial.size()]);
+    }
+
+    /**
+     * For internal use. Waits for the tasks to complete.
+     *
+     * @param tasks the tasks
+     * @return their results, in order
+     */
+    static <T> List<T> getAll(final List<Future<T>> tasks) {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> task : tasks)
+                results.add(task.get());
+        } catch (InterruptedException e) {
+            for (Future<T> task : tasks)
+                task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for the aggregation", e);
+        } catch (ExecutionException e) {
+            for (Future<T> task : tasks)
+                task.cancel(true);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * For internal use. Splits the bitmaps into groups of similar total
+     * size (in bytes): the largest bitmaps are assigned first, each to the
+     * group that is currently the smallest. We create TASKS_PER_PROCESSOR
+     * groups per available processor, so that the load remains balanced
+     * when some tasks are slower, with at least MIN_GROUP_SIZE bitmaps per
+     * group.
+     *
+     * @param bitmaps bitmaps to be aggregated
+     * @return the groups
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <T extends LogicalElement> List<List<T>> partition(final T[] bitmaps) {
+        final int count = Math.min(TASKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors(),
+                bitmaps.length / MIN_GROUP_SIZE);
+        final List<List<T>> groups = new ArrayList<List<T>>(Math.max(count, 1));
+        if (count < 2) {
+            groups.add(Arrays.asList(bitmaps));
+            return groups;
+        }
+        final T[] sorted = bitmaps.clone();
+        Arrays.sort(sorted, new Comparator<T>() {
+            @Override
+            public int compare(T a, T b) {
+                return b.sizeInBytes() - a.sizeInBytes();
+            }
+        });
+        final long[] sizes = new long[count];
+        for (int k = 0; k < count; ++k)
+            groups.add(new ArrayList<T>());
+        for (T bitmap : sorted) {
+            int smallest = 0;
+            for (int k = 1; k < count; ++k)
+                if (sizes[k] < sizes[smallest])
+                    smallest = k;
+            groups.get(smallest).add(bitmap);
+            sizes[smallest] += bitmap.sizeInBytes();
+        }
+        return groups;
+    }
+
     /**
      * For internal use. Computes the bitwise or of the provided bitmaps and
      * stores the result in the container. (This used to be the default.)
@@ -428,4 +787,15 @@ public final class FastAggregation32 {
         container.setSizeInBitsWithinLastWord(maxSize);
     }
 
+    /**
+     * Smallest number of bitmaps aggregated by a task.
+     */
+    private static final int MIN_GROUP_SIZE = 2;
+
+    /**
+     * Number of tasks created per available processor by the parallel
+     * aggregations.
+     */
+    private static final int TASKS_PER_PROCESSOR = 4;
+
 }
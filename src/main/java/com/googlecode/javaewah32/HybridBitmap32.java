@@ -0,0 +1,867 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.IntIterator;
+import com.googlecode.javaewah.LogicalElement;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A bitmap that picks its representation per block of BLOCK_BITS bits. EWAH
+ * compression is poor at both extremes: very sparse data costs a literal
+ * word per set bit, and dense data where all words are dirty gains nothing
+ * over an uncompressed bitmap. Each non-empty block is therefore stored as
+ * one of:
+ * <ul>
+ * <li>a sorted array of positions, when it has at most ARRAY_MAX set bits;</li>
+ * <li>uncompressed words (as in datastructure.BitSet), when most of its
+ * words are dirty;</li>
+ * <li>an EWAH compressed bitmap otherwise, e.g., for long runs.</li>
+ * </ul>
+ *
+ * The results of logical operations are stored in the representation that
+ * suits their density. When the bitmap is modified, a block is converted
+ * when it outgrows its representation (an array with too many positions, an
+ * EWAH bitmap larger than uncompressed words) or, for uncompressed words,
+ * when it becomes sparse. The trim method picks the best representation for
+ * all blocks again.
+ *
+ * Positions are non-negative integers. It implements LogicalElement so that
+ * the aggregation methods of FastAggregation apply. It is not thread safe.
+ *
+ * @since 0.9.2
+ */
+public final class HybridBitmap32 implements Cloneable, LogicalElement<HybridBitmap32> {
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public HybridBitmap32() {
+        this.keys = new int[4];
+        this.blocks = new Object[4];
+    }
+
+    /**
+     * Creates a bitmap with the given bits set.
+     *
+     * @param setBits the positions of the set bits (in any order)
+     * @return the bitmap
+     */
+    public static HybridBitmap32 bitmapOf(final int... setBits) {
+        final HybridBitmap32 answer = new HybridBitmap32();
+        for (int i : setBits)
+            answer.set(i);
+        return answer;
+    }
+
+    /**
+     * Converts an EWAH compressed bitmap.
+     *
+     * @param bitmap the bitmap (it will not be modified)
+     * @return the bitmap with the same bits set and the same size in bits
+     * @throws IllegalArgumentException if the bitmap has more than 2^31 bits
+     */
+    public static HybridBitmap32 valueOf(final EWAHCompressedBitmap32 bitmap) {
+        if (bitmap.sizeInBits() > Integer.MAX_VALUE + 1l)
+            throw new IllegalArgumentException("Too many bits: " + bitmap.sizeInBits());
+        final HybridBitmap32 answer = new HybridBitmap32();
+        answer.sizeInBits = bitmap.sizeInBits();
+        final IteratingRLW32 i = bitmap.getIteratingRLW();
+        for (int key = 0; i.size() > 0; ++key) {
+            if (!i.getRunningBit() && i.getRunningLength() >= BLOCK_WORDS) {
+                final long emptyBlocks = i.getRunningLength() / BLOCK_WORDS;
+                i.discardFirstWords((int) emptyBlocks * BLOCK_WORDS);
+                key += (int) emptyBlocks - 1;
+                continue;
+            }
+            final int[] words = new int[BLOCK_WORDS];
+            int pos = 0;
+            while (pos < BLOCK_WORDS && i.size() > 0) {
+                final int runLength = Math.min(i.getRunningLength(), BLOCK_WORDS - pos);
+                if (i.getRunningBit())
+                    Arrays.fill(words, pos, pos + runLength, ~0);
+                pos += runLength;
+                final int literals = Math.min(i.getNumberOfLiteralWords(), BLOCK_WORDS - pos);
+                for (int k = 0; k < literals; ++k)
+                    words[pos + k] = i.getLiteralWordAt(k);
+                pos += literals;
+                i.discardFirstWords(runLength + literals);
+            }
+            final Object block = normalize(words);
+            if (block != null)
+                answer.append(key, block);
+        }
+        return answer;
+    }
+
+    /**
+     * Converts to an EWAH compressed bitmap.
+     *
+     * @return the bitmap with the same bits set and the same size in bits
+     */
+    public EWAHCompressedBitmap32 toEWAHCompressedBitmap() {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        final long totalWords = (this.sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS;
+        long pos = 0;
+        for (int k = 0; k < this.size; ++k) {
+            final long start = (long) this.keys[k] * BLOCK_WORDS;
+            if (start > pos)
+                answer.addStreamOfEmptyWords(false, start - pos);
+            final int[] words = words(this.blocks[k]);
+            final int n = (int) Math.min(BLOCK_WORDS, totalWords - start);
+            for (int w = 0; w < n; ++w)
+                answer.addWord(words[w]);
+            pos = start + n;
+        }
+        if (totalWords > pos)
+            answer.addStreamOfEmptyWords(false, totalWords - pos);
+        answer.setSizeInBitsWithinLastWord(this.sizeInBits);
+        return answer;
+    }
+
+    /**
+     * Query the value of a single bit.
+     *
+     * @param i the bit we are interested in
+     * @return whether the bit is set to true
+     */
+    public boolean get(final int i) {
+        if (i < 0)
+            return false;
+        final int k = Arrays.binarySearch(this.keys, 0, this.size, i >>> BLOCK_SHIFT);
+        return k >= 0 && contains(this.blocks[k], i & BLOCK_MASK);
+    }
+
+    /**
+     * Set the bit at position i to true. The bits can be set in any order.
+     *
+     * @param i the index
+     * @throws IndexOutOfBoundsException if i is negative
+     */
+    public void set(final int i) {
+        if (i < 0)
+            throw new IndexOutOfBoundsException("Negative position: " + i);
+        final int pos = i & BLOCK_MASK;
+        final int k = Arrays.binarySearch(this.keys, 0, this.size, i >>> BLOCK_SHIFT);
+        this.sizeInBits = Math.max(this.sizeInBits, i + 1l);
+        if (k < 0) {
+            insert(-k - 1, i >>> BLOCK_SHIFT, new char[]{(char) pos});
+            return;
+        }
+        final Object block = this.blocks[k];
+        if (block instanceof char[]) {
+            final char[] array = (char[]) block;
+            final int p = Arrays.binarySearch(array, (char) pos);
+            if (p >= 0)
+                return;
+            final char[] newArray = new char[array.length + 1];
+            System.arraycopy(array, 0, newArray, 0, -p - 1);
+            newArray[-p - 1] = (char) pos;
+            System.arraycopy(array, -p - 1, newArray, -p, array.length + p + 1);
+            this.blocks[k] = normalize(newArray);
+        } else if (block instanceof int[]) {
+            ((int[]) block)[pos / WORD_IN_BITS] |= 1 << (pos % WORD_IN_BITS);
+        } else {
+            final EWAHCompressedBitmap32 ewah = (EWAHCompressedBitmap32) block;
+            ewah.set(pos);
+            if (ewah.sizeInBytes() >= DENSE_BYTES)
+                this.blocks[k] = toWords(ewah);
+        }
+    }
+
+    /**
+     * Set the bit at position i to false. The size in bits is not modified.
+     *
+     * @param i the index
+     * @throws IndexOutOfBoundsException if i is negative
+     */
+    public void clear(final int i) {
+        if (i < 0)
+            throw new IndexOutOfBoundsException("Negative position: " + i);
+        final int pos = i & BLOCK_MASK;
+        final int k = Arrays.binarySearch(this.keys, 0, this.size, i >>> BLOCK_SHIFT);
+        if (k < 0)
+            return;
+        final Object block = this.blocks[k];
+        if (block instanceof char[]) {
+            final char[] array = (char[]) block;
+            final int p = Arrays.binarySearch(array, (char) pos);
+            if (p < 0)
+                return;
+            if (array.length == 1) {
+                remove(k);
+                return;
+            }
+            final char[] newArray = new char[array.length - 1];
+            System.arraycopy(array, 0, newArray, 0, p);
+            System.arraycopy(array, p + 1, newArray, p, array.length - p - 1);
+            this.blocks[k] = newArray;
+        } else if (block instanceof int[]) {
+            final int[] words = (int[]) block;
+            words[pos / WORD_IN_BITS] &= ~(1 << (pos % WORD_IN_BITS));
+            // only count when a word empties
+            if (words[pos / WORD_IN_BITS] == 0 && cardinality(words) <= ARRAY_MAX / 2)
+                replace(k, normalize(words));
+        } else {
+            final EWAHCompressedBitmap32 ewah = (EWAHCompressedBitmap32) block;
+            ewah.clear(pos);
+            if (ewah.isEmpty())
+                remove(k);
+        }
+    }
+
+    /**
+     * Clear any set bits and set size in bits back to 0
+     */
+    public void clear() {
+        this.keys = new int[4];
+        this.blocks = new Object[4];
+        this.size = 0;
+        this.sizeInBits = 0;
+    }
+
+    /**
+     * @return the number of bits set to true
+     */
+    public long cardinality() {
+        long answer = 0;
+        for (int k = 0; k < this.size; ++k)
+            answer += cardinality(this.blocks[k]);
+        return answer;
+    }
+
+    /**
+     * @return whether no bit is set
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Iterator over the set bits, in increasing order.
+     *
+     * @return the iterator
+     */
+    public IntIterator intIterator() {
+        return new HybridIntIterator32();
+    }
+
+    /**
+     * @return the positions of the set bits, in increasing order
+     */
+    public int[] toArray() {
+        final int[] answer = new int[(int) cardinality()];
+        final IntIterator i = intIterator();
+        for (int k = 0; k < answer.length; ++k)
+            answer[k] = i.next();
+        return answer;
+    }
+
+    /**
+     * Picks the best representation for each block again, and releases
+     * unused memory.
+     */
+    public void trim() {
+        int n = 0;
+        for (int k = 0; k < this.size; ++k) {
+            final Object block = normalize(toWords(this.blocks[k]));
+            if (block != null) {
+                this.keys[n] = this.keys[k];
+                this.blocks[n++] = block;
+            }
+        }
+        this.size = n;
+        this.keys = Arrays.copyOf(this.keys, n);
+        this.blocks = Arrays.copyOf(this.blocks, n);
+    }
+
+    @Override
+    public HybridBitmap32 and(final HybridBitmap32 a) {
+        return apply(a, AND);
+    }
+
+    @Override
+    public HybridBitmap32 andNot(final HybridBitmap32 a) {
+        return apply(a, ANDNOT);
+    }
+
+    @Override
+    public HybridBitmap32 or(final HybridBitmap32 a) {
+        return apply(a, OR);
+    }
+
+    @Override
+    public HybridBitmap32 xor(final HybridBitmap32 a) {
+        return apply(a, XOR);
+    }
+
+    /**
+     * Negate (bitwise) the current bitmap, within its size in bits.
+     */
+    @Override
+    public void not() {
+        final int blockCount = (int) ((this.sizeInBits + BLOCK_BITS - 1) / BLOCK_BITS);
+        final HybridBitmap32 answer = new HybridBitmap32();
+        for (int key = 0, k = 0; key < blockCount; ++key) {
+            final int[] words;
+            if (k < this.size && this.keys[k] == key)
+                words = toWords(this.blocks[k++]);
+            else
+                words = new int[BLOCK_WORDS];
+            final int bits = (int) Math.min(BLOCK_BITS, this.sizeInBits - (long) key * BLOCK_BITS);
+            for (int w = 0; w < bits / WORD_IN_BITS; ++w)
+                words[w] = ~words[w];
+            if (bits % WORD_IN_BITS != 0)
+                words[bits / WORD_IN_BITS] ^= (1 << (bits % WORD_IN_BITS)) - 1;
+            final Object block = normalize(words);
+            if (block != null)
+                answer.append(key, block);
+        }
+        this.keys = answer.keys;
+        this.blocks = answer.blocks;
+        this.size = answer.size;
+    }
+
+    /**
+     * Returns a new bitmap containing the composition of the current
+     * bitmap with some other bitmap: the ith set bit of the current bitmap
+     * is retained only if the ith bit of the other bitmap is set.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the composition
+     */
+    @Override
+    public HybridBitmap32 compose(final HybridBitmap32 a) {
+        final HybridBitmap32 answer = new HybridBitmap32();
+        final IntIterator i = intIterator();
+        final IntIterator j = a.intIterator();
+        int rank = 0;
+        while (j.hasNext()) {
+            final int r = j.next();
+            for (; rank < r && i.hasNext(); ++rank)
+                i.next();
+            if (!i.hasNext())
+                break;
+            answer.set(i.next());
+            ++rank;
+        }
+        answer.sizeInBits = this.sizeInBits;
+        return answer;
+    }
+
+    @Override
+    public long sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * Report the number of bytes used by the blocks (the arrays of
+     * positions, the uncompressed words and the compressed bitmaps) and
+     * their indexes.
+     *
+     * @return the size in bytes
+     */
+    @Override
+    public int sizeInBytes() {
+        int answer = this.size * 4;
+        for (int k = 0; k < this.size; ++k)
+            answer += sizeInBytes(this.blocks[k]);
+        return answer;
+    }
+
+    @Override
+    public HybridBitmap32 clone() {
+        final HybridBitmap32 answer = new HybridBitmap32();
+        answer.keys = Arrays.copyOf(this.keys, this.keys.length);
+        answer.blocks = new Object[this.blocks.length];
+        for (int k = 0; k < this.size; ++k)
+            answer.blocks[k] = copy(this.blocks[k]);
+        answer.size = this.size;
+        answer.sizeInBits = this.sizeInBits;
+        return answer;
+    }
+
+    /**
+     * Check to see whether the two bitmaps contain the same set bits,
+     * whatever their representations.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof HybridBitmap32))
+            return false;
+        final HybridBitmap32 other = (HybridBitmap32) o;
+        if (this.size != other.size)
+            return false;
+        for (int k = 0; k < this.size; ++k) {
+            if (this.keys[k] != other.keys[k])
+                return false;
+            final Object a = this.blocks[k];
+            final Object b = other.blocks[k];
+            if (a instanceof char[] && b instanceof char[]) {
+                if (!Arrays.equals((char[]) a, (char[]) b))
+                    return false;
+            } else if (!Arrays.equals(words(a), words(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int answer = 0;
+        for (int k = 0; k < this.size; ++k)
+            answer = 31 * (31 * answer + this.keys[k]) + Arrays.hashCode(words(this.blocks[k]));
+        return answer;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder answer = new StringBuilder();
+        IntIterator i = this.intIterator();
+        answer.append("{");
+        if (i.hasNext())
+            answer.append(i.next());
+        while (i.hasNext()) {
+            answer.append(",");
+            answer.append(i.next());
+        }
+        answer.append("}");
+        return answer.toString();
+    }
+
+    /**
+     * For internal use. Computes a logical operation block by block.
+     *
+     * @param other the other bitmap
+     * @param op    AND, OR, XOR or ANDNOT
+     * @return the result
+     */
+    private HybridBitmap32 apply(final HybridBitmap32 other, final int op) {
+        final HybridBitmap32 answer = new HybridBitmap32();
+        answer.sizeInBits = Math.max(this.sizeInBits, other.sizeInBits);
+        int i = 0;
+        int j = 0;
+        while (i < this.size || j < other.size) {
+            final int ki = i < this.size ? this.keys[i] : Integer.MAX_VALUE;
+            final int kj = j < other.size ? other.keys[j] : Integer.MAX_VALUE;
+            final Object block;
+            if (ki == kj) {
+                block = apply(this.blocks[i++], other.blocks[j++], op);
+            } else if (ki < kj) {
+                block = op == AND ? null : copy(this.blocks[i]);
+                ++i;
+            } else {
+                block = op == OR || op == XOR ? copy(other.blocks[j]) : null;
+                ++j;
+            }
+            if (block != null)
+                answer.append(Math.min(ki, kj), block);
+        }
+        return answer;
+    }
+
+    /**
+     * For internal use. Computes a logical operation over two blocks.
+     *
+     * @param a  the first block
+     * @param b  the second block
+     * @param op AND, OR, XOR or ANDNOT
+     * @return the resulting block (null if empty)
+     */
+    private static Object apply(final Object a, final Object b, final int op) {
+        if (a instanceof char[] && b instanceof char[])
+            return merge((char[]) a, (char[]) b, op);
+        if (a instanceof char[] && (op == AND || op == ANDNOT))
+            return filter((char[]) a, words(b), op == AND);
+        if (b instanceof char[] && op == AND)
+            return filter((char[]) b, words(a), true);
+        if (a instanceof EWAHCompressedBitmap32 && b instanceof EWAHCompressedBitmap32) {
+            final EWAHCompressedBitmap32 x = (EWAHCompressedBitmap32) a;
+            final EWAHCompressedBitmap32 y = (EWAHCompressedBitmap32) b;
+            switch (op) {
+                case AND:
+                    return normalize(x.and(y));
+                case OR:
+                    return normalize(x.or(y));
+                case XOR:
+                    return normalize(x.xor(y));
+                default:
+                    return normalize(x.andNot(y));
+            }
+        }
+        final int[] answer = toWords(a);
+        if (b instanceof char[]) {
+            // OR, XOR or ANDNOT
+            for (char p : (char[]) b) {
+                final int bit = 1 << (p % WORD_IN_BITS);
+                if (op == OR)
+                    answer[p / WORD_IN_BITS] |= bit;
+                else if (op == XOR)
+                    answer[p / WORD_IN_BITS] ^= bit;
+                else
+                    answer[p / WORD_IN_BITS] &= ~bit;
+            }
+        } else {
+            final int[] words = words(b);
+            for (int k = 0; k < BLOCK_WORDS; ++k) {
+                if (op == AND)
+                    answer[k] &= words[k];
+                else if (op == OR)
+                    answer[k] |= words[k];
+                else if (op == XOR)
+                    answer[k] ^= words[k];
+                else
+                    answer[k] &= ~words[k];
+            }
+        }
+        return normalize(answer);
+    }
+
+    /**
+     * For internal use. Computes a logical operation over two arrays of
+     * positions.
+     */
+    private static Object merge(final char[] a, final char[] b, final int op) {
+        final char[] buffer = new char[op == AND ? Math.min(a.length, b.length)
+                : op == ANDNOT ? a.length : a.length + b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                if (op != AND)
+                    buffer[n++] = a[i];
+                ++i;
+            } else if (a[i] > b[j]) {
+                if (op == OR || op == XOR)
+                    buffer[n++] = b[j];
+                ++j;
+            } else {
+                if (op == AND || op == OR)
+                    buffer[n++] = a[i];
+                ++i;
+                ++j;
+            }
+        }
+        if (op != AND)
+            for (; i < a.length; ++i)
+                buffer[n++] = a[i];
+        if (op == OR || op == XOR)
+            for (; j < b.length; ++j)
+                buffer[n++] = b[j];
+        return normalize(n == buffer.length ? buffer : Arrays.copyOf(buffer, n));
+    }
+
+    /**
+     * For internal use. Keeps the positions whose bit is set (or not) in
+     * some words.
+     */
+    private static Object filter(final char[] a, final int[] words, final boolean set) {
+        final char[] buffer = new char[a.length];
+        int n = 0;
+        for (char p : a)
+            if (((words[p / WORD_IN_BITS] & (1 << (p % WORD_IN_BITS))) != 0) == set)
+                buffer[n++] = p;
+        return normalize(Arrays.copyOf(buffer, n));
+    }
+
+    /**
+     * For internal use. Picks the representation of a block given as an
+     * array of positions.
+     */
+    private static Object normalize(final char[] array) {
+        if (array.length == 0)
+            return null;
+        if (array.length <= ARRAY_MAX)
+            return array;
+        return normalize(toWords(array));
+    }
+
+    /**
+     * For internal use. Picks the representation of a block given as a
+     * compressed bitmap.
+     */
+    private static Object normalize(final EWAHCompressedBitmap32 ewah) {
+        final long cardinality = ewah.cardinality();
+        if (cardinality == 0)
+            return null;
+        if (cardinality <= ARRAY_MAX) {
+            final int[] positions = ewah.toArray();
+            final char[] array = new char[positions.length];
+            for (int k = 0; k < positions.length; ++k)
+                array[k] = (char) positions[k];
+            return array;
+        }
+        if (2 * ewah.sizeInBytes() >= DENSE_BYTES)
+            return toWords(ewah);
+        return ewah;
+    }
+
+    /**
+     * For internal use. Picks the representation of a block given as
+     * uncompressed words (which may be used as is).
+     */
+    private static Object normalize(final int[] words) {
+        int cardinality = 0;
+        int dirty = 0;
+        int last = -1;
+        for (int k = 0; k < BLOCK_WORDS; ++k) {
+            final int w = words[k];
+            cardinality += Integer.bitCount(w);
+            if (w != 0) {
+                last = k;
+                if (w != ~0)
+                    ++dirty;
+            }
+        }
+        if (cardinality == 0)
+            return null;
+        if (cardinality <= ARRAY_MAX) {
+            final char[] array = new char[cardinality];
+            int n = 0;
+            for (int k = 0; k <= last; ++k)
+                for (int w = words[k]; w != 0; w &= w - 1)
+                    array[n++] = (char) (k * WORD_IN_BITS + Integer.numberOfTrailingZeros(w));
+            return array;
+        }
+        // an EWAH bitmap has at least one word per dirty word
+        if (2 * dirty >= BLOCK_WORDS)
+            return words;
+        final EWAHCompressedBitmap32 ewah = new EWAHCompressedBitmap32();
+        for (int k = 0; k <= last; ++k)
+            ewah.addWord(words[k]);
+        if (2 * ewah.sizeInBytes() >= DENSE_BYTES)
+            return words;
+        ewah.trim();
+        return ewah;
+    }
+
+    /**
+     * For internal use. Returns the uncompressed words of a block, which
+     * must not be modified.
+     */
+    private static int[] words(final Object block) {
+        return block instanceof int[] ? (int[]) block : toWords(block);
+    }
+
+    /**
+     * For internal use. Returns a copy of the uncompressed words of a block.
+     */
+    private static int[] toWords(final Object block) {
+        final int[] answer = new int[BLOCK_WORDS];
+        if (block instanceof char[]) {
+            for (char p : (char[]) block)
+                answer[p / WORD_IN_BITS] |= 1 << (p % WORD_IN_BITS);
+        } else if (block instanceof int[]) {
+            System.arraycopy((int[]) block, 0, answer, 0, BLOCK_WORDS);
+        } else {
+            final IteratingRLW32 i = ((EWAHCompressedBitmap32) block).getIteratingRLW();
+            int pos = 0;
+            while (i.size() > 0) {
+                final int runLength = i.getRunningLength();
+                if (i.getRunningBit())
+                    Arrays.fill(answer, pos, pos + runLength, ~0);
+                pos += runLength;
+                final int literals = i.getNumberOfLiteralWords();
+                for (int k = 0; k < literals; ++k)
+                    answer[pos + k] = i.getLiteralWordAt(k);
+                pos += literals;
+                if (!i.next())
+                    break;
+            }
+        }
+        return answer;
+    }
+
+    private static Object copy(final Object block) {
+        if (block instanceof char[])
+            return ((char[]) block).clone();
+        if (block instanceof int[])
+            return ((int[]) block).clone();
+        return ((EWAHCompressedBitmap32) block).clone();
+    }
+
+    private static boolean contains(final Object block, final int pos) {
+        if (block instanceof char[])
+            return Arrays.binarySearch((char[]) block, (char) pos) >= 0;
+        if (block instanceof int[])
+            return (((int[]) block)[pos / WORD_IN_BITS] & (1 << (pos % WORD_IN_BITS))) != 0;
+        return ((EWAHCompressedBitmap32) block).get(pos);
+    }
+
+    private static int cardinality(final Object block) {
+        if (block instanceof char[])
+            return ((char[]) block).length;
+        if (block instanceof int[]) {
+            int answer = 0;
+            for (int w : (int[]) block)
+                answer += Integer.bitCount(w);
+            return answer;
+        }
+        return (int) ((EWAHCompressedBitmap32) block).cardinality();
+    }
+
+    private static int sizeInBytes(final Object block) {
+        if (block instanceof char[])
+            return ((char[]) block).length * 2;
+        if (block instanceof int[])
+            return DENSE_BYTES;
+        return ((EWAHCompressedBitmap32) block).sizeInBytes();
+    }
+
+    private void append(final int key, final Object block) {
+        insert(this.size, key, block);
+    }
+
+    private void insert(final int k, final int key, final Object block) {
+        if (this.size == this.keys.length) {
+            final int capacity = Math.max(4, 2 * this.size);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.blocks = Arrays.copyOf(this.blocks, capacity);
+        }
+        System.arraycopy(this.keys, k, this.keys, k + 1, this.size - k);
+        System.arraycopy(this.blocks, k, this.blocks, k + 1, this.size - k);
+        this.keys[k] = key;
+        this.blocks[k] = block;
+        ++this.size;
+    }
+
+    private void remove(final int k) {
+        System.arraycopy(this.keys, k + 1, this.keys, k, this.size - k - 1);
+        System.arraycopy(this.blocks, k + 1, this.blocks, k, this.size - k - 1);
+        this.blocks[--this.size] = null;
+    }
+
+    private void replace(final int k, final Object block) {
+        if (block == null)
+            remove(k);
+        else
+            this.blocks[k] = block;
+    }
+
+    /**
+     * Iterates over the set bits, block by block.
+     */
+    private final class HybridIntIterator32 implements IntIterator {
+        private int block = -1;
+        private int offset;
+        private char[] array;
+        private int index;
+        private int[] words;
+        private int wordIndex;
+        private int word;
+        private IntIterator ewah;
+
+        HybridIntIterator32() {
+            nextBlock();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.block < HybridBitmap32.this.size;
+        }
+
+        @Override
+        public int next() {
+            final int answer;
+            if (this.array != null) {
+                answer = this.offset + this.array[this.index++];
+                if (this.index == this.array.length)
+                    nextBlock();
+            } else if (this.words != null) {
+                answer = this.offset + this.wordIndex * WORD_IN_BITS + Integer.numberOfTrailingZeros(this.word);
+                this.word &= this.word - 1;
+                if (this.word == 0)
+                    nextWord();
+            } else {
+                answer = this.offset + this.ewah.next();
+                if (!this.ewah.hasNext())
+                    nextBlock();
+            }
+            return answer;
+        }
+
+        private void nextWord() {
+            while (++this.wordIndex < this.words.length)
+                if ((this.word = this.words[this.wordIndex]) != 0)
+                    return;
+            nextBlock();
+        }
+
+        private void nextBlock() {
+            this.array = null;
+            this.words = null;
+            this.ewah = null;
+            if (++this.block >= HybridBitmap32.this.size)
+                return;
+            this.offset = HybridBitmap32.this.keys[this.block] << BLOCK_SHIFT;
+            final Object b = HybridBitmap32.this.blocks[this.block];
+            if (b instanceof char[]) {
+                this.array = (char[]) b;
+                this.index = 0;
+            } else if (b instanceof int[]) {
+                this.words = (int[]) b;
+                this.wordIndex = -1;
+                nextWord();
+            } else {
+                this.ewah = ((EWAHCompressedBitmap32) b).intIterator();
+            }
+        }
+    }
+
+    /**
+     * The indexes of the non-empty blocks, in increasing order.
+     */
+    private int[] keys;
+
+    /**
+     * The non-empty blocks: char[] (sorted positions), int[] (uncompressed
+     * words) or EWAHCompressedBitmap32.
+     */
+    private Object[] blocks;
+
+    private int size = 0;
+
+    private long sizeInBits = 0;
+
+    private static final int AND = 0;
+
+    private static final int OR = 1;
+
+    private static final int XOR = 2;
+
+    private static final int ANDNOT = 3;
+
+    private static final int WORD_IN_BITS = EWAHCompressedBitmap32.WORD_IN_BITS;
+
+    private static final int BLOCK_SHIFT = 16;
+
+    /**
+     * Number of bits in a block.
+     */
+    private static final int BLOCK_BITS = 1 << BLOCK_SHIFT;
+
+    private static final int BLOCK_MASK = BLOCK_BITS - 1;
+
+    private static final int BLOCK_WORDS = BLOCK_BITS / WORD_IN_BITS;
+
+    /**
+     * Size of the uncompressed words of a block.
+     */
+    private static final int DENSE_BYTES = BLOCK_BITS / 8;
+
+    /**
+     * Largest number of positions stored as an array, which then takes at
+     * most half the size of the uncompressed words.
+     */
+    private static final int ARRAY_MAX = BLOCK_BITS / 32;
+}
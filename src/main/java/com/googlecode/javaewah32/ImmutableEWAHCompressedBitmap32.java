@@ -0,0 +1,426 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import com.googlecode.javaewah.BatchIntIterator;
+import com.googlecode.javaewah.IntIterator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Read-only compressed bitmap backed by a ByteBuffer, typically obtained by
+ * memory-mapping a file (see java.nio.channels.FileChannel.map) that was
+ * written with EWAHCompressedBitmap32.serialize(ByteBuffer). The words are
+ * never copied to the Java heap: loading a bitmap only requires reading its
+ * header, so that very large bitmaps or very many bitmaps can be accessed
+ * without deserialization cost and without putting pressure on the garbage
+ * collector.
+ * </p>
+ *
+ * <p>
+ * Logical operations accept either regular or immutable bitmaps and produce
+ * regular (heap) EWAHCompressedBitmap32 instances.
+ * </p>
+ *
+ * <p>
+ * The content of the ByteBuffer must not be modified while this bitmap is in
+ * use.
+ * </p>
+ *
+ * <pre>
+ * FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+ * ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+ * ImmutableEWAHCompressedBitmap32 bitmap1 = new ImmutableEWAHCompressedBitmap32(mapped);
+ * ImmutableEWAHCompressedBitmap32 bitmap2 = new ImmutableEWAHCompressedBitmap32(mapped);
+ * EWAHCompressedBitmap32 both = bitmap1.and(bitmap2);
+ * </pre>
+ *
+ * @see EWAHCompressedBitmap32#serialize(ByteBuffer)
+ * @since 0.9.2
+ */
+public final class ImmutableEWAHCompressedBitmap32 implements Iterable<Integer> {
+
+    /**
+     * Maps a bitmap starting at the current position of the buffer. The
+     * position of the buffer is advanced past the bitmap so that several
+     * consecutive bitmaps can be mapped from the same buffer; its byte order
+     * is left unchanged.
+     *
+     * @param buffer the serialized bitmap
+     */
+    public ImmutableEWAHCompressedBitmap32(final ByteBuffer buffer) {
+        final ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.sizeInBits = header.getLong();
+        this.sizeInWords = header.getInt();
+        this.rlwPosition = header.getInt();
+        header.limit(header.position() + this.sizeInWords * (EWAHCompressedBitmap32.WORD_IN_BITS / 8));
+        this.words = header.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().asReadOnlyBuffer();
+        buffer.position(header.limit());
+        this.view = asEWAHCompressedBitmap();
+    }
+
+    /**
+     * Returns a read-only EWAHCompressedBitmap32 sharing the words of this
+     * bitmap, without copying them. This is useful to call methods that
+     * only accept regular bitmaps, such as those of FastAggregation. Any
+     * attempt to modify the result may throw a
+     * java.nio.ReadOnlyBufferException; a copy that can be modified is
+     * obtained by calling clone() on the result.
+     *
+     * @return a view over this bitmap
+     */
+    public EWAHCompressedBitmap32 asEWAHCompressedBitmap() {
+        return new EWAHCompressedBitmap32(new IntBufferWrapper(this.words, this.sizeInWords),
+                this.rlwPosition, this.sizeInBits);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise AND values of
+     * the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 and(final EWAHCompressedBitmap32 a) {
+        return this.view.and(a);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise AND values of
+     * the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 and(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.and(a.view);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND of the values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long andCardinality(final EWAHCompressedBitmap32 a) {
+        return this.view.andCardinality(a);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND of the values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long andCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.andCardinality(a.view);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise AND NOT values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 andNot(final EWAHCompressedBitmap32 a) {
+        return this.view.andNot(a);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise AND NOT values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 andNot(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.andNot(a.view);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND NOT of the
+     * values of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long andNotCardinality(final EWAHCompressedBitmap32 a) {
+        return this.view.andNotCardinality(a);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND NOT of the
+     * values of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long andNotCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.andNotCardinality(a.view);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise OR values of
+     * the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 or(final EWAHCompressedBitmap32 a) {
+        return this.view.or(a);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise OR values of
+     * the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 or(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.or(a.view);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise OR of the values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long orCardinality(final EWAHCompressedBitmap32 a) {
+        return this.view.orCardinality(a);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise OR of the values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long orCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.orCardinality(a.view);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise XOR values of
+     * the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 xor(final EWAHCompressedBitmap32 a) {
+        return this.view.xor(a);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise XOR values of
+     * the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the EWAH compressed bitmap
+     */
+    public EWAHCompressedBitmap32 xor(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.xor(a.view);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise XOR of the values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long xorCardinality(final EWAHCompressedBitmap32 a) {
+        return this.view.xorCardinality(a);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise XOR of the values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap
+     * @return the cardinality
+     */
+    public long xorCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.view.xorCardinality(a.view);
+    }
+
+    /**
+     * reports the number of bits set to true. Running time is proportional
+     * to compressed size (as reported by sizeInBytes).
+     *
+     * @return the number of bits set to true
+     */
+    public long cardinality() {
+        return this.view.cardinality();
+    }
+
+    /**
+     * Query the value of a single bit. Relying on this method when speed is
+     * needed is discouraged. The complexity is linear with the size of the
+     * bitmap.
+     *
+     * @param i the bit we are interested in
+     * @return whether the bit is set to true
+     */
+    public boolean get(final long i) {
+        return this.view.get(i);
+    }
+
+    /**
+     * Checks whether this bitmap is empty (has a cardinality of zero).
+     *
+     * @return true if no bit is set
+     */
+    public boolean isEmpty() {
+        return this.view.isEmpty();
+    }
+
+    /**
+     * Returns the size in bits of the *uncompressed* bitmap represented by
+     * this compressed bitmap.
+     *
+     * @return the size in bits
+     */
+    public long sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * Report the compressed size (in bytes) of the words of the bitmap, not
+     * counting the header.
+     *
+     * @return the size in bytes
+     */
+    public int sizeInBytes() {
+        return this.sizeInWords * (EWAHCompressedBitmap32.WORD_IN_BITS / 8);
+    }
+
+    /**
+     * Iterator over the set bits (this is what most people will want to use
+     * to browse the content if they want an iterator). The location of the
+     * set bits is returned, in increasing order.
+     *
+     * @return the int iterator
+     */
+    public IntIterator intIterator() {
+        return this.view.intIterator();
+    }
+
+    /**
+     * Same as intIterator, except that the returned iterator can also copy
+     * many set bits at once into an array (see BatchIntIterator).
+     *
+     * @return the batch iterator
+     */
+    public BatchIntIterator batchIntIterator() {
+        return this.view.batchIntIterator();
+    }
+
+    /**
+     * Allow you to iterate over the set bits.
+     *
+     * @return Iterator
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        return this.view.iterator();
+    }
+
+    /**
+     * Gets an iterator over the data. This is a low-level iterator.
+     *
+     * @return the iterator
+     */
+    public IteratingRLW32 getIteratingRLW() {
+        return this.view.getIteratingRLW();
+    }
+
+    /**
+     * Gets an EWAHIterator32 over the data. This is a customized iterator
+     * which iterates over run length words.
+     *
+     * @return a custom iterator over the compressed data
+     */
+    public EWAHIterator32 getEWAHIterator() {
+        return this.view.getEWAHIterator();
+    }
+
+    /**
+     * Populate an array of (sorted integers) corresponding to the location
+     * of the set bits.
+     *
+     * @return the array containing the location of the set bits
+     */
+    public int[] toArray() {
+        return this.view.toArray();
+    }
+
+    /**
+     * Check to see whether the two immutable bitmaps have the same bits set
+     * to true.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof ImmutableEWAHCompressedBitmap32) {
+            return this.view.equals(((ImmutableEWAHCompressedBitmap32) o).view);
+        }
+        return false;
+    }
+
+    /**
+     * Returns a customized hash code (based on Karp-Rabin). Naturally, if
+     * the bitmaps are equal, they will hash to the same value.
+     */
+    @Override
+    public int hashCode() {
+        return this.view.hashCode();
+    }
+
+    /**
+     * A string describing the bitmap.
+     *
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return this.view.toString();
+    }
+
+    /**
+     * The words, read-only.
+     */
+    private final IntBuffer words;
+
+    /**
+     * The number of words.
+     */
+    private final int sizeInWords;
+
+    /**
+     * The position of the last running length word.
+     */
+    private final int rlwPosition;
+
+    /**
+     * sizeInBits: number of bits in the (uncompressed) bitmap.
+     */
+    private final long sizeInBits;
+
+    /**
+     * Read-only view used to implement the operations.
+     */
+    private final EWAHCompressedBitmap32 view;
+}
@@ -44,6 +44,16 @@ class IntArray implements Buffer, Externalizable, Cloneable {
 		return this.buffer;
 	}
 	
+	@Override
+	public void writeLiteralWords(int start, int number, BitmapStorage32 container) {
+		container.addStreamOfLiteralWords(this.buffer, start, number);
+	}
+	
+	@Override
+	public void writeNegatedLiteralWords(int start, int number, BitmapStorage32 container) {
+		container.addStreamOfNegatedLiteralWords(this.buffer, start, number);
+	}
+	
 	@Override
 	public void clear() {
 		this.actualSizeInWords = 1;
@@ -53,6 +63,14 @@ class IntArray implements Buffer, Externalizable, Cloneable {
         this.buffer[0] = 0;
 	}
 	
+	@Override
+	public void reserve(int sizeInWords) {
+		// push_back grows the array as soon as it is full: one more word
+		if (sizeInWords >= this.buffer.length) {
+			this.buffer = Arrays.copyOf(this.buffer, sizeInWords + 1);
+		}
+	}
+	
 	@Override
     public void trim() {
         this.buffer = Arrays.copyOf(this.buffer, this.actualSizeInWords);
@@ -155,6 +173,11 @@ class IntArray implements Buffer, Externalizable, Cloneable {
 		}
 	}
 	
+	@Override
+	public void release() {
+		// heap memory is reclaimed by the garbage collector
+	}
+	
 	@Override
 	public Buffer clone() {
 		IntArray clone = null;
@@ -220,5 +243,11 @@ class IntArray implements Buffer, Externalizable, Cloneable {
      * object is constructed.
      */
     private static final int DEFAULT_BUFFER_SIZE = 4;
+
+    /**
+     * The value computed for the class before 0.9.2, so that the bitmaps
+     * written by writeExternal in earlier versions can still be read.
+     */
+    private static final long serialVersionUID = 8716456193075327388L;
 	
 }
@@ -0,0 +1,396 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Buffer of 32-bit words stored in a java.nio.IntBuffer. The words allocated
+ * by this class live outside of the Java heap (direct memory): they are not
+ * scanned nor moved by the garbage collector and they can be freed
+ * deterministically by calling release().
+ *
+ * @since 0.9.2
+ */
+final class IntBufferWrapper implements Buffer, Externalizable, Cloneable {
+
+    public IntBufferWrapper() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public IntBufferWrapper(int bufferSize) {
+        if (bufferSize < 1) {
+            bufferSize = 1;
+        }
+        allocate(bufferSize);
+    }
+
+    /**
+     * Wraps existing words. The wrapped buffer is never freed by this
+     * class: if more room is needed, the words are first copied to direct
+     * memory owned by this object.
+     *
+     * @param buffer      the words
+     * @param sizeInWords how many words are in use
+     */
+    IntBufferWrapper(final IntBuffer buffer, final int sizeInWords) {
+        this.buffer = buffer;
+        this.actualSizeInWords = sizeInWords;
+    }
+
+    @Override
+    public int sizeInWords() {
+        return this.actualSizeInWords;
+    }
+
+    @Override
+    public int getWord(int position) {
+        return this.buffer.get(position);
+    }
+
+    @Override
+    public int getLastWord() {
+        return getWord(this.actualSizeInWords - 1);
+    }
+
+    @Override
+    public int[] getWords() {
+        final int[] words = new int[this.actualSizeInWords];
+        final IntBuffer view = this.buffer.duplicate();
+        view.position(0);
+        view.get(words);
+        return words;
+    }
+
+    @Override
+    public void writeLiteralWords(int start, int number, BitmapStorage32 container) {
+        write(start, number, container, false);
+    }
+
+    @Override
+    public void writeNegatedLiteralWords(int start, int number, BitmapStorage32 container) {
+        write(start, number, container, true);
+    }
+
+    @Override
+    public void clear() {
+        this.actualSizeInWords = 1;
+        this.buffer.put(0, 0);
+    }
+
+    @Override
+    public void reserve(int sizeInWords) {
+        if (sizeInWords > this.buffer.capacity()) {
+            reallocate(sizeInWords);
+        }
+    }
+
+    @Override
+    public void trim() {
+        if (this.owner != null && this.actualSizeInWords < this.buffer.capacity()) {
+            reallocate(this.actualSizeInWords);
+        }
+    }
+
+    @Override
+    public void setWord(int position, int word) {
+        this.buffer.put(position, word);
+    }
+
+    @Override
+    public void setLastWord(int word) {
+        setWord(this.actualSizeInWords - 1, word);
+    }
+
+    @Override
+    public void push_back(int data) {
+        ensureCapacity(1);
+        this.buffer.put(this.actualSizeInWords++, data);
+    }
+
+    @Override
+    public void push_back(int[] data, int start, int number) {
+        ensureCapacity(number);
+        final IntBuffer view = this.buffer.duplicate();
+        view.position(this.actualSizeInWords);
+        view.put(data, start, number);
+        this.actualSizeInWords += number;
+    }
+
+    @Override
+    public void negative_push_back(int[] data, int start, int number) {
+        ensureCapacity(number);
+        for (int i = 0; i < number; ++i) {
+            this.buffer.put(this.actualSizeInWords + i, ~data[start + i]);
+        }
+        this.actualSizeInWords += number;
+    }
+
+    @Override
+    public void removeLastWord() {
+        setWord(--this.actualSizeInWords, 0);
+    }
+
+    @Override
+    public void negateWord(int position) {
+        this.buffer.put(position, ~this.buffer.get(position));
+    }
+
+    @Override
+    public void andWord(int position, int mask) {
+        this.buffer.put(position, this.buffer.get(position) & mask);
+    }
+
+    @Override
+    public void orWord(int position, int mask) {
+        this.buffer.put(position, this.buffer.get(position) | mask);
+    }
+
+    @Override
+    public void andLastWord(int mask) {
+        andWord(this.actualSizeInWords - 1, mask);
+    }
+
+    @Override
+    public void orLastWord(int mask) {
+        orWord(this.actualSizeInWords - 1, mask);
+    }
+
+    @Override
+    public void expand(int position, int length) {
+        ensureCapacity(length);
+        for (int i = this.actualSizeInWords - 1; i >= position; --i) {
+            this.buffer.put(i + length, this.buffer.get(i));
+        }
+        this.actualSizeInWords += length;
+    }
+
+    @Override
+    public void collapse(int position, int length) {
+        for (int i = position; i < this.actualSizeInWords - length; ++i) {
+            this.buffer.put(i, this.buffer.get(i + length));
+        }
+        for (int i = 0; i < length; ++i) {
+            removeLastWord();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (this.owner != null) {
+            free(this.owner);
+        }
+        this.owner = null;
+        this.buffer = null;
+    }
+
+    /**
+     * Words wrapped by this class but owned by someone else (e.g., a
+     * memory-mapped file) are copied to the Java heap, otherwise the copy
+     * is also stored in direct memory.
+     *
+     * @return a copy
+     */
+    @Override
+    public Buffer clone() {
+        if (this.owner == null) {
+            final int[] words = getWords();
+            final IntArray copy = new IntArray(words.length + 1);
+            copy.setWord(0, words[0]);
+            copy.push_back(words, 1, words.length - 1);
+            return copy;
+        }
+        IntBufferWrapper clone = null;
+        try {
+            clone = (IntBufferWrapper) super.clone();
+            clone.allocate(this.actualSizeInWords);
+            clone.actualSizeInWords = this.actualSizeInWords;
+            copy(this.buffer, clone.buffer, this.actualSizeInWords);
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace(); // cannot happen
+        }
+        return clone;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(this.actualSizeInWords);
+        for (int i = 0; i < this.actualSizeInWords; ++i) {
+            out.writeInt(this.buffer.get(i));
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        final int sizeInWords = in.readInt();
+        if (this.buffer == null || this.buffer.capacity() < sizeInWords) {
+            release();
+            allocate(sizeInWords);
+        }
+        this.actualSizeInWords = sizeInWords;
+        for (int i = 0; i < sizeInWords; ++i) {
+            this.buffer.put(i, in.readInt());
+        }
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param number the number of words to add
+     */
+    private void ensureCapacity(int number) {
+        final int size = this.actualSizeInWords + number;
+        if (size > this.buffer.capacity()) {
+            long capacity = size < 32768 ? 2l * size : 3l * size / 2;
+            if (capacity > MAX_CAPACITY)
+                capacity = MAX_CAPACITY;
+            reallocate((int) capacity);
+        }
+    }
+
+    /**
+     * For internal use: moves the words to newly allocated direct memory.
+     *
+     * @param capacity the new capacity in words
+     */
+    private void reallocate(int capacity) {
+        final ByteBuffer oldOwner = this.owner;
+        final IntBuffer oldBuffer = this.buffer;
+        allocate(capacity);
+        copy(oldBuffer, this.buffer, this.actualSizeInWords);
+        if (oldOwner != null) {
+            free(oldOwner);
+        }
+    }
+
+    /**
+     * For internal use: copies words to a container, in chunks of at most
+     * COPY_CHUNK_IN_WORDS words so that the whole buffer is never copied.
+     *
+     * @param start     the position of the first word
+     * @param number    the number of words
+     * @param container where we write
+     * @param negated   whether the words are negated
+     */
+    private void write(int start, int number, BitmapStorage32 container, boolean negated) {
+        final int[] words = new int[Math.min(number, COPY_CHUNK_IN_WORDS)];
+        final IntBuffer view = this.buffer.duplicate();
+        view.position(start);
+        for (int written = 0; written < number; ) {
+            final int n = Math.min(number - written, words.length);
+            view.get(words, 0, n);
+            if (negated)
+                container.addStreamOfNegatedLiteralWords(words, 0, n);
+            else
+                container.addStreamOfLiteralWords(words, 0, n);
+            written += n;
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.owner = ByteBuffer.allocateDirect(capacity * (EWAHCompressedBitmap32.WORD_IN_BITS / 8))
+                .order(ByteOrder.nativeOrder());
+        this.buffer = this.owner.asIntBuffer();
+    }
+
+    private static void copy(IntBuffer from, IntBuffer to, int number) {
+        final IntBuffer source = from.duplicate();
+        source.position(0);
+        source.limit(number);
+        final IntBuffer target = to.duplicate();
+        target.position(0);
+        target.put(source);
+    }
+
+    /**
+     * For internal use: frees direct memory without waiting for the garbage
+     * collector. If the running JVM does not allow it, we do nothing and
+     * the memory is reclaimed once the buffer becomes unreachable.
+     *
+     * @param directBuffer a buffer allocated with ByteBuffer.allocateDirect
+     */
+    private static void free(ByteBuffer directBuffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, directBuffer);
+                return;
+            }
+            final Method cleanerMethod = directBuffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(directBuffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // left to the garbage collector
+        }
+    }
+
+    /**
+     * The actual size in words.
+     */
+    private int actualSizeInWords = 1;
+
+    /**
+     * The words.
+     */
+    private IntBuffer buffer = null;
+
+    /**
+     * The direct memory allocated by this object (null if the words are
+     * owned by someone else).
+     */
+    private ByteBuffer owner = null;
+
+    /**
+     * The Constant DEFAULT_BUFFER_SIZE: default memory allocation when the
+     * object is constructed.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 4;
+
+    /**
+     * Largest number of words that fits in a direct buffer.
+     */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / (EWAHCompressedBitmap32.WORD_IN_BITS / 8);
+
+    /**
+     * Largest number of words copied at once to the heap when words are
+     * written to a container.
+     */
+    private static final int COPY_CHUNK_IN_WORDS = 1024;
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            // Java 9 and better
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+}
@@ -5,7 +5,7 @@ package com.googlecode.javaewah32;
  * Licensed under the Apache License, Version 2.0.
  */
 
-import com.googlecode.javaewah.IntIterator;
+import com.googlecode.javaewah.BatchIntIterator;
 
 import static com.googlecode.javaewah32.EWAHCompressedBitmap32.WORD_IN_BITS;
 
@@ -17,7 +17,7 @@ import static com.googlecode.javaewah32.EWAHCompressedBitmap32.WORD_IN_BITS;
  * @author Colby Ranger
  * @since 0.5.6
  */
-final class IntIteratorImpl32 implements IntIterator {
+final class IntIteratorImpl32 implements BatchIntIterator {
 
     private final EWAHIterator32 ewahIter;
     private final Buffer buffer;
@@ -64,6 +64,66 @@ final class IntIteratorImpl32 implements IntIterator {
         return (int) answer;
     }
 
+    @Override
+    public int nextBatch(final int[] dest, final int offset, final int max) {
+        int count = 0;
+        while (count < max && this.hasnext) {
+            if (runningHasNext()) {
+                final long end = Math.min(this.runningLength, this.position + max - count);
+                while (this.position < end)
+                    dest[offset + count++] = (int) this.position++;
+            } else {
+                do {
+                    dest[offset + count++] = (int) this.literalPosition + Integer.numberOfTrailingZeros(this.word);
+                    this.word &= this.word - 1;
+                } while (this.word != 0 && count < max);
+            }
+            this.hasnext = this.moveToNext();
+        }
+        return count;
+    }
+
+    @Override
+    public void advanceIfNeeded(final int minval) {
+        while (this.hasnext) {
+            if (runningHasNext()) {
+                if (minval < this.runningLength) {
+                    if (this.position < minval)
+                        this.position = minval;
+                    return;
+                }
+                this.position = this.runningLength;
+            } else {
+                if (minval <= this.literalPosition)
+                    return;
+                if (minval < this.literalPosition + WORD_IN_BITS) {
+                    this.word &= ~0 << (int) (minval - this.literalPosition);
+                    if (this.word != 0)
+                        return;
+                }
+                this.word = 0;
+            }
+            skipLiteralWords(minval);
+            while (this.wordPosition == this.wordLength && this.ewahIter.hasNext()) {
+                final RunningLengthWord32 rlw = this.ewahIter.next();
+                final long end = this.position + WORD_IN_BITS
+                        * (rlw.getRunningLength() + rlw.getNumberOfLiteralWords());
+                setRunningLengthWord(rlw);
+                if (end > minval) {
+                    if (this.runningLength <= minval) {
+                        this.position = this.runningLength;
+                        skipLiteralWords(minval);
+                    }
+                    break;
+                }
+                // the whole marker precedes minval
+                this.position = end;
+                this.wordPosition = this.wordLength;
+            }
+            this.hasnext = this.moveToNext();
+        }
+    }
+
     private void setRunningLengthWord(RunningLengthWord32 rlw) {
         this.runningLength = WORD_IN_BITS * rlw.getRunningLength() + this.position;
         if (!rlw.getRunningBit()) {
@@ -75,6 +135,19 @@ final class IntIteratorImpl32 implements IntIterator {
                 + rlw.getNumberOfLiteralWords();
     }
 
+    /**
+     * Skips the literal words of the current running length word that
+     * precede minval.
+     */
+    private void skipLiteralWords(final int minval) {
+        if (minval > this.position) {
+            final int skip = (int) Math.min((minval - this.position) / WORD_IN_BITS,
+                    this.wordLength - this.wordPosition);
+            this.wordPosition += skip;
+            this.position += (long) skip * WORD_IN_BITS;
+        }
+    }
+
     private boolean runningHasNext() {
         return this.position < this.runningLength;
     }
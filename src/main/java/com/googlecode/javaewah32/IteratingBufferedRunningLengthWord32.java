@@ -237,8 +237,7 @@ public final class IteratingBufferedRunningLengthWord32 implements
      * @param container where we write the data
      */
     public void writeLiteralWords(int numWords, BitmapStorage32 container) {
-        container.addStreamOfLiteralWords(this.buffer.getWords(),
-                this.literalWordStartPosition, numWords);
+        this.buffer.writeLiteralWords(this.literalWordStartPosition, numWords, container);
     }
 
     /**
@@ -250,8 +249,7 @@ public final class IteratingBufferedRunningLengthWord32 implements
      */
     public void writeNegatedLiteralWords(int numWords,
                                          BitmapStorage32 container) {
-        container.addStreamOfNegatedLiteralWords(this.buffer.getWords(),
-                this.literalWordStartPosition, numWords);
+        this.buffer.writeNegatedLiteralWords(this.literalWordStartPosition, numWords, container);
     }
 
     /**
@@ -272,11 +270,9 @@ public final class IteratingBufferedRunningLengthWord32 implements
             container.addStreamOfEmptyWords(
                     runningLengthWord.getRunningBit(),
                     runningLength);
-            container.addStreamOfLiteralWords(iterator.buffer().getWords(),
-                    iterator.literalWords()
+            iterator.buffer().writeLiteralWords(iterator.literalWords()
                             + runningLengthWord.literalWordOffset,
-                    runningLengthWord.getNumberOfLiteralWords()
-            );
+                    runningLengthWord.getNumberOfLiteralWords(), container);
             if (!iterator.hasNext())
                 break;
             runningLengthWord = new BufferedRunningLengthWord32(
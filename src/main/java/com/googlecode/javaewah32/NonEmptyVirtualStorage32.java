@@ -37,13 +37,13 @@ public class NonEmptyVirtualStorage32 implements BitmapStorage32 {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the words is not empty
      */
     @Override
     public void addStreamOfLiteralWords(int[] data, int start, int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int i = start; i < start + number; i++)
+            if (data[i] != 0)
+                throw nonEmptyException;
     }
 
     /**
@@ -57,14 +57,14 @@ public class NonEmptyVirtualStorage32 implements BitmapStorage32 {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the words is not empty
      */
     @Override
     public void addStreamOfNegatedLiteralWords(int[] data, int start,
                                                int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int i = start; i < start + number; i++)
+            if (~data[i] != 0)
+                throw nonEmptyException;
     }
 
     @Override
@@ -0,0 +1,258 @@
+package com.googlecode.javaewah32;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Pairwise overlaps within a collection of bitmaps: the cardinality of the
+ * intersection of each pair of bitmaps, and their Jaccard similarity. The
+ * results are the same as calling andCardinality on each pair, but they
+ * are expected to be computed much faster.
+ *
+ * The bitmaps are decoded once, one tile of TILE_WORDS (uncompressed) words
+ * at a time: over a tile, the non-empty words of all bitmaps are kept
+ * uncompressed, and each pair of bitmaps is processed by going through the
+ * non-empty words of the sparser of the two. Bitmaps are not decoded over
+ * tiles outside of the range between their first and last set bits, and
+ * pairs of bitmaps whose ranges do not overlap are skipped.
+ *
+ * With an ExecutorService, the rows of the matrix are divided among
+ * TASKS_PER_PROCESSOR tasks per available processor, each task decoding the
+ * bitmaps it needs. The bitmaps must not be modified while a computation is
+ * in progress.
+ *
+ * @since 0.9.2
+ */
+public final class OverlapMatrix32 {
+
+    /** Private constructor to prevent instantiation */
+    private OverlapMatrix32() {}
+
+    /**
+     * Computes the cardinality of the intersection of each pair of bitmaps.
+     *
+     * @param bitmaps the bitmaps
+     * @return the symmetric matrix M where M[i][j] is
+     * bitmaps[i].andCardinality(bitmaps[j]) (M[i][i] is the cardinality of
+     * bitmaps[i])
+     */
+    public static long[][] intersectionCounts(final EWAHCompressedBitmap32... bitmaps) {
+        final Ranges ranges = new Ranges(bitmaps);
+        final long[][] counts = ranges.counts;
+        compute(bitmaps, ranges, 0, 1);
+        return counts;
+    }
+
+    /**
+     * Computes the cardinality of the intersection of each pair of bitmaps
+     * in parallel.
+     *
+     * @param executor runs the tasks
+     * @param bitmaps  the bitmaps
+     * @return the symmetric matrix M where M[i][j] is
+     * bitmaps[i].andCardinality(bitmaps[j]) (M[i][i] is the cardinality of
+     * bitmaps[i])
+     */
+    public static long[][] intersectionCounts(final ExecutorService executor,
+                                              final EWAHCompressedBitmap32... bitmaps) {
+        final int tasks = Math.min(bitmaps.length,
+                TASKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+        if (tasks < 2)
+            return intersectionCounts(bitmaps);
+        final Ranges ranges = new Ranges(bitmaps);
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks);
+        for (int t = 0; t < tasks; ++t) {
+            final int task = t;
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    compute(bitmaps, ranges, task, tasks);
+                    return null;
+                }
+            }));
+        }
+        FastAggregation32.getAll(futures);
+        return ranges.counts;
+    }
+
+    /**
+     * Derives the Jaccard similarity of each pair of bitmaps (the
+     * cardinality of their intersection divided by the cardinality of their
+     * union) from the cardinalities of their intersections. The similarity
+     * of two empty bitmaps is 0.
+     *
+     * @param intersectionCounts the matrix computed by intersectionCounts
+     * @return the symmetric matrix of the Jaccard similarities
+     */
+    public static double[][] jaccard(final long[][] intersectionCounts) {
+        final int n = intersectionCounts.length;
+        final double[][] answer = new double[n][n];
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j) {
+                final long intersection = intersectionCounts[i][j];
+                final long union = intersectionCounts[i][i] + intersectionCounts[j][j] - intersection;
+                answer[i][j] = union == 0 ? 0 : (double) intersection / union;
+            }
+        return answer;
+    }
+
+    /**
+     * For internal use. Computes the rows of the matrix that are assigned
+     * to a task (row i goes to task i % tasks).
+     *
+     * @param bitmaps the bitmaps
+     * @param ranges  the ranges of the bitmaps and the matrix
+     * @param task    the index of the task
+     * @param tasks   the number of tasks
+     */
+    private static void compute(final EWAHCompressedBitmap32[] bitmaps, final Ranges ranges,
+                                final int task, final int tasks) {
+        final int n = bitmaps.length;
+        final long[][] counts = ranges.counts;
+        final IteratingRLW32[] iterators = new IteratingRLW32[n];
+        final long[] positions = new long[n];
+        final int[][] words = new int[n][];
+        final int[][] nonEmpty = new int[n][];
+        final int[] sizes = new int[n];
+        final int[] active = new int[n];
+        // the rows of this task only involve the bitmaps from index task onward
+        for (long tile = ranges.firstWord / TILE_WORDS * TILE_WORDS; tile <= ranges.lastWord; tile += TILE_WORDS) {
+            int m = 0;
+            for (int k = task; k < n; ++k) {
+                final long first = ranges.first[k];
+                if (first < 0 || first / WORD_IN_BITS >= tile + TILE_WORDS
+                        || ranges.last[k] / WORD_IN_BITS < tile)
+                    continue;
+                if (iterators[k] == null) {
+                    iterators[k] = bitmaps[k].getIteratingRLW();
+                    words[k] = new int[TILE_WORDS];
+                    nonEmpty[k] = new int[TILE_WORDS];
+                }
+                if (positions[k] < tile)
+                    iterators[k].discardFirstWords((int) (tile - positions[k]));
+                positions[k] = tile + TILE_WORDS;
+                sizes[k] = decode(iterators[k], words[k], nonEmpty[k]);
+                if (sizes[k] > 0)
+                    active[m++] = k;
+            }
+            for (int x = 0; x < m; ++x) {
+                final int i = active[x];
+                if (i % tasks != task)
+                    continue;
+                for (int y = x + 1; y < m; ++y) {
+                    final int j = active[y];
+                    if (ranges.first[j] > ranges.last[i] || ranges.first[i] > ranges.last[j])
+                        continue;
+                    final boolean i_is_sparser = sizes[i] < sizes[j];
+                    final int[] indexes = nonEmpty[i_is_sparser ? i : j];
+                    final int size = sizes[i_is_sparser ? i : j];
+                    final int[] wi = words[i];
+                    final int[] wj = words[j];
+                    long c = 0;
+                    final int from = indexes[0];
+                    final int to = indexes[size - 1] + 1;
+                    if (2 * size >= to - from) {
+                        // dense: a sequential scan is faster
+                        for (int z = from; z < to; ++z)
+                            c += Integer.bitCount(wi[z] & wj[z]);
+                    } else {
+                        for (int z = 0; z < size; ++z)
+                            c += Integer.bitCount(wi[indexes[z]] & wj[indexes[z]]);
+                    }
+                    counts[i][j] += c;
+                }
+            }
+            for (int x = 0; x < m; ++x) {
+                final int k = active[x];
+                for (int z = 0; z < sizes[k]; ++z)
+                    words[k][nonEmpty[k][z]] = 0;
+            }
+        }
+        for (int i = task; i < n; i += tasks)
+            for (int j = i + 1; j < n; ++j)
+                counts[j][i] = counts[i][j];
+    }
+
+    /**
+     * For internal use. Copies the next TILE_WORDS words of the iterator
+     * (fewer if it ends sooner), keeping only the non-empty words.
+     *
+     * @param i        the iterator
+     * @param words    where the non-empty words are copied (the other
+     *                 words are assumed to be zero)
+     * @param nonEmpty where the indexes of the non-empty words are written
+     * @return the number of non-empty words
+     */
+    private static int decode(final IteratingRLW32 i, final int[] words, final int[] nonEmpty) {
+        int pos = 0;
+        int size = 0;
+        while (pos < TILE_WORDS && i.size() > 0) {
+            final int runLength = Math.min(i.getRunningLength(), TILE_WORDS - pos);
+            if (i.getRunningBit())
+                for (int k = pos; k < pos + runLength; ++k) {
+                    words[k] = ~0;
+                    nonEmpty[size++] = k;
+                }
+            pos += runLength;
+            final int literals = Math.min(i.getNumberOfLiteralWords(), TILE_WORDS - pos);
+            for (int k = 0; k < literals; ++k) {
+                final int w = i.getLiteralWordAt(k);
+                if (w != 0) {
+                    words[pos + k] = w;
+                    nonEmpty[size++] = pos + k;
+                }
+            }
+            pos += literals;
+            i.discardFirstWords(runLength + literals);
+        }
+        return size;
+    }
+
+    /**
+     * The first and last set bits of the bitmaps, and the matrix being
+     * computed with the cardinalities on its diagonal.
+     */
+    private static final class Ranges {
+        final long[] first;
+        final long[] last;
+        final long[][] counts;
+        long firstWord = Long.MAX_VALUE;
+        long lastWord = -1;
+
+        Ranges(final EWAHCompressedBitmap32[] bitmaps) {
+            final int n = bitmaps.length;
+            this.first = new long[n];
+            this.last = new long[n];
+            this.counts = new long[n][n];
+            for (int k = 0; k < n; ++k) {
+                this.first[k] = bitmaps[k].getFirstSetBit();
+                this.last[k] = bitmaps[k].getLastSetBit();
+                if (this.first[k] < 0)
+                    continue;
+                this.counts[k][k] = bitmaps[k].cardinality();
+                this.firstWord = Math.min(this.firstWord, this.first[k] / WORD_IN_BITS);
+                this.lastWord = Math.max(this.lastWord, this.last[k] / WORD_IN_BITS);
+            }
+        }
+    }
+
+    private static final int WORD_IN_BITS = EWAHCompressedBitmap32.WORD_IN_BITS;
+
+    /**
+     * Number of (uncompressed) words in a tile.
+     */
+    private static final int TILE_WORDS = 512;
+
+    /**
+     * Number of tasks created per available processor.
+     */
+    private static final int TASKS_PER_PROCESSOR = 4;
+}
@@ -5,7 +5,7 @@ package com.googlecode.javaewah32;
  * Licensed under the Apache License, Version 2.0.
  */
 
-import com.googlecode.javaewah.IntIterator;
+import com.googlecode.javaewah.BatchIntIterator;
 
 import static com.googlecode.javaewah32.EWAHCompressedBitmap32.WORD_IN_BITS;
 
@@ -16,7 +16,7 @@ import static com.googlecode.javaewah32.EWAHCompressedBitmap32.WORD_IN_BITS;
  *
  * @author Gregory Ssi-Yan-Kai
  */
-final class ReverseIntIterator32 implements IntIterator {
+final class ReverseIntIterator32 implements BatchIntIterator {
 
     private final ReverseEWAHIterator32 ewahIter;
     private final long sizeInBits;
@@ -34,8 +34,8 @@ final class ReverseIntIterator32 implements IntIterator {
         this.ewahIter = ewahIter;
         this.sizeInBits = sizeInBits;
         this.buffer = ewahIter.buffer();
-        this.position = sizeInBits;
-        this.runningLength = Integer.MAX_VALUE;
+        this.position = (sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS * WORD_IN_BITS;
+        this.runningLength = this.position;
         this.hasNext = this.moveToPreviousRLW();
     }
 
@@ -47,22 +47,79 @@ final class ReverseIntIterator32 implements IntIterator {
     @Override
     public int next() {
         final long answer;
-        if (runningHasNext()) {
-            answer = this.position--;
-        } else {
+        if (this.word != 0) {
             final int t = this.word & -this.word;
             answer = this.literalPosition - Integer.bitCount(t - 1);
             this.word ^= t;
+        } else {
+            answer = --this.position;
         }
         this.hasNext = this.moveToPreviousRLW();
         return (int) answer;
     }
 
+    @Override
+    public int nextBatch(final int[] dest, final int offset, final int max) {
+        int count = 0;
+        while (count < max && this.hasNext) {
+            if (this.word != 0) {
+                do {
+                    dest[offset + count++] = (int) this.literalPosition - Integer.numberOfTrailingZeros(this.word);
+                    this.word &= this.word - 1;
+                } while (this.word != 0 && count < max);
+            } else {
+                final long end = Math.max(this.runningLength, this.position - max + count);
+                while (this.position > end)
+                    dest[offset + count++] = (int) --this.position;
+            }
+            this.hasNext = this.moveToPreviousRLW();
+        }
+        return count;
+    }
+
+    @Override
+    public void advanceIfNeeded(final int maxval) {
+        while (this.hasNext) {
+            if (this.word != 0) {
+                if (maxval >= this.literalPosition)
+                    return;
+                if (maxval > this.literalPosition - WORD_IN_BITS) {
+                    this.word &= ~0 << (int) (this.literalPosition - maxval);
+                    if (this.word != 0)
+                        return;
+                }
+                this.word = 0;
+            } else {
+                if (maxval >= this.runningLength) {
+                    if (this.position > maxval)
+                        this.position = maxval + 1l;
+                    return;
+                }
+                this.position = this.runningLength;
+            }
+            skipLiteralWords(maxval);
+            while (this.wordLength == 0 && (!this.runningBit || this.runningLength > maxval)
+                    && this.ewahIter.hasPrevious()) {
+                this.position = this.runningLength;
+                setRLW(this.ewahIter.previous());
+                if (this.runningLength > maxval) {
+                    // the whole marker follows maxval
+                    this.position = this.runningLength;
+                    this.wordLength = 0;
+                } else {
+                    skipLiteralWords(maxval);
+                }
+            }
+            this.hasNext = this.moveToPreviousRLW();
+        }
+    }
+
     private boolean moveToPreviousRLW() {
         while (!literalHasNext() && !runningHasNext()) {
             if (!this.ewahIter.hasPrevious()) {
                 return false;
             }
+            this.position = this.runningLength;
             setRLW(this.ewahIter.previous());
         }
         return true;
@@ -73,24 +130,39 @@ final class ReverseIntIterator32 implements IntIterator {
         this.wordPosition = this.ewahIter.position();
         this.runningLength = this.position - WORD_IN_BITS * (rlw.getRunningLength() + this.wordLength);
         this.runningBit = rlw.getRunningBit();
-        this.position--;
+        if (this.runningBit && this.wordLength == 0 && this.position > this.sizeInBits) {
+            this.position = this.sizeInBits;
+        }
     }
 
+    /**
+     * Skips the literal words of the current running length word that
+     * follow maxval.
+     */
+    private void skipLiteralWords(final int maxval) {
+        if (maxval < this.position - 1) {
+            final int skip = (int) Math.min((this.position - 1 - maxval) / WORD_IN_BITS, this.wordLength);
+            this.wordLength -= skip;
+            this.position -= (long) skip * WORD_IN_BITS;
+        }
+    }
+
+    /**
+     * The bits of the run are those preceding position, once the literal
+     * words have been visited.
+     */
     private boolean runningHasNext() {
-        return this.runningBit && this.runningLength <= this.position;
+        return this.runningBit && this.runningLength < this.position;
     }
 
     private boolean literalHasNext() {
         while (this.word == 0 && this.wordLength > 0) {
             this.word = Integer.reverse(this.buffer.getWord(this.wordPosition + this.wordLength--));
-            if (this.position == this.sizeInBits - 1) {
-                final int usedBitsInLast = (int) (this.sizeInBits % WORD_IN_BITS);
-                if (usedBitsInLast > 0) {
-                    this.word = (this.word >>> (WORD_IN_BITS - usedBitsInLast));
-                }
-            }
-            this.literalPosition = this.position;
+            this.literalPosition = this.position - 1;
             this.position -= WORD_IN_BITS;
+            if (this.literalPosition >= this.sizeInBits) {
+                this.word &= ~0 << (int) (this.literalPosition - this.sizeInBits + 1);
+            }
         }
         return this.word != 0;
     }
@@ -0,0 +1,616 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.IntIterator;
+import com.googlecode.javaewah.LogicalElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A bitmap made of independent compressed segments, each covering
+ * SEGMENT_SIZE_IN_BITS consecutive positions. Only the segments containing
+ * set bits are stored, ordered by their key (the position of their first
+ * bit divided by SEGMENT_SIZE_IN_BITS).
+ *
+ * Setting or clearing a bit before the last set bit of an
+ * EWAHCompressedBitmap32 may require rewriting the whole bitmap. Here, only
+ * the segment containing the bit is modified, so random updates take time
+ * proportional to the compressed size of a segment. Logical operations
+ * pair the segments by key, skipping the segments that cannot contribute
+ * to the result; they can also process the segments in parallel.
+ *
+ * The keys are ints: the positions must be smaller than MAX_SIZE_IN_BITS
+ * (2^52). Like with EWAHCompressedBitmap32, intIterator and toArray can
+ * only report positions that fit in an int.
+ *
+ * This class is not thread-safe.
+ *
+ * @since 0.9.2
+ */
+public final class SegmentedEWAHBitmap32 implements Cloneable, LogicalElement<SegmentedEWAHBitmap32> {
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public SegmentedEWAHBitmap32() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private SegmentedEWAHBitmap32(final int capacity) {
+        this.keys = new int[capacity];
+        this.segments = new EWAHCompressedBitmap32[capacity];
+    }
+
+    /**
+     * Creates a segmented bitmap containing the same bits as a compressed
+     * bitmap, with the same size in bits.
+     *
+     * @param bitmap the bitmap (it will not be modified)
+     * @return the segmented bitmap
+     * @throws IndexOutOfBoundsException if the size in bits of the bitmap
+     *                                   exceeds MAX_SIZE_IN_BITS
+     */
+    public static SegmentedEWAHBitmap32 valueOf(final EWAHCompressedBitmap32 bitmap) {
+        if (bitmap.sizeInBits() > MAX_SIZE_IN_BITS)
+            throw new IndexOutOfBoundsException("size in bits too large: " + bitmap.sizeInBits());
+        final SegmentedEWAHBitmap32 answer = new SegmentedEWAHBitmap32();
+        final IteratingBufferedRunningLengthWord32 i = new IteratingBufferedRunningLengthWord32(bitmap);
+        int key = 0;
+        while (i.size() > 0) {
+            if (!i.getRunningBit() && (i.getRunningLength() >= SEGMENT_SIZE_IN_WORDS)) {
+                final int skipped = i.getRunningLength() / SEGMENT_SIZE_IN_WORDS;
+                i.discardFirstWords(skipped * SEGMENT_SIZE_IN_WORDS);
+                key += skipped;
+                continue;
+            }
+            final EWAHCompressedBitmap32 segment = new EWAHCompressedBitmap32();
+            i.discharge(segment, SEGMENT_SIZE_IN_WORDS);
+            if (!segment.isEmpty())
+                answer.append(key, segment);
+            ++key;
+        }
+        answer.sizeInBits = bitmap.sizeInBits();
+        return answer;
+    }
+
+    /**
+     * Set the bit at position i to true. Only the segment containing the
+     * bit is modified.
+     *
+     * @param i the index
+     * @return true if the value was set
+     * @throws IndexOutOfBoundsException if i is negative or not smaller
+     *                                   than MAX_SIZE_IN_BITS
+     */
+    public boolean set(final long i) {
+        final int key = key(i);
+        int k = Arrays.binarySearch(this.keys, 0, this.size, key);
+        if (k < 0) {
+            k = -k - 1;
+            insert(k, key, new EWAHCompressedBitmap32());
+        }
+        this.sizeInBits = Math.max(this.sizeInBits, i + 1);
+        return this.segments[k].set(i % SEGMENT_SIZE_IN_BITS);
+    }
+
+    /**
+     * Set the bit at position i to false. Only the segment containing the
+     * bit is modified: it is dropped if it becomes empty.
+     *
+     * @param i the index
+     * @return true if the value was unset
+     * @throws IndexOutOfBoundsException if i is negative or not smaller
+     *                                   than MAX_SIZE_IN_BITS
+     */
+    public boolean clear(final long i) {
+        final int key = key(i);
+        this.sizeInBits = Math.max(this.sizeInBits, i + 1);
+        final int k = Arrays.binarySearch(this.keys, 0, this.size, key);
+        if (k < 0)
+            return true;
+        final boolean answer = this.segments[k].clear(i % SEGMENT_SIZE_IN_BITS);
+        if (this.segments[k].isEmpty())
+            remove(k);
+        return answer;
+    }
+
+    /**
+     * Query the value of a single bit.
+     *
+     * @param i the bit we are interested in
+     * @return whether the bit is set to true
+     */
+    public boolean get(final long i) {
+        if ((i < 0) || (i >= this.sizeInBits))
+            return false;
+        final int k = Arrays.binarySearch(this.keys, 0, this.size, key(i));
+        return (k >= 0) && this.segments[k].get(i % SEGMENT_SIZE_IN_BITS);
+    }
+
+    /**
+     * Returns the number of bits set to the value true.
+     *
+     * @return the number of bits set to true
+     */
+    public long cardinality() {
+        long answer = 0;
+        for (int k = 0; k < this.size; ++k)
+            answer += this.segments[k].cardinality();
+        return answer;
+    }
+
+    /**
+     * Checks whether this bitmap is empty (has a cardinality of zero).
+     *
+     * @return true if no bit is set
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return the number of (non-empty) segments
+     */
+    public int getNumberOfSegments() {
+        return this.size;
+    }
+
+    @Override
+    public long sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int answer = this.size * 4;
+        for (int k = 0; k < this.size; ++k)
+            answer += this.segments[k].sizeInBytes();
+        return answer;
+    }
+
+    @Override
+    public SegmentedEWAHBitmap32 and(final SegmentedEWAHBitmap32 a) {
+        return apply(null, a, AND);
+    }
+
+    @Override
+    public SegmentedEWAHBitmap32 andNot(final SegmentedEWAHBitmap32 a) {
+        return apply(null, a, AND_NOT);
+    }
+
+    @Override
+    public SegmentedEWAHBitmap32 or(final SegmentedEWAHBitmap32 a) {
+        return apply(null, a, OR);
+    }
+
+    @Override
+    public SegmentedEWAHBitmap32 xor(final SegmentedEWAHBitmap32 a) {
+        return apply(null, a, XOR);
+    }
+
+    /**
+     * Computes the bitwise and, processing each pair of segments as a
+     * separate task. The result is the same as the result of and.
+     *
+     * @param executor runs the tasks
+     * @param a        the other bitmap (it will not be modified)
+     * @return the result of the operation
+     */
+    public SegmentedEWAHBitmap32 and(final ExecutorService executor, final SegmentedEWAHBitmap32 a) {
+        return apply(executor, a, AND);
+    }
+
+    /**
+     * Computes the bitwise andNot, processing each pair of segments as a
+     * separate task. The result is the same as the result of andNot.
+     *
+     * @param executor runs the tasks
+     * @param a        the other bitmap (it will not be modified)
+     * @return the result of the operation
+     */
+    public SegmentedEWAHBitmap32 andNot(final ExecutorService executor, final SegmentedEWAHBitmap32 a) {
+        return apply(executor, a, AND_NOT);
+    }
+
+    /**
+     * Computes the bitwise or, processing each pair of segments as a
+     * separate task. The result is the same as the result of or.
+     *
+     * @param executor runs the tasks
+     * @param a        the other bitmap (it will not be modified)
+     * @return the result of the operation
+     */
+    public SegmentedEWAHBitmap32 or(final ExecutorService executor, final SegmentedEWAHBitmap32 a) {
+        return apply(executor, a, OR);
+    }
+
+    /**
+     * Computes the bitwise xor, processing each pair of segments as a
+     * separate task. The result is the same as the result of xor.
+     *
+     * @param executor runs the tasks
+     * @param a        the other bitmap (it will not be modified)
+     * @return the result of the operation
+     */
+    public SegmentedEWAHBitmap32 xor(final ExecutorService executor, final SegmentedEWAHBitmap32 a) {
+        return apply(executor, a, XOR);
+    }
+
+    /**
+     * Negate (bitwise) the current bitmap, up to sizeInBits(). Missing
+     * segments are created: this might use a lot of memory if the bitmap
+     * is sparse.
+     */
+    @Override
+    public void not() {
+        final int count = (int) ((this.sizeInBits + SEGMENT_SIZE_IN_BITS - 1) / SEGMENT_SIZE_IN_BITS);
+        final int[] newKeys = new int[Math.max(count, INITIAL_CAPACITY)];
+        final EWAHCompressedBitmap32[] newSegments = new EWAHCompressedBitmap32[newKeys.length];
+        int n = 0;
+        for (int key = 0, k = 0; key < count; ++key) {
+            final long span = Math.min(SEGMENT_SIZE_IN_BITS, this.sizeInBits - (long) key * SEGMENT_SIZE_IN_BITS);
+            final EWAHCompressedBitmap32 segment;
+            if ((k < this.size) && (this.keys[k] == key)) {
+                segment = this.segments[k++];
+                if (segment.sizeInBits() < span)
+                    segment.setSizeInBits(span, false);
+                else
+                    segment.setSizeInBitsWithinLastWord(span);
+                segment.not();
+                if (segment.isEmpty())
+                    continue;
+            } else {
+                segment = new EWAHCompressedBitmap32();
+                segment.setSizeInBits(span, true);
+            }
+            newKeys[n] = key;
+            newSegments[n++] = segment;
+        }
+        this.keys = newKeys;
+        this.segments = newSegments;
+        this.size = n;
+    }
+
+    /**
+     * Computes the composition (see EWAHCompressedBitmap32.compose). Since
+     * the i-th set bit of this bitmap can fall in any segment of the other
+     * bitmap, both bitmaps are first converted to EWAHCompressedBitmap32.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result of the operation
+     */
+    @Override
+    public SegmentedEWAHBitmap32 compose(final SegmentedEWAHBitmap32 a) {
+        return valueOf(toEWAHCompressedBitmap().compose(a.toEWAHCompressedBitmap()));
+    }
+
+    /**
+     * Concatenates the segments into a single compressed bitmap, with the
+     * same size in bits.
+     *
+     * @return the compressed bitmap
+     */
+    public EWAHCompressedBitmap32 toEWAHCompressedBitmap() {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        long words = 0;
+        for (int k = 0; k < this.size; ++k) {
+            final long start = (long) this.keys[k] * SEGMENT_SIZE_IN_WORDS;
+            answer.addStreamOfEmptyWords(false, start - words);
+            words = start + new IteratingBufferedRunningLengthWord32(this.segments[k]).discharge(answer,
+                    SEGMENT_SIZE_IN_WORDS);
+        }
+        answer.addStreamOfEmptyWords(false,
+                (this.sizeInBits + EWAHCompressedBitmap32.WORD_IN_BITS - 1) / EWAHCompressedBitmap32.WORD_IN_BITS
+                        - words);
+        answer.setSizeInBitsWithinLastWord(this.sizeInBits);
+        return answer;
+    }
+
+    /**
+     * Iterator over the set bits, in increasing order. The next method
+     * throws an IndexOutOfBoundsException if the position of the next set
+     * bit does not fit in an int.
+     *
+     * @return the int iterator
+     */
+    public IntIterator intIterator() {
+        return new IntIterator() {
+
+            @Override
+            public boolean hasNext() {
+                while (!this.current.hasNext()) {
+                    if (this.k == SegmentedEWAHBitmap32.this.size)
+                        return false;
+                    this.offset = SegmentedEWAHBitmap32.this.keys[this.k] * SEGMENT_SIZE_IN_BITS;
+                    this.current = SegmentedEWAHBitmap32.this.segments[this.k++].intIterator();
+                }
+                return true;
+            }
+
+            @Override
+            public int next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return position(this.offset + this.current.next());
+            }
+
+            private int k = 0;
+
+            private long offset = 0;
+
+            private IntIterator current = new EWAHCompressedBitmap32().intIterator();
+        };
+    }
+
+    /**
+     * Populate an array of (sorted integers) corresponding to the location
+     * of the set bits.
+     *
+     * @return the array containing the location of the set bits
+     * @throws IndexOutOfBoundsException if the position of a set bit does
+     *                                   not fit in an int
+     */
+    public int[] toArray() {
+        final int[] answer = new int[(int) cardinality()];
+        int pos = 0;
+        for (int k = 0; k < this.size; ++k) {
+            final long offset = this.keys[k] * SEGMENT_SIZE_IN_BITS;
+            for (int x : this.segments[k].toArray())
+                answer[pos++] = position(offset + x);
+        }
+        return answer;
+    }
+
+    @Override
+    public SegmentedEWAHBitmap32 clone() {
+        SegmentedEWAHBitmap32 clone = null;
+        try {
+            clone = (SegmentedEWAHBitmap32) super.clone();
+            clone.keys = this.keys.clone();
+            clone.segments = new EWAHCompressedBitmap32[this.segments.length];
+            for (int k = 0; k < this.size; ++k)
+                clone.segments[k] = this.segments[k].clone();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace(); // cannot happen
+        }
+        return clone;
+    }
+
+    /**
+     * Check to see whether the two bitmaps contain the same set bits.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof SegmentedEWAHBitmap32))
+            return false;
+        final SegmentedEWAHBitmap32 other = (SegmentedEWAHBitmap32) o;
+        if (this.size != other.size)
+            return false;
+        for (int k = 0; k < this.size; ++k)
+            if ((this.keys[k] != other.keys[k]) || !this.segments[k].equals(other.segments[k]))
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int answer = 0;
+        for (int k = 0; k < this.size; ++k)
+            answer = 31 * (31 * answer + this.keys[k]) + this.segments[k].hashCode();
+        return answer;
+    }
+
+    /**
+     * A string describing the bitmap.
+     *
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        StringBuilder answer = new StringBuilder();
+        IntIterator i = this.intIterator();
+        answer.append("{");
+        if (i.hasNext())
+            answer.append(i.next());
+        while (i.hasNext()) {
+            answer.append(",");
+            answer.append(i.next());
+        }
+        answer.append("}");
+        return answer.toString();
+    }
+
+    /**
+     * For internal use. Pairs the segments by key and applies the
+     * operation to each pair, skipping the segments that cannot contribute
+     * to the result.
+     *
+     * @param executor runs the tasks, or null to process the segments in
+     *                 the calling thread
+     */
+    private SegmentedEWAHBitmap32 apply(final ExecutorService executor, final SegmentedEWAHBitmap32 a,
+                                      final int operation) {
+        final int capacity = this.size + a.size;
+        final int[] pairedKeys = new int[capacity];
+        final EWAHCompressedBitmap32[] left = new EWAHCompressedBitmap32[capacity];
+        final EWAHCompressedBitmap32[] right = new EWAHCompressedBitmap32[capacity];
+        int n = 0;
+        for (int i = 0, j = 0; (i < this.size) || (j < a.size); ) {
+            final int key;
+            EWAHCompressedBitmap32 x = null;
+            EWAHCompressedBitmap32 y = null;
+            if ((j == a.size) || ((i < this.size) && (this.keys[i] < a.keys[j]))) {
+                key = this.keys[i];
+                x = this.segments[i++];
+            } else if ((i == this.size) || (a.keys[j] < this.keys[i])) {
+                key = a.keys[j];
+                y = a.segments[j++];
+            } else {
+                key = this.keys[i];
+                x = this.segments[i++];
+                y = a.segments[j++];
+            }
+            if (x == null ? (operation == AND) || (operation == AND_NOT) : (y == null) && (operation == AND))
+                continue;
+            pairedKeys[n] = key;
+            left[n] = x;
+            right[n++] = y;
+        }
+        final EWAHCompressedBitmap32[] results = new EWAHCompressedBitmap32[n];
+        if (executor == null) {
+            for (int k = 0; k < n; ++k)
+                results[k] = apply(left[k], right[k], operation);
+        } else {
+            final List<Future<EWAHCompressedBitmap32>> tasks = new ArrayList<Future<EWAHCompressedBitmap32>>(n);
+            for (int k = 0; k < n; ++k) {
+                final EWAHCompressedBitmap32 x = left[k];
+                final EWAHCompressedBitmap32 y = right[k];
+                tasks.add(executor.submit(new Callable<EWAHCompressedBitmap32>() {
+                    @Override
+                    public EWAHCompressedBitmap32 call() {
+                        return apply(x, y, operation);
+                    }
+                }));
+            }
+            FastAggregation32.getAll(tasks).toArray(results);
+        }
+        final SegmentedEWAHBitmap32 answer = new SegmentedEWAHBitmap32(Math.max(n, INITIAL_CAPACITY));
+        for (int k = 0; k < n; ++k)
+            if (!results[k].isEmpty())
+                answer.append(pairedKeys[k], results[k]);
+        answer.sizeInBits = Math.max(this.sizeInBits, a.sizeInBits);
+        return answer;
+    }
+
+    /**
+     * For internal use. Applies the operation to a pair of segments, one of
+     * which might be missing.
+     */
+    private static EWAHCompressedBitmap32 apply(final EWAHCompressedBitmap32 x, final EWAHCompressedBitmap32 y,
+                                              final int operation) {
+        if (x == null)
+            return y.clone();
+        if (y == null)
+            return x.clone();
+        switch (operation) {
+            case AND:
+                return x.and(y);
+            case OR:
+                return x.or(y);
+            case XOR:
+                return x.xor(y);
+            default:
+                return x.andNot(y);
+        }
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param i the position
+     * @return the key of the segment containing the position
+     * @throws IndexOutOfBoundsException if i is negative or not smaller
+     *                                   than MAX_SIZE_IN_BITS
+     */
+    private static int key(final long i) {
+        if (i < 0)
+            throw new IndexOutOfBoundsException("negative position: " + i);
+        if (i >= MAX_SIZE_IN_BITS)
+            throw new IndexOutOfBoundsException("position too large: " + i);
+        return (int) (i / SEGMENT_SIZE_IN_BITS);
+    }
+
+    /**
+     * For internal use.
+     *
+     * @param i the position of a set bit
+     * @return the position as an int
+     * @throws IndexOutOfBoundsException if i does not fit in an int
+     */
+    private static int position(final long i) {
+        if (i > Integer.MAX_VALUE)
+            throw new IndexOutOfBoundsException("position does not fit in an int: " + i);
+        return (int) i;
+    }
+
+    private void append(final int key, final EWAHCompressedBitmap32 segment) {
+        insert(this.size, key, segment);
+    }
+
+    private void insert(final int k, final int key, final EWAHCompressedBitmap32 segment) {
+        if (this.size == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+            this.segments = Arrays.copyOf(this.segments, 2 * this.size);
+        }
+        System.arraycopy(this.keys, k, this.keys, k + 1, this.size - k);
+        System.arraycopy(this.segments, k, this.segments, k + 1, this.size - k);
+        this.keys[k] = key;
+        this.segments[k] = segment;
+        ++this.size;
+    }
+
+    private void remove(final int k) {
+        System.arraycopy(this.keys, k + 1, this.keys, k, this.size - k - 1);
+        System.arraycopy(this.segments, k + 1, this.segments, k, this.size - k - 1);
+        this.segments[--this.size] = null;
+    }
+
+    /**
+     * Number of (uncompressed) words covered by a segment.
+     */
+    public static final int SEGMENT_SIZE_IN_WORDS = 1 << 16;
+
+    /**
+     * Number of positions covered by a segment.
+     */
+    public static final long SEGMENT_SIZE_IN_BITS = (long) SEGMENT_SIZE_IN_WORDS * EWAHCompressedBitmap32.WORD_IN_BITS;
+
+    /**
+     * Largest number of bits a bitmap can represent, so that the key of
+     * every segment fits in an int.
+     */
+    public static final long MAX_SIZE_IN_BITS = (Integer.MAX_VALUE + 1L) * SEGMENT_SIZE_IN_BITS;
+
+    private static final int AND = 0;
+
+    private static final int OR = 1;
+
+    private static final int XOR = 2;
+
+    private static final int AND_NOT = 3;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Keys of the segments, in increasing order.
+     */
+    private int[] keys;
+
+    /**
+     * The (non-empty) segments, positions are relative to the start of the
+     * segment.
+     */
+    private EWAHCompressedBitmap32[] segments;
+
+    /**
+     * Number of segments.
+     */
+    private int size;
+
+    /**
+     * Number of bits represented by the bitmap.
+     */
+    private long sizeInBits;
+}
@@ -0,0 +1,88 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Computes threshold functions (see ThresholdFuncBitmap32) with the algorithm
+ * that is expected to be the fastest, given the number of inputs, the
+ * threshold and the sizes of the inputs (see the choose method).
+ *
+ * Functions other than threshold functions are delegated to
+ * RunningBitmapMerge32.
+ *
+ * @since 0.9.2
+ */
+public class AdaptiveThreshold32 implements BitmapSymmetricAlgorithm32 {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction32 f, BitmapStorage32 out,
+                          EWAHCompressedBitmap32... set) {
+        final BitmapSymmetricAlgorithm32 algorithm = f instanceof ThresholdFuncBitmap32
+                ? choose(((ThresholdFuncBitmap32) f).getThreshold(), set)
+                : new RunningBitmapMerge32();
+        algorithm.symmetric(f, out, set);
+    }
+
+    /**
+     * Chooses an algorithm to compute a threshold function.
+     *
+     * RunningBitmapMerge32 is chosen when there are very few inputs, and
+     * DivideSkip32 when the threshold T is high (at least a quarter of the
+     * number of inputs). MergeOpt32 is chosen when T is low and the T - 1
+     * largest inputs account for most of the data, so that setting them
+     * aside pays off. Otherwise, ScanCount32 is chosen. These rules follow
+     * the results of ThresholdBenchmark (in the tests of the 64-bit version).
+     *
+     * @param t   the threshold
+     * @param set the inputs
+     * @return the algorithm
+     */
+    public static BitmapSymmetricAlgorithm32 choose(final int t, final EWAHCompressedBitmap32... set) {
+        if (set.length <= FEW_INPUTS)
+            return new RunningBitmapMerge32();
+        if (t <= 1 || t > set.length)
+            return new ScanCount32();
+        if (t >= set.length / HIGH_THRESHOLD_RATIO)
+            return new DivideSkip32();
+        if (t > LOW_THRESHOLD)
+            return new ScanCount32();
+        // the total size, and the size of the t - 1 largest inputs
+        final int[] sizes = new int[set.length];
+        long total = 0;
+        for (int k = 0; k < set.length; ++k) {
+            sizes[k] = set[k].sizeInBytes();
+            total += sizes[k];
+        }
+        Arrays.sort(sizes);
+        long large = 0;
+        for (int k = sizes.length - t + 1; k < sizes.length; ++k)
+            large += sizes[k];
+        if (large * 4 >= total * 3)
+            return new MergeOpt32();
+        return new ScanCount32();
+    }
+
+    /**
+     * Up to this number of inputs, RunningBitmapMerge32 is preferred.
+     */
+    static final int FEW_INPUTS = 4;
+
+    /**
+     * DivideSkip32 is preferred for thresholds of at least N divided by this
+     * ratio, N being the number of inputs.
+     */
+    static final int HIGH_THRESHOLD_RATIO = 4;
+
+    /**
+     * MergeOpt32 is only considered for thresholds up to this value.
+     */
+    static final int LOW_THRESHOLD = 8;
+}
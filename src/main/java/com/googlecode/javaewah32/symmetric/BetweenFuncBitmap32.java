@@ -0,0 +1,113 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A symmetric Boolean function returning true if the number of true values
+ * is between two bounds (inclusively). With an upper bound at least as
+ * large as the number of inputs, it is a threshold function (see
+ * ThresholdFuncBitmap32).
+ *
+ * Runs where the count is known to be in range (or out of range) from the
+ * inputs made of ones and the number of literals alone are written out
+ * without looking at the literal words.
+ *
+ * It is not thread safe: you should use one object per thread.
+ *
+ * @since 0.9.2
+ */
+public class BetweenFuncBitmap32 extends UpdateableBitmapFunction32 {
+    private final int min;
+    private final int max;
+    private final int[] bufCounters = new int[32];
+    private static final int[] zeroes32 = new int[32];
+
+    /**
+     * Construction a function with given bounds
+     *
+     * @param min lower bound (inclusive)
+     * @param max upper bound (inclusive)
+     */
+    public BetweenFuncBitmap32(final int min, final int max) {
+        super();
+        if (min > max)
+            throw new IllegalArgumentException("The lower bound " + min
+                    + " exceeds the upper bound " + max);
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public void dispatch(BitmapStorage32 out, int runBegin, int runEnd) {
+        final int runLength = runEnd - runBegin;
+        if (this.hammingWeight > this.max
+                || this.litWeight + this.hammingWeight < this.min) {
+            out.addStreamOfEmptyWords(false, runLength);
+        } else if (this.hammingWeight >= this.min
+                && this.litWeight + this.hammingWeight <= this.max) {
+            out.addStreamOfEmptyWords(true, runLength);
+        } else {
+            final int low = this.min - this.hammingWeight;
+            final int high = this.max - this.hammingWeight;
+            if (high >= this.litWeight) {
+                // only the lower bound matters
+                if (low == 1) {
+                    orLiterals(out, runBegin, runLength);
+                    return;
+                }
+                if (low == this.litWeight) {
+                    andLiterals(out, runBegin, runLength);
+                    return;
+                }
+            }
+            generalLiterals(low, high, out, runBegin, runLength);
+        }
+    }
+
+    private void orLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        for (int i = 0; i < runLength; ++i) {
+            int w = 0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                w |= R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            out.addLiteralWord(w);
+        }
+    }
+
+    private void andLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        for (int i = 0; i < runLength; ++i) {
+            int w = ~0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                w &= R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            out.addLiteralWord(w);
+        }
+    }
+
+    private void generalLiterals(final int low, final int high,
+                                 final BitmapStorage32 out, final int runBegin, final int runLength) {
+        final int[] counters = this.bufCounters;
+        for (int i = 0; i < runLength; ++i) {
+            System.arraycopy(zeroes32, 0, counters, 0, 32);
+            for (EWAHPointer32 R : this.getLiterals()) {
+                int bitset = R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+                while (bitset != 0) {
+                    counters[Integer.numberOfTrailingZeros(bitset)]++;
+                    bitset &= bitset - 1;
+                }
+            }
+            int result = 0;
+            for (int pos = 0; pos < 32; ++pos) {
+                if (counters[pos] >= low && counters[pos] <= high)
+                    result |= (1 << pos);
+            }
+            out.addLiteralWord(result);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * This is an implementation of the MergeOpt32 algorithm for threshold
+ * functions (see ThresholdFuncBitmap32), adapted to compressed bitmaps. With
+ * a threshold T, the T - 1 largest inputs are set aside: a bit can only be
+ * true if it is true in one of the other inputs. The largest inputs are
+ * intersected with the union of the other inputs before the threshold is
+ * computed (see DivideSkip32).
+ *
+ * It is well suited to a low threshold with a few very large inputs.
+ * Functions other than threshold functions are delegated to
+ * RunningBitmapMerge32.
+ *
+ * Reference: Sunita Sarawagi, Alok Kirpal, Efficient set joins on similarity
+ * predicates, SIGMOD 2004.
+ *
+ * @since 0.9.2
+ */
+public class MergeOpt32 implements BitmapSymmetricAlgorithm32 {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction32 f, BitmapStorage32 out,
+                          EWAHCompressedBitmap32... set) {
+        if (f instanceof ThresholdFuncBitmap32) {
+            final int t = ((ThresholdFuncBitmap32) f).getThreshold();
+            DivideSkip32.threshold(t, t - 1, out, set);
+        } else {
+            new RunningBitmapMerge32().symmetric(f, out, set);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.googlecode.javaewah.datastructure.PriorityQ;
 import com.googlecode.javaewah32.BitmapStorage32;
 import com.googlecode.javaewah32.EWAHCompressedBitmap32;
 import com.googlecode.javaewah32.IteratingBufferedRunningLengthWord32;
+import com.googlecode.javaewah32.IteratingRLW32;
 
 import java.util.Comparator;
 
@@ -49,6 +50,14 @@ public class RunningBitmapMerge32 implements BitmapSymmetricAlgorithm32 {
         }
         h.buildHeap(); // just in case we use an insane number of inputs
 
+        // the bits past the largest input must remain false, even when the
+        // function is true for zero true inputs: the last word is masked
+        long sizeInBits = 0;
+        for (EWAHCompressedBitmap32 b : set)
+            sizeInBits = Math.max(sizeInBits, b.sizeInBits());
+        final int lastWord = (int) ((sizeInBits + EWAHCompressedBitmap32.WORD_IN_BITS - 1) / EWAHCompressedBitmap32.WORD_IN_BITS) - 1;
+        final int usedBitsInLast = (int) (sizeInBits % EWAHCompressedBitmap32.WORD_IN_BITS);
+
         int lasta = 0;
         if (h.isEmpty())
             return;
@@ -56,7 +65,14 @@ public class RunningBitmapMerge32 implements BitmapSymmetricAlgorithm32 {
         while (true) { // goes until no more active inputs
             final int a = h.peek().endOfRun();
             // I suppose we have a run of length a - lasta here.
-            f.dispatch(out, lasta, a);
+            if (usedBitsInLast != 0 && lasta <= lastWord && a > lastWord) {
+                f.dispatch(out, lasta, lastWord);
+                out.addWord(wordAt(f, lastWord) & ((~0) >>> (EWAHCompressedBitmap32.WORD_IN_BITS - usedBitsInLast)));
+                if (a > lastWord + 1)
+                    f.dispatch(out, lastWord + 1, a);
+            } else {
+                f.dispatch(out, lasta, a);
+            }
             lasta = a;
 
             while (h.peek().endOfRun() == a) {
@@ -73,6 +89,21 @@ public class RunningBitmapMerge32 implements BitmapSymmetricAlgorithm32 {
                 }
             }
         }
+        out.setSizeInBitsWithinLastWord(sizeInBits);
+    }
+
+    /**
+     * For internal use. Computes the word of the output at a given position.
+     *
+     * @param f        the function, in the state of the current run
+     * @param position the position of the word
+     * @return the word
+     */
+    private static int wordAt(final UpdateableBitmapFunction32 f, final int position) {
+        final EWAHCompressedBitmap32 word = new EWAHCompressedBitmap32(4);
+        f.dispatch(word, position, position + 1);
+        final IteratingRLW32 i = word.getIteratingRLW();
+        return i.getRunningLength() > 0 ? (i.getRunningBit() ? ~0 : 0) : i.getLiteralWordAt(0);
     }
 
 }
@@ -0,0 +1,176 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+import com.googlecode.javaewah32.IteratingBufferedRunningLengthWord32;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * This is an implementation of the ScanCount32 algorithm for threshold
+ * functions (see ThresholdFuncBitmap32): the inputs are scanned block by
+ * block, with one counter per bit of the block. Blocks where no input has a
+ * set bit are skipped, and within a block, the counters are only read for
+ * the words that are neither decided by the runs of ones nor by the number
+ * of literal words.
+ *
+ * Unlike RunningBitmapMerge32, it does not maintain a heap over the inputs: it
+ * is well suited to many inputs and a low threshold.
+ *
+ * Functions other than threshold functions are delegated to
+ * RunningBitmapMerge32.
+ *
+ * Reference: Chen Li, Jiaheng Lu, Yiming Lu, Efficient merging and filtering
+ * algorithms for approximate string searches, ICDE 2008.
+ *
+ * @since 0.9.2
+ */
+public class ScanCount32 implements BitmapSymmetricAlgorithm32 {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction32 f, BitmapStorage32 out,
+                          EWAHCompressedBitmap32... set) {
+        if (f instanceof ThresholdFuncBitmap32)
+            threshold(((ThresholdFuncBitmap32) f).getThreshold(), out, set);
+        else
+            new RunningBitmapMerge32().symmetric(f, out, set);
+    }
+
+    /**
+     * For internal use. Writes out the words where at least t inputs have a
+     * true bit.
+     *
+     * @param t   the threshold
+     * @param out where we write
+     * @param set the inputs
+     */
+    static void threshold(final int t, final BitmapStorage32 out,
+                          final EWAHCompressedBitmap32... set) {
+        out.clear();
+        long sizeInBits = 0;
+        for (EWAHCompressedBitmap32 b : set)
+            sizeInBits = Math.max(sizeInBits, b.sizeInBits());
+        final long sizeInWords = (sizeInBits + EWAHCompressedBitmap32.WORD_IN_BITS - 1) / EWAHCompressedBitmap32.WORD_IN_BITS;
+        final int usedBitsInLast = (int) (sizeInBits % EWAHCompressedBitmap32.WORD_IN_BITS);
+        if (t <= 0) {
+            // every bit is true, but the bits past the largest input
+            if (usedBitsInLast == 0) {
+                out.addStreamOfEmptyWords(true, sizeInWords);
+            } else {
+                out.addStreamOfEmptyWords(true, sizeInWords - 1);
+                out.addWord((~0) >>> (EWAHCompressedBitmap32.WORD_IN_BITS - usedBitsInLast));
+            }
+            out.setSizeInBitsWithinLastWord(sizeInBits);
+            return;
+        }
+        if (t > set.length) {
+            out.addStreamOfEmptyWords(false, sizeInWords);
+            out.setSizeInBitsWithinLastWord(sizeInBits);
+            return;
+        }
+        final IteratingBufferedRunningLengthWord32[] iterators = new IteratingBufferedRunningLengthWord32[set.length];
+        final long[] positions = new long[set.length];
+        int active = 0;
+        for (EWAHCompressedBitmap32 b : set)
+            if (!b.isEmpty())
+                iterators[active++] = new IteratingBufferedRunningLengthWord32(b);
+        final int[] counters = new int[BLOCK_SIZE_IN_WORDS * EWAHCompressedBitmap32.WORD_IN_BITS];
+        // number of inputs having a run of ones (resp. a literal) at each word
+        final int[] fullCounts = new int[BLOCK_SIZE_IN_WORDS];
+        final int[] literalCounts = new int[BLOCK_SIZE_IN_WORDS];
+        long written = 0;
+        while (active >= t) {
+            // the first word where an input might have a set bit
+            long begin = Long.MAX_VALUE;
+            for (int k = 0; k < active; ++k) {
+                final IteratingBufferedRunningLengthWord32 i = iterators[k];
+                begin = Math.min(begin, i.getRunningBit() ? positions[k] : positions[k] + i.getRunningLength());
+            }
+            if (begin >= sizeInWords)
+                break;
+            final long end = Math.min(begin + BLOCK_SIZE_IN_WORDS, sizeInWords);
+            out.addStreamOfEmptyWords(false, begin - written);
+            for (int k = 0; k < active; ++k) {
+                final IteratingBufferedRunningLengthWord32 i = iterators[k];
+                long pos = positions[k];
+                if (pos < begin) {
+                    i.discardFirstWords((int) (begin - pos));
+                    pos = begin;
+                }
+                while (pos < end) {
+                    if (i.size() == 0 && !i.next())
+                        break;
+                    final int runningLength = i.getRunningLength();
+                    if (runningLength > 0) {
+                        final int n = (int) Math.min(runningLength, end - pos);
+                        if (i.getRunningBit())
+                            for (int w = (int) (pos - begin), last = w + n; w < last; ++w)
+                                ++fullCounts[w];
+                        i.discardFirstWords(n);
+                        pos += n;
+                        continue;
+                    }
+                    final int n = (int) Math.min(i.getNumberOfLiteralWords(), end - pos);
+                    for (int j = 0; j < n; ++j) {
+                        int word = i.getLiteralWordAt(j);
+                        if (word == 0)
+                            continue;
+                        final int w = (int) (pos - begin) + j;
+                        ++literalCounts[w];
+                        final int base = w * EWAHCompressedBitmap32.WORD_IN_BITS;
+                        while (word != 0) {
+                            ++counters[base + Integer.numberOfTrailingZeros(word)];
+                            word &= word - 1;
+                        }
+                    }
+                    i.discardFirstWords(n);
+                    pos += n;
+                }
+                positions[k] = pos;
+                if (i.size() == 0 && !i.next()) {
+                    // exhausted: we replace it by the last active input
+                    --active;
+                    iterators[k] = iterators[active];
+                    positions[k] = positions[active];
+                    iterators[active] = null;
+                    --k;
+                }
+            }
+            final int blockLength = (int) (end - begin);
+            for (int w = 0; w < blockLength; ++w) {
+                final int full = fullCounts[w];
+                final int literals = literalCounts[w];
+                int word = 0;
+                if (full >= t) {
+                    word = ~0;
+                } else if (full + literals >= t) {
+                    final int deficit = t - full;
+                    final int base = w * EWAHCompressedBitmap32.WORD_IN_BITS;
+                    for (int b = 0; b < EWAHCompressedBitmap32.WORD_IN_BITS; ++b)
+                        if (counters[base + b] >= deficit)
+                            word |= 1 << b;
+                }
+                if (literals > 0)
+                    Arrays.fill(counters, w * EWAHCompressedBitmap32.WORD_IN_BITS,
+                            (w + 1) * EWAHCompressedBitmap32.WORD_IN_BITS, 0);
+                fullCounts[w] = 0;
+                literalCounts[w] = 0;
+                out.addWord(word);
+            }
+            written = end;
+        }
+        out.addStreamOfEmptyWords(false, sizeInWords - written);
+        out.setSizeInBitsWithinLastWord(sizeInBits);
+    }
+
+    /**
+     * Number of words processed at once: the counters take
+     * 4 * 32 * BLOCK_SIZE_IN_WORDS bytes.
+     */
+    static final int BLOCK_SIZE_IN_WORDS = 1024;
+}
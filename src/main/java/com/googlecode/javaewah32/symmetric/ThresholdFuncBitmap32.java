@@ -39,6 +39,13 @@ public final class ThresholdFuncBitmap32 extends UpdateableBitmapFunction32 {
         this.bufferUsed = 0;
     }
 
+    /**
+     * @return the threshold
+     */
+    int getThreshold() {
+        return this.min;
+    }
+
     @Override
     public void dispatch(BitmapStorage32 out, int runBegin, int runend) {
         final int runLength = runend - runBegin;
@@ -119,9 +119,11 @@ public abstract class UpdateableBitmapFunction32 {
     }
 
     /**
+     * Subclasses overriding this method should call it.
+     *
      * @param pos position where a zero word was added
      */
-    public final void setZero(final int pos) {
+    public void setZero(final int pos) {
         if (this.b[pos]) {
             this.b[pos] = false;
             --this.hammingWeight;
@@ -131,9 +133,11 @@ public abstract class UpdateableBitmapFunction32 {
     }
 
     /**
+     * Subclasses overriding this method should call it.
+     *
      * @param pos position were a 11...1 word was added
      */
-    public final void setOne(final int pos) {
+    public void setOne(final int pos) {
         if (!this.b[pos]) {
             clearLiteral(pos);
             this.b[pos] = true;
@@ -0,0 +1,160 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A weighted threshold Boolean function: each input has an integer weight,
+ * and a bit is true if the sum of the weights of the inputs where it is true
+ * is at least the threshold. With unit weights, it is a threshold function
+ * (see ThresholdFuncBitmap32). Weights may be negative.
+ *
+ * Runs where the weights of the inputs made of ones are enough (or where the
+ * literals cannot reach the threshold) are written out without looking at
+ * the literal words.
+ *
+ * It is not thread safe: you should use one object per thread.
+ *
+ * @since 0.9.2
+ */
+public final class WeightedThresholdFuncBitmap32 extends UpdateableBitmapFunction32 {
+    private final long min;
+    private final int[] weights;
+    private long weightOfOnes = 0;
+    private long positiveWeightOfLiterals = 0;
+    private long negativeWeightOfLiterals = 0;
+    private final long[] sums = new long[32];
+
+    /**
+     * Construction a weighted threshold function
+     *
+     * @param min     threshold
+     * @param weights the weights of the inputs, in order
+     */
+    public WeightedThresholdFuncBitmap32(final long min, final int... weights) {
+        super();
+        this.min = min;
+        this.weights = Arrays.copyOf(weights, weights.length);
+    }
+
+    private int weight(final int pos) {
+        if (pos >= this.weights.length)
+            throw new IllegalArgumentException("No weight given for input " + pos);
+        return this.weights[pos];
+    }
+
+    @Override
+    public void setLiteral(final int pos) {
+        if (!this.litwlist.get(pos)) {
+            final int w = weight(pos);
+            if (w > 0)
+                this.positiveWeightOfLiterals += w;
+            else
+                this.negativeWeightOfLiterals += w;
+            if (this.b[pos])
+                this.weightOfOnes -= w;
+        }
+        super.setLiteral(pos);
+    }
+
+    @Override
+    public void clearLiteral(final int pos) {
+        if (this.litwlist.get(pos)) {
+            final int w = weight(pos);
+            if (w > 0)
+                this.positiveWeightOfLiterals -= w;
+            else
+                this.negativeWeightOfLiterals -= w;
+        }
+        super.clearLiteral(pos);
+    }
+
+    @Override
+    public void setZero(final int pos) {
+        if (this.b[pos])
+            this.weightOfOnes -= weight(pos);
+        super.setZero(pos);
+    }
+
+    @Override
+    public void setOne(final int pos) {
+        if (!this.b[pos])
+            this.weightOfOnes += weight(pos);
+        super.setOne(pos);
+    }
+
+    @Override
+    public void dispatch(BitmapStorage32 out, int runBegin, int runEnd) {
+        final int runLength = runEnd - runBegin;
+        if (this.weightOfOnes + this.negativeWeightOfLiterals >= this.min) {
+            out.addStreamOfEmptyWords(true, runLength);
+        } else if (this.weightOfOnes + this.positiveWeightOfLiterals < this.min) {
+            out.addStreamOfEmptyWords(false, runLength);
+        } else {
+            final long deficit = this.min - this.weightOfOnes;
+            if (this.negativeWeightOfLiterals == 0) {
+                int smallest = Integer.MAX_VALUE;
+                for (int k = this.litwlist.nextSetBit(0); k >= 0; k = this.litwlist.nextSetBit(k + 1))
+                    smallest = Math.min(smallest, this.weights[k]);
+                if (smallest >= deficit) {
+                    orLiterals(out, runBegin, runLength);
+                    return;
+                }
+                if (this.positiveWeightOfLiterals - smallest < deficit) {
+                    andLiterals(out, runBegin, runLength);
+                    return;
+                }
+            }
+            generalLiterals(out, runBegin, runLength);
+        }
+    }
+
+    private void orLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        for (int i = 0; i < runLength; ++i) {
+            int w = 0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                w |= R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            out.addLiteralWord(w);
+        }
+    }
+
+    private void andLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        for (int i = 0; i < runLength; ++i) {
+            int w = ~0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                w &= R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            out.addLiteralWord(w);
+        }
+    }
+
+    private void generalLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        final long[] s = this.sums;
+        for (int i = 0; i < runLength; ++i) {
+            Arrays.fill(s, this.weightOfOnes);
+            for (int k = this.litwlist.nextSetBit(0); k >= 0; k = this.litwlist.nextSetBit(k + 1)) {
+                final EWAHPointer32 R = this.rw[k];
+                final int w = this.weights[k];
+                int bitset = R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+                while (bitset != 0) {
+                    s[Integer.numberOfTrailingZeros(bitset)] += w;
+                    bitset &= bitset - 1;
+                }
+            }
+            int result = 0;
+            for (int pos = 0; pos < 32; ++pos) {
+                if (s[pos] >= this.min)
+                    result |= (1 << pos);
+            }
+            out.addLiteralWord(result);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.googlecode.javaewah.EWAHCompressedBitmap.WORD_IN_BITS;
+
+/**
+ * Tests for the lazy bitmap expressions.
+ */
+@SuppressWarnings("javadoc")
+public class BitmapExpressionTest {
+
+    private static BitmapExpression randomExpression(Random rnd, EWAHCompressedBitmap[] bitmaps, int depth,
+                                                     EWAHCompressedBitmap[] value) {
+        if (depth == 0 || rnd.nextInt(4) == 0) {
+            int k = rnd.nextInt(bitmaps.length);
+            value[0] = bitmaps[k];
+            return BitmapExpression.of(bitmaps[k]);
+        }
+        int choice = rnd.nextInt(4);
+        if (choice == 3) {
+            BitmapExpression operand = randomExpression(rnd, bitmaps, depth - 1, value);
+            EWAHCompressedBitmap negated = value[0].clone();
+            negated.not();
+            value[0] = negated;
+            return BitmapExpression.not(operand);
+        }
+        BitmapExpression[] operands = new BitmapExpression[2 + rnd.nextInt(3)];
+        EWAHCompressedBitmap answer = null;
+        for (int k = 0; k < operands.length; ++k) {
+            operands[k] = randomExpression(rnd, bitmaps, depth - 1, value);
+            if (answer == null)
+                answer = value[0];
+            else
+                answer = choice == 0 ? answer.and(value[0]) : choice == 1 ? answer.or(value[0]) : answer.xor(value[0]);
+        }
+        value[0] = answer;
+        return choice == 0 ? BitmapExpression.and(operands) : choice == 1 ? BitmapExpression.or(operands)
+                : BitmapExpression.xor(operands);
+    }
+
+    @Test
+    public void bitmapExpression() {
+        System.out.println("testing lazy bitmap expressions");
+        final Random rnd = new Random(4321);
+        for (int trial = 0; trial < 40; ++trial) {
+            int size = 1 + rnd.nextInt(100 * WORD_IN_BITS);
+            EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[6];
+            for (int k = 0; k < bitmaps.length; ++k) {
+                bitmaps[k] = new EWAHCompressedBitmap();
+                if (k == 0)
+                    continue; // empty
+                for (int p = rnd.nextInt(10); p < size; p += 1 + rnd.nextInt(k == 1 ? 3 * WORD_IN_BITS : 50))
+                    if (rnd.nextInt(k) == 0)
+                        bitmaps[k].addRange(p, Math.min(size, p + rnd.nextInt(5 * WORD_IN_BITS)));
+                    else
+                        bitmaps[k].set(p);
+                bitmaps[k].setSizeInBits(size, false);
+            }
+            bitmaps[0].setSizeInBits(size, false);
+            EWAHCompressedBitmap[] value = new EWAHCompressedBitmap[1];
+            BitmapExpression expression = randomExpression(rnd, bitmaps, 4, value);
+            EWAHCompressedBitmap result = expression.evaluate();
+            Assert.assertEquals(value[0], result);
+            Assert.assertEquals(value[0].sizeInBits(), result.sizeInBits());
+            Assert.assertEquals(value[0].cardinality(), expression.cardinality());
+            int[] expected = value[0].toArray();
+            IntIterator i = expression.intIterator();
+            for (int x : expected) {
+                Assert.assertTrue(i.hasNext());
+                Assert.assertEquals(x, i.next());
+            }
+            Assert.assertFalse(i.hasNext());
+            // the expression can be evaluated again
+            Assert.assertEquals(result, expression.evaluate());
+        }
+        // bitmaps of different sizes: negations apply to the largest size
+        EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 5, 1000);
+        EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(5, 70);
+        EWAHCompressedBitmap c = EWAHCompressedBitmap.bitmapOf(3, 70, 3000);
+        Assert.assertEquals(a.andNot(b), BitmapExpression.andNot(BitmapExpression.of(a), BitmapExpression.of(b))
+                .evaluate());
+        EWAHCompressedBitmap notB = b.clone();
+        notB.setSizeInBits(a.sizeInBits(), false);
+        notB.not();
+        BitmapExpression e = BitmapExpression.or(BitmapExpression.of(a), BitmapExpression.not(BitmapExpression.of(b)));
+        Assert.assertEquals(a.or(notB), e.evaluate());
+        Assert.assertEquals(a.sizeInBits(), e.evaluate().sizeInBits());
+        Assert.assertEquals(a.or(notB).cardinality(), e.cardinality());
+        // (A OR B) AND NOT (C) AND A
+        Assert.assertEquals(a.or(b).andNot(c), BitmapExpression.and(BitmapExpression.or(a, b),
+                BitmapExpression.not(BitmapExpression.of(c)), BitmapExpression.of(a)).evaluate());
+        Assert.assertEquals(c.sizeInBits(), BitmapExpression.and(a, b, c).evaluate().sizeInBits());
+        Assert.assertTrue(BitmapExpression.and(a, new EWAHCompressedBitmap(), c).evaluate().isEmpty());
+        Assert.assertEquals(b, BitmapExpression.not(BitmapExpression.not(BitmapExpression.of(b))).evaluate());
+    }
+}
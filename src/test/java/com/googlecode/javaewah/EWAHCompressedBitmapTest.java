@@ -5,12 +5,18 @@ package com.googlecode.javaewah;
  * Licensed under the Apache License, Version 2.0.
  */
 
+import com.googlecode.javaewah.datastructure.RadixSort;
 import org.junit.Assert;
 import org.junit.Test;
 
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.googlecode.javaewah.EWAHCompressedBitmap.WORD_IN_BITS;
 
@@ -81,6 +87,132 @@ public class EWAHCompressedBitmapTest {
         Assert.assertFalse(bitmap.get(199));
     }
 	
+    @Test
+    public void offHeap() throws Exception {
+        System.out.println("testing off-heap bitmaps");
+        Random rnd = new Random(42);
+        for (int k = 0; k < 20; ++k) {
+            EWAHCompressedBitmap heap1 = new EWAHCompressedBitmap();
+            EWAHCompressedBitmap heap2 = new EWAHCompressedBitmap();
+            EWAHCompressedBitmap direct1 = EWAHCompressedBitmap.offHeap(1);
+            EWAHCompressedBitmap direct2 = EWAHCompressedBitmap.offHeap(1);
+            for (int i = 0; i < 500; ++i) {
+                int p1 = rnd.nextInt(20 * WORD_IN_BITS * (k + 1));
+                int p2 = rnd.nextInt(20 * WORD_IN_BITS * (k + 1));
+                heap1.set(p1);
+                direct1.set(p1);
+                heap2.set(p2);
+                direct2.set(p2);
+            }
+            for (int i = 0; i < 100; ++i) {
+                int p = rnd.nextInt(20 * WORD_IN_BITS * (k + 1));
+                heap1.clear(p);
+                direct1.clear(p);
+            }
+            Assert.assertEquals(heap1, direct1);
+            Assert.assertEquals(heap2, direct2);
+            Assert.assertArrayEquals(heap1.toArray(), direct1.toArray());
+            Assert.assertEquals(heap1.and(heap2), direct1.and(direct2));
+            Assert.assertEquals(heap1.or(heap2), direct1.or(direct2));
+            Assert.assertEquals(heap1.xor(heap2), direct1.xor(direct2));
+            Assert.assertEquals(heap1.andNot(heap2), direct1.andNot(direct2));
+            Assert.assertEquals(heap1.orCardinality(heap2), direct1.orCardinality(heap2));
+            EWAHCompressedBitmap container = EWAHCompressedBitmap.offHeap(1);
+            direct1.orToContainer(direct2, container);
+            Assert.assertEquals(heap1.or(heap2), container);
+            container.release();
+            EWAHCompressedBitmap copy = direct1.clone();
+            copy.not();
+            heap1.not();
+            Assert.assertEquals(heap1, copy);
+            copy.release();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oo = new ObjectOutputStream(bos);
+            direct2.writeExternal(oo);
+            oo.close();
+            EWAHCompressedBitmap read = new EWAHCompressedBitmap();
+            read.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+            Assert.assertEquals(heap2, read);
+            direct1.release();
+            direct2.release();
+        }
+    }
+
+    @Test
+    public void offHeapLongLiteralRuns() {
+        System.out.println("testing off-heap bitmaps with long runs of literal words");
+        Random rnd = new Random(4242);
+        EWAHCompressedBitmap heap = new EWAHCompressedBitmap();
+        EWAHCompressedBitmap direct = EWAHCompressedBitmap.offHeap(1);
+        // thousands of literal words in a row, more than copied at once
+        for (int p = 0; p < 5000 * WORD_IN_BITS; p += 1 + rnd.nextInt(WORD_IN_BITS / 2)) {
+            heap.set(p);
+            direct.set(p);
+        }
+        EWAHCompressedBitmap other = EWAHCompressedBitmap.bitmapOf(3, 1000 * WORD_IN_BITS + 5, 7000 * WORD_IN_BITS);
+        Assert.assertEquals(heap.or(other), direct.or(other));
+        Assert.assertEquals(heap.xor(other), direct.xor(other));
+        Assert.assertEquals(heap.andNot(other), direct.andNot(other));
+        EWAHCompressedBitmap copy = new EWAHCompressedBitmap();
+        IteratorUtil.materialize(direct.getIteratingRLW(), copy);
+        Assert.assertEquals(heap, copy);
+        direct.release();
+    }
+
+    @Test
+    public void writeLiteralWords() {
+        System.out.println("testing the bulk copy of literal words out of a buffer");
+        Random rnd = new Random(1618);
+        Buffer[] buffers = {new LongArray(1), new LongBufferWrapper(1)};
+        for (int k = 0; k < 3000; ++k) {
+            final long word = rnd.nextLong();
+            for (Buffer buffer : buffers)
+                buffer.push_back(word);
+        }
+        // ranges within and across the chunks copied by the off-heap buffer
+        final int[][] ranges = {{1, 1}, {5, 100}, {1000, 50}, {1, 2999}, {2000, 1000}};
+        for (Buffer buffer : buffers) {
+            for (int[] range : ranges) {
+                EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+                EWAHCompressedBitmap negated = new EWAHCompressedBitmap();
+                for (int k = range[0]; k < range[0] + range[1]; ++k) {
+                    expected.addWord(buffers[0].getWord(k));
+                    negated.addWord(~buffers[0].getWord(k));
+                }
+                EWAHCompressedBitmap literals = new EWAHCompressedBitmap();
+                buffer.writeLiteralWords(range[0], range[1], literals);
+                Assert.assertEquals(expected, literals);
+                Assert.assertEquals(expected.sizeInBits(), literals.sizeInBits());
+                EWAHCompressedBitmap negatedLiterals = new EWAHCompressedBitmap();
+                buffer.writeNegatedLiteralWords(range[0], range[1], negatedLiterals);
+                Assert.assertEquals(negated, negatedLiterals);
+                Assert.assertEquals(negated.sizeInBits(), negatedLiterals.sizeInBits());
+            }
+        }
+        buffers[1].release();
+    }
+
+    @Test
+    public void offHeapReadAfterRelease() throws Exception {
+        System.out.println("testing reading into a released off-heap buffer");
+        LongBufferWrapper words = new LongBufferWrapper(1);
+        words.push_back(1);
+        words.push_back(2);
+        words.push_back(3);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oo = new ObjectOutputStream(bos);
+        words.writeExternal(oo);
+        oo.close();
+        LongBufferWrapper read = new LongBufferWrapper(1);
+        read.release();
+        read.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        Assert.assertEquals(4, read.sizeInWords());
+        for (int i = 1; i < 4; ++i)
+            Assert.assertEquals(i, read.getWord(i));
+        read.release();
+        words.release();
+    }
+
     @Test
     public void testBug090() {
         EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
@@ -96,6 +228,58 @@ public class EWAHCompressedBitmapTest {
         Assert.assertTrue(bm.equals(bm1));
 	}
 
+    @Test
+    public void getFirstSetBitRandom() {
+        System.out.println("testing getFirstSetBit and isEmpty on random intersections");
+        // the intersection starts with empty literal words
+        EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 3 * WORD_IN_BITS, 20 * WORD_IN_BITS + 7);
+        EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(2, 3 * WORD_IN_BITS + 1, 20 * WORD_IN_BITS + 7);
+        EWAHCompressedBitmap c = a.and(b);
+        Assert.assertEquals(20 * WORD_IN_BITS + 7, c.getFirstSetBit());
+        Assert.assertFalse(c.isEmpty());
+        c.clear(20 * WORD_IN_BITS + 7);
+        Assert.assertEquals(-1, c.getFirstSetBit());
+        Assert.assertTrue(c.isEmpty());
+        Assert.assertEquals(3 * WORD_IN_BITS, a.andNot(EWAHCompressedBitmap.bitmapOf(1)).getFirstSetBit());
+        Random rnd = new Random(8080);
+        for (int trial = 0; trial < 200; ++trial) {
+            a = new EWAHCompressedBitmap();
+            b = new EWAHCompressedBitmap();
+            int size = 1 + rnd.nextInt(100 * WORD_IN_BITS);
+            for (int p = rnd.nextInt(WORD_IN_BITS); p < size; p += 1 + rnd.nextInt(WORD_IN_BITS)) {
+                if (rnd.nextBoolean())
+                    a.set(p);
+                else
+                    b.set(p);
+            }
+            // mostly disjoint: the intersection has many empty literal words
+            if (rnd.nextInt(3) == 0) {
+                a.set(size + 1);
+                b.set(size + 1);
+            }
+            c = a.and(b);
+            int[] bits = c.toArray();
+            Assert.assertEquals(bits.length == 0 ? -1 : bits[0], c.getFirstSetBit());
+            Assert.assertEquals(bits.length == 0, c.isEmpty());
+        }
+    }
+
+    @Test
+    public void manyLiteralWords() {
+        System.out.println("testing more literal words than a running length word can count");
+        final Random rnd = new Random(2468);
+        EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        long cardinality = 0;
+        for (int k = 0; k < 100000; ++k) {
+            final long word = rnd.nextLong() | 1;
+            cardinality += Long.bitCount(word);
+            bitmap.addLiteralWord(word);
+        }
+        Assert.assertEquals(100000L * WORD_IN_BITS, bitmap.sizeInBits());
+        Assert.assertEquals(cardinality, bitmap.cardinality());
+        Assert.assertEquals(cardinality, bitmap.toArray().length);
+    }
+
     @Test
     public void jugovacTest() {
         EWAHCompressedBitmap bm1 = new EWAHCompressedBitmap(1);
@@ -542,6 +726,22 @@ public class EWAHCompressedBitmapTest {
         Assert.assertFalse(iterator.hasNext());
     }
 
+    @Test
+    public void setSizeInBitsAfterClear() {
+        System.out.println("testing setSizeInBits after a clear bit");
+        for (int last : new int[]{1, WORD_IN_BITS - 1, WORD_IN_BITS + 1, 100 * WORD_IN_BITS + 3}) {
+            EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+            bitmap.set(last - 1);
+            bitmap.clear(last - 1);
+            Assert.assertEquals(last, bitmap.sizeInBits());
+            bitmap.setSizeInBits(1000 * WORD_IN_BITS + 5, false);
+            Assert.assertEquals(1000 * WORD_IN_BITS + 5, bitmap.sizeInBits());
+            Assert.assertTrue(bitmap.isEmpty());
+            bitmap.not();
+            Assert.assertEquals(1000 * WORD_IN_BITS + 5, bitmap.cardinality());
+        }
+    }
+
     @Test
     public void reverseIntIterator() {
         int[] positions = new int[] { 0, 1, 2, 3, 5, 8, 13, 21 };
@@ -669,6 +869,44 @@ public class EWAHCompressedBitmapTest {
         Assert.assertFalse(iterator.hasNext());
     }
 
+    @Test
+    public void chunkIteratorRandom() {
+        System.out.println("testing chunk iterators against the set bits");
+        Random rnd = new Random(271);
+        for (int trial = 0; trial < 200; ++trial) {
+            EWAHCompressedBitmap a = new EWAHCompressedBitmap();
+            int n = 1 + rnd.nextInt(trial < 100 ? 300 : 30000);
+            for (int i = 0; i < n; ++i)
+                if (rnd.nextInt(3) == 0)
+                    a.set(i);
+            if (trial % 2 == 0) {
+                // literal words with trailing zeros, or equal to zero
+                a = a.and(EWAHCompressedBitmap.bitmapOf(n / 2, n / 2 + 1, n / 2 + 2 * WORD_IN_BITS));
+                a.setSizeInBits(n + 5 * WORD_IN_BITS, false);
+                a.set(n + 5 * WORD_IN_BITS);
+            }
+            BitSet reference = new BitSet();
+            for (int i : a.toArray())
+                reference.set(i);
+            ChunkIterator iterator = a.chunkIterator();
+            int position = 0;
+            while (iterator.hasNext()) {
+                final boolean bit = iterator.nextBit();
+                final long length = iterator.nextLength();
+                Assert.assertTrue(length > 0);
+                final int step = rnd.nextBoolean() ? (int) length : 1 + rnd.nextInt((int) length);
+                for (int i = position; i < position + step; ++i)
+                    Assert.assertEquals(reference.get(i), bit);
+                position += step;
+                if (step == length)
+                    iterator.move();
+                else
+                    iterator.move(step);
+            }
+            Assert.assertEquals(a.sizeInBits(), position);
+        }
+    }
+
     @Test
     public void simpleCompose() {
         EWAHCompressedBitmap bitmap1 = EWAHCompressedBitmap.bitmapOf(1, 3, 4);
@@ -736,6 +974,47 @@ public class EWAHCompressedBitmapTest {
         Assert.assertEquals(WORD_IN_BITS, result.sizeInBits());
     }
 
+    @Test
+    public void composeRandom() {
+        System.out.println("testing compose against a brute-force composition");
+        // used to report bits absent from the receiver: the chunk iterator
+        // dropped the trailing zeros of literal words
+        EWAHCompressedBitmap x = EWAHCompressedBitmap.bitmapOf(2, 8, 10, 16, 17, 18, 25, 29, 32, 33, 36, 41, 56, 57, 60, 62, 63, 73,
+                78, 82, 86, 88, 93, 94, 98, 101, 103, 112, 117, 118, 119, 121, 124, 126, 128, 133, 134);
+        EWAHCompressedBitmap y = EWAHCompressedBitmap.bitmapOf(0, 1, 3, 6, 9, 14, 16, 17, 18, 19, 20, 21, 26, 29, 30, 31, 32, 34, 35,
+                36, 37, 40, 41, 42, 44, 48, 49, 50, 53, 56, 57, 59, 60, 65, 66, 67, 68, 69, 72, 75, 80, 82,
+                83, 84, 85, 86, 87, 88, 89, 90, 91, 94, 95, 96, 99, 105, 106, 108, 109, 110, 111, 114,
+                116, 120, 123, 125, 128, 129, 131, 132, 134);
+        Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(2, 8, 16, 25, 33, 60, 63, 73, 78, 82, 86, 88, 103, 118, 119,
+                121, 124, 128, 133, 134), x.compose(y));
+        Random rnd = new Random(3);
+        for (int trial = 0; trial < 300; ++trial) {
+            EWAHCompressedBitmap a = new EWAHCompressedBitmap();
+            EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+            int n = 1 + rnd.nextInt(trial < 200 ? 300 : 30000);
+            for (int i = 0; i < n; ++i) {
+                if (rnd.nextInt(3) == 0)
+                    a.set(i);
+                if (rnd.nextInt(2) == 0)
+                    b.set(i);
+            }
+            if (trial % 3 == 0) {
+                // empty literal words and runs
+                a = a.and(EWAHCompressedBitmap.bitmapOf(n / 2, n / 2 + 1, n / 2 + 2 * WORD_IN_BITS));
+                a.setSizeInBits(n + 5 * WORD_IN_BITS, false);
+                a.set(n + 5 * WORD_IN_BITS);
+            }
+            int[] positions = a.toArray();
+            EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+            for (int r : b.toArray())
+                if (r < positions.length)
+                    expected.set(positions[r]);
+            EWAHCompressedBitmap c = a.compose(b);
+            Assert.assertEquals(expected, c);
+            Assert.assertEquals(a.sizeInBits(), c.sizeInBits());
+        }
+    }
+
     @Test
     public void testAstesana() {
     	for(int k = 5; k < 256; ++k) {
@@ -1276,6 +1555,791 @@ public class EWAHCompressedBitmapTest {
         }
     }
 
+    @Test
+    public void legacySerialization() throws Exception {
+        System.out.println("testing the serialization format of earlier versions");
+        // ObjectOutputStream.writeObject(EWAHCompressedBitmap.bitmapOf(1, 100, 1000, 50000)) before 0.9.2
+        String old = "aced00057372002c636f6d2e676f6f676c65636f64652e6a617661657761682e45574148436f6d70"
+            + "7265737365644269746d617000000000000000010c000078707708000000000000c3517372002163"
+            + "6f6d2e676f6f676c65636f64652e6a617661657761682e4c6f6e674172726179369eca7905e538cb"
+            + "0c00007870773c000000070000000400000000000000000000000200000010000000000000000200"
+            + "00001a000001000000000000000002000005fa00000000000100007877040000000578";
+        byte[] bytes = new byte[old.length() / 2];
+        for (int k = 0; k < bytes.length; ++k)
+            bytes[k] = (byte) Integer.parseInt(old.substring(2 * k, 2 * k + 2), 16);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        EWAHCompressedBitmap read = (EWAHCompressedBitmap) in.readObject();
+        Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(1, 100, 1000, 50000), read);
+        Assert.assertEquals(50001, read.sizeInBits());
+        read.set(50001);
+        Assert.assertEquals(5, read.cardinality());
+        // the current format starts with a marker, and both go through the
+        // ObjectOutput/ObjectInput methods
+        EWAHCompressedBitmap bitmap = EWAHCompressedBitmap.bitmapOf(0, 2, 55, 64, 1 << 20);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        bitmap.serialize(out);
+        out.close();
+        EWAHCompressedBitmap direct = EWAHCompressedBitmap.offHeap(1);
+        direct.deserialize(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        Assert.assertEquals(bitmap, direct);
+        Assert.assertEquals(bitmap.sizeInBits(), direct.sizeInBits());
+        direct.release();
+    }
+
+    @Test
+    public void portableSerialization() throws IOException {
+        System.out.println("testing portable serialization");
+        EWAHCompressedBitmap bitmap = EWAHCompressedBitmap.bitmapOf(0, 2, 55, 64, 1 << 20, 1 << 30);
+        for (int k = 3000; k < 5000; ++k)
+            bitmap.set(k);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bitmap.serialize(new DataOutputStream(bos));
+        byte[] bytes = bos.toByteArray();
+        Assert.assertEquals(bitmap.serializedSizeInBytes(), bytes.length);
+        // little endian: the header starts with the low byte of sizeInBits
+        Assert.assertEquals((byte) bitmap.sizeInBits(), bytes[0]);
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buffer);
+        Assert.assertArrayEquals(bytes, buffer.array());
+        buffer.flip();
+        EWAHCompressedBitmap fromBuffer = new EWAHCompressedBitmap(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+        Assert.assertEquals(bitmap, fromBuffer);
+        Assert.assertEquals(bitmap.sizeInBits(), fromBuffer.sizeInBits());
+        fromBuffer.set((1 << 30) + 5);
+        EWAHCompressedBitmap read = new EWAHCompressedBitmap();
+        read.set(7);
+        read.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+        Assert.assertEquals(bitmap, read);
+        Assert.assertEquals(bitmap.sizeInBits(), read.sizeInBits());
+        read.set((1 << 30) + 5);
+        Assert.assertEquals(read, fromBuffer);
+        EWAHCompressedBitmap direct = EWAHCompressedBitmap.offHeap(1);
+        direct.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+        Assert.assertEquals(bitmap, direct);
+        direct.release();
+        EWAHCompressedBitmap empty = new EWAHCompressedBitmap();
+        bos = new ByteArrayOutputStream();
+        empty.serialize(new DataOutputStream(bos));
+        Assert.assertEquals(empty.serializedSizeInBytes(), bos.size());
+        read.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        Assert.assertTrue(read.isEmpty());
+        Assert.assertEquals(0, read.sizeInBits());
+    }
+
+    @Test
+    public void skipIndex() {
+        System.out.println("testing the skip index");
+        final Random rnd = new Random(4321);
+        for (int interval = 1; interval <= 64; interval *= 4) {
+            EWAHCompressedBitmap indexed = new EWAHCompressedBitmap();
+            indexed.enableSkipIndex(interval);
+            BitSet reference = new BitSet();
+            for (int k = 0; k < 3000; ++k) {
+                int pos = rnd.nextInt(200000);
+                if (rnd.nextInt(10) == 0) {
+                    indexed.clear(pos);
+                    reference.clear(pos);
+                } else {
+                    indexed.set(pos);
+                    reference.set(pos);
+                }
+                int probe = rnd.nextInt(200000);
+                Assert.assertEquals(reference.get(probe), indexed.get(probe));
+            }
+            int length = (int) indexed.sizeInBits();
+            for (int k = 0; k < length; k += 7)
+                Assert.assertEquals(reference.get(k), indexed.get(k));
+            // appending does not invalidate the index
+            for (int k = length + 100; k < length + 20000; k += 150) {
+                indexed.set(k);
+                reference.set(k);
+                Assert.assertTrue(indexed.get(k));
+                Assert.assertTrue(indexed.get(k - 150 * (k % 3)) == reference.get(k - 150 * (k % 3)));
+            }
+            EWAHCompressedBitmap copy = indexed.clone();
+            indexed.not();
+            for (int k = 0; k < indexed.sizeInBits(); k += 13)
+                Assert.assertEquals(!reference.get(k), indexed.get(k));
+            indexed.swap(copy);
+            for (int k = 0; k < indexed.sizeInBits(); k += 13) {
+                Assert.assertEquals(reference.get(k), indexed.get(k));
+                Assert.assertEquals(!reference.get(k), copy.get(k));
+            }
+            Assert.assertEquals(reference.cardinality(), indexed.cardinality());
+            indexed.disableSkipIndex();
+            for (int k = 0; k < indexed.sizeInBits(); k += 13)
+                Assert.assertEquals(reference.get(k), indexed.get(k));
+        }
+    }
+
+    @Test
+    public void rankAndSelect() {
+        System.out.println("testing rank and select");
+        final Random rnd = new Random(2468);
+        for (int interval = 0; interval <= 16; interval += 4) {
+            EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+            if (interval > 0)
+                bitmap.enableSkipIndex(interval);
+            BitSet reference = new BitSet();
+            for (int k = 0; k < 100; ++k) {
+                int start = rnd.nextInt(100000);
+                int length = rnd.nextBoolean() ? 1 : rnd.nextInt(1000);
+                for (int j = start; j < start + length; ++j) {
+                    bitmap.set(j);
+                    reference.set(j);
+                }
+            }
+            for (int round = 0; round < 3; ++round) {
+                int[] positions = bitmap.toArray();
+                Assert.assertEquals(reference.cardinality(), positions.length);
+                for (int k = 0; k < positions.length; k += 1 + rnd.nextInt(50)) {
+                    Assert.assertEquals(positions[k], bitmap.select(k));
+                    Assert.assertEquals(k, bitmap.rank(positions[k]));
+                    Assert.assertEquals(k + 1, bitmap.rank(positions[k] + 1));
+                }
+                for (int k = 0; k < 1000; ++k) {
+                    int i = rnd.nextInt(110000);
+                    Assert.assertEquals(reference.get(0, i).cardinality(), bitmap.rank(i));
+                }
+                Assert.assertEquals(-1, bitmap.select(positions.length));
+                Assert.assertEquals(-1, bitmap.select(-1));
+                Assert.assertEquals(0, bitmap.rank(0));
+                Assert.assertEquals(positions.length, bitmap.rank(Long.MAX_VALUE));
+                // flip bits in the middle, before querying again
+                for (int k = 0; k < 200; ++k) {
+                    int i = rnd.nextInt(100000);
+                    if (reference.get(i)) {
+                        bitmap.clear(i);
+                        reference.clear(i);
+                    } else {
+                        bitmap.set(i);
+                        reference.set(i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rankAndSelectAfterModification() {
+        System.out.println("testing rank and select on a bitmap being modified");
+        final Random rnd = new Random(1122);
+        // rank and select enable the skip index: it must follow the changes
+        EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        BitSet reference = new BitSet();
+        for (int k = 0; k < 2000; ++k) {
+            int i = rnd.nextInt(k % 2 == 0 ? 200000 : 20000);
+            switch (rnd.nextInt(4)) {
+            case 0:
+                bitmap.clear(i);
+                reference.clear(i);
+                break;
+            case 1:
+                i = (int) bitmap.sizeInBits() + rnd.nextInt(5000);
+                bitmap.set(i);
+                reference.set(i);
+                break;
+            default:
+                bitmap.set(i);
+                reference.set(i);
+            }
+            int j = rnd.nextInt((int) bitmap.sizeInBits() + 100);
+            Assert.assertEquals(reference.get(0, j).cardinality(), bitmap.rank(j));
+            int r = rnd.nextInt(reference.cardinality() + 1);
+            int expected = -1;
+            for (int p = reference.nextSetBit(0), c = 0; p >= 0; p = reference.nextSetBit(p + 1), ++c) {
+                if (c == r) {
+                    expected = p;
+                    break;
+                }
+            }
+            Assert.assertEquals(expected, bitmap.select(r));
+            if (k % 500 == 499) {
+                bitmap.not();
+                reference.flip(0, (int) bitmap.sizeInBits());
+                bitmap.disableSkipIndex();
+            }
+        }
+        EWAHCompressedBitmap copy = bitmap.clone();
+        copy.set((int) copy.sizeInBits() + 100);
+        Assert.assertEquals(reference.cardinality(), bitmap.rank(Long.MAX_VALUE));
+        Assert.assertEquals(reference.cardinality() + 1, copy.rank(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void skipIndexConcurrentReads() throws Exception {
+        System.out.println("testing concurrent reads with the skip index");
+        final Random rnd = new Random(8642);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int trial = 0; trial < 50; ++trial) {
+                final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+                for (int k = 0; k < 5000; ++k)
+                    bitmap.set(rnd.nextInt(1000000));
+                final int[] positions = bitmap.toArray();
+                // the index is built by the readers, concurrently
+                bitmap.enableSkipIndex(1 + trial % 3);
+                final CyclicBarrier start = new CyclicBarrier(4);
+                List<Future<Void>> results = new ArrayList<Future<Void>>();
+                for (int t = 0; t < 4; ++t) {
+                    final int seed = t;
+                    results.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            start.await();
+                            Random r = new Random(seed);
+                            for (int j = 0; j < 2000; ++j) {
+                                int k = r.nextInt(positions.length);
+                                Assert.assertTrue(bitmap.get(positions[k]));
+                                Assert.assertEquals(k, bitmap.rank(positions[k]));
+                                Assert.assertEquals(positions[k], bitmap.select(k));
+                                Assert.assertEquals(positions[k], bitmap.nextSetBit(positions[k]));
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> f : results)
+                    f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void navigation() {
+        System.out.println("testing nextSetBit, previousSetBit, nextClearBit and previousClearBit");
+        final Random rnd = new Random(1357);
+        EWAHCompressedBitmap empty = new EWAHCompressedBitmap();
+        Assert.assertEquals(-1, empty.getLastSetBit());
+        Assert.assertEquals(-1, empty.nextSetBit(0));
+        Assert.assertEquals(-1, empty.previousSetBit(10));
+        Assert.assertEquals(10, empty.nextClearBit(10));
+        Assert.assertEquals(10, empty.previousClearBit(10));
+        Assert.assertEquals(-1, empty.previousClearBit(-1));
+        for (int trial = 0; trial < 12; ++trial) {
+            EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+            if (trial % 3 == 1)
+                bitmap.enableSkipIndex(2);
+            BitSet reference = new BitSet();
+            for (int k = 0; k < 50; ++k) {
+                int start = rnd.nextInt(50000);
+                int length = rnd.nextBoolean() ? 1 + rnd.nextInt(3) : rnd.nextInt(2000);
+                for (int j = start; j < start + length; ++j) {
+                    bitmap.set(j);
+                    reference.set(j);
+                }
+            }
+            if (trial % 2 == 1) {
+                bitmap.not();
+                reference.flip(0, (int) bitmap.sizeInBits());
+            }
+            Assert.assertEquals(reference.length() - 1, bitmap.getLastSetBit());
+            for (int k = 0; k < 3000; ++k) {
+                int i = rnd.nextInt(52000);
+                Assert.assertEquals(reference.nextSetBit(i), bitmap.nextSetBit(i));
+                Assert.assertEquals(reference.nextClearBit(i), bitmap.nextClearBit(i));
+                Assert.assertEquals(reference.previousSetBit(i), bitmap.previousSetBit(i));
+                Assert.assertEquals(reference.previousClearBit(i), bitmap.previousClearBit(i));
+            }
+            int count = 0;
+            for (long i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1))
+                ++count;
+            Assert.assertEquals(reference.cardinality(), count);
+            Assert.assertEquals(-1, bitmap.previousSetBit(-1));
+        }
+        EWAHCompressedBitmap ones = new EWAHCompressedBitmap();
+        ones.setSizeInBits(1000, true);
+        Assert.assertEquals(999, ones.getLastSetBit());
+        Assert.assertEquals(1000, ones.nextClearBit(3));
+        Assert.assertEquals(-1, ones.previousClearBit(999));
+        ones.setSizeInBits(5000, false);
+        Assert.assertEquals(999, ones.getLastSetBit());
+        Assert.assertEquals(999, ones.previousSetBit(4000));
+        try {
+            ones.nextSetBit(-1);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rangeOperations() {
+        System.out.println("testing addRange, removeRange and flipRange");
+        final Random rnd = new Random(97531);
+        for (int trial = 0; trial < 40; ++trial) {
+            EWAHCompressedBitmap bitmap = trial % 4 == 3 ? EWAHCompressedBitmap.offHeap(8) : new EWAHCompressedBitmap();
+            if (trial % 4 == 1)
+                bitmap.enableSkipIndex(1);
+            BitSet reference = new BitSet();
+            for (int k = 0; k < 30; ++k) {
+                int start = rnd.nextInt(20000);
+                int end = start + (rnd.nextBoolean() ? rnd.nextInt(3) : rnd.nextInt(5000));
+                EWAHCompressedBitmap before = bitmap.clone();
+                switch (rnd.nextInt(3)) {
+                case 0:
+                    Assert.assertEquals(EWAHCompressedBitmap.addRange(before, start, end), addRange(bitmap, reference, start, end));
+                    break;
+                case 1:
+                    bitmap.removeRange(start, end);
+                    reference.clear(start, end);
+                    Assert.assertEquals(before.sizeInBits(), bitmap.sizeInBits());
+                    Assert.assertEquals(EWAHCompressedBitmap.removeRange(before, start, end), bitmap);
+                    break;
+                default:
+                    bitmap.flipRange(start, end);
+                    reference.flip(start, end);
+                    Assert.assertEquals(EWAHCompressedBitmap.flipRange(before, start, end), bitmap);
+                }
+                Assert.assertEquals(reference.cardinality(), bitmap.cardinality());
+                int[] positions = bitmap.toArray();
+                Assert.assertEquals(reference.cardinality(), positions.length);
+                for (int p : positions)
+                    Assert.assertTrue(reference.get(p));
+                for (int j = 0; j < 100; ++j) {
+                    int i = rnd.nextInt(26000);
+                    Assert.assertEquals(reference.get(i), bitmap.get(i));
+                }
+            }
+            // the result of the range operations replaces the buffer
+            if (trial % 4 == 3)
+                Assert.assertTrue(bitmap.buffer instanceof LongBufferWrapper);
+            bitmap.release();
+        }
+        EWAHCompressedBitmap big = EWAHCompressedBitmap.bitmapOf(1, 100);
+        big.addRange(5, 10000005);
+        big.addRange(20000000, 30000000);
+        Assert.assertEquals(1 + 10000000 + 10000000, big.cardinality());
+        Assert.assertTrue(big.sizeInBytes() < 100);
+        big.removeRange(1000, 29999999);
+        Assert.assertEquals(1 + 995 + 1, big.cardinality());
+        Assert.assertEquals(30000000, big.sizeInBits());
+        try {
+            big.addRange(10, 9);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    private static EWAHCompressedBitmap addRange(EWAHCompressedBitmap bitmap, BitSet reference, int start, int end) {
+        bitmap.addRange(start, end);
+        reference.set(start, end);
+        return bitmap;
+    }
+
+    @Test
+    public void bulkConstruction() {
+        System.out.println("testing bitmapOfSorted and bitmapOfUnsorted");
+        final Random rnd = new Random(8642);
+        for (int trial = 0; trial < 20; ++trial) {
+            int[] positions = new int[rnd.nextInt(5000)];
+            int p = rnd.nextInt(200);
+            for (int k = 0; k < positions.length; ++k) {
+                positions[k] = p;
+                p += rnd.nextInt(4) == 0 ? rnd.nextInt(1000) : rnd.nextInt(3);
+            }
+            EWAHCompressedBitmap reference = new EWAHCompressedBitmap();
+            for (int k : positions)
+                reference.set(k);
+            EWAHCompressedBitmap sorted = EWAHCompressedBitmap.bitmapOfSorted(positions);
+            Assert.assertEquals(reference, sorted);
+            Assert.assertEquals(reference.sizeInBits(), sorted.sizeInBits());
+            Assert.assertEquals(reference.cardinality(), sorted.cardinality());
+            Assert.assertArrayEquals(reference.toArray(), sorted.toArray());
+            Assert.assertEquals(reference, EWAHCompressedBitmap.bitmapOf(positions));
+            long[] longPositions = new long[positions.length];
+            for (int k = 0; k < positions.length; ++k)
+                longPositions[k] = positions[k];
+            Assert.assertEquals(reference, EWAHCompressedBitmap.bitmapOfSorted(longPositions));
+            int[] shuffled = positions.clone();
+            for (int k = shuffled.length - 1; k > 0; --k) {
+                int j = rnd.nextInt(k + 1);
+                int tmp = shuffled[k];
+                shuffled[k] = shuffled[j];
+                shuffled[j] = tmp;
+                longPositions[k] = shuffled[k];
+            }
+            if (shuffled.length > 0)
+                longPositions[0] = shuffled[0];
+            int[] copy = shuffled.clone();
+            Assert.assertEquals(reference, EWAHCompressedBitmap.bitmapOfUnsorted(shuffled));
+            Assert.assertArrayEquals(copy, shuffled);
+            Assert.assertEquals(reference, EWAHCompressedBitmap.bitmapOfUnsorted(longPositions));
+            Assert.assertEquals(reference, EWAHCompressedBitmap.bitmapOf(shuffled));
+            if (positions.length > 10) {
+                int from = positions.length / 3;
+                int to = 2 * positions.length / 3;
+                EWAHCompressedBitmap part = new EWAHCompressedBitmap();
+                for (int k = from; k < to; ++k)
+                    part.set(positions[k]);
+                Assert.assertEquals(part, EWAHCompressedBitmap.bitmapOfSorted(positions, from, to));
+            }
+        }
+        // full words become runs of ones
+        int[] run = new int[3 * WORD_IN_BITS + 5];
+        for (int k = 0; k < run.length; ++k)
+            run[k] = 1000 * WORD_IN_BITS + k;
+        EWAHCompressedBitmap ones = EWAHCompressedBitmap.bitmapOfSorted(run);
+        Assert.assertEquals(run.length, ones.cardinality());
+        Assert.assertEquals(run[run.length - 1] + 1, ones.sizeInBits());
+        Assert.assertArrayEquals(run, ones.toArray());
+        Assert.assertTrue(ones.sizeInBytes() <= 4 * (WORD_IN_BITS / 8));
+        // long streams of literal words
+        int[] dense = new int[40000 * WORD_IN_BITS / 2];
+        for (int k = 0; k < dense.length; ++k)
+            dense[k] = 2 * k + 1;
+        Assert.assertArrayEquals(dense, EWAHCompressedBitmap.bitmapOfSorted(dense).toArray());
+        Assert.assertEquals(0, EWAHCompressedBitmap.bitmapOfSorted(new int[0]).cardinality());
+        try {
+            EWAHCompressedBitmap.bitmapOfSorted(new int[]{1, 5, 3});
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            EWAHCompressedBitmap.bitmapOfUnsorted(5, -1, 3);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        int[] values = new int[1000];
+        for (int k = 0; k < values.length; ++k)
+            values[k] = rnd.nextInt();
+        int[] expected = values.clone();
+        Arrays.sort(expected);
+        RadixSort.sort(values, 0, values.length);
+        Assert.assertArrayEquals(expected, values);
+    }
+
+    @Test
+    public void batchIteration() {
+        System.out.println("testing batch iterators");
+        final Random rnd = new Random(4321);
+        for (int trial = 0; trial < 30; ++trial) {
+            EWAHCompressedBitmap bitmap = runsAndLiterals(rnd, trial);
+            int[] set = bitmap.toArray();
+            int[] reversed = new int[set.length];
+            for (int k = 0; k < set.length; ++k)
+                reversed[k] = set[set.length - 1 - k];
+            boolean[] isSet = new boolean[(int) bitmap.sizeInBits()];
+            for (int k : set)
+                isSet[k] = true;
+            int[] clear = new int[isSet.length - set.length];
+            for (int k = 0, c = 0; k < isSet.length; ++k)
+                if (!isSet[k])
+                    clear[c++] = k;
+            Assert.assertArrayEquals(reversed, drain(bitmap.reverseIntIterator(), 0, rnd));
+            Assert.assertArrayEquals(clear, drain(bitmap.clearIntIterator(), 0, rnd));
+            int batch = 1 + rnd.nextInt(3 * WORD_IN_BITS);
+            Assert.assertArrayEquals(set, drain(bitmap.batchIntIterator(), batch, rnd));
+            Assert.assertArrayEquals(reversed, drain(bitmap.reverseBatchIntIterator(), batch, rnd));
+            Assert.assertArrayEquals(clear, drain(bitmap.clearBatchIntIterator(), batch, rnd));
+        }
+    }
+
+    /**
+     * Random bitmap made of runs of ones and of isolated set bits, possibly
+     * followed by clear bits or negated.
+     */
+    private static EWAHCompressedBitmap runsAndLiterals(Random rnd, int trial) {
+        EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        int p = rnd.nextInt(100);
+        for (int k = 0; k < 50; ++k) {
+            if (rnd.nextBoolean()) {
+                int length = rnd.nextInt(5 * WORD_IN_BITS);
+                bitmap.addRange(p, p + length);
+                p += length;
+            } else {
+                bitmap.set(p);
+            }
+            p += 1 + rnd.nextInt(3 * WORD_IN_BITS);
+        }
+        if (trial % 3 == 1)
+            bitmap.setSizeInBits(bitmap.sizeInBits() + rnd.nextInt(2 * WORD_IN_BITS), false);
+        if (trial % 3 == 2)
+            bitmap.not();
+        return bitmap;
+    }
+
+    @Test
+    public void advanceIfNeeded() {
+        System.out.println("testing advanceIfNeeded");
+        final Random rnd = new Random(1357);
+        for (int trial = 0; trial < 30; ++trial) {
+            EWAHCompressedBitmap bitmap = runsAndLiterals(rnd, trial);
+            int[] set = bitmap.toArray();
+            int[] reversed = new int[set.length];
+            for (int k = 0; k < set.length; ++k)
+                reversed[k] = set[set.length - 1 - k];
+            EWAHCompressedBitmap negated = bitmap.clone();
+            negated.not();
+            int[] clear = negated.toArray();
+            int step = 1 + rnd.nextInt(4 * WORD_IN_BITS);
+            checkAdvance(bitmap.batchIntIterator(), set, true, step, rnd);
+            checkAdvance(bitmap.reverseBatchIntIterator(), reversed, false, step, rnd);
+            checkAdvance(bitmap.clearBatchIntIterator(), clear, true, step, rnd);
+            // leapfrog join with a sparse sorted list
+            int[] list = new int[100];
+            for (int k = 0, x = 0; k < list.length; ++k)
+                list[k] = x += 1 + rnd.nextInt((int) bitmap.sizeInBits() / 50);
+            int expected = 0;
+            for (int x : list)
+                if (bitmap.get(x))
+                    ++expected;
+            int found = 0;
+            int current = -1;
+            SkippableIntIterator i = bitmap.batchIntIterator();
+            for (int x : list) {
+                if (current < x) {
+                    i.advanceIfNeeded(x);
+                    if (!i.hasNext())
+                        break;
+                    current = i.next();
+                }
+                if (current == x)
+                    ++found;
+            }
+            Assert.assertEquals(expected, found);
+        }
+    }
+
+    /**
+     * Alternates calls to advanceIfNeeded and next on an iterator expected
+     * to return the given integers.
+     */
+    private static void checkAdvance(SkippableIntIterator i, int[] expected, boolean increasing, int step,
+                                     Random rnd) {
+        int k = 0;
+        int target = increasing ? -1 : Integer.MAX_VALUE;
+        if (!increasing && expected.length > 0)
+            target = expected[0] + rnd.nextInt(step);
+        while (k < expected.length) {
+            target += increasing ? rnd.nextInt(step) : -rnd.nextInt(step);
+            i.advanceIfNeeded(target);
+            while (k < expected.length && (increasing ? expected[k] < target : expected[k] > target))
+                ++k;
+            Assert.assertEquals(k < expected.length, i.hasNext());
+            if (k < expected.length && rnd.nextBoolean())
+                Assert.assertEquals(expected[k++], i.next());
+        }
+        Assert.assertFalse(i.hasNext());
+    }
+
+    /**
+     * Collects the integers of an iterator, mixing calls to next() and
+     * nextBatch() when batch is positive.
+     */
+    private static int[] drain(IntIterator i, int batch, Random rnd) {
+        int[] answer = new int[16];
+        int size = 0;
+        while (i.hasNext()) {
+            if (answer.length < size + batch + 1)
+                answer = Arrays.copyOf(answer, 2 * (size + batch + 1));
+            if (batch == 0 || rnd.nextInt(4) == 0) {
+                answer[size++] = i.next();
+            } else {
+                int n = ((BatchIntIterator) i).nextBatch(answer, size, batch);
+                Assert.assertTrue(n > 0);
+                size += n;
+            }
+        }
+        if (batch > 0)
+            Assert.assertEquals(0, ((BatchIntIterator) i).nextBatch(answer, 0, batch));
+        return Arrays.copyOf(answer, size);
+    }
+
+    @Test
+    public void parallelAggregation() {
+        System.out.println("testing parallel aggregation");
+        final Random rnd = new Random(2468);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int n : new int[]{1, 2, 3, 17, 200}) {
+                EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[n];
+                for (int k = 0; k < n; ++k) {
+                    bitmaps[k] = new EWAHCompressedBitmap();
+                    int p = rnd.nextInt(1000);
+                    int howmany = rnd.nextInt(3) == 0 ? 2000 : 20;
+                    for (int j = 0; j < howmany; ++j) {
+                        p += 1 + rnd.nextInt(rnd.nextBoolean() ? 5 : 500);
+                        bitmaps[k].set(p);
+                    }
+                }
+                EWAHCompressedBitmap or = FastAggregation.or(bitmaps);
+                EWAHCompressedBitmap xor = FastAggregation.xor(bitmaps);
+                Assert.assertEquals(or, FastAggregation.or(executor, bitmaps));
+                Assert.assertEquals(xor, FastAggregation.xor(executor, bitmaps));
+                Assert.assertEquals(or.sizeInBits(), FastAggregation.or(executor, bitmaps).sizeInBits());
+                Assert.assertEquals(or, FastAggregation.bufferedor(executor, 64, bitmaps));
+                Assert.assertEquals(xor, FastAggregation.bufferedxor(executor, 64, bitmaps));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void andNotOr() {
+        System.out.println("testing andNotOr");
+        EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 5, 70, 1000, 5000);
+        EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(5, 2000);
+        EWAHCompressedBitmap c = EWAHCompressedBitmap.bitmapOf(3, 70, 100000);
+        Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(1, 1000, 5000), a.andNotOr(b, c));
+        Assert.assertEquals(100001, a.andNotOr(b, c).sizeInBits());
+        Assert.assertEquals(3, a.andNotOrCardinality(b, c));
+        Assert.assertEquals(a, a.andNotOr());
+        Assert.assertEquals(0, new EWAHCompressedBitmap().andNotOrCardinality(a, b));
+        final Random rnd = new Random(1234);
+        for (int trial = 0; trial < 100; ++trial) {
+            final int size = 1 + rnd.nextInt(20000);
+            final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[1 + rnd.nextInt(8)];
+            for (int k = 0; k < bitmaps.length; ++k) {
+                bitmaps[k] = new EWAHCompressedBitmap();
+                final int density = 1 + rnd.nextInt(500);
+                for (int p = rnd.nextInt(density); p < size; p += 1 + rnd.nextInt(density)) {
+                    if (rnd.nextInt(20) == 0) {
+                        final int end = Math.min(size, p + rnd.nextInt(3000));
+                        for (; p < end; ++p)
+                            bitmaps[k].set(p);
+                    } else {
+                        bitmaps[k].set(p);
+                    }
+                }
+            }
+            final EWAHCompressedBitmap first = bitmaps[0];
+            final EWAHCompressedBitmap[] others = Arrays.copyOfRange(bitmaps, 1, bitmaps.length);
+            final EWAHCompressedBitmap expected = others.length == 0 ? first : first.andNot(FastAggregation.or(others));
+            Assert.assertEquals(expected, first.andNotOr(others));
+            Assert.assertEquals(expected.cardinality(), first.andNotOrCardinality(others));
+            // with a small buffer
+            final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+            final IteratingRLW[] iterators = new IteratingRLW[others.length];
+            for (int k = 0; k < others.length; ++k)
+                iterators[k] = others[k].getIteratingRLW();
+            IteratorAggregation.andNotOrToContainer(answer, 1 + rnd.nextInt(4), first.getIteratingRLW(), iterators);
+            Assert.assertEquals(expected.toList(), answer.toList());
+        }
+    }
+
+    @Test
+    public void inPlaceOperations() {
+        System.out.println("testing the in-place operations");
+        final Random rnd = new Random(4321);
+        EWAHCompressedBitmap and = new EWAHCompressedBitmap();
+        EWAHCompressedBitmap or = new EWAHCompressedBitmap();
+        EWAHCompressedBitmap xor = new EWAHCompressedBitmap();
+        EWAHCompressedBitmap andNot = new EWAHCompressedBitmap();
+        final EWAHCompressedBitmap andInPlace = new EWAHCompressedBitmap();
+        final EWAHCompressedBitmap orInPlace = new EWAHCompressedBitmap();
+        final EWAHCompressedBitmap xorInPlace = new EWAHCompressedBitmap();
+        final EWAHCompressedBitmap andNotInPlace = new EWAHCompressedBitmap();
+        orInPlace.enableSkipIndex(4);
+        for (int k = 0; k < 50; ++k) {
+            final EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+            final int size = 1 + rnd.nextInt(10000);
+            for (int p = rnd.nextInt(100); p < size; p += 1 + rnd.nextInt(100)) {
+                if (rnd.nextInt(20) == 0) {
+                    final int end = Math.min(size, p + rnd.nextInt(2000));
+                    for (; p < end; ++p)
+                        b.set(p);
+                } else {
+                    b.set(p);
+                }
+            }
+            if (k == 0) {
+                and = b.clone();
+                andInPlace.orInPlace(b);
+                andNot = b.clone();
+                andNotInPlace.orInPlace(b);
+            }
+            and = and.and(b);
+            or = or.or(b);
+            xor = xor.xor(b);
+            andNot = andNot.andNot(b.andNot(and));
+            andInPlace.andInPlace(b);
+            orInPlace.orInPlace(b);
+            xorInPlace.xorInPlace(b);
+            andNotInPlace.andNotInPlace(b.andNot(andInPlace));
+            Assert.assertEquals(and, andInPlace);
+            Assert.assertEquals(or, orInPlace);
+            Assert.assertEquals(xor, xorInPlace);
+            Assert.assertEquals(andNot, andNotInPlace);
+            Assert.assertEquals(and.sizeInBits(), andInPlace.sizeInBits());
+            Assert.assertEquals(or.cardinality(), orInPlace.cardinality());
+            // the skip index of the receiver is kept up to date
+            Assert.assertEquals(or.select(or.cardinality() / 2), orInPlace.select(or.cardinality() / 2));
+        }
+        // with itself
+        final EWAHCompressedBitmap copy = xorInPlace.clone();
+        copy.orInPlace(copy);
+        Assert.assertEquals(xorInPlace, copy);
+        copy.xorInPlace(copy);
+        Assert.assertEquals(0, copy.cardinality());
+        // clones do not share the buffers
+        final EWAHCompressedBitmap clone = orInPlace.clone();
+        clone.andNotInPlace(or);
+        Assert.assertEquals(or, orInPlace);
+        Assert.assertEquals(0, clone.cardinality());
+        orInPlace.trim();
+        orInPlace.andInPlace(and);
+        Assert.assertEquals(or.and(and), orInPlace);
+    }
+
+    @Test
+    public void andOrXorToContainers() {
+        System.out.println("testing the single-pass and/or/xor");
+        final Random rnd = new Random(8642);
+        for (int trial = 0; trial < 60; ++trial) {
+            final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[1 + rnd.nextInt(6)];
+            for (int k = 0; k < bitmaps.length; ++k) {
+                bitmaps[k] = new EWAHCompressedBitmap();
+                final int size = rnd.nextInt(20000);
+                final int density = 1 + rnd.nextInt(300);
+                for (int p = rnd.nextInt(density); p < size; p += 1 + rnd.nextInt(density)) {
+                    if (rnd.nextInt(20) == 0) {
+                        final int end = Math.min(size, p + rnd.nextInt(3000));
+                        for (; p < end; ++p)
+                            bitmaps[k].set(p);
+                    } else {
+                        bitmaps[k].set(p);
+                    }
+                }
+            }
+            final EWAHCompressedBitmap and = new EWAHCompressedBitmap();
+            final EWAHCompressedBitmap or = new EWAHCompressedBitmap();
+            final EWAHCompressedBitmap xor = new EWAHCompressedBitmap();
+            // pairs
+            final EWAHCompressedBitmap a = bitmaps[0];
+            final EWAHCompressedBitmap b = bitmaps[bitmaps.length - 1];
+            a.andOrXorToContainers(b, and, or, xor);
+            Assert.assertEquals(a.and(b), and);
+            Assert.assertEquals(a.or(b), or);
+            Assert.assertEquals(a.xor(b), xor);
+            Assert.assertEquals(a.and(b).sizeInBits(), and.sizeInBits());
+            Assert.assertEquals(a.or(b).sizeInBits(), or.sizeInBits());
+            Assert.assertEquals(a.xor(b).sizeInBits(), xor.sizeInBits());
+            final BitCounter counter = new BitCounter();
+            a.andOrXorToContainers(b, null, null, counter);
+            Assert.assertEquals(a.xorCardinality(b), counter.getCount());
+            a.andOrXorToContainers(b, counter, null, null);
+            Assert.assertEquals(a.andCardinality(b), counter.getCount());
+            // groups
+            FastAggregation.bufferedandorxorWithContainers(and, or, xor, 1 + rnd.nextInt(100), bitmaps);
+            Assert.assertEquals(EWAHCompressedBitmap.and(bitmaps), and);
+            Assert.assertEquals(EWAHCompressedBitmap.or(bitmaps), or);
+            Assert.assertEquals(EWAHCompressedBitmap.xor(bitmaps), xor);
+            FastAggregation.bufferedandorxorWithContainers(null, counter, null, 64, bitmaps);
+            Assert.assertEquals(EWAHCompressedBitmap.or(bitmaps).cardinality(), counter.getCount());
+            FastAggregation.bufferedandorxorWithContainers(counter, null, null, 64, bitmaps);
+            Assert.assertEquals(EWAHCompressedBitmap.and(bitmaps).cardinality(), counter.getCount());
+        }
+    }
+
     @Test
     public void testExtremeRange() {
         System.out.println("testing EWAH at its extreme range");
@@ -0,0 +1,73 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for the grouped AND counts.
+ */
+@SuppressWarnings("javadoc")
+public class GroupedAggregationTest {
+
+    @Test
+    public void groupedAggregation() {
+        System.out.println("testing grouped aggregation");
+        final Random rnd = new Random(13579);
+        final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[50];
+        for (int k = 0; k < bitmaps.length; ++k) {
+            bitmaps[k] = new EWAHCompressedBitmap();
+            if (k % 12 == 11)
+                continue;
+            final int start = rnd.nextInt(6) * 40000;
+            final int end = start + rnd.nextInt(150000);
+            final int density = 1 + rnd.nextInt(300);
+            for (int p = start + rnd.nextInt(density); p < end; p += 1 + rnd.nextInt(density)) {
+                if (rnd.nextInt(30) == 0) {
+                    final int last = Math.min(end, p + rnd.nextInt(8000));
+                    for (; p < last; ++p)
+                        bitmaps[k].set(p);
+                } else {
+                    bitmaps[k].set(p);
+                }
+            }
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int q = 0; q < 6; ++q) {
+                final EWAHCompressedBitmap filter = q == 0 ? new EWAHCompressedBitmap()
+                        : bitmaps[rnd.nextInt(bitmaps.length)].or(bitmaps[rnd.nextInt(bitmaps.length)]);
+                if (q == 1)
+                    filter.not();
+                final long[] counts = GroupedAggregation.andCardinalities(filter, bitmaps);
+                Assert.assertArrayEquals(counts, GroupedAggregation.andCardinalities(executor, filter, bitmaps));
+                final EWAHCompressedBitmap[] results = new EWAHCompressedBitmap[bitmaps.length];
+                final BitCounter[] counters = new BitCounter[bitmaps.length];
+                for (int k = 0; k < bitmaps.length; ++k) {
+                    results[k] = new EWAHCompressedBitmap();
+                    results[k].set(3);
+                    counters[k] = new BitCounter();
+                }
+                GroupedAggregation.andToContainers(filter, results, bitmaps);
+                GroupedAggregation.andToContainers(executor, filter, counters, bitmaps);
+                for (int k = 0; k < bitmaps.length; ++k) {
+                    final EWAHCompressedBitmap expected = filter.and(bitmaps[k]);
+                    Assert.assertEquals(expected.cardinality(), counts[k]);
+                    Assert.assertEquals(expected, results[k]);
+                    Assert.assertEquals(expected.sizeInBits(), results[k].sizeInBits());
+                    Assert.assertEquals(expected.cardinality(), counters[k].getCount());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
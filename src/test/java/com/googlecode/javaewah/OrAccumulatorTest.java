@@ -0,0 +1,51 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Tests for the tiered OR accumulator.
+ */
+@SuppressWarnings("javadoc")
+public class OrAccumulatorTest {
+
+    @Test
+    public void orAccumulator() {
+        System.out.println("testing the or accumulator");
+        final Random rnd = new Random(11235);
+        final OrAccumulator accumulator = new OrAccumulator();
+        Assert.assertTrue(accumulator.snapshot().isEmpty());
+        EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+        int next = 0;
+        for (int batch = 0; batch < 400; ++batch) {
+            final EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+            // mostly increasing row ids, sometimes revisiting older ones
+            final int start = rnd.nextInt(10) == 0 ? rnd.nextInt(next + 1) : next;
+            for (int p = start + rnd.nextInt(50); p < start + 3000; p += 1 + rnd.nextInt(20))
+                b.set(p);
+            next = Math.max(next, start + 3000);
+            accumulator.add(b);
+            expected = expected.or(b);
+            if (batch % 97 == 0 || batch == 399) {
+                final EWAHCompressedBitmap snapshot = accumulator.snapshot();
+                Assert.assertEquals(expected, snapshot);
+                Assert.assertEquals(expected.sizeInBits(), snapshot.sizeInBits());
+                Assert.assertEquals(1, accumulator.size());
+                // the snapshot is a copy
+                snapshot.clear();
+                Assert.assertEquals(expected, accumulator.snapshot());
+            }
+        }
+        Assert.assertTrue(accumulator.size() < 400);
+        accumulator.clear();
+        Assert.assertEquals(0, accumulator.size());
+        Assert.assertTrue(accumulator.snapshot().isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for the all-pairs overlap matrices.
+ */
+@SuppressWarnings("javadoc")
+public class OverlapMatrixTest {
+
+    @Test
+    public void overlapMatrix() {
+        System.out.println("testing the overlap matrix");
+        final Random rnd = new Random(97531);
+        final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[40];
+        for (int k = 0; k < bitmaps.length; ++k) {
+            bitmaps[k] = new EWAHCompressedBitmap();
+            if (k % 10 == 9)
+                continue;
+            // bitmaps over different ranges, some with long runs
+            final int start = rnd.nextInt(4) * 50000;
+            final int end = start + rnd.nextInt(100000);
+            final int density = 1 + rnd.nextInt(400);
+            for (int p = start + rnd.nextInt(density); p < end; p += 1 + rnd.nextInt(density)) {
+                if (rnd.nextInt(30) == 0) {
+                    final int last = Math.min(end, p + rnd.nextInt(5000));
+                    for (; p < last; ++p)
+                        bitmaps[k].set(p);
+                } else {
+                    bitmaps[k].set(p);
+                }
+            }
+        }
+        final long[][] counts = OverlapMatrix.intersectionCounts(bitmaps);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Assert.assertTrue(Arrays.deepEquals(counts, OverlapMatrix.intersectionCounts(executor, bitmaps)));
+        } finally {
+            executor.shutdown();
+        }
+        final double[][] jaccard = OverlapMatrix.jaccard(counts);
+        for (int i = 0; i < bitmaps.length; ++i)
+            for (int j = 0; j < bitmaps.length; ++j) {
+                Assert.assertEquals(bitmaps[i].andCardinality(bitmaps[j]), counts[i][j]);
+                final long union = bitmaps[i].orCardinality(bitmaps[j]);
+                Assert.assertEquals(union == 0 ? 0 : (double) counts[i][j] / union, jaccard[i][j], 1e-12);
+            }
+        Assert.assertEquals(0, OverlapMatrix.intersectionCounts().length);
+    }
+}
@@ -0,0 +1,113 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.googlecode.javaewah.EWAHCompressedBitmap.WORD_IN_BITS;
+
+/**
+ * Tests for the range-partitioned parallel operations.
+ */
+@SuppressWarnings("javadoc")
+public class ParallelOperationsTest {
+
+    private static EWAHCompressedBitmap largeBitmap(Random rnd, int size) {
+        EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        for (int p = rnd.nextInt(100); p < size; p += 1 + rnd.nextInt(rnd.nextBoolean() ? 50 : 50 * WORD_IN_BITS)) {
+            if (rnd.nextInt(4) == 0) {
+                int length = Math.min(rnd.nextInt(100 * WORD_IN_BITS), size - p);
+                bitmap.addRange(p, p + length);
+                p += length;
+            } else {
+                bitmap.set(p);
+            }
+        }
+        return bitmap;
+    }
+
+    @Test
+    public void rangePartitionedOperations() {
+        System.out.println("testing range-partitioned operations");
+        final Random rnd = new Random(8642);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int trial = 0; trial < 12; ++trial) {
+                EWAHCompressedBitmap a = largeBitmap(rnd, 20000 * WORD_IN_BITS + rnd.nextInt(WORD_IN_BITS));
+                EWAHCompressedBitmap b = largeBitmap(rnd, (trial % 2 == 0 ? 20000 : 6000) * WORD_IN_BITS);
+                if (trial % 3 == 1)
+                    a.not();
+                if (trial % 3 == 2) {
+                    EWAHCompressedBitmap t = a;
+                    a = b;
+                    b = t;
+                }
+                if (trial % 4 == 3) {
+                    a.enableSkipIndex(4);
+                    b.enableSkipIndex(1);
+                }
+                EWAHCompressedBitmap[] expected = {a.and(b), a.or(b), a.xor(b), a.andNot(b)};
+                EWAHCompressedBitmap[] actual = {ParallelOperations.and(executor, a, b),
+                        ParallelOperations.or(executor, a, b), ParallelOperations.xor(executor, a, b),
+                        ParallelOperations.andNot(executor, a, b)};
+                for (int k = 0; k < expected.length; ++k) {
+                    Assert.assertEquals(expected[k], actual[k]);
+                    Assert.assertEquals(expected[k].sizeInBits(), actual[k].sizeInBits());
+                    Assert.assertEquals(expected[k].cardinality(), actual[k].cardinality());
+                }
+                Assert.assertEquals(a.andCardinality(b), ParallelOperations.andCardinality(executor, a, b));
+                Assert.assertEquals(a.orCardinality(b), ParallelOperations.orCardinality(executor, a, b));
+                Assert.assertEquals(a.xorCardinality(b), ParallelOperations.xorCardinality(executor, a, b));
+                Assert.assertEquals(a.andNotCardinality(b), ParallelOperations.andNotCardinality(executor, a, b));
+            }
+            // too small to be cut
+            EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 100, 1000);
+            EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(100, 10000);
+            Assert.assertEquals(a.or(b), ParallelOperations.or(executor, a, b));
+            Assert.assertEquals(1, ParallelOperations.andCardinality(executor, a, b));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rangePartitionedLiteralRuns() {
+        System.out.println("testing range-partitioned operations over long runs of literal words");
+        final Random rnd = new Random(1357);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // the slices of the results hold more literal words than a
+            // running length word can count
+            final long[] literals = new long[100000];
+            for (int k = 0; k < literals.length; ++k)
+                literals[k] = rnd.nextLong() | 1;
+            EWAHCompressedBitmap a = new EWAHCompressedBitmap();
+            a.addStreamOfLiteralWords(literals, 0, 100000);
+            EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+            b.addStreamOfEmptyWords(true, 30000);
+            b.addStreamOfNegatedLiteralWords(literals, 30000, 40000);
+            b.addStreamOfEmptyWords(false, 30000);
+            b.enableSkipIndex(1);
+            Assert.assertEquals(a.and(b), ParallelOperations.and(executor, a, b));
+            Assert.assertEquals(a.or(b), ParallelOperations.or(executor, a, b));
+            Assert.assertEquals(a.xor(b), ParallelOperations.xor(executor, a, b));
+            Assert.assertEquals(a.andNot(b), ParallelOperations.andNot(executor, a, b));
+            Assert.assertEquals(b.andNot(a), ParallelOperations.andNot(executor, b, a));
+            Assert.assertEquals(a.xorCardinality(b), ParallelOperations.xorCardinality(executor, a, b));
+            // words added after the skip index was last used
+            b.addLiteralWord(rnd.nextLong() | 1);
+            a.addLiteralWord(rnd.nextLong() | 1);
+            Assert.assertEquals(a.xor(b), ParallelOperations.xor(executor, a, b));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
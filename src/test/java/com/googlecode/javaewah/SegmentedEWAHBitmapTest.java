@@ -0,0 +1,167 @@
+package com.googlecode.javaewah;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.googlecode.javaewah.EWAHCompressedBitmap.WORD_IN_BITS;
+
+/**
+ * Tests for the segmented bitmaps.
+ */
+@SuppressWarnings("javadoc")
+public class SegmentedEWAHBitmapTest {
+
+    @Test
+    public void segmentedBitmap() {
+        System.out.println("testing segmented bitmaps");
+        final Random rnd = new Random(9753);
+        final int span = (int) SegmentedEWAHBitmap.SEGMENT_SIZE_IN_BITS;
+        final int[][] keys = {{0, 1, 3, 5}, {0, 2, 3}};
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int trial = 0; trial < 4; ++trial) {
+                SegmentedEWAHBitmap[] segmented = new SegmentedEWAHBitmap[2];
+                EWAHCompressedBitmap[] flat = new EWAHCompressedBitmap[2];
+                for (int k = 0; k < 2; ++k) {
+                    segmented[k] = new SegmentedEWAHBitmap();
+                    flat[k] = new EWAHCompressedBitmap();
+                    // random updates, in no particular order
+                    for (int j = 0; j < 1000; ++j) {
+                        int p = keys[k][rnd.nextInt(keys[k].length)] * span
+                                + (rnd.nextBoolean() ? rnd.nextInt(3 * WORD_IN_BITS) : rnd.nextInt(span));
+                        if (rnd.nextInt(4) == 0) {
+                            segmented[k].clear(p);
+                            flat[k].clear(p);
+                        } else {
+                            segmented[k].set(p);
+                            flat[k].set(p);
+                        }
+                    }
+                    // a segment that becomes empty is dropped
+                    int segments = segmented[k].getNumberOfSegments();
+                    segmented[k].set(4 * span + 7);
+                    Assert.assertEquals(segments + 1, segmented[k].getNumberOfSegments());
+                    segmented[k].clear(4 * span + 7);
+                    flat[k].clear(4 * span + 7);
+                    Assert.assertEquals(segments, segmented[k].getNumberOfSegments());
+                    if (trial % 2 == 1) {
+                        segmented[k].clear(7 * span + rnd.nextInt(span));
+                        flat[k].setSizeInBits(segmented[k].sizeInBits(), false);
+                    }
+
+                    Assert.assertEquals(flat[k], segmented[k].toEWAHCompressedBitmap());
+                    Assert.assertEquals(flat[k].sizeInBits(), segmented[k].sizeInBits());
+                    Assert.assertEquals(flat[k].sizeInBits(), segmented[k].toEWAHCompressedBitmap().sizeInBits());
+                    Assert.assertEquals(flat[k].cardinality(), segmented[k].cardinality());
+                    Assert.assertArrayEquals(flat[k].toArray(), segmented[k].toArray());
+                    Assert.assertEquals(flat[k].toString(), segmented[k].toString());
+                    Assert.assertEquals(segmented[k], SegmentedEWAHBitmap.valueOf(flat[k]));
+                    Assert.assertEquals(flat[k].sizeInBits(), SegmentedEWAHBitmap.valueOf(flat[k]).sizeInBits());
+                    IntIterator i = segmented[k].intIterator();
+                    for (int x : flat[k].toArray()) {
+                        Assert.assertTrue(i.hasNext());
+                        Assert.assertEquals(x, i.next());
+                        Assert.assertTrue(segmented[k].get(x));
+                        Assert.assertEquals(flat[k].get(x + 1), segmented[k].get(x + 1));
+                    }
+                    Assert.assertFalse(i.hasNext());
+                }
+                SegmentedEWAHBitmap a = segmented[0];
+                SegmentedEWAHBitmap b = segmented[1];
+                EWAHCompressedBitmap[] expected = {flat[0].and(flat[1]), flat[0].or(flat[1]),
+                        flat[0].xor(flat[1]), flat[0].andNot(flat[1]), flat[1].andNot(flat[0])};
+                SegmentedEWAHBitmap[] actual = {a.and(b), a.or(b), a.xor(b), a.andNot(b), b.andNot(a)};
+                SegmentedEWAHBitmap[] parallel = {a.and(executor, b), a.or(executor, b), a.xor(executor, b),
+                        a.andNot(executor, b), b.andNot(executor, a)};
+                for (int k = 0; k < expected.length; ++k) {
+                    Assert.assertEquals(expected[k], actual[k].toEWAHCompressedBitmap());
+                    Assert.assertEquals(expected[k].sizeInBits(), actual[k].sizeInBits());
+                    Assert.assertEquals(actual[k], parallel[k]);
+                    Assert.assertEquals(actual[k].hashCode(), parallel[k].hashCode());
+                }
+                EWAHCompressedBitmap x = EWAHCompressedBitmap.bitmapOf(1, 3, 4, 100, 1000, 5000);
+                EWAHCompressedBitmap y = EWAHCompressedBitmap.bitmapOf(0, 2, 3, 5);
+                Assert.assertEquals(x.compose(y), SegmentedEWAHBitmap.valueOf(x).compose(SegmentedEWAHBitmap.valueOf(y))
+                        .toEWAHCompressedBitmap());
+                // negation and copies
+                SegmentedEWAHBitmap c = a.clone();
+                EWAHCompressedBitmap notA = flat[0].clone();
+                c.not();
+                notA.not();
+                Assert.assertEquals(notA, c.toEWAHCompressedBitmap());
+                Assert.assertEquals(flat[0], a.toEWAHCompressedBitmap());
+                c.not();
+                Assert.assertEquals(a, c);
+                Assert.assertEquals(a.hashCode(), a.clone().hashCode());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void segmentedBitmapLimits() {
+        System.out.println("testing the limits of segmented bitmaps");
+        final long max = SegmentedEWAHBitmap.MAX_SIZE_IN_BITS;
+        SegmentedEWAHBitmap bitmap = new SegmentedEWAHBitmap();
+        Assert.assertTrue(bitmap.set(max - 1));
+        Assert.assertTrue(bitmap.get(max - 1));
+        Assert.assertEquals(max, bitmap.sizeInBits());
+        for (long i : new long[]{-1, max, Long.MAX_VALUE}) {
+            try {
+                bitmap.set(i);
+                Assert.fail();
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+            try {
+                bitmap.clear(i);
+                Assert.fail();
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+            Assert.assertFalse(bitmap.get(i));
+        }
+        Assert.assertEquals(1, bitmap.cardinality());
+        Assert.assertEquals(max, bitmap.sizeInBits());
+        EWAHCompressedBitmap flat = new EWAHCompressedBitmap();
+        flat.setSizeInBits(SegmentedEWAHBitmap.MAX_SIZE_IN_BITS, false);
+        Assert.assertEquals(SegmentedEWAHBitmap.MAX_SIZE_IN_BITS, SegmentedEWAHBitmap.valueOf(flat).sizeInBits());
+        flat.setSizeInBits(SegmentedEWAHBitmap.MAX_SIZE_IN_BITS + 1, false);
+        try {
+            SegmentedEWAHBitmap.valueOf(flat);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        // positions that do not fit in an int cannot be reported
+        bitmap = SegmentedEWAHBitmap.valueOf(EWAHCompressedBitmap.bitmapOf(5, Integer.MAX_VALUE));
+        Assert.assertArrayEquals(new int[]{5, Integer.MAX_VALUE}, bitmap.toArray());
+        bitmap.set(1L << 31);
+        try {
+            bitmap.toArray();
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        IntIterator i = bitmap.intIterator();
+        Assert.assertEquals(5, i.next());
+        Assert.assertEquals(Integer.MAX_VALUE, i.next());
+        Assert.assertTrue(i.hasNext());
+        try {
+            i.next();
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
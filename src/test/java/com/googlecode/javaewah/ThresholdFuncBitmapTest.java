@@ -1,8 +1,24 @@
 package com.googlecode.javaewah;
 
+import com.googlecode.javaewah.symmetric.AdaptiveThreshold;
+import com.googlecode.javaewah.symmetric.BetweenFuncBitmap;
+import com.googlecode.javaewah.symmetric.BitmapSymmetricAlgorithm;
+import com.googlecode.javaewah.symmetric.DivideSkip;
+import com.googlecode.javaewah.symmetric.ExactFuncBitmap;
+import com.googlecode.javaewah.symmetric.MergeOpt;
+import com.googlecode.javaewah.symmetric.RunningBitmapMerge;
+import com.googlecode.javaewah.symmetric.ScanCount;
+import com.googlecode.javaewah.symmetric.ThresholdFuncBitmap;
+import com.googlecode.javaewah.symmetric.UpdateableBitmapFunction;
+import com.googlecode.javaewah.symmetric.WeightedThresholdFuncBitmap;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 @SuppressWarnings("javadoc")
 /**
  * @since 0.8.0
@@ -61,4 +77,155 @@ public class ThresholdFuncBitmapTest {
         Assert.assertTrue(ewahmajth.equals(ewahtruemaj));
     }
 
+    @Test
+    public void thresholdAlgorithms() {
+        System.out.println("Testing the threshold algorithms");
+        final Random rnd = new Random(1357);
+        final BitmapSymmetricAlgorithm[] algorithms = {new ScanCount(), new MergeOpt(), new DivideSkip(),
+                new DivideSkip(0), new DivideSkip(1), new AdaptiveThreshold()};
+        for (int trial = 0; trial < 30; ++trial) {
+            final int n = 1 + rnd.nextInt(trial < 20 ? 12 : 60);
+            final int size = 1 + rnd.nextInt(3000 * (1 + trial % 3));
+            final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[n];
+            for (int k = 0; k < n; ++k) {
+                bitmaps[k] = new EWAHCompressedBitmap();
+                final int density = 1 + rnd.nextInt(200);
+                for (int p = rnd.nextInt(density); p < size; p += 1 + rnd.nextInt(density)) {
+                    if (rnd.nextInt(50) == 0) {
+                        int end = Math.min(size, p + rnd.nextInt(1000));
+                        for (; p < end; ++p)
+                            bitmaps[k].set(p);
+                    } else {
+                        bitmaps[k].set(p);
+                    }
+                }
+            }
+            for (int t = 1; t <= n + 1; ++t) {
+                final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+                new RunningBitmapMerge().symmetric(new ThresholdFuncBitmap(t), expected, bitmaps);
+                for (BitmapSymmetricAlgorithm algorithm : algorithms) {
+                    final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+                    answer.set(size + 70);
+                    algorithm.symmetric(new ThresholdFuncBitmap(t), answer, bitmaps);
+                    Assert.assertEquals(expected, answer);
+                }
+                Assert.assertEquals(expected, EWAHCompressedBitmap.threshold(t, bitmaps));
+            }
+        }
+    }
+
+    @Test
+    public void weightedAndCountFunctions() {
+        System.out.println("Testing the weighted threshold, exact and between functions");
+        final Random rnd = new Random(2468);
+        for (int trial = 0; trial < 30; ++trial) {
+            final int n = 1 + rnd.nextInt(trial < 20 ? 8 : 40);
+            final int size = 1 + rnd.nextInt(3000 * (1 + trial % 3));
+            final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[n];
+            final int[] weights = new int[n];
+            long sizeInBits = 0;
+            for (int k = 0; k < n; ++k) {
+                bitmaps[k] = new EWAHCompressedBitmap();
+                final int density = 1 + rnd.nextInt(200);
+                for (int p = rnd.nextInt(density); p < size; p += 1 + rnd.nextInt(density)) {
+                    if (rnd.nextInt(50) == 0) {
+                        int end = Math.min(size, p + rnd.nextInt(1000));
+                        for (; p < end; ++p)
+                            bitmaps[k].set(p);
+                    } else {
+                        bitmaps[k].set(p);
+                    }
+                }
+                sizeInBits = Math.max(sizeInBits, bitmaps[k].sizeInBits());
+                weights[k] = trial % 2 == 0 ? 1 + rnd.nextInt(5) : rnd.nextInt(11) - 3;
+            }
+            // count and weighted sum for each bit, up to the end of the largest input
+            final int[] counts = new int[(int) sizeInBits];
+            final long[] sums = new long[(int) sizeInBits];
+            for (int k = 0; k < n; ++k)
+                for (int p : bitmaps[k]) {
+                    counts[p]++;
+                    sums[p] += weights[k];
+                }
+            for (int t = -2; t <= 4 * n + 1; ++t) {
+                final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+                new RunningBitmapMerge().symmetric(new WeightedThresholdFuncBitmap(t, weights), answer, bitmaps);
+                final List<Integer> expected = new ArrayList<Integer>();
+                for (int p = 0; p < sums.length; ++p)
+                    if (sums[p] >= t)
+                        expected.add(p);
+                Assert.assertEquals(expected, answer.toList());
+                Assert.assertEquals(sizeInBits, answer.sizeInBits());
+            }
+            for (int low = 0; low <= n + 1; ++low) {
+                for (int high = low; high <= n + 1; ++high) {
+                    final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+                    new RunningBitmapMerge().symmetric(low == high ? new ExactFuncBitmap(low)
+                            : new BetweenFuncBitmap(low, high), answer, bitmaps);
+                    final List<Integer> expected = new ArrayList<Integer>();
+                    for (int p = 0; p < counts.length; ++p)
+                        if (counts[p] >= low && counts[p] <= high)
+                            expected.add(p);
+                    Assert.assertEquals(expected, answer.toList());
+                    Assert.assertEquals(sizeInBits, answer.sizeInBits());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void zeroCountFunctions() {
+        System.out.println("Testing the functions that are true for zero true inputs");
+        final Random rnd = new Random(97531);
+        for (int trial = 0; trial < 40; ++trial) {
+            final EWAHCompressedBitmap[] bitmaps;
+            if (trial == 0) {
+                bitmaps = new EWAHCompressedBitmap[]{EWAHCompressedBitmap.bitmapOf(1, 5, 100), EWAHCompressedBitmap.bitmapOf(3, 70)};
+            } else {
+                bitmaps = new EWAHCompressedBitmap[1 + rnd.nextInt(6)];
+                for (int k = 0; k < bitmaps.length; ++k) {
+                    bitmaps[k] = new EWAHCompressedBitmap();
+                    final int size = 1 + rnd.nextInt(1000);
+                    for (int p = rnd.nextInt(4); p < size; p += 1 + rnd.nextInt(4))
+                        bitmaps[k].set(p);
+                }
+            }
+            long sizeInBits = 0;
+            for (EWAHCompressedBitmap b : bitmaps)
+                sizeInBits = Math.max(sizeInBits, b.sizeInBits());
+            final int[] counts = new int[(int) sizeInBits];
+            for (EWAHCompressedBitmap b : bitmaps)
+                for (int p : b)
+                    counts[p]++;
+            final int[] ones = new int[bitmaps.length];
+            Arrays.fill(ones, 1);
+            final UpdateableBitmapFunction[] functions = {new ExactFuncBitmap(0), new BetweenFuncBitmap(0, 1),
+                    new WeightedThresholdFuncBitmap(0, ones), new WeightedThresholdFuncBitmap(-1, ones),
+                    new ThresholdFuncBitmap(0)};
+            final int[][] ranges = {{0, 0}, {0, 1}, {0, Integer.MAX_VALUE}, {0, Integer.MAX_VALUE}, {0, Integer.MAX_VALUE}};
+            for (int f = 0; f < functions.length; ++f) {
+                final List<Integer> expected = new ArrayList<Integer>();
+                for (int p = 0; p < sizeInBits; ++p)
+                    if (counts[p] >= ranges[f][0] && counts[p] <= ranges[f][1])
+                        expected.add(p);
+                final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+                new RunningBitmapMerge().symmetric(functions[f], answer, bitmaps);
+                Assert.assertEquals(expected, answer.toList());
+                Assert.assertEquals(sizeInBits, answer.sizeInBits());
+                final BitCounter counter = new BitCounter();
+                new RunningBitmapMerge().symmetric(functions[f], counter, bitmaps);
+                Assert.assertEquals(expected.size(), counter.getCount());
+            }
+            for (BitmapSymmetricAlgorithm algorithm : new BitmapSymmetricAlgorithm[]{new ScanCount(),
+                    new DivideSkip(), new AdaptiveThreshold()}) {
+                final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+                algorithm.symmetric(new ThresholdFuncBitmap(0), answer, bitmaps);
+                Assert.assertEquals(sizeInBits, answer.cardinality());
+                Assert.assertEquals(sizeInBits, answer.sizeInBits());
+                final BitCounter counter = new BitCounter();
+                algorithm.symmetric(new ThresholdFuncBitmap(0), counter, bitmaps);
+                Assert.assertEquals(sizeInBits, counter.getCount());
+            }
+        }
+    }
 }
@@ -0,0 +1,100 @@
+package com.googlecode.javaewah.benchmark;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.symmetric.AdaptiveThreshold;
+import com.googlecode.javaewah.symmetric.BitmapSymmetricAlgorithm;
+import com.googlecode.javaewah.symmetric.DivideSkip;
+import com.googlecode.javaewah.symmetric.MergeOpt;
+import com.googlecode.javaewah.symmetric.RunningBitmapMerge;
+import com.googlecode.javaewah.symmetric.ScanCount;
+import com.googlecode.javaewah.symmetric.ThresholdFuncBitmap;
+import com.googlecode.javaewah.synth.ClusteredDataGenerator;
+
+import java.text.DecimalFormat;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Compares the algorithms computing threshold functions ("at least T of N
+ * bitmaps") over clustered data, with inputs of similar sizes (uniform),
+ * with sizes following a Zipfian distribution (zipfian), or with a few
+ * large inputs among many small ones (dominated).
+ *
+ * Run it with: java com.googlecode.javaewah.benchmark.ThresholdBenchmark
+ *
+ * @since 0.9.2
+ */
+public class ThresholdBenchmark {
+
+    private static final int MAX = 1 << 22;
+
+    private static final int REPEAT = 5;
+
+    private static final String[] DISTRIBUTIONS = {"uniform", "zipfian", "dominated"};
+
+    @SuppressWarnings("javadoc")
+    public static void main(String[] args) {
+        final String[] names = {"RunningBitmapMerge", "ScanCount", "MergeOpt", "DivideSkip", "AdaptiveThreshold"};
+        final BitmapSymmetricAlgorithm[] algorithms = {new RunningBitmapMerge(), new ScanCount(),
+                new MergeOpt(), new DivideSkip(), new AdaptiveThreshold()};
+        final DecimalFormat df = new DecimalFormat("0.000");
+        // warming up
+        final EWAHCompressedBitmap[] warmup = generate(64, 1, new ClusteredDataGenerator(1));
+        for (int r = 0; r < 10; ++r)
+            for (BitmapSymmetricAlgorithm algorithm : algorithms)
+                algorithm.symmetric(new ThresholdFuncBitmap(2 + r), new EWAHCompressedBitmap(), warmup);
+        System.out.print("# distribution N T");
+        for (String name : names)
+            System.out.print(" " + name);
+        System.out.println(" (ms)");
+        for (int distribution = 0; distribution < DISTRIBUTIONS.length; ++distribution) {
+            for (int n : new int[]{4, 16, 128, 1024, 4096}) {
+                final EWAHCompressedBitmap[] bitmaps = generate(n, distribution, new ClusteredDataGenerator(n));
+                int previous = 0;
+                for (int t : new int[]{2, 4, n / 8, n / 2}) {
+                    if (t <= previous || t > n)
+                        continue;
+                    previous = t;
+                    System.out.print(DISTRIBUTIONS[distribution] + " " + n + " " + t);
+                    EWAHCompressedBitmap expected = null;
+                    for (BitmapSymmetricAlgorithm algorithm : algorithms) {
+                        long best = Long.MAX_VALUE;
+                        EWAHCompressedBitmap answer = null;
+                        for (int r = 0; r < REPEAT; ++r) {
+                            answer = new EWAHCompressedBitmap();
+                            final long before = System.nanoTime();
+                            algorithm.symmetric(new ThresholdFuncBitmap(t), answer, bitmaps);
+                            best = Math.min(best, System.nanoTime() - before);
+                        }
+                        if (expected == null)
+                            expected = answer;
+                        else if (!expected.equals(answer))
+                            throw new RuntimeException("bug");
+                        System.out.print(" " + df.format(best / 1000000.0));
+                    }
+                    System.out.println();
+                }
+            }
+        }
+    }
+
+    private static EWAHCompressedBitmap[] generate(final int n, final int distribution,
+                                                   final ClusteredDataGenerator generator) {
+        final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[n];
+        for (int k = 0; k < n; ++k) {
+            // about 2^18 set bits, except for the two large inputs of the last distribution
+            final int cardinality;
+            if (distribution == 0)
+                cardinality = (1 << 18) / n;
+            else if (distribution == 1)
+                cardinality = (1 << 17) / (k + 1);
+            else
+                cardinality = k < 2 ? MAX / 2 : (1 << 17) / n;
+            bitmaps[k] = EWAHCompressedBitmap.bitmapOf(generator.generateClustered(Math.max(cardinality, 1), MAX));
+        }
+        return bitmaps;
+    }
+}
@@ -0,0 +1,117 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Tests for the cache of bitmap operations.
+ */
+@SuppressWarnings("javadoc")
+public class BitmapCache32Test {
+
+    @Test
+    public void bitmapCache() {
+        System.out.println("testing the bitmap cache");
+        EWAHCompressedBitmap32 a = EWAHCompressedBitmap32.bitmapOf(1, 5, 70, 1000);
+        EWAHCompressedBitmap32 b = EWAHCompressedBitmap32.bitmapOf(5, 70, 2000);
+        EWAHCompressedBitmap32 c = EWAHCompressedBitmap32.bitmapOf(3, 70, 3000);
+        BitmapCache32 cache = new BitmapCache32(1 << 20);
+        Assert.assertEquals(a.and(b), cache.and(a, b));
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        EWAHCompressedBitmap32 cached = cache.and(a, b);
+        Assert.assertEquals(a.and(b), cached);
+        Assert.assertEquals(1, cache.getHitCount());
+        // the returned bitmaps are copies
+        cached.set(4000);
+        Assert.assertEquals(a.and(b), cache.and(a, b));
+        Assert.assertEquals(a.or(b), cache.or(a, b));
+        Assert.assertEquals(a.xor(b), cache.xor(a, b));
+        Assert.assertEquals(a.andNot(b), cache.andNot(a, b));
+        Assert.assertEquals(b.andNot(a), cache.andNot(b, a));
+        Assert.assertEquals(a.and(b).cardinality(), cache.andCardinality(a, b));
+        Assert.assertEquals(a.or(b).cardinality(), cache.orCardinality(a, b));
+        Assert.assertEquals(a.xor(b).cardinality(), cache.xorCardinality(a, b));
+        Assert.assertEquals(a.andNot(b).cardinality(), cache.andNotCardinality(a, b));
+        // the cardinalities are derived from the cached bitmaps
+        Assert.assertEquals(5, cache.getMissCount());
+        Assert.assertEquals(6, cache.getHitCount());
+        Assert.assertEquals(5, cache.size());
+        // an and computed through an expression shares the entry
+        Assert.assertEquals(a.and(b), cache.evaluate(BitmapExpression32.and(a, b)));
+        Assert.assertEquals(7, cache.getHitCount());
+        BitmapExpression32 e = BitmapExpression32.and(BitmapExpression32.or(a, b), BitmapExpression32.not(BitmapExpression32.of(c)));
+        long expected = e.cardinality();
+        Assert.assertEquals(expected, cache.cardinality(e));
+        Assert.assertEquals(expected, cache.cardinality(BitmapExpression32.and(BitmapExpression32.or(a, b),
+                BitmapExpression32.not(BitmapExpression32.of(c)))));
+        Assert.assertEquals(6, cache.getMissCount());
+        Assert.assertEquals(8, cache.getHitCount());
+        // a cardinality-only entry is completed by the bitmap
+        Assert.assertEquals(e.evaluate(), cache.evaluate(e));
+        Assert.assertEquals(e.evaluate(), cache.evaluate(e));
+        Assert.assertEquals(7, cache.getMissCount());
+        Assert.assertEquals(9, cache.getHitCount());
+        // modified operands invalidate the entries
+        a.set(5000);
+        Assert.assertEquals(a.or(b), cache.or(a, b));
+        Assert.assertEquals(1, cache.getInvalidationCount());
+        b.clear(70);
+        Assert.assertEquals(a.and(b), cache.and(a, b));
+        Assert.assertEquals(a.and(b).cardinality(), cache.andCardinality(a, b));
+        c.not();
+        Assert.assertEquals(e.evaluate(), cache.evaluate(e));
+        Assert.assertEquals(3, cache.getInvalidationCount());
+        // only the and and the expression are up to date
+        Assert.assertEquals(4, cache.purge());
+        Assert.assertEquals(7, cache.getInvalidationCount());
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(0, cache.getEvictionCount());
+        long size = cache.sizeInBytes();
+        Assert.assertTrue(size > 0);
+        Assert.assertTrue(size <= cache.getMaxSizeInBytes());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.sizeInBytes());
+        // eviction
+        final Random rnd = new Random(2468);
+        EWAHCompressedBitmap32[] bitmaps = new EWAHCompressedBitmap32[8];
+        for (int k = 0; k < bitmaps.length; ++k) {
+            bitmaps[k] = new EWAHCompressedBitmap32();
+            for (int j = 0; j < 100; ++j)
+                bitmaps[k].set(rnd.nextInt(100000));
+        }
+        long entrySize = bitmaps[0].or(bitmaps[1]).sizeInBytes() + 8;
+        for (int policy : new int[]{BitmapCache32.LRU, BitmapCache32.LFU}) {
+            BitmapCache32 small = new BitmapCache32(3 * entrySize, policy);
+            // the first or is used often
+            for (int k = 0; k < 5; ++k)
+                Assert.assertEquals(bitmaps[0].or(bitmaps[1]), small.or(bitmaps[0], bitmaps[1]));
+            for (int k = 2; k < bitmaps.length; ++k) {
+                Assert.assertEquals(bitmaps[0].or(bitmaps[k]), small.or(bitmaps[0], bitmaps[k]));
+                Assert.assertTrue(small.sizeInBytes() <= small.getMaxSizeInBytes());
+            }
+            Assert.assertTrue(small.getEvictionCount() > 0);
+            long misses = small.getMissCount();
+            small.or(bitmaps[0], bitmaps[1]);
+            // LRU has forgotten it, not LFU
+            Assert.assertEquals(policy == BitmapCache32.LRU ? misses + 1 : misses, small.getMissCount());
+            Assert.assertEquals(bitmaps[0].or(bitmaps[bitmaps.length - 1]),
+                    small.or(bitmaps[0], bitmaps[bitmaps.length - 1]));
+            // a result larger than the cache is not cached
+            BitmapCache32 tiny = new BitmapCache32(entrySize / 2, policy);
+            Assert.assertEquals(bitmaps[0].or(bitmaps[1]), tiny.or(bitmaps[0], bitmaps[1]));
+            Assert.assertEquals(0, tiny.size());
+            Assert.assertEquals(0, tiny.sizeInBytes());
+            Assert.assertEquals(bitmaps[0].orCardinality(bitmaps[1]), tiny.orCardinality(bitmaps[0], bitmaps[1]));
+            Assert.assertEquals(1, tiny.size());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for the grouped AND counts.
+ */
+@SuppressWarnings("javadoc")
+public class GroupedAggregation32Test {
+
+    @Test
+    public void groupedAggregation() {
+        System.out.println("testing grouped aggregation");
+        final Random rnd = new Random(13579);
+        final EWAHCompressedBitmap32[] bitmaps = new EWAHCompressedBitmap32[50];
+        for (int k = 0; k < bitmaps.length; ++k) {
+            bitmaps[k] = new EWAHCompressedBitmap32();
+            if (k % 12 == 11)
+                continue;
+            final int start = rnd.nextInt(6) * 40000;
+            final int end = start + rnd.nextInt(150000);
+            final int density = 1 + rnd.nextInt(300);
+            for (int p = start + rnd.nextInt(density); p < end; p += 1 + rnd.nextInt(density)) {
+                if (rnd.nextInt(30) == 0) {
+                    final int last = Math.min(end, p + rnd.nextInt(8000));
+                    for (; p < last; ++p)
+                        bitmaps[k].set(p);
+                } else {
+                    bitmaps[k].set(p);
+                }
+            }
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int q = 0; q < 6; ++q) {
+                final EWAHCompressedBitmap32 filter = q == 0 ? new EWAHCompressedBitmap32()
+                        : bitmaps[rnd.nextInt(bitmaps.length)].or(bitmaps[rnd.nextInt(bitmaps.length)]);
+                if (q == 1)
+                    filter.not();
+                final long[] counts = GroupedAggregation32.andCardinalities(filter, bitmaps);
+                Assert.assertArrayEquals(counts, GroupedAggregation32.andCardinalities(executor, filter, bitmaps));
+                final EWAHCompressedBitmap32[] results = new EWAHCompressedBitmap32[bitmaps.length];
+                final BitCounter32[] counters = new BitCounter32[bitmaps.length];
+                for (int k = 0; k < bitmaps.length; ++k) {
+                    results[k] = new EWAHCompressedBitmap32();
+                    results[k].set(3);
+                    counters[k] = new BitCounter32();
+                }
+                GroupedAggregation32.andToContainers(filter, results, bitmaps);
+                GroupedAggregation32.andToContainers(executor, filter, counters, bitmaps);
+                for (int k = 0; k < bitmaps.length; ++k) {
+                    final EWAHCompressedBitmap32 expected = filter.and(bitmaps[k]);
+                    Assert.assertEquals(expected.cardinality(), counts[k]);
+                    Assert.assertEquals(expected, results[k]);
+                    Assert.assertEquals(expected.sizeInBits(), results[k].sizeInBits());
+                    Assert.assertEquals(expected.cardinality(), counters[k].getCount());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
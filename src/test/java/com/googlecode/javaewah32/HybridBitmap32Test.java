@@ -0,0 +1,113 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import com.googlecode.javaewah.FastAggregation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Tests for the hybrid bitmaps.
+ */
+@SuppressWarnings("javadoc")
+public class HybridBitmap32Test {
+
+    @Test
+    public void hybridBitmap() {
+        System.out.println("testing the hybrid bitmap");
+        final Random rnd = new Random(31415);
+        final EWAHCompressedBitmap32[] expected = new EWAHCompressedBitmap32[8];
+        final HybridBitmap32[] hybrid = new HybridBitmap32[expected.length];
+        for (int k = 0; k < expected.length; ++k) {
+            expected[k] = new EWAHCompressedBitmap32();
+            hybrid[k] = new HybridBitmap32();
+            // blocks of 65536 bits: empty, sparse, runs or dense
+            for (int block = 0; block < 12; ++block) {
+                final int start = block << 16;
+                final int kind = rnd.nextInt(4);
+                for (int i = 0; i < 65536 && kind > 0; ) {
+                    if (kind == 1) {
+                        i += 1 + rnd.nextInt(5000);
+                    } else if (kind == 2) {
+                        i += rnd.nextInt(2) == 0 ? 1 : 1 + rnd.nextInt(20000);
+                    } else {
+                        i += 1 + rnd.nextInt(3);
+                    }
+                    if (i < 65536) {
+                        expected[k].set(start + i);
+                        hybrid[k].set(start + i);
+                    }
+                }
+            }
+            Assert.assertArrayEquals(expected[k].toArray(), hybrid[k].toArray());
+            Assert.assertEquals(expected[k].cardinality(), hybrid[k].cardinality());
+            Assert.assertEquals(expected[k].sizeInBits(), hybrid[k].sizeInBits());
+            Assert.assertEquals(expected[k], hybrid[k].toEWAHCompressedBitmap());
+            Assert.assertEquals(hybrid[k], HybridBitmap32.valueOf(expected[k]));
+            Assert.assertEquals(hybrid[k].hashCode(), HybridBitmap32.valueOf(expected[k]).hashCode());
+        }
+        for (int k = 0; k + 1 < expected.length; ++k) {
+            final EWAHCompressedBitmap32 a = expected[k];
+            final EWAHCompressedBitmap32 b = expected[k + 1];
+            final HybridBitmap32 x = hybrid[k];
+            final HybridBitmap32 y = hybrid[k + 1];
+            Assert.assertArrayEquals(a.and(b).toArray(), x.and(y).toArray());
+            Assert.assertArrayEquals(a.or(b).toArray(), x.or(y).toArray());
+            Assert.assertArrayEquals(a.xor(b).toArray(), x.xor(y).toArray());
+            Assert.assertArrayEquals(a.andNot(b).toArray(), x.andNot(y).toArray());
+            Assert.assertArrayEquals(a.compose(b).toArray(), x.compose(y).toArray());
+            Assert.assertEquals(a.or(b).sizeInBits(), x.or(y).sizeInBits());
+            final EWAHCompressedBitmap32 notA = a.clone();
+            notA.not();
+            final HybridBitmap32 notX = x.clone();
+            notX.not();
+            Assert.assertArrayEquals(notA.toArray(), notX.toArray());
+            Assert.assertEquals(x, x.clone());
+            Assert.assertFalse(x.equals(y));
+        }
+        Assert.assertEquals(HybridBitmap32.valueOf(EWAHCompressedBitmap32.or(expected)), FastAggregation.or(hybrid));
+        // mutations convert the blocks
+        final HybridBitmap32 h = hybrid[0].clone();
+        final EWAHCompressedBitmap32 e = expected[0].clone();
+        for (int i = 0; i < 10000; ++i) {
+            final int pos = rnd.nextInt(13 << 16);
+            if (rnd.nextInt(3) == 0) {
+                h.clear(pos);
+                e.clear(pos);
+            } else {
+                h.set(pos);
+                e.set(pos);
+            }
+        }
+        for (int i = 0; i < 65536; ++i)
+            h.clear(i);
+        e.removeRange(0, 65536);
+        Assert.assertArrayEquals(e.toArray(), h.toArray());
+        for (int i = 0; i < 65536; i += 7)
+            Assert.assertEquals(e.get(i + (3 << 16)), h.get(i + (3 << 16)));
+        final int bytes = h.sizeInBytes();
+        h.trim();
+        Assert.assertTrue(h.sizeInBytes() <= bytes);
+        Assert.assertArrayEquals(e.toArray(), h.toArray());
+        // arrays for sparse data, few words for runs
+        final HybridBitmap32 sparse = new HybridBitmap32();
+        for (int i = 0; i < 1000; ++i)
+            sparse.set(rnd.nextInt(1 << 26));
+        Assert.assertTrue(sparse.sizeInBytes() < sparse.toEWAHCompressedBitmap().sizeInBytes());
+        final HybridBitmap32 runs = new HybridBitmap32();
+        for (int i = 0; i < 1000000; ++i)
+            runs.set(i);
+        Assert.assertTrue(runs.sizeInBytes() < 1000);
+        Assert.assertEquals(1000000, runs.cardinality());
+        final HybridBitmap32 empty = new HybridBitmap32();
+        empty.not();
+        Assert.assertTrue(empty.isEmpty());
+        Assert.assertEquals("{}", empty.toString());
+        Assert.assertEquals("{1,5,70000}", HybridBitmap32.bitmapOf(70000, 5, 1).toString());
+    }
+}
@@ -0,0 +1,121 @@
+package com.googlecode.javaewah32;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the memory-mapped bitmaps.
+ */
+@SuppressWarnings("javadoc")
+public class ImmutableEWAHCompressedBitmap32Test {
+
+    private static EWAHCompressedBitmap32[] randomBitmaps(int howmany) {
+        final Random rnd = new Random(1234);
+        final EWAHCompressedBitmap32[] bitmaps = new EWAHCompressedBitmap32[howmany];
+        for (int k = 0; k < howmany; ++k) {
+            bitmaps[k] = new EWAHCompressedBitmap32();
+            int pos = rnd.nextInt(100);
+            for (int j = 0; j < 1000; ++j) {
+                pos += 1 + (rnd.nextBoolean() ? rnd.nextInt(5) : rnd.nextInt(5000));
+                bitmaps[k].set(pos);
+            }
+        }
+        return bitmaps;
+    }
+
+    @Test
+    public void mappedFile() throws IOException {
+        System.out.println("testing memory-mapped bitmaps");
+        final EWAHCompressedBitmap32[] bitmaps = randomBitmaps(8);
+        final File file = File.createTempFile("javaewah32", ".bin");
+        file.deleteOnExit();
+        int size = 0;
+        for (EWAHCompressedBitmap32 b : bitmaps)
+            size += b.sizeInBytes() + 16;
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        for (EWAHCompressedBitmap32 b : bitmaps)
+            b.serialize(out);
+        assertEquals(size, out.position());
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            out.flip();
+            raf.getChannel().write(out);
+        } finally {
+            raf.close();
+        }
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = in.getChannel();
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final ImmutableEWAHCompressedBitmap32[] immutables = new ImmutableEWAHCompressedBitmap32[bitmaps.length];
+            for (int k = 0; k < bitmaps.length; ++k)
+                immutables[k] = new ImmutableEWAHCompressedBitmap32(mapped);
+            assertFalse(mapped.hasRemaining());
+            for (int k = 0; k < bitmaps.length; ++k) {
+                final ImmutableEWAHCompressedBitmap32 a = immutables[k];
+                assertEquals(bitmaps[k].cardinality(), a.cardinality());
+                assertEquals(bitmaps[k].sizeInBits(), a.sizeInBits());
+                assertEquals(bitmaps[k].sizeInBytes(), a.sizeInBytes());
+                assertArrayEquals(bitmaps[k].toArray(), a.toArray());
+                assertEquals(bitmaps[k], a.asEWAHCompressedBitmap());
+                assertEquals(bitmaps[k].hashCode(), a.hashCode());
+                assertTrue(a.get(bitmaps[k].getFirstSetBit()));
+                final ImmutableEWAHCompressedBitmap32 b = immutables[(k + 1) % bitmaps.length];
+                final EWAHCompressedBitmap32 other = bitmaps[(k + 1) % bitmaps.length];
+                assertEquals(bitmaps[k].and(other), a.and(b));
+                assertEquals(bitmaps[k].and(other), a.and(other));
+                assertEquals(bitmaps[k].or(other), a.or(b));
+                assertEquals(bitmaps[k].xor(other), a.xor(b));
+                assertEquals(bitmaps[k].andNot(other), a.andNot(b));
+                assertEquals(bitmaps[k].andCardinality(other), a.andCardinality(b));
+                assertEquals(bitmaps[k].orCardinality(other), a.orCardinality(b));
+                assertEquals(bitmaps[k].xorCardinality(other), a.xorCardinality(other));
+                assertEquals(bitmaps[k].andNotCardinality(other), a.andNotCardinality(b));
+            }
+            final EWAHCompressedBitmap32[] views = new EWAHCompressedBitmap32[bitmaps.length];
+            for (int k = 0; k < bitmaps.length; ++k)
+                views[k] = k % 2 == 0 ? immutables[k].asEWAHCompressedBitmap() : bitmaps[k];
+            assertEquals(FastAggregation32.bufferedor(64, bitmaps), FastAggregation32.bufferedor(64, views));
+            assertEquals(EWAHCompressedBitmap32.and(bitmaps), EWAHCompressedBitmap32.and(views));
+            // copies can be modified
+            final EWAHCompressedBitmap32 copy = immutables[0].asEWAHCompressedBitmap().clone();
+            copy.not();
+            copy.set(copy.sizeInBits() + 1000);
+            assertEquals(bitmaps[0], immutables[0].asEWAHCompressedBitmap());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void byteOrder() {
+        System.out.println("testing the byte order of serialized bitmaps");
+        final EWAHCompressedBitmap32 bitmap = EWAHCompressedBitmap32.bitmapOf(1, 10, 100, 1000, 100000);
+        final ByteBuffer buffer = ByteBuffer.allocate(bitmap.sizeInBytes() + 20).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(7);
+        bitmap.serialize(buffer);
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+        buffer.flip();
+        assertEquals(7, buffer.getInt());
+        final ImmutableEWAHCompressedBitmap32 immutable = new ImmutableEWAHCompressedBitmap32(buffer);
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(bitmap.toArray(), immutable.toArray());
+        assertEquals(new ImmutableEWAHCompressedBitmap32(ByteBuffer.wrap(buffer.array(), 4, buffer.limit() - 4)),
+                immutable);
+    }
+}
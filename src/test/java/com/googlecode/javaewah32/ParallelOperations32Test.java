@@ -0,0 +1,113 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.googlecode.javaewah32.EWAHCompressedBitmap32.WORD_IN_BITS;
+
+/**
+ * Tests for the range-partitioned parallel operations.
+ */
+@SuppressWarnings("javadoc")
+public class ParallelOperations32Test {
+
+    private static EWAHCompressedBitmap32 largeBitmap(Random rnd, int size) {
+        EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        for (int p = rnd.nextInt(100); p < size; p += 1 + rnd.nextInt(rnd.nextBoolean() ? 50 : 50 * WORD_IN_BITS)) {
+            if (rnd.nextInt(4) == 0) {
+                int length = Math.min(rnd.nextInt(100 * WORD_IN_BITS), size - p);
+                bitmap.addRange(p, p + length);
+                p += length;
+            } else {
+                bitmap.set(p);
+            }
+        }
+        return bitmap;
+    }
+
+    @Test
+    public void rangePartitionedOperations() {
+        System.out.println("testing range-partitioned operations");
+        final Random rnd = new Random(8642);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int trial = 0; trial < 12; ++trial) {
+                EWAHCompressedBitmap32 a = largeBitmap(rnd, 20000 * WORD_IN_BITS + rnd.nextInt(WORD_IN_BITS));
+                EWAHCompressedBitmap32 b = largeBitmap(rnd, (trial % 2 == 0 ? 20000 : 6000) * WORD_IN_BITS);
+                if (trial % 3 == 1)
+                    a.not();
+                if (trial % 3 == 2) {
+                    EWAHCompressedBitmap32 t = a;
+                    a = b;
+                    b = t;
+                }
+                if (trial % 4 == 3) {
+                    a.enableSkipIndex(4);
+                    b.enableSkipIndex(1);
+                }
+                EWAHCompressedBitmap32[] expected = {a.and(b), a.or(b), a.xor(b), a.andNot(b)};
+                EWAHCompressedBitmap32[] actual = {ParallelOperations32.and(executor, a, b),
+                        ParallelOperations32.or(executor, a, b), ParallelOperations32.xor(executor, a, b),
+                        ParallelOperations32.andNot(executor, a, b)};
+                for (int k = 0; k < expected.length; ++k) {
+                    Assert.assertEquals(expected[k], actual[k]);
+                    Assert.assertEquals(expected[k].sizeInBits(), actual[k].sizeInBits());
+                    Assert.assertEquals(expected[k].cardinality(), actual[k].cardinality());
+                }
+                Assert.assertEquals(a.andCardinality(b), ParallelOperations32.andCardinality(executor, a, b));
+                Assert.assertEquals(a.orCardinality(b), ParallelOperations32.orCardinality(executor, a, b));
+                Assert.assertEquals(a.xorCardinality(b), ParallelOperations32.xorCardinality(executor, a, b));
+                Assert.assertEquals(a.andNotCardinality(b), ParallelOperations32.andNotCardinality(executor, a, b));
+            }
+            // too small to be cut
+            EWAHCompressedBitmap32 a = EWAHCompressedBitmap32.bitmapOf(1, 100, 1000);
+            EWAHCompressedBitmap32 b = EWAHCompressedBitmap32.bitmapOf(100, 10000);
+            Assert.assertEquals(a.or(b), ParallelOperations32.or(executor, a, b));
+            Assert.assertEquals(1, ParallelOperations32.andCardinality(executor, a, b));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rangePartitionedLiteralRuns() {
+        System.out.println("testing range-partitioned operations over long runs of literal words");
+        final Random rnd = new Random(1357);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // the slices of the results hold more literal words than a
+            // running length word can count
+            final int[] literals = new int[100000];
+            for (int k = 0; k < literals.length; ++k)
+                literals[k] = rnd.nextInt() | 1;
+            EWAHCompressedBitmap32 a = new EWAHCompressedBitmap32();
+            a.addStreamOfLiteralWords(literals, 0, 100000);
+            EWAHCompressedBitmap32 b = new EWAHCompressedBitmap32();
+            b.addStreamOfEmptyWords(true, 30000);
+            b.addStreamOfNegatedLiteralWords(literals, 30000, 40000);
+            b.addStreamOfEmptyWords(false, 30000);
+            b.enableSkipIndex(1);
+            Assert.assertEquals(a.and(b), ParallelOperations32.and(executor, a, b));
+            Assert.assertEquals(a.or(b), ParallelOperations32.or(executor, a, b));
+            Assert.assertEquals(a.xor(b), ParallelOperations32.xor(executor, a, b));
+            Assert.assertEquals(a.andNot(b), ParallelOperations32.andNot(executor, a, b));
+            Assert.assertEquals(b.andNot(a), ParallelOperations32.andNot(executor, b, a));
+            Assert.assertEquals(a.xorCardinality(b), ParallelOperations32.xorCardinality(executor, a, b));
+            // words added after the skip index was last used
+            b.addLiteralWord(rnd.nextInt() | 1);
+            a.addLiteralWord(rnd.nextInt() | 1);
+            Assert.assertEquals(a.xor(b), ParallelOperations32.xor(executor, a, b));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
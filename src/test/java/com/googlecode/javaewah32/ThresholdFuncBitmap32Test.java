@@ -1,8 +1,24 @@
 package com.googlecode.javaewah32;
 
+import com.googlecode.javaewah32.symmetric.AdaptiveThreshold32;
+import com.googlecode.javaewah32.symmetric.BetweenFuncBitmap32;
+import com.googlecode.javaewah32.symmetric.BitmapSymmetricAlgorithm32;
+import com.googlecode.javaewah32.symmetric.DivideSkip32;
+import com.googlecode.javaewah32.symmetric.ExactFuncBitmap32;
+import com.googlecode.javaewah32.symmetric.MergeOpt32;
+import com.googlecode.javaewah32.symmetric.RunningBitmapMerge32;
+import com.googlecode.javaewah32.symmetric.ScanCount32;
+import com.googlecode.javaewah32.symmetric.ThresholdFuncBitmap32;
+import com.googlecode.javaewah32.symmetric.UpdateableBitmapFunction32;
+import com.googlecode.javaewah32.symmetric.WeightedThresholdFuncBitmap32;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 @SuppressWarnings("javadoc")
 /**
  * @since 0.8.2
@@ -61,4 +77,155 @@ public class ThresholdFuncBitmap32Test {
         Assert.assertTrue(ewahmajth.equals(ewahtruemaj));
     }
 
+    @Test
+    public void thresholdAlgorithms() {
+        System.out.println("Testing the threshold algorithms");
+        final Random rnd = new Random(1357);
+        final BitmapSymmetricAlgorithm32[] algorithms = {new ScanCount32(), new MergeOpt32(), new DivideSkip32(),
+                new DivideSkip32(0), new DivideSkip32(1), new AdaptiveThreshold32()};
+        for (int trial = 0; trial < 30; ++trial) {
+            final int n = 1 + rnd.nextInt(trial < 20 ? 12 : 60);
+            final int size = 1 + rnd.nextInt(3000 * (1 + trial % 3));
+            final EWAHCompressedBitmap32[] bitmaps = new EWAHCompressedBitmap32[n];
+            for (int k = 0; k < n; ++k) {
+                bitmaps[k] = new EWAHCompressedBitmap32();
+                final int density = 1 + rnd.nextInt(200);
+                for (int p = rnd.nextInt(density); p < size; p += 1 + rnd.nextInt(density)) {
+                    if (rnd.nextInt(50) == 0) {
+                        int end = Math.min(size, p + rnd.nextInt(1000));
+                        for (; p < end; ++p)
+                            bitmaps[k].set(p);
+                    } else {
+                        bitmaps[k].set(p);
+                    }
+                }
+            }
+            for (int t = 1; t <= n + 1; ++t) {
+                final EWAHCompressedBitmap32 expected = new EWAHCompressedBitmap32();
+                new RunningBitmapMerge32().symmetric(new ThresholdFuncBitmap32(t), expected, bitmaps);
+                for (BitmapSymmetricAlgorithm32 algorithm : algorithms) {
+                    final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+                    answer.set(size + 70);
+                    algorithm.symmetric(new ThresholdFuncBitmap32(t), answer, bitmaps);
+                    Assert.assertEquals(expected, answer);
+                }
+                Assert.assertEquals(expected, EWAHCompressedBitmap32.threshold(t, bitmaps));
+            }
+        }
+    }
+
+    @Test
+    public void weightedAndCountFunctions() {
+        System.out.println("Testing the weighted threshold, exact and between functions");
+        final Random rnd = new Random(2468);
+        for (int trial = 0; trial < 30; ++trial) {
+            final int n = 1 + rnd.nextInt(trial < 20 ? 8 : 40);
+            final int size = 1 + rnd.nextInt(3000 * (1 + trial % 3));
+            final EWAHCompressedBitmap32[] bitmaps = new EWAHCompressedBitmap32[n];
+            final int[] weights = new int[n];
+            long sizeInBits = 0;
+            for (int k = 0; k < n; ++k) {
+                bitmaps[k] = new EWAHCompressedBitmap32();
+                final int density = 1 + rnd.nextInt(200);
+                for (int p = rnd.nextInt(density); p < size; p += 1 + rnd.nextInt(density)) {
+                    if (rnd.nextInt(50) == 0) {
+                        int end = Math.min(size, p + rnd.nextInt(1000));
+                        for (; p < end; ++p)
+                            bitmaps[k].set(p);
+                    } else {
+                        bitmaps[k].set(p);
+                    }
+                }
+                sizeInBits = Math.max(sizeInBits, bitmaps[k].sizeInBits());
+                weights[k] = trial % 2 == 0 ? 1 + rnd.nextInt(5) : rnd.nextInt(11) - 3;
+            }
+            // count and weighted sum for each bit, up to the end of the largest input
+            final int[] counts = new int[(int) sizeInBits];
+            final long[] sums = new long[(int) sizeInBits];
+            for (int k = 0; k < n; ++k)
+                for (int p : bitmaps[k]) {
+                    counts[p]++;
+                    sums[p] += weights[k];
+                }
+            for (int t = -2; t <= 4 * n + 1; ++t) {
+                final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+                new RunningBitmapMerge32().symmetric(new WeightedThresholdFuncBitmap32(t, weights), answer, bitmaps);
+                final List<Integer> expected = new ArrayList<Integer>();
+                for (int p = 0; p < sums.length; ++p)
+                    if (sums[p] >= t)
+                        expected.add(p);
+                Assert.assertEquals(expected, answer.toList());
+                Assert.assertEquals(sizeInBits, answer.sizeInBits());
+            }
+            for (int low = 0; low <= n + 1; ++low) {
+                for (int high = low; high <= n + 1; ++high) {
+                    final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+                    new RunningBitmapMerge32().symmetric(low == high ? new ExactFuncBitmap32(low)
+                            : new BetweenFuncBitmap32(low, high), answer, bitmaps);
+                    final List<Integer> expected = new ArrayList<Integer>();
+                    for (int p = 0; p < counts.length; ++p)
+                        if (counts[p] >= low && counts[p] <= high)
+                            expected.add(p);
+                    Assert.assertEquals(expected, answer.toList());
+                    Assert.assertEquals(sizeInBits, answer.sizeInBits());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void zeroCountFunctions() {
+        System.out.println("Testing the functions that are true for zero true inputs");
+        final Random rnd = new Random(97531);
+        for (int trial = 0; trial < 40; ++trial) {
+            final EWAHCompressedBitmap32[] bitmaps;
+            if (trial == 0) {
+                bitmaps = new EWAHCompressedBitmap32[]{EWAHCompressedBitmap32.bitmapOf(1, 5, 100), EWAHCompressedBitmap32.bitmapOf(3, 70)};
+            } else {
+                bitmaps = new EWAHCompressedBitmap32[1 + rnd.nextInt(6)];
+                for (int k = 0; k < bitmaps.length; ++k) {
+                    bitmaps[k] = new EWAHCompressedBitmap32();
+                    final int size = 1 + rnd.nextInt(1000);
+                    for (int p = rnd.nextInt(4); p < size; p += 1 + rnd.nextInt(4))
+                        bitmaps[k].set(p);
+                }
+            }
+            long sizeInBits = 0;
+            for (EWAHCompressedBitmap32 b : bitmaps)
+                sizeInBits = Math.max(sizeInBits, b.sizeInBits());
+            final int[] counts = new int[(int) sizeInBits];
+            for (EWAHCompressedBitmap32 b : bitmaps)
+                for (int p : b)
+                    counts[p]++;
+            final int[] ones = new int[bitmaps.length];
+            Arrays.fill(ones, 1);
+            final UpdateableBitmapFunction32[] functions = {new ExactFuncBitmap32(0), new BetweenFuncBitmap32(0, 1),
+                    new WeightedThresholdFuncBitmap32(0, ones), new WeightedThresholdFuncBitmap32(-1, ones),
+                    new ThresholdFuncBitmap32(0)};
+            final int[][] ranges = {{0, 0}, {0, 1}, {0, Integer.MAX_VALUE}, {0, Integer.MAX_VALUE}, {0, Integer.MAX_VALUE}};
+            for (int f = 0; f < functions.length; ++f) {
+                final List<Integer> expected = new ArrayList<Integer>();
+                for (int p = 0; p < sizeInBits; ++p)
+                    if (counts[p] >= ranges[f][0] && counts[p] <= ranges[f][1])
+                        expected.add(p);
+                final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+                new RunningBitmapMerge32().symmetric(functions[f], answer, bitmaps);
+                Assert.assertEquals(expected, answer.toList());
+                Assert.assertEquals(sizeInBits, answer.sizeInBits());
+                final BitCounter32 counter = new BitCounter32();
+                new RunningBitmapMerge32().symmetric(functions[f], counter, bitmaps);
+                Assert.assertEquals(expected.size(), counter.getCount());
+            }
+            for (BitmapSymmetricAlgorithm32 algorithm : new BitmapSymmetricAlgorithm32[]{new ScanCount32(),
+                    new DivideSkip32(), new AdaptiveThreshold32()}) {
+                final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+                algorithm.symmetric(new ThresholdFuncBitmap32(0), answer, bitmaps);
+                Assert.assertEquals(sizeInBits, answer.cardinality());
+                Assert.assertEquals(sizeInBits, answer.sizeInBits());
+                final BitCounter32 counter = new BitCounter32();
+                algorithm.symmetric(new ThresholdFuncBitmap32(0), counter, bitmaps);
+                Assert.assertEquals(sizeInBits, counter.getCount());
+            }
+        }
+    }
 }
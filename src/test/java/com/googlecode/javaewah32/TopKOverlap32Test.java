@@ -0,0 +1,121 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Tests for the top-k overlap search.
+ */
+@SuppressWarnings("javadoc")
+public class TopKOverlap32Test {
+
+    @Test
+    public void topKOverlap() {
+        System.out.println("testing the top-k overlap search");
+        final Random rnd = new Random(24680);
+        final EWAHCompressedBitmap32[] bitmaps = new EWAHCompressedBitmap32[60];
+        for (int k = 0; k < bitmaps.length; ++k) {
+            bitmaps[k] = new EWAHCompressedBitmap32();
+            if (k % 15 == 14)
+                continue;
+            final int start = rnd.nextInt(8) * 20000;
+            final int end = start + rnd.nextInt(60000);
+            final int density = 1 + rnd.nextInt(200);
+            for (int p = start + rnd.nextInt(density); p < end; p += 1 + rnd.nextInt(density)) {
+                if (rnd.nextInt(40) == 0) {
+                    final int last = Math.min(end, p + rnd.nextInt(3000));
+                    for (; p < last; ++p)
+                        bitmaps[k].set(p);
+                } else {
+                    bitmaps[k].set(p);
+                }
+            }
+        }
+        // duplicates give ties
+        bitmaps[7] = bitmaps[3].clone();
+        final TopKOverlap32 index = new TopKOverlap32(bitmaps);
+        Assert.assertEquals(bitmaps.length, index.size());
+        for (int q = 0; q < 10; ++q) {
+            final EWAHCompressedBitmap32 query = q == 0 ? new EWAHCompressedBitmap32() : bitmaps[rnd.nextInt(bitmaps.length)].xor(bitmaps[rnd.nextInt(bitmaps.length)]);
+            // brute force: sort by decreasing overlap, then by index
+            final Integer[] expected = new Integer[bitmaps.length];
+            final long[] all = new long[bitmaps.length];
+            for (int k = 0; k < bitmaps.length; ++k) {
+                expected[k] = k;
+                all[k] = query.andCardinality(bitmaps[k]);
+            }
+            Arrays.sort(expected, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    if (all[a] != all[b])
+                        return all[a] > all[b] ? -1 : 1;
+                    return a - b;
+                }
+            });
+            for (int k : new int[]{0, 1, 3, 10, bitmaps.length, bitmaps.length + 5}) {
+                final long[] overlaps = new long[k];
+                final int[] found = index.search(query, k, overlaps);
+                Assert.assertEquals(Math.min(k, bitmaps.length), found.length);
+                for (int p = 0; p < found.length; ++p) {
+                    Assert.assertEquals((int) expected[p], found[p]);
+                    Assert.assertEquals(all[found[p]], overlaps[p]);
+                }
+                Assert.assertArrayEquals(found, index.search(query, k));
+            }
+        }
+        Assert.assertEquals(0, new TopKOverlap32().search(bitmaps[0], 3).length);
+    }
+
+    @Test
+    public void topKOverlapSparse() {
+        System.out.println("testing the top-k overlap search on sparse bitmaps with high set bits");
+        final Random rnd = new Random(13579);
+        final EWAHCompressedBitmap32[] bitmaps = new EWAHCompressedBitmap32[20];
+        for (int k = 0; k < bitmaps.length; ++k)
+            bitmaps[k] = sparseBitmap(rnd);
+        final EWAHCompressedBitmap32 query = sparseBitmap(rnd);
+        final long[] all = new long[bitmaps.length];
+        final Integer[] expected = new Integer[bitmaps.length];
+        for (int k = 0; k < bitmaps.length; ++k) {
+            expected[k] = k;
+            all[k] = query.andCardinality(bitmaps[k]);
+        }
+        Arrays.sort(expected, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (all[a] != all[b])
+                    return all[a] > all[b] ? -1 : 1;
+                return a - b;
+            }
+        });
+        final long[] overlaps = new long[5];
+        final int[] found = new TopKOverlap32(bitmaps).search(query, 5, overlaps);
+        Assert.assertEquals(5, found.length);
+        for (int p = 0; p < found.length; ++p) {
+            Assert.assertEquals((int) expected[p], found[p]);
+            Assert.assertEquals(all[found[p]], overlaps[p]);
+        }
+    }
+
+    private static EWAHCompressedBitmap32 sparseBitmap(Random rnd) {
+        // the set bits go past position 2^31
+        final long gap = 1l << 25;
+        final EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        bitmap.addLiteralWord(rnd.nextInt());
+        bitmap.addStreamOfEmptyWords(false, gap + rnd.nextInt(3));
+        for (int k = 0; k < 200; ++k)
+            bitmap.addLiteralWord(rnd.nextInt() & rnd.nextInt());
+        bitmap.addStreamOfEmptyWords(false, gap);
+        bitmap.addLiteralWord(1 << rnd.nextInt(16));
+        return bitmap;
+    }
+}